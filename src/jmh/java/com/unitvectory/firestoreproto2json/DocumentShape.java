@@ -0,0 +1,208 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * The shapes of the documents used by the benchmarks.
+ *
+ * Each shape builds a DocumentEventData with both the value and the old value set so the value and
+ * old value conversions measure the same document.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum DocumentShape {
+
+    /**
+     * A handful of fields with one of each primitive type.
+     */
+    SMALL {
+        @Override
+        Document.Builder document() {
+            return Document.newBuilder().putFields("name", string("Firestore"))
+                    .putFields("count", integer(42)).putFields("ratio", dbl(0.75))
+                    .putFields("active", Value.newBuilder().setBooleanValue(true).build())
+                    .putFields("missing",
+                            Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build());
+        }
+    },
+
+    /**
+     * Several hundred top level fields of mixed primitive types.
+     */
+    WIDE {
+        @Override
+        Document.Builder document() {
+            Document.Builder builder = Document.newBuilder();
+            for (int i = 0; i < 500; i++) {
+                switch (i % 4) {
+                    case 0 -> builder.putFields("string" + i, string("value " + i));
+                    case 1 -> builder.putFields("integer" + i, integer(i * 1000L));
+                    case 2 -> builder.putFields("double" + i, dbl(i / 3.0));
+                    default -> builder.putFields("boolean" + i,
+                            Value.newBuilder().setBooleanValue(i % 2 == 0).build());
+                }
+            }
+
+            return builder;
+        }
+    },
+
+    /**
+     * Maps nested close to the Firestore limit with a few fields at each level.
+     */
+    DEEP {
+        @Override
+        Document.Builder document() {
+            Value value = string("leaf");
+            for (int i = 0; i < 20; i++) {
+                value = Value.newBuilder()
+                        .setMapValue(MapValue.newBuilder().putFields("child", value)
+                                .putFields("level", integer(i))
+                                .putFields("label", string("level " + i)))
+                        .build();
+            }
+
+            return Document.newBuilder().putFields("root", value);
+        }
+    },
+
+    /**
+     * Large arrays of primitives and of small maps.
+     */
+    ARRAYS {
+        @Override
+        Document.Builder document() {
+            ArrayValue.Builder numbers = ArrayValue.newBuilder();
+            ArrayValue.Builder strings = ArrayValue.newBuilder();
+            ArrayValue.Builder maps = ArrayValue.newBuilder();
+            for (int i = 0; i < 250; i++) {
+                numbers.addValues(i % 2 == 0 ? integer(i) : dbl(i + 0.5));
+                strings.addValues(string("item " + i));
+                maps.addValues(Value.newBuilder().setMapValue(MapValue.newBuilder()
+                        .putFields("id", integer(i)).putFields("tag", string("tag" + i))));
+            }
+
+            return Document.newBuilder()
+                    .putFields("numbers", Value.newBuilder().setArrayValue(numbers).build())
+                    .putFields("strings", Value.newBuilder().setArrayValue(strings).build())
+                    .putFields("maps", Value.newBuilder().setArrayValue(maps).build());
+        }
+    },
+
+    /**
+     * Timestamp fields and arrays to exercise the timestamp mapper.
+     */
+    TIMESTAMPS {
+        @Override
+        Document.Builder document() {
+            Document.Builder builder = Document.newBuilder();
+            ArrayValue.Builder array = ArrayValue.newBuilder();
+            for (int i = 0; i < 100; i++) {
+                Value timestamp = Value.newBuilder().setTimestampValue(Timestamp.newBuilder()
+                        .setSeconds(1700000000L + i * 86399L).setNanos(i * 1234567)).build();
+                builder.putFields("timestamp" + i, timestamp);
+                array.addValues(timestamp);
+            }
+
+            return builder.putFields("timestamps",
+                    Value.newBuilder().setArrayValue(array).build());
+        }
+    },
+
+    /**
+     * Geopoint fields and arrays to exercise the geopoint mapper.
+     */
+    GEOPOINTS {
+        @Override
+        Document.Builder document() {
+            Document.Builder builder = Document.newBuilder();
+            ArrayValue.Builder array = ArrayValue.newBuilder();
+            for (int i = 0; i < 100; i++) {
+                Value geopoint = Value.newBuilder().setGeoPointValue(LatLng.newBuilder()
+                        .setLatitude(-90 + i * 1.8).setLongitude(-180 + i * 3.6)).build();
+                builder.putFields("geopoint" + i, geopoint);
+                array.addValues(geopoint);
+            }
+
+            return builder.putFields("geopoints",
+                    Value.newBuilder().setArrayValue(array).build());
+        }
+    },
+
+    /**
+     * Bytes fields and arrays of varying sizes to exercise the bytes mapper.
+     */
+    BYTES {
+        @Override
+        Document.Builder document() {
+            Document.Builder builder = Document.newBuilder();
+            ArrayValue.Builder array = ArrayValue.newBuilder();
+            for (int i = 0; i < 50; i++) {
+                byte[] bytes = new byte[16 << (i % 6)];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = (byte) (i * 31 + j);
+                }
+
+                Value value = Value.newBuilder().setBytesValue(ByteString.copyFrom(bytes)).build();
+                builder.putFields("bytes" + i, value);
+                array.addValues(value);
+            }
+
+            return builder.putFields("bytes", Value.newBuilder().setArrayValue(array).build());
+        }
+    };
+
+    /**
+     * Build the fields of the document.
+     *
+     * @return the document builder
+     */
+    abstract Document.Builder document();
+
+    /**
+     * Build the DocumentEventData with the document as both the value and the old value.
+     *
+     * @return the DocumentEventData
+     */
+    DocumentEventData event() {
+        Document document = document()
+                .setName("projects/example/databases/(default)/documents/benchmark/"
+                        + name().toLowerCase())
+                .setCreateTime(Timestamp.newBuilder().setSeconds(1700000000L))
+                .setUpdateTime(Timestamp.newBuilder().setSeconds(1700000100L)).build();
+        return DocumentEventData.newBuilder().setValue(document).setOldValue(document).build();
+    }
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    private static Value integer(long value) {
+        return Value.newBuilder().setIntegerValue(value).build();
+    }
+
+    private static Value dbl(double value) {
+        return Value.newBuilder().setDoubleValue(value).build();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.gson.JsonObject;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Benchmarks of the conversion entry points of FirestoreProto2Json for each document shape.
+ *
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec</code> which reports the throughput, the
+ * average time and, through the gc profiler, the allocation rate of each benchmark.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FirestoreProto2JsonBenchmark {
+
+    @Param
+    private DocumentShape shape;
+
+    private final FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.DEFAULT;
+
+    private DocumentEventData documentEventData;
+
+    private byte[] documentBytes;
+
+    private String base64DocumentBytes;
+
+    @Setup
+    public void setup() {
+        this.documentEventData = this.shape.event();
+        this.documentBytes = this.documentEventData.toByteArray();
+        this.base64DocumentBytes = Base64.getEncoder().encodeToString(this.documentBytes);
+    }
+
+    @Benchmark
+    public DocumentEventData parseBytes() throws InvalidProtocolBufferException {
+        return DocumentEventData.parseFrom(this.documentBytes);
+    }
+
+    @Benchmark
+    public String valueToJsonStringDocumentEventData() {
+        return this.firestoreProto2Json.valueToJsonString(this.documentEventData);
+    }
+
+    @Benchmark
+    public String valueToJsonStringBytes() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.valueToJsonString(this.documentBytes);
+    }
+
+    @Benchmark
+    public String valueToJsonStringBase64() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.valueToJsonString(this.base64DocumentBytes);
+    }
+
+    @Benchmark
+    public JsonObject valueToJsonObjectDocumentEventData() {
+        return this.firestoreProto2Json.valueToJsonObject(this.documentEventData);
+    }
+
+    @Benchmark
+    public JsonObject valueToJsonObjectBytes() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.valueToJsonObject(this.documentBytes);
+    }
+
+    @Benchmark
+    public JsonObject valueToJsonObjectBase64() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.valueToJsonObject(this.base64DocumentBytes);
+    }
+
+    @Benchmark
+    public String oldValueToJsonStringBytes() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.oldValueToJsonString(this.documentBytes);
+    }
+
+    @Benchmark
+    public JsonObject oldValueToJsonObjectBytes() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.oldValueToJsonObject(this.documentBytes);
+    }
+
+    @Benchmark
+    public void eventToJsonBytes(Blackhole blackhole) throws InvalidProtocolBufferException {
+        DocumentEventJson documentEventJson =
+                this.firestoreProto2Json.eventToJson(this.documentBytes);
+        blackhole.consume(documentEventJson.getValueJsonString());
+        blackhole.consume(documentEventJson.getOldValueJsonString());
+    }
+
+    @Benchmark
+    public void eventToJsonBase64(Blackhole blackhole) throws InvalidProtocolBufferException {
+        DocumentEventJson documentEventJson =
+                this.firestoreProto2Json.eventToJsonFromBase64(this.base64DocumentBytes);
+        blackhole.consume(documentEventJson.getValueJsonString());
+        blackhole.consume(documentEventJson.getOldValueJsonString());
+    }
+
+    @Benchmark
+    public byte[] valueToJsonBytes() throws InvalidProtocolBufferException {
+        return this.firestoreProto2Json.valueToJsonBytes(this.documentBytes);
+    }
+
+    @Benchmark
+    public boolean valueToJsonOutputStream(Blackhole blackhole) throws IOException {
+        return this.firestoreProto2Json.valueToJson(this.documentBytes,
+                new BlackholeOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public boolean contextValueToJsonOutputStream(ContextState contextState) throws IOException {
+        return contextState.context.valueToJson(this.documentBytes, contextState.outputStream);
+    }
+
+    @Benchmark
+    public boolean contextValueToJsonBase64OutputStream(ContextState contextState)
+            throws IOException {
+        return contextState.context.valueToJsonFromBase64(this.base64DocumentBytes,
+                contextState.outputStream);
+    }
+
+    /**
+     * The reusable context of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ContextState {
+
+        private FirestoreProto2JsonContext context;
+
+        private OutputStream outputStream;
+
+        @Setup
+        public void setup(Blackhole blackhole) {
+            this.context = FirestoreProto2Json.DEFAULT.newContext();
+            this.outputStream = new BlackholeOutputStream(blackhole);
+        }
+    }
+
+    /**
+     * An OutputStream that hands every write to the Blackhole so nothing is buffered.
+     */
+    private static final class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            this.blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.blackhole.consume(b);
+            this.blackhole.consume(len);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Decodes base64 encoded protocol buffers into a reusable per thread buffer before parsing.
+ *
+ * The accepted input matches {@link java.util.Base64#getDecoder()}, padding is optional and any
+ * character outside of the base64 alphabet results in an IllegalArgumentException.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class Base64Decoder {
+
+    static final String ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final int INVALID = -1;
+
+    private static final int PADDING = -2;
+
+    /**
+     * Buffers larger than this are not retained so a single large payload does not pin memory.
+     */
+    private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+    private static final int[] DECODE = new int[256];
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[0]);
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            DECODE[ALPHABET.charAt(i)] = i;
+        }
+
+        DECODE['='] = PADDING;
+    }
+
+    private Base64Decoder() {}
+
+    /**
+     * Decode and parse the base64 encoded protocol buffer of a DocumentEventData.
+     *
+     * @param base64DocumentBytes the base64 encoded protocol buffer
+     * @return the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when the protocol buffer is invalid
+     */
+    static DocumentEventData parse(CharSequence base64DocumentBytes)
+            throws InvalidProtocolBufferException {
+        byte[] buffer = buffer(base64DocumentBytes.length());
+        int length = decode(base64DocumentBytes, buffer);
+        return DocumentEventData.parser().parseFrom(buffer, 0, length);
+    }
+
+    /**
+     * Decode and parse the base64 encoded protocol buffer of a DocumentEventData from the remaining
+     * bytes of the buffer; the position of the buffer is not modified.
+     *
+     * @param base64DocumentBytes the base64 encoded protocol buffer
+     * @return the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when the protocol buffer is invalid
+     */
+    static DocumentEventData parse(ByteBuffer base64DocumentBytes)
+            throws InvalidProtocolBufferException {
+        byte[] buffer = buffer(base64DocumentBytes.remaining());
+        int length = decode(base64DocumentBytes, buffer);
+        return DocumentEventData.parser().parseFrom(buffer, 0, length);
+    }
+
+    /**
+     * Get the buffer for the current thread large enough to hold the decoded input.
+     *
+     * The protocol buffer parser copies strings and bytes out of the input so the buffer can be
+     * reused as soon as parsing completes.
+     *
+     * @param encodedLength the length of the base64 encoded input
+     * @return the buffer
+     */
+    private static byte[] buffer(int encodedLength) {
+        int decodedLength = (int) (((long) encodedLength + 3) / 4 * 3);
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < decodedLength) {
+            buffer = new byte[decodedLength];
+            if (decodedLength <= MAX_RETAINED_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Decode the base64 characters into the buffer.
+     *
+     * @param src the base64 characters
+     * @param dst the destination buffer
+     * @return the number of bytes decoded
+     */
+    static int decode(CharSequence src, byte[] dst) {
+        int length = src.length();
+        int bits = 0;
+        int count = 0;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = src.charAt(i);
+            int b = c < DECODE.length ? DECODE[c] : INVALID;
+            if (b == PADDING) {
+                int end = paddingEnd(count, i, i + 1 < length && src.charAt(i + 1) == '=');
+                if (end < length) {
+                    throw new IllegalArgumentException(
+                            "Input byte array has incorrect ending byte at " + end);
+                }
+
+                break;
+            } else if (b == INVALID) {
+                throw new IllegalArgumentException(
+                        "Illegal base64 character " + Integer.toString(c, 16));
+            }
+
+            bits = bits << 6 | b;
+            if (++count == 4) {
+                dst[position++] = (byte) (bits >> 16);
+                dst[position++] = (byte) (bits >> 8);
+                dst[position++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        return finish(dst, position, bits, count);
+    }
+
+    /**
+     * Decode the remaining base64 bytes of the buffer into the destination buffer.
+     *
+     * @param src the base64 bytes
+     * @param dst the destination buffer
+     * @return the number of bytes decoded
+     */
+    static int decode(ByteBuffer src, byte[] dst) {
+        int limit = src.limit();
+        int bits = 0;
+        int count = 0;
+        int position = 0;
+        for (int i = src.position(); i < limit; i++) {
+            int c = src.get(i) & 0xff;
+            int b = DECODE[c];
+            if (b == PADDING) {
+                int end = paddingEnd(count, i, i + 1 < limit && src.get(i + 1) == '=');
+                if (end < limit) {
+                    throw new IllegalArgumentException(
+                            "Input byte array has incorrect ending byte at " + end);
+                }
+
+                break;
+            } else if (b == INVALID) {
+                throw new IllegalArgumentException(
+                        "Illegal base64 character " + Integer.toString(c, 16));
+            }
+
+            bits = bits << 6 | b;
+            if (++count == 4) {
+                dst[position++] = (byte) (bits >> 16);
+                dst[position++] = (byte) (bits >> 8);
+                dst[position++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        return finish(dst, position, bits, count);
+    }
+
+    private static int paddingEnd(int count, int index, boolean secondPadding) {
+        if (count == 2 && secondPadding) {
+            return index + 2;
+        } else if (count == 3) {
+            return index + 1;
+        }
+
+        throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+    }
+
+    private static int finish(byte[] dst, int position, int bits, int count) {
+        if (count == 1) {
+            throw new IllegalArgumentException("Last unit does not have enough valid characters");
+        } else if (count == 2) {
+            dst[position++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            dst[position++] = (byte) (bits >> 10);
+            dst[position++] = (byte) (bits >> 2);
+        }
+
+        return position;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import lombok.Getter;
+
+/**
+ * The result of converting a single payload of a batch.
+ *
+ * Exactly one of the value or the exception is meaningful; the value may itself be null when the
+ * conversion returns null, for example when the converted side of the event is not set.
+ *
+ * @param <R> the type of the converted value
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Getter
+public final class BatchResult<R> {
+
+    /**
+     * The zero based position of the payload in the batch.
+     *
+     * @return the position of the payload
+     */
+    private final long index;
+
+    /**
+     * The converted value.
+     *
+     * @return the converted value; null if the conversion failed
+     */
+    private final R value;
+
+    /**
+     * The exception thrown by the conversion.
+     *
+     * @return the exception; null if the conversion succeeded
+     */
+    private final Exception exception;
+
+    private BatchResult(long index, R value, Exception exception) {
+        this.index = index;
+        this.value = value;
+        this.exception = exception;
+    }
+
+    static <R> BatchResult<R> success(long index, R value) {
+        return new BatchResult<>(index, value, null);
+    }
+
+    static <R> BatchResult<R> failure(long index, Exception exception) {
+        return new BatchResult<>(index, null, exception);
+    }
+
+    /**
+     * Check if the conversion succeeded.
+     *
+     * @return true if the conversion succeeded; otherwise false
+     */
+    public boolean isSuccess() {
+        return this.exception == null;
+    }
+}
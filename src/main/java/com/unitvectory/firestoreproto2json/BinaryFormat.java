@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+/**
+ * The compact binary formats a document can be converted to instead of JSON.
+ *
+ * The structure is the same as the JSON conversion, including the output of the value mappers,
+ * except that bytes values converted by the default bytes mapper are written as raw binary instead
+ * of a base64 encoded <code>_byteString</code> and double values, including NaN and Infinity, are
+ * written as 64 bit floats.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum BinaryFormat {
+
+    /**
+     * Concise Binary Object Representation (RFC 8949).
+     */
+    CBOR {
+        @Override
+        BinaryWriter newWriter() {
+            return new CborWriter();
+        }
+    },
+
+    /**
+     * MessagePack.
+     */
+    MESSAGE_PACK {
+        @Override
+        BinaryWriter newWriter() {
+            return new MessagePackWriter();
+        }
+    };
+
+    abstract BinaryWriter newWriter();
+}
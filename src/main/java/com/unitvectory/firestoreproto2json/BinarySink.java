@@ -0,0 +1,283 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.Writer;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * The sink writing a binary format.
+ *
+ * The default mappers of the value types are encoded natively. Any other mapper writes to a JSON
+ * Writer that forwards to the binary writer, so its output is encoded as it is written.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class BinarySink implements DocumentSink {
+
+    private final BinaryWriter binaryWriter;
+
+    private JsonWriter jsonWriter;
+
+    BinarySink(BinaryWriter binaryWriter) {
+        this.binaryWriter = binaryWriter;
+    }
+
+    /**
+     * Check if the mapper of a value type is encoded natively.
+     *
+     * @param mapper the mapper of the timestamp, geopoint or bytes values
+     * @return true if the values are encoded natively; otherwise false
+     */
+    static boolean isNative(ValueMapper mapper) {
+        if (mapper instanceof ValueMapperTimestampDefault) {
+            return true;
+        } else if (mapper.getClass() == ValueMapperGeoPointDefault.class) {
+            return true;
+        } else if (mapper.getClass() == ValueMapperBytesDefault.class) {
+            // A maximum length writes its attributes, so only the unlimited mapper is raw binary
+            return ((ValueMapperBytesDefault) mapper).getMaxLength() == 0;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void beginMap(String key) {
+        name(key).beginMap();
+    }
+
+    @Override
+    public void endMap() {
+        this.binaryWriter.endMap();
+    }
+
+    @Override
+    public void beginArray(String key) {
+        name(key).beginArray();
+    }
+
+    @Override
+    public void endArray() {
+        this.binaryWriter.endArray();
+    }
+
+    @Override
+    public void value(String key, long value) {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, String value) {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, double value) {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, boolean value) {
+        name(key).value(value);
+    }
+
+    @Override
+    public void nullValue(String key) {
+        name(key).nullValue();
+    }
+
+    @Override
+    public void mapped(String key, Value value, ValueMapper mapper) throws IOException {
+        if (this.jsonWriter == null) {
+            this.jsonWriter = new BinaryJsonWriter(this.binaryWriter);
+        }
+
+        if (key != null) {
+            mapper.write(this.jsonWriter, key, value);
+        } else {
+            mapper.write(this.jsonWriter, value);
+        }
+    }
+
+    @Override
+    public void typed(String key, Value value, ValueMapper mapper) throws IOException {
+        if (!isNative(mapper)) {
+            mapped(key, value, mapper);
+        } else if (value.hasTimestampValue()) {
+            Timestamp timestamp = value.getTimestampValue();
+            name(key).value(((ValueMapperTimestampDefault) mapper)
+                    .formatTimestamp(timestamp.getSeconds(), timestamp.getNanos()));
+        } else if (value.hasGeoPointValue()) {
+            LatLng geoPoint = value.getGeoPointValue();
+            name(key).beginMap();
+            this.binaryWriter.name("latitude").value(geoPoint.getLatitude());
+            this.binaryWriter.name("longitude").value(geoPoint.getLongitude());
+            this.binaryWriter.endMap();
+        } else {
+            // Raw binary replaces the base64 encoded _byteString of the JSON conversion
+            name(key).value(value.getBytesValue());
+        }
+    }
+
+    private BinaryWriter name(String key) {
+        return key != null ? this.binaryWriter.name(key) : this.binaryWriter;
+    }
+
+    /**
+     * A JSON Writer forwarding to the binary writer, so the value mappers write binary output
+     * through their JSON Writer methods.
+     */
+    private static final class BinaryJsonWriter extends JsonWriter {
+
+        private static final Writer UNWRITABLE_WRITER = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int counter) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public void flush() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public void close() {
+                throw new AssertionError();
+            }
+        };
+
+        private final BinaryWriter binaryWriter;
+
+        private BinaryJsonWriter(BinaryWriter binaryWriter) {
+            super(UNWRITABLE_WRITER);
+            this.binaryWriter = binaryWriter;
+        }
+
+        @Override
+        public JsonWriter beginArray() {
+            this.binaryWriter.beginArray();
+            return this;
+        }
+
+        @Override
+        public JsonWriter endArray() {
+            this.binaryWriter.endArray();
+            return this;
+        }
+
+        @Override
+        public JsonWriter beginObject() {
+            this.binaryWriter.beginMap();
+            return this;
+        }
+
+        @Override
+        public JsonWriter endObject() {
+            this.binaryWriter.endMap();
+            return this;
+        }
+
+        @Override
+        public JsonWriter name(String name) {
+            this.binaryWriter.name(name);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+
+            this.binaryWriter.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter jsonValue(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+
+            this.binaryWriter.value(JsonParser.parseString(value));
+            return this;
+        }
+
+        @Override
+        public JsonWriter nullValue() {
+            this.binaryWriter.nullValue();
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(boolean value) {
+            this.binaryWriter.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Boolean value) {
+            if (value == null) {
+                return nullValue();
+            }
+
+            this.binaryWriter.value(value.booleanValue());
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(float value) {
+            this.binaryWriter.value((double) value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(double value) {
+            this.binaryWriter.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(long value) {
+            this.binaryWriter.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Number value) {
+            if (value == null) {
+                return nullValue();
+            }
+
+            this.binaryWriter.value(value);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+            // Nothing is buffered
+        }
+
+        @Override
+        public void close() {
+            // The binary writer is not closed
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.protobuf.ByteString;
+
+/**
+ * The output sink for the binary formats, writing maps, arrays and scalar values into a growable
+ * buffer.
+ *
+ * The size of a map or array is not known until it is closed, because the value mappers may write
+ * any number of attributes for a field, so a header of the maximum length is reserved when the map
+ * or array is opened and replaced by the shortest header when it is closed. The output therefore
+ * always uses the shortest encoding of every length.
+ *
+ * An instance is not thread safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+abstract class BinaryWriter {
+
+    /**
+     * The longest header of a map or array, a type byte followed by a 32 bit size.
+     */
+    private static final int CONTAINER_HEADER_LENGTH = 5;
+
+    private byte[] buffer = new byte[1024];
+
+    private int position;
+
+    /**
+     * The offset of the header of each open map or array.
+     */
+    private int[] starts = new int[32];
+
+    /**
+     * The number of entries written to each open map or array; each name and value of a map count
+     * as an entry.
+     */
+    private int[] counts = new int[32];
+
+    private boolean[] maps = new boolean[32];
+
+    private int depth;
+
+    private final byte[] header = new byte[CONTAINER_HEADER_LENGTH];
+
+    /**
+     * Discard the written output so the buffer can be reused.
+     */
+    final void reset() {
+        this.position = 0;
+        this.depth = 0;
+    }
+
+    final byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.position);
+    }
+
+    final void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(this.buffer, 0, this.position);
+    }
+
+    final BinaryWriter beginMap() {
+        return begin(true);
+    }
+
+    final BinaryWriter endMap() {
+        return end();
+    }
+
+    final BinaryWriter beginArray() {
+        return begin(false);
+    }
+
+    final BinaryWriter endArray() {
+        return end();
+    }
+
+    final BinaryWriter name(String name) {
+        return value(name);
+    }
+
+    final BinaryWriter value(String value) {
+        entry();
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeStringHeader(utf8.length);
+        write(utf8, 0, utf8.length);
+        return this;
+    }
+
+    final BinaryWriter value(long value) {
+        entry();
+        writeInteger(value);
+        return this;
+    }
+
+    final BinaryWriter value(double value) {
+        entry();
+        writeDouble(value);
+        return this;
+    }
+
+    final BinaryWriter value(boolean value) {
+        entry();
+        writeBoolean(value);
+        return this;
+    }
+
+    final BinaryWriter nullValue() {
+        entry();
+        writeNull();
+        return this;
+    }
+
+    final BinaryWriter value(ByteString value) {
+        entry();
+        writeBytesHeader(value.size());
+        ensureCapacity(value.size());
+        value.copyTo(this.buffer, this.position);
+        this.position += value.size();
+        return this;
+    }
+
+    /**
+     * Write a JSON element produced by a value mapper.
+     *
+     * @param jsonElement the JSON element
+     * @return this writer
+     */
+    final BinaryWriter value(JsonElement jsonElement) {
+        if (jsonElement.isJsonObject()) {
+            beginMap();
+            for (Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                name(entry.getKey()).value(entry.getValue());
+            }
+            return endMap();
+        } else if (jsonElement.isJsonArray()) {
+            beginArray();
+            for (JsonElement element : jsonElement.getAsJsonArray()) {
+                value(element);
+            }
+            return endArray();
+        } else if (jsonElement.isJsonNull()) {
+            return nullValue();
+        }
+
+        JsonPrimitive primitive = jsonElement.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return value(primitive.getAsBoolean());
+        } else if (primitive.isString()) {
+            return value(primitive.getAsString());
+        }
+
+        return value(primitive.getAsNumber());
+    }
+
+    /**
+     * Write a number, as an integer when it has no fraction and fits in a long.
+     *
+     * @param number the number
+     * @return this writer
+     */
+    final BinaryWriter value(Number number) {
+        if (number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte) {
+            return value(number.longValue());
+        } else if (number instanceof Double || number instanceof Float) {
+            return value(number.doubleValue());
+        }
+
+        // Other numbers are integers when they have no fraction and fit in a long
+        try {
+            return value(new BigDecimal(number.toString()).longValueExact());
+        } catch (ArithmeticException | NumberFormatException e) {
+            return value(number.doubleValue());
+        }
+    }
+
+    /**
+     * Write the header of a map or array.
+     *
+     * @param dst the destination
+     * @param map true for a map; false for an array
+     * @param size the number of pairs of a map or elements of an array
+     * @return the length of the header
+     */
+    abstract int containerHeader(byte[] dst, boolean map, int size);
+
+    abstract void writeStringHeader(int length);
+
+    abstract void writeBytesHeader(int length);
+
+    abstract void writeInteger(long value);
+
+    abstract void writeDouble(double value);
+
+    abstract void writeBoolean(boolean value);
+
+    abstract void writeNull();
+
+    final void write(int b) {
+        ensureCapacity(1);
+        this.buffer[this.position++] = (byte) b;
+    }
+
+    final void write(int b, int value, int length) {
+        ensureCapacity(1 + length);
+        this.buffer[this.position++] = (byte) b;
+        for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+            this.buffer[this.position++] = (byte) (value >>> shift);
+        }
+    }
+
+    final void write(int b, long value) {
+        ensureCapacity(9);
+        this.buffer[this.position++] = (byte) b;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.buffer[this.position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, this.buffer, this.position, length);
+        this.position += length;
+    }
+
+    private BinaryWriter begin(boolean map) {
+        entry();
+        if (this.depth == this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, this.depth * 2);
+            this.counts = Arrays.copyOf(this.counts, this.depth * 2);
+            this.maps = Arrays.copyOf(this.maps, this.depth * 2);
+        }
+
+        ensureCapacity(CONTAINER_HEADER_LENGTH);
+        this.starts[this.depth] = this.position;
+        this.counts[this.depth] = 0;
+        this.maps[this.depth] = map;
+        this.depth++;
+        this.position += CONTAINER_HEADER_LENGTH;
+        return this;
+    }
+
+    private BinaryWriter end() {
+        this.depth--;
+        int start = this.starts[this.depth];
+        boolean map = this.maps[this.depth];
+        int size = map ? this.counts[this.depth] / 2 : this.counts[this.depth];
+        int headerLength = containerHeader(this.header, map, size);
+
+        // Move the content back over the unused part of the reserved header
+        int contentStart = start + CONTAINER_HEADER_LENGTH;
+        int shift = CONTAINER_HEADER_LENGTH - headerLength;
+        System.arraycopy(this.header, 0, this.buffer, start, headerLength);
+        if (shift > 0) {
+            System.arraycopy(this.buffer, contentStart, this.buffer, contentStart - shift,
+                    this.position - contentStart);
+            this.position -= shift;
+        }
+
+        return this;
+    }
+
+    private void entry() {
+        if (this.depth > 0) {
+            this.counts[this.depth - 1]++;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (this.position + length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.max(this.position + length, this.buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+/**
+ * Writes CBOR (RFC 8949) using definite lengths and the shortest encoding of every integer and
+ * length; doubles are always written as 64 bit floats.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class CborWriter extends BinaryWriter {
+
+    private static final int MAJOR_UNSIGNED = 0;
+
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+
+    private static final int MAJOR_BYTES = 2 << 5;
+
+    private static final int MAJOR_TEXT = 3 << 5;
+
+    private static final int MAJOR_ARRAY = 4 << 5;
+
+    private static final int MAJOR_MAP = 5 << 5;
+
+    private static final int FALSE = 0xf4;
+
+    private static final int TRUE = 0xf5;
+
+    private static final int NULL = 0xf6;
+
+    private static final int FLOAT64 = 0xfb;
+
+    @Override
+    int containerHeader(byte[] dst, boolean map, int size) {
+        int major = map ? MAJOR_MAP : MAJOR_ARRAY;
+        if (size < 24) {
+            dst[0] = (byte) (major | size);
+            return 1;
+        } else if (size <= 0xff) {
+            dst[0] = (byte) (major | 24);
+            dst[1] = (byte) size;
+            return 2;
+        } else if (size <= 0xffff) {
+            dst[0] = (byte) (major | 25);
+            dst[1] = (byte) (size >>> 8);
+            dst[2] = (byte) size;
+            return 3;
+        } else {
+            dst[0] = (byte) (major | 26);
+            dst[1] = (byte) (size >>> 24);
+            dst[2] = (byte) (size >>> 16);
+            dst[3] = (byte) (size >>> 8);
+            dst[4] = (byte) size;
+            return 5;
+        }
+    }
+
+    @Override
+    void writeStringHeader(int length) {
+        writeHead(MAJOR_TEXT, length);
+    }
+
+    @Override
+    void writeBytesHeader(int length) {
+        writeHead(MAJOR_BYTES, length);
+    }
+
+    @Override
+    void writeInteger(long value) {
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            // Negative integers are encoded as -1 - n
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    @Override
+    void writeDouble(double value) {
+        write(FLOAT64, Double.doubleToLongBits(value));
+    }
+
+    @Override
+    void writeBoolean(boolean value) {
+        write(value ? TRUE : FALSE);
+    }
+
+    @Override
+    void writeNull() {
+        write(NULL);
+    }
+
+    private void writeHead(int major, long argument) {
+        if (argument < 24) {
+            write(major | (int) argument);
+        } else if (argument <= 0xff) {
+            write(major | 24, (int) argument, 1);
+        } else if (argument <= 0xffff) {
+            write(major | 25, (int) argument, 2);
+        } else if (argument <= 0xffffffffL) {
+            write(major | 26, (int) argument, 4);
+        } else {
+            write(major | 27, argument);
+        }
+    }
+}
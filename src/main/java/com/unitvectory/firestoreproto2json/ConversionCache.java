@@ -0,0 +1,401 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.protobuf.Timestamp;
+import lombok.Builder;
+
+/**
+ * A bounded cache of converted JSON so duplicate deliveries of an event skip the conversion.
+ *
+ * A converted document is keyed by its name and update time, which identify a version of a
+ * Firestore document, so the same version is converted once whether it arrives as the value of one
+ * event or the old value of the next. The transcoding of protocol buffer bytes is keyed by the
+ * payload bytes, which are hashed for the lookup and compared in full, so a hash collision can
+ * never return the output of a different payload. A document without a name or update time is not
+ * cached.
+ *
+ * The cache is bounded by the number of entries, the estimated weight in bytes of the keys and
+ * output, or both, and evicts the least recently used entries. It is split into independently
+ * locked segments so concurrent conversions rarely contend; the bounds therefore apply to each
+ * segment in proportion and the least recently used entry is chosen within the segment. Two
+ * threads converting the same missing entry at the same time both convert it.
+ *
+ * A cache may be shared by several converters; the entries of each converter are kept apart.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class ConversionCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The estimated weight of an entry in addition to its key and output.
+     */
+    private static final long ENTRY_WEIGHT = 96;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache bounded by the number of entries, the weight or both.
+     *
+     * @param maximumSize the maximum number of entries; unbounded if zero
+     * @param maximumWeight the maximum estimated weight in bytes; unbounded if zero
+     */
+    @Builder
+    private ConversionCache(long maximumSize, long maximumWeight) {
+        if (maximumSize < 0 || maximumWeight < 0) {
+            throw new IllegalArgumentException(
+                    "maximumSize and maximumWeight must not be negative");
+        } else if (maximumSize == 0 && maximumWeight == 0) {
+            throw new IllegalArgumentException("maximumSize or maximumWeight must be set");
+        }
+
+        // A small cache uses fewer segments so the bound of each segment remains meaningful
+        int segmentCount = MAX_SEGMENTS;
+        if (maximumSize > 0) {
+            segmentCount = Integer.highestOneBit(
+                    (int) Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / MAX_SEGMENTS)));
+        }
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment(perSegment(maximumSize, segmentCount),
+                    perSegment(maximumWeight, segmentCount));
+        }
+    }
+
+    private static long perSegment(long maximum, int segmentCount) {
+        return maximum == 0 ? Long.MAX_VALUE : (maximum + segmentCount - 1) / segmentCount;
+    }
+
+    /**
+     * Get the number of lookups that found the converted output.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that did not find the converted output.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of entries evicted to stay within the bounds.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Get the ratio of hits to lookups.
+     *
+     * @return the hit ratio; 0 if nothing was looked up
+     */
+    public double getHitRatio() {
+        long hitCount = getHitCount();
+        long lookups = hitCount + getMissCount();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Get the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Get the estimated weight in bytes of the cached entries.
+     *
+     * @return the weight
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * Remove every entry; the statistics are kept.
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * Create the key of a converted document.
+     *
+     * @param owner the converter whose output is cached
+     * @param document the document
+     * @return the key; null if the document cannot be identified
+     */
+    static Object documentKey(Object owner, Document document) {
+        if (document.getName().isEmpty() || !document.hasUpdateTime()) {
+            return null;
+        }
+
+        return new DocumentKey(owner, document.getName(), document.getUpdateTime());
+    }
+
+    /**
+     * Create the key of transcoded payload bytes for a lookup; the bytes are not copied.
+     *
+     * @param owner the converter whose output is cached
+     * @param documentTag the tag of the converted side of the event
+     * @param documentBytes the payload bytes
+     * @return the key
+     */
+    static Object payloadKey(Object owner, int documentTag, byte[] documentBytes) {
+        return new PayloadKey(owner, documentTag, documentBytes);
+    }
+
+    /**
+     * Get the cached output.
+     *
+     * @param key the key
+     * @return the output; null if not cached
+     */
+    Object get(Object key) {
+        Segment segment = segment(key);
+        Object value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+
+        if (value == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+
+        return value;
+    }
+
+    /**
+     * Cache the output, which must be a String or byte array that is not modified afterwards.
+     *
+     * @param key the key, as passed to {@link #get(Object)}
+     * @param value the output
+     */
+    void put(Object key, Object value) {
+        long weight = ENTRY_WEIGHT + weight(value);
+        if (key instanceof DocumentKey) {
+            weight += 2L * ((DocumentKey) key).name.length();
+        } else {
+            // The lookup key references the caller's buffer so the bytes are copied
+            PayloadKey payloadKey = (PayloadKey) key;
+            key = payloadKey.copy();
+            weight += payloadKey.bytes.length;
+        }
+
+        Segment segment = segment(key);
+        synchronized (segment) {
+            if (weight > segment.maximumWeight) {
+                // An entry larger than the segment would evict everything else
+                return;
+            }
+
+            Object previous = segment.put(key, new Weighted(value, weight));
+            if (previous != null) {
+                segment.weight -= ((Weighted) previous).weight;
+            }
+
+            segment.weight += weight;
+            Iterator<Entry<Object, Object>> iterator = segment.entrySet().iterator();
+            while (segment.size() > segment.maximumSize
+                    || segment.weight > segment.maximumWeight) {
+                Entry<Object, Object> eldest = iterator.next();
+                segment.weight -= ((Weighted) eldest.getValue()).weight;
+                iterator.remove();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    private static long weight(Object value) {
+        if (value instanceof String) {
+            return 2L * ((String) value).length();
+        } else {
+            return ((byte[]) value).length;
+        }
+    }
+
+    private Segment segment(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return this.segments[hash & (this.segments.length - 1)];
+    }
+
+    /**
+     * A segment of least recently used entries, guarded by its own monitor.
+     */
+    @SuppressWarnings("serial")
+    private static final class Segment extends LinkedHashMap<Object, Object> {
+
+        private final long maximumSize;
+
+        private final long maximumWeight;
+
+        private long weight;
+
+        Segment(long maximumSize, long maximumWeight) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+            this.maximumWeight = maximumWeight;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Object value = super.get(key);
+            return value == null ? null : ((Weighted) value).value;
+        }
+    }
+
+    /**
+     * The cached output with its weight.
+     */
+    private static final class Weighted {
+
+        private final Object value;
+
+        private final long weight;
+
+        Weighted(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The version of a document converted by a converter.
+     */
+    private static final class DocumentKey {
+
+        private final Object owner;
+
+        private final String name;
+
+        private final Timestamp updateTime;
+
+        DocumentKey(Object owner, String name, Timestamp updateTime) {
+            this.owner = owner;
+            this.name = name;
+            this.updateTime = updateTime;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DocumentKey)) {
+                return false;
+            }
+
+            DocumentKey other = (DocumentKey) obj;
+            return this.owner == other.owner && this.name.equals(other.name)
+                    && this.updateTime.equals(other.updateTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.owner) * 31 * 31 + this.name.hashCode() * 31
+                    + this.updateTime.hashCode();
+        }
+    }
+
+    /**
+     * A side of the event within the payload bytes transcoded by a converter.
+     */
+    private static final class PayloadKey {
+
+        private final Object owner;
+
+        private final int documentTag;
+
+        private final byte[] bytes;
+
+        private final int hash;
+
+        PayloadKey(Object owner, int documentTag, byte[] bytes) {
+            this(owner, documentTag, bytes, (System.identityHashCode(owner) * 31 + documentTag) * 31
+                    + Arrays.hashCode(bytes));
+        }
+
+        private PayloadKey(Object owner, int documentTag, byte[] bytes, int hash) {
+            this.owner = owner;
+            this.documentTag = documentTag;
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        PayloadKey copy() {
+            return new PayloadKey(this.owner, this.documentTag, this.bytes.clone(), this.hash);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PayloadKey)) {
+                return false;
+            }
+
+            PayloadKey other = (PayloadKey) obj;
+            return this.owner == other.owner && this.documentTag == other.documentTag
+                    && this.hash == other.hash && Arrays.equals(this.bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
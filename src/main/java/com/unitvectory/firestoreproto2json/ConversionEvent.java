@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * The measurements of a single conversion.
+ *
+ * The conversion writes the JSON while converting each value, so the time to serialize the output
+ * is part of the conversion time. When the protocol buffer bytes are transcoded without being
+ * parsed, the parsing is also part of the conversion time and the structure of the document is
+ * not measured.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Getter
+@Builder(access = AccessLevel.PACKAGE)
+public final class ConversionEvent {
+
+    /**
+     * The name of the conversion method, such as <code>valueToJsonString</code>.
+     *
+     * @return the name of the conversion method
+     */
+    private final String operation;
+
+    /**
+     * The size of the input, the length of the protocol buffer bytes or base64 characters.
+     *
+     * @return the size of the input; -1 when a parsed DocumentEventData was converted
+     */
+    private final long inputSize;
+
+    /**
+     * The size of the output, the length of the JSON string or of the UTF-8 JSON.
+     *
+     * @return the size of the output; -1 when the converted side is not set or the output is a
+     *         JSON object
+     */
+    private final long outputSize;
+
+    /**
+     * The time spent decoding and parsing the input.
+     *
+     * @return the nanoseconds spent parsing; 0 when the input was not parsed
+     */
+    private final long parseNanos;
+
+    /**
+     * The time spent converting the document and writing the output.
+     *
+     * @return the nanoseconds spent converting
+     */
+    private final long convertNanos;
+
+    /**
+     * The number of fields of the document, including the fields of nested maps.
+     *
+     * @return the number of fields; -1 when not measured
+     */
+    private final int fieldCount;
+
+    /**
+     * The deepest nesting of maps and arrays; 0 when the document has only scalar fields.
+     *
+     * @return the depth; -1 when not measured
+     */
+    private final int maxDepth;
+
+    /**
+     * The number of timestamp values.
+     *
+     * @return the number of timestamps; -1 when not measured
+     */
+    private final int timestampCount;
+
+    /**
+     * The number of geopoint values.
+     *
+     * @return the number of geopoints; -1 when not measured
+     */
+    private final int geoPointCount;
+
+    /**
+     * The number of bytes values.
+     *
+     * @return the number of bytes values; -1 when not measured
+     */
+    private final int bytesCount;
+
+    /**
+     * The number of map values.
+     *
+     * @return the number of maps; -1 when not measured
+     */
+    private final int mapCount;
+
+    /**
+     * The number of array values.
+     *
+     * @return the number of arrays; -1 when not measured
+     */
+    private final int arrayCount;
+
+    /**
+     * Get the total time of the conversion.
+     *
+     * @return the nanoseconds spent parsing and converting
+     */
+    public long getTotalNanos() {
+        return this.parseNanos + this.convertNanos;
+    }
+}
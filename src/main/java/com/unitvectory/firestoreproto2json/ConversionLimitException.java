@@ -0,0 +1,47 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a document exceeds one of the configured {@link ConversionLimits}.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Getter
+public class ConversionLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the limit that was exceeded, such as <code>maxDepth</code>.
+     *
+     * @return the name of the limit
+     */
+    private final String limit;
+
+    /**
+     * The configured maximum of the limit.
+     *
+     * @return the maximum
+     */
+    private final long maximum;
+
+    ConversionLimitException(String limit, long maximum) {
+        super("The document exceeds the " + limit + " limit of " + maximum);
+        this.limit = limit;
+        this.maximum = maximum;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.Value;
+import lombok.Builder;
+
+/**
+ * Limits on the size of the documents converted so a single pathological document fails fast with
+ * a {@link ConversionLimitException} instead of stalling the worker or exhausting the heap.
+ *
+ * The depth is the nesting of maps and arrays within the document, where a map field of the
+ * document is at depth 1; Firestore itself allows 20 levels. The fields are those of the document
+ * and its nested maps that are selected by the field projection. The structure of a parsed
+ * document is checked before anything is converted; protocol buffer bytes transcoded without
+ * being parsed are checked while transcoding. The output limit is the length of the UTF-8 JSON
+ * and applies to the conversions that produce JSON text, other than writing to a caller provided
+ * JsonWriter.
+ *
+ * A limit of zero is unlimited.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class ConversionLimits {
+
+    /**
+     * No limits.
+     */
+    public static final ConversionLimits NONE = ConversionLimits.builder().build();
+
+    private final int maxDepth;
+
+    private final int maxFields;
+
+    private final int maxArrayLength;
+
+    private final long maxOutputBytes;
+
+    private final boolean structureLimited;
+
+    /**
+     * Create the limits.
+     *
+     * @param maxDepth the maximum nesting of maps and arrays; unlimited if zero
+     * @param maxFields the maximum number of fields; unlimited if zero
+     * @param maxArrayLength the maximum number of elements of an array; unlimited if zero
+     * @param maxOutputBytes the maximum length of the UTF-8 JSON; unlimited if zero
+     */
+    @Builder
+    private ConversionLimits(int maxDepth, int maxFields, int maxArrayLength,
+            long maxOutputBytes) {
+        if (maxDepth < 0 || maxFields < 0 || maxArrayLength < 0 || maxOutputBytes < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+
+        this.maxDepth = maxDepth == 0 ? Integer.MAX_VALUE : maxDepth;
+        this.maxFields = maxFields == 0 ? Integer.MAX_VALUE : maxFields;
+        this.maxArrayLength = maxArrayLength == 0 ? Integer.MAX_VALUE : maxArrayLength;
+        this.maxOutputBytes = maxOutputBytes == 0 ? Long.MAX_VALUE : maxOutputBytes;
+        this.structureLimited = maxDepth > 0 || maxFields > 0 || maxArrayLength > 0;
+    }
+
+    /**
+     * Check the structure of a document before it is converted.
+     *
+     * The maps and arrays are followed with an explicit stack so the nesting of the document does
+     * not consume call stack.
+     *
+     * @param document the document
+     * @param root the projection node of the document
+     * @throws ConversionLimitException exception thrown when the document exceeds a limit
+     */
+    void check(Document document, FieldProjection.Node root) {
+        if (!this.structureLimited) {
+            return;
+        }
+
+        int fields = 0;
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(document.getFieldsMap().entrySet().iterator(), null, root));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            Value value;
+            FieldProjection.Node node;
+            if (frame.entries != null) {
+                if (!frame.entries.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+
+                Entry<String, Value> entry = frame.entries.next();
+                node = frame.node.child(entry.getKey());
+                value = entry.getValue();
+                if (node == null
+                        || !node.included && !value.hasMapValue() && !value.hasArrayValue()) {
+                    continue;
+                }
+
+                fields = checkFields(fields + 1);
+            } else {
+                if (!frame.values.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+
+                node = frame.node;
+                value = frame.values.next();
+            }
+
+            if (value.hasMapValue()) {
+                checkDepth(stack.size());
+                stack.push(new Frame(value.getMapValue().getFieldsMap().entrySet().iterator(),
+                        null, node));
+            } else if (value.hasArrayValue() && frame.entries != null) {
+                // Nested arrays are not supported by Firestore and are not converted
+                checkDepth(stack.size());
+                checkArrayLength(value.getArrayValue().getValuesCount());
+                stack.push(new Frame(null, value.getArrayValue().getValuesList().iterator(),
+                        node));
+            }
+        }
+    }
+
+    /**
+     * Check the depth of a map or array.
+     *
+     * @param depth the depth, where a map field of the document is at depth 1
+     * @throws ConversionLimitException exception thrown when the depth exceeds the limit
+     */
+    void checkDepth(int depth) {
+        if (depth > this.maxDepth) {
+            throw new ConversionLimitException("maxDepth", this.maxDepth);
+        }
+    }
+
+    /**
+     * Check the number of fields converted.
+     *
+     * @param fields the number of fields
+     * @return the number of fields
+     * @throws ConversionLimitException exception thrown when the number exceeds the limit
+     */
+    int checkFields(int fields) {
+        if (fields > this.maxFields) {
+            throw new ConversionLimitException("maxFields", this.maxFields);
+        }
+
+        return fields;
+    }
+
+    /**
+     * Check the length of an array.
+     *
+     * @param length the number of elements
+     * @throws ConversionLimitException exception thrown when the length exceeds the limit
+     */
+    void checkArrayLength(int length) {
+        if (length > this.maxArrayLength) {
+            throw new ConversionLimitException("maxArrayLength", this.maxArrayLength);
+        }
+    }
+
+    /**
+     * Check the length of the output.
+     *
+     * @param length the length of the UTF-8 JSON
+     * @throws ConversionLimitException exception thrown when the length exceeds the limit
+     */
+    void checkOutput(long length) {
+        if (length > this.maxOutputBytes) {
+            throw new ConversionLimitException("maxOutputBytes", this.maxOutputBytes);
+        }
+    }
+
+    /**
+     * Limit the length of the UTF-8 JSON written to the Writer.
+     *
+     * @param writer the Writer
+     * @return the Writer enforcing the output limit, or the Writer if the output is unlimited
+     */
+    Writer limit(Writer writer) {
+        return this.maxOutputBytes == Long.MAX_VALUE ? writer : new LimitedWriter(writer, this);
+    }
+
+    /**
+     * An open map or array of the document.
+     */
+    private static final class Frame {
+
+        private final Iterator<Entry<String, Value>> entries;
+
+        private final Iterator<Value> values;
+
+        private final FieldProjection.Node node;
+
+        private Frame(Iterator<Entry<String, Value>> entries, Iterator<Value> values,
+                FieldProjection.Node node) {
+            this.entries = entries;
+            this.values = values;
+            this.node = node;
+        }
+    }
+
+    /**
+     * Counts the UTF-8 length of the characters written and fails once it exceeds the limit.
+     */
+    private static final class LimitedWriter extends Writer {
+
+        private final Writer writer;
+
+        private final ConversionLimits limits;
+
+        private long length;
+
+        private LimitedWriter(Writer writer, ConversionLimits limits) {
+            this.writer = writer;
+            this.limits = limits;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            count((char) c);
+            this.writer.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                count(cbuf[i]);
+            }
+
+            this.writer.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                count(str.charAt(i));
+            }
+
+            this.writer.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+
+        private void count(char c) {
+            // Each half of a surrogate pair counts for half of its four byte encoding
+            if (c < 0x80) {
+                this.length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                this.length += 2;
+            } else {
+                this.length += 3;
+            }
+
+            this.limits.checkOutput(this.length);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+/**
+ * Receives the measurements of conversions for monitoring.
+ *
+ * A listener is configured on the builder of FirestoreProto2Json; when none is configured nothing
+ * is measured. The listener is called on the converting thread after each conversion, so it must
+ * be thread safe and fast, for example recording to the timers and distributions of a metrics
+ * registry or to {@link ConversionStatistics}.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public interface ConversionListener {
+
+    /**
+     * Called when a conversion completes.
+     *
+     * @param event the measurements of the conversion
+     */
+    void onConversion(ConversionEvent event);
+
+    /**
+     * Called when a conversion fails, before the exception is thrown to the caller.
+     *
+     * @param operation the name of the conversion method
+     * @param exception the exception
+     */
+    void onFailure(String operation, Exception exception);
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.Value;
+
+/**
+ * Measures a conversion for the listener.
+ *
+ * An instance is only created when a listener is configured, so a converter without a listener
+ * pays nothing beyond checking for it.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class ConversionMeasurement {
+
+    private final ConversionListener listener;
+
+    private final String operation;
+
+    private final long inputSize;
+
+    private final long start;
+
+    private long parsed;
+
+    private int fieldCount;
+
+    private int maxDepth;
+
+    private int timestampCount;
+
+    private int geoPointCount;
+
+    private int bytesCount;
+
+    private int mapCount;
+
+    private int arrayCount;
+
+    ConversionMeasurement(ConversionListener listener, String operation, long inputSize) {
+        this.listener = listener;
+        this.operation = operation;
+        this.inputSize = inputSize;
+        this.start = System.nanoTime();
+        this.parsed = this.start;
+    }
+
+    /**
+     * Mark the end of parsing the input.
+     */
+    void parsed() {
+        this.parsed = System.nanoTime();
+    }
+
+    /**
+     * Report a conversion of a parsed document.
+     *
+     * @param document the converted document; null if the converted side is not set
+     * @param outputSize the size of the output; -1 if unknown
+     */
+    void completed(Document document, long outputSize) {
+        long end = System.nanoTime();
+        if (document != null) {
+            // The structure is measured after the conversion so it is not part of the timing
+            measureMap(document.getFieldsMap().values(), 0);
+        }
+
+        report(end, outputSize);
+    }
+
+    /**
+     * Report a conversion of protocol buffer bytes transcoded without being parsed.
+     *
+     * @param outputSize the size of the output; -1 if unknown
+     */
+    void transcoded(long outputSize) {
+        this.fieldCount = -1;
+        this.maxDepth = -1;
+        this.timestampCount = -1;
+        this.geoPointCount = -1;
+        this.bytesCount = -1;
+        this.mapCount = -1;
+        this.arrayCount = -1;
+        report(System.nanoTime(), outputSize);
+    }
+
+    void failed(Exception exception) {
+        this.listener.onFailure(this.operation, exception);
+    }
+
+    /**
+     * Wrap the OutputStream to count the size of the output.
+     *
+     * @param outputStream the OutputStream
+     * @return the counting OutputStream
+     */
+    static CountingOutputStream counting(OutputStream outputStream) {
+        return new CountingOutputStream(outputStream);
+    }
+
+    private void report(long end, long outputSize) {
+        this.listener.onConversion(ConversionEvent.builder().operation(this.operation)
+                .inputSize(this.inputSize).outputSize(outputSize)
+                .parseNanos(this.parsed - this.start).convertNanos(end - this.parsed)
+                .fieldCount(this.fieldCount).maxDepth(this.maxDepth)
+                .timestampCount(this.timestampCount).geoPointCount(this.geoPointCount)
+                .bytesCount(this.bytesCount).mapCount(this.mapCount).arrayCount(this.arrayCount)
+                .build());
+    }
+
+    private void measureMap(Iterable<Value> values, int depth) {
+        for (Value value : values) {
+            this.fieldCount++;
+            measureValue(value, depth);
+        }
+    }
+
+    private void measureValue(Value value, int depth) {
+        switch (value.getValueTypeCase()) {
+            case MAP_VALUE:
+                this.mapCount++;
+                this.maxDepth = Math.max(this.maxDepth, depth + 1);
+                measureMap(value.getMapValue().getFieldsMap().values(), depth + 1);
+                break;
+            case ARRAY_VALUE:
+                this.arrayCount++;
+                this.maxDepth = Math.max(this.maxDepth, depth + 1);
+                for (Value element : value.getArrayValue().getValuesList()) {
+                    measureValue(element, depth + 1);
+                }
+                break;
+            case TIMESTAMP_VALUE:
+                this.timestampCount++;
+                break;
+            case GEO_POINT_VALUE:
+                this.geoPointCount++;
+                break;
+            case BYTES_VALUE:
+                this.bytesCount++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the OutputStream.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        long count() {
+            return this.count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that aggregates the measurements of conversions in memory.
+ *
+ * The totals can be read at any time, for example to publish them as gauges and counters of a
+ * metrics registry or to log them periodically. The latency is recorded in a histogram whose
+ * buckets are powers of two nanoseconds, so percentiles are reported as the upper bound of the
+ * bucket and are accurate to within a factor of two. The structure of the documents is only
+ * included for the conversions that measure it.
+ *
+ * This class is thread safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class ConversionStatistics implements ConversionListener {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder conversions = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder inputBytes = new LongAdder();
+
+    private final LongAdder outputBytes = new LongAdder();
+
+    private final LongAdder parseNanos = new LongAdder();
+
+    private final LongAdder convertNanos = new LongAdder();
+
+    private final LongAdder fields = new LongAdder();
+
+    private final LongAdder timestamps = new LongAdder();
+
+    private final LongAdder geoPoints = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder maps = new LongAdder();
+
+    private final LongAdder arrays = new LongAdder();
+
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * The number of conversions whose total time is less than 2^i nanoseconds and at least
+     * 2^(i-1) nanoseconds.
+     */
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+
+    @Override
+    public void onConversion(ConversionEvent event) {
+        this.conversions.increment();
+        if (event.getInputSize() > 0) {
+            this.inputBytes.add(event.getInputSize());
+        }
+
+        if (event.getOutputSize() > 0) {
+            this.outputBytes.add(event.getOutputSize());
+        }
+
+        this.parseNanos.add(event.getParseNanos());
+        this.convertNanos.add(event.getConvertNanos());
+        if (event.getFieldCount() >= 0) {
+            this.fields.add(event.getFieldCount());
+            this.timestamps.add(event.getTimestampCount());
+            this.geoPoints.add(event.getGeoPointCount());
+            this.bytes.add(event.getBytesCount());
+            this.maps.add(event.getMapCount());
+            this.arrays.add(event.getArrayCount());
+            this.maxDepth.accumulate(event.getMaxDepth());
+        }
+
+        long totalNanos = Math.max(0, event.getTotalNanos());
+        int bucket = Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(totalNanos));
+        this.latency.incrementAndGet(bucket);
+    }
+
+    @Override
+    public void onFailure(String operation, Exception exception) {
+        this.failures.increment();
+    }
+
+    /**
+     * Get the number of completed conversions.
+     *
+     * @return the number of conversions
+     */
+    public long getConversionCount() {
+        return this.conversions.sum();
+    }
+
+    /**
+     * Get the number of failed conversions.
+     *
+     * @return the number of failures
+     */
+    public long getFailureCount() {
+        return this.failures.sum();
+    }
+
+    /**
+     * Get the total size of the inputs.
+     *
+     * @return the total size of the inputs
+     */
+    public long getInputBytes() {
+        return this.inputBytes.sum();
+    }
+
+    /**
+     * Get the total size of the outputs.
+     *
+     * @return the total size of the outputs
+     */
+    public long getOutputBytes() {
+        return this.outputBytes.sum();
+    }
+
+    /**
+     * Get the total time spent parsing.
+     *
+     * @return the nanoseconds spent parsing
+     */
+    public long getParseNanos() {
+        return this.parseNanos.sum();
+    }
+
+    /**
+     * Get the total time spent converting.
+     *
+     * @return the nanoseconds spent converting
+     */
+    public long getConvertNanos() {
+        return this.convertNanos.sum();
+    }
+
+    /**
+     * Get the total number of fields converted.
+     *
+     * @return the number of fields
+     */
+    public long getFieldCount() {
+        return this.fields.sum();
+    }
+
+    /**
+     * Get the total number of timestamp values converted.
+     *
+     * @return the number of timestamps
+     */
+    public long getTimestampCount() {
+        return this.timestamps.sum();
+    }
+
+    /**
+     * Get the total number of geopoint values converted.
+     *
+     * @return the number of geopoints
+     */
+    public long getGeoPointCount() {
+        return this.geoPoints.sum();
+    }
+
+    /**
+     * Get the total number of bytes values converted.
+     *
+     * @return the number of bytes values
+     */
+    public long getBytesCount() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * Get the total number of map values converted.
+     *
+     * @return the number of maps
+     */
+    public long getMapCount() {
+        return this.maps.sum();
+    }
+
+    /**
+     * Get the total number of array values converted.
+     *
+     * @return the number of arrays
+     */
+    public long getArrayCount() {
+        return this.arrays.sum();
+    }
+
+    /**
+     * Get the deepest nesting of maps and arrays of any converted document.
+     *
+     * @return the depth
+     */
+    public long getMaxDepth() {
+        return this.maxDepth.get();
+    }
+
+    /**
+     * Get the histogram of the total time of the conversions.
+     *
+     * @return the number of conversions in each bucket, where bucket i counts the conversions
+     *         taking less than 2^i nanoseconds and at least 2^(i-1) nanoseconds
+     */
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = this.latency.get(i);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Get a percentile of the total time of the conversions.
+     *
+     * @param percentile the percentile between 0 and 1, such as 0.99
+     * @return the upper bound in nanoseconds of the bucket containing the percentile; 0 if nothing
+     *         was converted
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+}
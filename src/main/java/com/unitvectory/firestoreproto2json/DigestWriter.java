@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.Writer;
+import java.security.MessageDigest;
+
+/**
+ * Collects the characters written into a string while updating a digest with their UTF-8
+ * encoding, so the hash of the output does not require encoding the string again.
+ *
+ * Characters are encoded the same as String.getBytes with UTF-8, including replacing an unpaired
+ * surrogate with a question mark.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class DigestWriter extends Writer {
+
+    private final StringBuilder builder = new StringBuilder();
+
+    private final MessageDigest digest;
+
+    private final byte[] buffer = new byte[256];
+
+    private int position;
+
+    /**
+     * The high surrogate waiting for the low surrogate of the pair; 0 if none.
+     */
+    private char highSurrogate;
+
+    DigestWriter(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    @Override
+    public void write(int c) {
+        this.builder.append((char) c);
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        this.builder.append(cbuf, off, len);
+        for (int i = off; i < off + len; i++) {
+            encode(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        this.builder.append(str, off, off + len);
+        for (int i = off; i < off + len; i++) {
+            encode(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // The characters are kept until the digest is complete
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * Get the characters written.
+     *
+     * @return the string
+     */
+    String string() {
+        return this.builder.toString();
+    }
+
+    /**
+     * Complete the digest of the characters written.
+     *
+     * @return the digest
+     */
+    byte[] digest() {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            put((byte) '?');
+        }
+
+        this.digest.update(this.buffer, 0, this.position);
+        this.position = 0;
+        return this.digest.digest();
+    }
+
+    private void encode(char c) {
+        if (this.highSurrogate != 0) {
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                put((byte) (0xf0 | (codePoint >> 18)));
+                put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                put((byte) (0x80 | (codePoint & 0x3f)));
+                return;
+            }
+
+            put((byte) '?');
+        }
+
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            put((byte) (0xc0 | (c >> 6)));
+            put((byte) (0x80 | (c & 0x3f)));
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            put((byte) (0xe0 | (c >> 12)));
+            put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            put((byte) (0x80 | (c & 0x3f)));
+        }
+    }
+
+    private void put(byte b) {
+        if (this.position == this.buffer.length) {
+            this.digest.update(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+
+        this.buffer[this.position++] = b;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.events.cloud.firestore.v1.Value.ValueTypeCase;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * Computes the changes between the old value and the value of a DocumentEventData by walking both
+ * field maps together.
+ *
+ * Values that are equal are skipped without being converted, maps that differ are descended into
+ * and every other changed value is converted in full. When the update mask is set only the fields
+ * it names are compared. A document that is not set is treated as an empty document.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class DocumentDiff {
+
+    private final FirestoreProto2Json firestoreProto2Json;
+
+    private final FieldProjection.Node projection;
+
+    /**
+     * The operations of the JSON Patch; null when computing a JSON Merge Patch.
+     */
+    private final JsonArray jsonPatch;
+
+    private DocumentDiff(FirestoreProto2Json firestoreProto2Json, FieldProjection.Node projection,
+            JsonArray jsonPatch) {
+        this.firestoreProto2Json = firestoreProto2Json;
+        this.projection = projection;
+        this.jsonPatch = jsonPatch;
+    }
+
+    /**
+     * Compute the JSON Merge Patch (RFC 7396) from the old value to the value.
+     *
+     * @param firestoreProto2Json the FirestoreProto2Json used to convert the changed values
+     * @param projection the projection of the fields
+     * @param documentEventData the DocumentEventData
+     * @return the JSON Merge Patch; null if neither the value nor the old value are set
+     */
+    static JsonObject jsonMergePatch(FirestoreProto2Json firestoreProto2Json,
+            FieldProjection.Node projection, DocumentEventData documentEventData) {
+        if (!documentEventData.hasValue() && !documentEventData.hasOldValue()) {
+            return null;
+        }
+
+        return new DocumentDiff(firestoreProto2Json, projection, null).diff(documentEventData);
+    }
+
+    /**
+     * Compute the JSON Patch (RFC 6902) from the old value to the value.
+     *
+     * @param firestoreProto2Json the FirestoreProto2Json used to convert the changed values
+     * @param projection the projection of the fields
+     * @param documentEventData the DocumentEventData
+     * @return the JSON Patch; null if neither the value nor the old value are set
+     */
+    static JsonArray jsonPatch(FirestoreProto2Json firestoreProto2Json,
+            FieldProjection.Node projection, DocumentEventData documentEventData) {
+        if (!documentEventData.hasValue() && !documentEventData.hasOldValue()) {
+            return null;
+        }
+
+        JsonArray jsonPatch = new JsonArray();
+        new DocumentDiff(firestoreProto2Json, projection, jsonPatch).diff(documentEventData);
+        return jsonPatch;
+    }
+
+    private JsonObject diff(DocumentEventData documentEventData) {
+        Map<String, Value> oldFields = documentEventData.hasOldValue()
+                ? documentEventData.getOldValue().getFieldsMap()
+                : Map.of();
+        Map<String, Value> newFields = documentEventData.hasValue()
+                ? documentEventData.getValue().getFieldsMap()
+                : Map.of();
+        return diff(oldFields, newFields, this.projection, mask(documentEventData), "");
+    }
+
+    /**
+     * Compile the update mask of an update into the fields that are compared.
+     */
+    private static FieldProjection.Node mask(DocumentEventData documentEventData) {
+        List<String> fieldPaths = documentEventData.getUpdateMask().getFieldPathsList();
+        if (!documentEventData.hasValue() || !documentEventData.hasOldValue()
+                || fieldPaths.isEmpty()) {
+            return FieldProjection.Node.ALL;
+        }
+
+        try {
+            return FieldProjection.builder().includes(fieldPaths).build().root();
+        } catch (IllegalArgumentException e) {
+            // Compare every field when the update mask cannot be used
+            return FieldProjection.Node.ALL;
+        }
+    }
+
+    private JsonObject diff(Map<String, Value> oldFields, Map<String, Value> newFields,
+            FieldProjection.Node projection, FieldProjection.Node mask, String pointer) {
+        JsonObject jsonMergePatch = this.jsonPatch == null ? new JsonObject() : null;
+        Set<String> maskNames = mask.selectedNames();
+        if (maskNames != null) {
+            // Only the fields in the update mask can have changed
+            for (String name : maskNames) {
+                diff(name, oldFields.get(name), newFields.get(name), projection, mask, pointer,
+                        jsonMergePatch);
+            }
+        } else {
+            for (Entry<String, Value> entry : newFields.entrySet()) {
+                diff(entry.getKey(), oldFields.get(entry.getKey()), entry.getValue(), projection,
+                        mask, pointer, jsonMergePatch);
+            }
+
+            for (Entry<String, Value> entry : oldFields.entrySet()) {
+                if (!newFields.containsKey(entry.getKey())) {
+                    diff(entry.getKey(), entry.getValue(), null, projection, mask, pointer,
+                            jsonMergePatch);
+                }
+            }
+        }
+
+        return jsonMergePatch;
+    }
+
+    private void diff(String name, Value oldValue, Value newValue, FieldProjection.Node projection,
+            FieldProjection.Node mask, String pointer, JsonObject jsonMergePatch) {
+        FieldProjection.Node fieldProjection = projection.child(name);
+        FieldProjection.Node fieldMask = mask.child(name);
+        if (fieldProjection == null || fieldMask == null) {
+            return;
+        }
+
+        boolean oldPresent = isPresent(oldValue, fieldProjection);
+        boolean newPresent = isPresent(newValue, fieldProjection);
+        String path = pointer + '/' + escape(name);
+        if (oldPresent && newPresent) {
+            // The serialized size is cached so most changed values are detected without equals
+            if (oldValue.getSerializedSize() == newValue.getSerializedSize()
+                    && oldValue.equals(newValue)) {
+                return;
+            }
+
+            if (oldValue.hasMapValue() && newValue.hasMapValue()
+                    && fieldProjection.mapper(newValue) == null) {
+                JsonObject mapMergePatch = diff(oldValue.getMapValue().getFieldsMap(),
+                        newValue.getMapValue().getFieldsMap(), fieldProjection, fieldMask, path);
+                if (jsonMergePatch != null && mapMergePatch.size() > 0) {
+                    jsonMergePatch.add(name, mapMergePatch);
+                }
+            } else {
+                write(name, oldValue, newValue, fieldProjection, pointer, jsonMergePatch);
+            }
+        } else if (newPresent) {
+            write(name, null, newValue, fieldProjection, pointer, jsonMergePatch);
+        } else if (oldPresent) {
+            write(name, oldValue, null, fieldProjection, pointer, jsonMergePatch);
+        }
+    }
+
+    /**
+     * Write the changes of a field from the old value to the value, either of which may be null.
+     * 
+     * The value mappers may write a different or multiple attributes for a field, so both values
+     * are converted and the attributes written for the old value but not for the value are
+     * removed.
+     */
+    private void write(String name, Value oldValue, Value newValue,
+            FieldProjection.Node projection, String pointer, JsonObject jsonMergePatch) {
+        JsonObject oldConverted = convert(name, oldValue, projection);
+        JsonObject newConverted = convert(name, newValue, projection);
+        for (Entry<String, JsonElement> entry : newConverted.entrySet()) {
+            if (jsonMergePatch != null) {
+                jsonMergePatch.add(entry.getKey(), entry.getValue());
+            } else {
+                JsonObject operation = new JsonObject();
+                operation.addProperty("op", oldConverted.has(entry.getKey()) ? "replace" : "add");
+                operation.addProperty("path", pointer + '/' + escape(entry.getKey()));
+                operation.add("value", entry.getValue());
+                this.jsonPatch.add(operation);
+            }
+        }
+
+        for (String key : oldConverted.keySet()) {
+            if (newConverted.has(key)) {
+                // Written by the value as well
+            } else if (jsonMergePatch != null) {
+                jsonMergePatch.add(key, JsonNull.INSTANCE);
+            } else {
+                JsonObject operation = new JsonObject();
+                operation.addProperty("op", "remove");
+                operation.addProperty("path", pointer + '/' + escape(key));
+                this.jsonPatch.add(operation);
+            }
+        }
+    }
+
+    private JsonObject convert(String name, Value value, FieldProjection.Node projection) {
+        JsonObject converted = new JsonObject();
+        if (value != null) {
+            this.firestoreProto2Json.appendValue(converted, name, value, projection);
+        }
+
+        return converted;
+    }
+
+    /**
+     * Check if the value is written to the JSON for the projection.
+     */
+    private static boolean isPresent(Value value, FieldProjection.Node projection) {
+        return value != null && value.getValueTypeCase() != ValueTypeCase.VALUETYPE_NOT_SET
+                && (projection.included || value.hasMapValue() || value.hasArrayValue());
+    }
+
+    /**
+     * Escape the field name as a JSON Pointer (RFC 6901) reference token.
+     */
+    private static String escape(String name) {
+        if (name.indexOf('~') < 0 && name.indexOf('/') < 0) {
+            return name;
+        }
+
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.List;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+
+/**
+ * The JSON conversion of the value, old value and update mask of a single parsed DocumentEventData.
+ *
+ * The protocol buffer is parsed once when this is created and each side is converted lazily the
+ * first time it is requested. The JSON strings are cached; a new JSON object is created on each
+ * request as it is mutable.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DocumentEventJson {
+
+    /**
+     * The FirestoreProto2Json used for the conversion.
+     */
+    private final FirestoreProto2Json firestoreProto2Json;
+
+    /**
+     * The parsed DocumentEventData.
+     *
+     * @return the DocumentEventData
+     */
+    @Getter
+    private final DocumentEventData documentEventData;
+
+    private String valueJsonString;
+
+    private String oldValueJsonString;
+
+    private LazyJsonObject valueLazyJsonObject;
+
+    private LazyJsonObject oldValueLazyJsonObject;
+
+    DocumentEventJson(FirestoreProto2Json firestoreProto2Json,
+            DocumentEventData documentEventData) {
+        this.firestoreProto2Json = firestoreProto2Json;
+        this.documentEventData = documentEventData;
+    }
+
+    /**
+     * Check if the value is set.
+     *
+     * @return true if the value is set; otherwise false
+     */
+    public boolean hasValue() {
+        return this.documentEventData.hasValue();
+    }
+
+    /**
+     * Check if the old value is set.
+     *
+     * @return true if the old value is set; otherwise false
+     */
+    public boolean hasOldValue() {
+        return this.documentEventData.hasOldValue();
+    }
+
+    /**
+     * Get the value as a JSON string.
+     *
+     * @return the JSON string for the value if set; otherwise null
+     */
+    public String getValueJsonString() {
+        if (this.valueJsonString == null) {
+            this.valueJsonString = this.firestoreProto2Json.valueToJsonString(documentEventData);
+        }
+
+        return this.valueJsonString;
+    }
+
+    /**
+     * Get the old value as a JSON string.
+     *
+     * @return the JSON string for the old value if set; otherwise null
+     */
+    public String getOldValueJsonString() {
+        if (this.oldValueJsonString == null) {
+            this.oldValueJsonString =
+                    this.firestoreProto2Json.oldValueToJsonString(documentEventData);
+        }
+
+        return this.oldValueJsonString;
+    }
+
+    /**
+     * Get the value as a JSON object.
+     *
+     * @return the JSON object for the value if set; otherwise null
+     */
+    public JsonObject getValueJsonObject() {
+        return this.firestoreProto2Json.valueToJsonObject(documentEventData);
+    }
+
+    /**
+     * Get the old value as a JSON object.
+     *
+     * @return the JSON object for the old value if set; otherwise null
+     */
+    public JsonObject getOldValueJsonObject() {
+        return this.firestoreProto2Json.oldValueToJsonObject(documentEventData);
+    }
+
+    /**
+     * Get a lazy view of the value that converts each field only when it is accessed.
+     *
+     * The view is cached so the fields converted through it are converted only once.
+     *
+     * @return the lazy view of the value if set; otherwise null
+     */
+    public LazyJsonObject getValueLazyJsonObject() {
+        if (this.valueLazyJsonObject == null) {
+            this.valueLazyJsonObject =
+                    this.firestoreProto2Json.valueToLazyJsonObject(documentEventData);
+        }
+
+        return this.valueLazyJsonObject;
+    }
+
+    /**
+     * Get a lazy view of the old value that converts each field only when it is accessed.
+     *
+     * The view is cached so the fields converted through it are converted only once.
+     *
+     * @return the lazy view of the old value if set; otherwise null
+     */
+    public LazyJsonObject getOldValueLazyJsonObject() {
+        if (this.oldValueLazyJsonObject == null) {
+            this.oldValueLazyJsonObject =
+                    this.firestoreProto2Json.oldValueToLazyJsonObject(documentEventData);
+        }
+
+        return this.oldValueLazyJsonObject;
+    }
+
+    /**
+     * Get the changes from the old value to the value as a JSON Merge Patch (RFC 7396).
+     *
+     * @return the JSON Merge Patch if the value or old value is set; otherwise null
+     */
+    public JsonObject getJsonMergePatch() {
+        return this.firestoreProto2Json.eventToJsonMergePatch(documentEventData);
+    }
+
+    /**
+     * Get the changes from the old value to the value as a JSON Patch (RFC 6902).
+     *
+     * @return the JSON Patch operations if the value or old value is set; otherwise null
+     */
+    public JsonArray getJsonPatch() {
+        return this.firestoreProto2Json.eventToJsonPatch(documentEventData);
+    }
+
+    /**
+     * Check if the update mask is set.
+     *
+     * @return true if the update mask is set; otherwise false
+     */
+    public boolean hasUpdateMask() {
+        return this.documentEventData.hasUpdateMask();
+    }
+
+    /**
+     * Get the field paths of the update mask.
+     *
+     * @return the field paths of the update mask; empty if the update mask is not set
+     */
+    public List<String> getUpdateMask() {
+        return this.documentEventData.getUpdateMask().getFieldPathsList();
+    }
+}
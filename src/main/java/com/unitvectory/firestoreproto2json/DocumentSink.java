@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import com.google.events.cloud.firestore.v1.Value;
+
+/**
+ * The output a document is converted to, receiving the maps, arrays and values of the document
+ * in order.
+ *
+ * The conversion walks the document once with a single dispatch on the type of each value, so
+ * the JSON object, JSON Writer, Jackson and binary outputs differ only in their sink. Every method
+ * takes the name of the attribute within the open map, or null for an element of the open array or
+ * for the document itself.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+interface DocumentSink {
+
+    void beginMap(String key) throws IOException;
+
+    void endMap() throws IOException;
+
+    void beginArray(String key) throws IOException;
+
+    void endArray() throws IOException;
+
+    void value(String key, long value) throws IOException;
+
+    void value(String key, String value) throws IOException;
+
+    void value(String key, double value) throws IOException;
+
+    void value(String key, boolean value) throws IOException;
+
+    void nullValue(String key) throws IOException;
+
+    /**
+     * Write a value converted by the mapper of its field.
+     *
+     * @param key the key; null for an array element
+     * @param value the value
+     * @param mapper the value mapper
+     * @throws IOException exception thrown when writing fails
+     */
+    void mapped(String key, Value value, ValueMapper mapper) throws IOException;
+
+    /**
+     * Write a timestamp, geopoint or bytes value converted by the mapper of its type.
+     *
+     * @param key the key; null for an array element
+     * @param value the value
+     * @param mapper the value mapper
+     * @throws IOException exception thrown when writing fails
+     */
+    default void typed(String key, Value value, ValueMapper mapper) throws IOException {
+        mapped(key, value, mapper);
+    }
+}
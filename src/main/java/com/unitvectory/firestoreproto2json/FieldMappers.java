@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import com.google.events.cloud.firestore.v1.Value.ValueTypeCase;
+
+/**
+ * The value mappers of individual fields and value types, replacing the mappers of
+ * FirestoreProto2Json for the values they match.
+ *
+ * A mapper registered for a field path, using the syntax of {@link FieldProjection}, converts the
+ * value at that path, including the entries of an array at that path. A typed mapper, such as a
+ * {@link ValueMapperTimestamp}, only converts values of its type while a {@link ValueMapperAny}
+ * converts a value of any type. A mapper registered for a value type converts every value of that
+ * type that is not converted by the mapper of its path. To omit a field exclude it with the
+ * FieldProjection.
+ *
+ * The mappers are compiled with the projection into a trie holding, for each mapped field, a table
+ * indexed by the type of the value, so fields without a mapper are converted without a lookup.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class FieldMappers {
+
+    /**
+     * The length of the tables indexed by the number of the field of the value, the highest being
+     * bytes_value.
+     */
+    private static final int TABLE_LENGTH = ValueTypeCase.BYTES_VALUE.getNumber() + 1;
+
+    private final Map<String, ValueMapper[]> paths;
+
+    private final ValueMapper[] types;
+
+    /**
+     * The builder of the value mappers.
+     * 
+     * The mappers are kept in the order they are registered; a mapper registered again for the same
+     * path or type replaces the previous one.
+     */
+    public static final class FieldMappersBuilder {
+
+        private final Map<String, ValueMapper> paths = new LinkedHashMap<>();
+
+        private final Map<ValueTypeCase, ValueMapper> types = new LinkedHashMap<>();
+
+        private FieldMappersBuilder() {}
+
+        /**
+         * Register the mapper of a field path.
+         *
+         * @param path the field path
+         * @param mapper the mapper
+         * @return this builder
+         */
+        public FieldMappersBuilder path(String path, ValueMapper mapper) {
+            this.paths.put(path, mapper);
+            return this;
+        }
+
+        /**
+         * Register the mapper of each field path.
+         *
+         * @param paths the mapper of each field path
+         * @return this builder
+         */
+        public FieldMappersBuilder paths(Map<String, ? extends ValueMapper> paths) {
+            if (paths == null) {
+                throw new NullPointerException("paths cannot be null");
+            }
+
+            this.paths.putAll(paths);
+            return this;
+        }
+
+        /**
+         * Remove the mappers of the field paths.
+         *
+         * @return this builder
+         */
+        public FieldMappersBuilder clearPaths() {
+            this.paths.clear();
+            return this;
+        }
+
+        /**
+         * Register the mapper of a value type.
+         *
+         * @param type the value type
+         * @param mapper the mapper
+         * @return this builder
+         */
+        public FieldMappersBuilder type(ValueTypeCase type, ValueMapper mapper) {
+            this.types.put(type, mapper);
+            return this;
+        }
+
+        /**
+         * Register the mapper of each value type.
+         *
+         * @param types the mapper of each value type
+         * @return this builder
+         */
+        public FieldMappersBuilder types(Map<ValueTypeCase, ? extends ValueMapper> types) {
+            if (types == null) {
+                throw new NullPointerException("types cannot be null");
+            }
+
+            this.types.putAll(types);
+            return this;
+        }
+
+        /**
+         * Remove the mappers of the value types.
+         *
+         * @return this builder
+         */
+        public FieldMappersBuilder clearTypes() {
+            this.types.clear();
+            return this;
+        }
+
+        /**
+         * Build the value mappers.
+         *
+         * @return the value mappers
+         */
+        public FieldMappers build() {
+            return new FieldMappers(this.paths, this.types);
+        }
+    }
+
+    /**
+     * Create a builder of the value mappers.
+     *
+     * @return the builder
+     */
+    public static FieldMappersBuilder builder() {
+        return new FieldMappersBuilder();
+    }
+
+    /**
+     * Create the value mappers.
+     *
+     * @param paths the mapper of each field path
+     * @param types the mapper of each value type
+     */
+    private FieldMappers(Map<String, ValueMapper> paths, Map<ValueTypeCase, ValueMapper> types) {
+        Map<String, ValueMapper[]> pathTables = new LinkedHashMap<>();
+        for (Entry<String, ValueMapper> entry : paths.entrySet()) {
+            ValueMapper[] table = new ValueMapper[TABLE_LENGTH];
+            for (ValueTypeCase type : ValueTypeCase.values()) {
+                if (type != ValueTypeCase.VALUETYPE_NOT_SET && converts(entry.getValue(), type)) {
+                    table[type.getNumber()] = entry.getValue();
+                }
+            }
+
+            pathTables.put(entry.getKey(), table);
+        }
+
+        ValueMapper[] typeTable = null;
+        for (Entry<ValueTypeCase, ValueMapper> entry : types.entrySet()) {
+            if (entry.getKey() == ValueTypeCase.VALUETYPE_NOT_SET
+                    || !converts(entry.getValue(), entry.getKey())) {
+                throw new IllegalArgumentException(
+                        "The mapper does not convert " + entry.getKey());
+            }
+
+            if (typeTable == null) {
+                typeTable = new ValueMapper[TABLE_LENGTH];
+            }
+
+            typeTable[entry.getKey().getNumber()] = entry.getValue();
+        }
+
+        this.paths = Collections.unmodifiableMap(pathTables);
+        this.types = typeTable;
+
+        // Compile the paths once so an invalid path fails when the mappers are built
+        FieldProjection.ALL.root(this);
+    }
+
+    /**
+     * Check if the mapper converts values of the type.
+     */
+    private static boolean converts(ValueMapper mapper, ValueTypeCase type) {
+        if (mapper instanceof ValueMapperAny) {
+            return true;
+        } else if (mapper instanceof ValueMapperTimestamp) {
+            return type == ValueTypeCase.TIMESTAMP_VALUE;
+        } else if (mapper instanceof ValueMapperGeoPoint) {
+            return type == ValueTypeCase.GEO_POINT_VALUE;
+        } else if (mapper instanceof ValueMapperBytes) {
+            return type == ValueTypeCase.BYTES_VALUE;
+        } else {
+            throw new IllegalArgumentException("Unsupported mapper: " + mapper);
+        }
+    }
+
+    /**
+     * Get the table of mappers of each field path.
+     *
+     * @return the tables
+     */
+    Map<String, ValueMapper[]> paths() {
+        return this.paths;
+    }
+
+    /**
+     * Get the table of mappers of every field.
+     *
+     * @return the table; null if no type is mapped
+     */
+    ValueMapper[] types() {
+        return this.types;
+    }
+
+    /**
+     * Combine two tables, the mappers of the second replacing those of the first.
+     *
+     * @param first the first table; may be null
+     * @param second the second table; may be null
+     * @return the combined table; null if both are null
+     */
+    static ValueMapper[] overlay(ValueMapper[] first, ValueMapper[] second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+
+        ValueMapper[] table = first.clone();
+        for (int i = 0; i < second.length; i++) {
+            if (second[i] != null) {
+                table[i] = second[i];
+            }
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Builder;
+
+/**
+ * A bounded cache of the encoded JSON tokens of field names for collections with a fixed schema.
+ *
+ * The token of a name is its escaped UTF-8 JSON string followed by the colon, so once a name is
+ * cached the transcoder writes it with a single array copy instead of validating and escaping its
+ * bytes again for every document. Names are looked up by their UTF-8 bytes, which are hashed for
+ * the lookup and compared in full.
+ *
+ * The cache is a table of buckets of four slots, its size rounded up to a power of two, so a lookup
+ * never locks. The hash of a name selects two buckets and the name is cached in a free slot of
+ * either, so a cache holding fewer names than its size rarely has to replace one. When both buckets
+ * are full a name replaces the name in a slot selected by its hash, which is counted as an
+ * eviction. Names longer than the maximum length are written without the cache.
+ *
+ * A cache may be shared by several converters and threads.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class FieldNameCache {
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static final int DEFAULT_MAX_NAME_LENGTH = 64;
+
+    /**
+     * The number of slots of a bucket.
+     */
+    private static final int WAYS = 4;
+
+    /**
+     * A name and its token; immutable so it is safely published through the table.
+     */
+    private static final class Entry {
+
+        private final int hash;
+
+        private final byte[] name;
+
+        private final byte[] token;
+
+        private Entry(int hash, byte[] name, byte[] token) {
+            this.hash = hash;
+            this.name = name;
+            this.token = token;
+        }
+    }
+
+    private final Entry[] table;
+
+    /**
+     * The mask of the index of the first slot of a bucket.
+     */
+    private final int bucketMask;
+
+    private final int maxNameLength;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache.
+     *
+     * @param maximumSize the maximum number of names, rounded up to a power of two; 1024 if zero
+     * @param maxNameLength the maximum length in UTF-8 bytes of a cached name; 64 if zero
+     */
+    @Builder
+    private FieldNameCache(int maximumSize, int maxNameLength) {
+        if (maximumSize < 0 || maxNameLength < 0) {
+            throw new IllegalArgumentException(
+                    "maximumSize and maxNameLength must not be negative");
+        } else if (maximumSize > 1 << 30) {
+            throw new IllegalArgumentException("maximumSize must not exceed 2^30");
+        }
+
+        int size = maximumSize == 0 ? DEFAULT_MAXIMUM_SIZE : maximumSize;
+        this.table = new Entry[size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1];
+        this.bucketMask = (this.table.length - 1) & -Math.min(WAYS, this.table.length);
+        this.maxNameLength = maxNameLength == 0 ? DEFAULT_MAX_NAME_LENGTH : maxNameLength;
+    }
+
+    /**
+     * Get the number of names found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of names not found in the cache, excluding the names that are too long.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of names replaced by a name with the same bucket.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Get the ratio of hits to lookups.
+     *
+     * @return the hit ratio; 0 if nothing was looked up
+     */
+    public double getHitRatio() {
+        long hitCount = getHitCount();
+        long lookups = hitCount + getMissCount();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Get the number of cached names.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        int size = 0;
+        for (Entry entry : this.table) {
+            if (entry != null) {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Remove every name; the statistics are kept.
+     */
+    public void clear() {
+        Arrays.fill(this.table, null);
+    }
+
+    /**
+     * Get the token of a name, encoding and caching it if it is missing.
+     *
+     * @param bytes the buffer containing the UTF-8 name
+     * @param offset the offset of the name
+     * @param length the length of the name
+     * @return the token; null if the name is too long to be cached
+     * @throws InvalidProtocolBufferException if the name is not valid UTF-8
+     */
+    byte[] token(byte[] bytes, int offset, int length) throws InvalidProtocolBufferException {
+        if (length > this.maxNameLength) {
+            return null;
+        }
+
+        int hash = hash(bytes, offset, length);
+        int first = hash & this.bucketMask;
+        int second = Integer.rotateLeft(hash, 16) & this.bucketMask;
+        int ways = Math.min(WAYS, this.table.length);
+        int free = -1;
+        for (int i = 0; i < 2 * ways; i++) {
+            int index = (i < ways ? first : second) + i % ways;
+            Entry entry = this.table[index];
+            if (entry == null) {
+                free = free < 0 ? index : free;
+            } else if (entry.hash == hash && Arrays.equals(entry.name, 0, entry.name.length,
+                    bytes, offset, offset + length)) {
+                this.hits.increment();
+                return entry.token;
+            }
+        }
+
+        this.misses.increment();
+        Utf8JsonWriter writer = new Utf8JsonWriter(length + 8);
+        writer.name(bytes, offset, length);
+        if (free < 0) {
+            // The high bits of the hash, which did not select the first bucket, select the slot
+            free = first + (hash >>> 30) % ways;
+            this.evictions.increment();
+        }
+
+        // A racing lookup of the same bucket may encode the name again, which is harmless
+        byte[] token = writer.toByteArray();
+        this.table[free] =
+                new Entry(hash, Arrays.copyOfRange(bytes, offset, offset + length), token);
+        return token;
+    }
+
+    /**
+     * Hash the UTF-8 name, mixing the bits with the finalizer of MurmurHash3 so similar names are
+     * spread over the buckets.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import com.google.events.cloud.firestore.v1.Value;
+import lombok.Builder;
+import lombok.Singular;
+
+/**
+ * Selects the fields of a document that are converted.
+ *
+ * Field paths are dotted, such as <code>address.city</code>, where a <code>*</code> segment matches
+ * any field name at that level and a segment can be quoted with backticks, such as
+ * <code>`first.last`.name</code>, when the field name contains a dot, a backtick or is exactly
+ * <code>*</code>. Including a path includes the entire value at that path and the maps containing
+ * it. When no paths are included every field is included. Excluding a path removes the entire
+ * value at that path and takes precedence over including it. Paths apply to the maps within arrays
+ * as they do to maps.
+ *
+ * The paths are compiled into a trie once when the projection is built so fields that are not
+ * selected are skipped without being converted. The value mappers of {@link FieldMappers} are
+ * compiled into the same trie so the mapper of a field is found while its node is selected.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class FieldProjection {
+
+    /**
+     * The projection that includes every field.
+     */
+    public static final FieldProjection ALL = new FieldProjection(List.of(), List.of());
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    private final Node root;
+
+    /**
+     * Create a projection from the field paths.
+     *
+     * @param includes the field paths to include; every field if empty
+     * @param excludes the field paths to exclude
+     */
+    @Builder
+    private FieldProjection(@Singular List<String> includes, @Singular List<String> excludes) {
+        this.includes = List.copyOf(includes);
+        this.excludes = List.copyOf(excludes);
+        this.root = compile(null);
+    }
+
+    /**
+     * Get the compiled node of the document.
+     *
+     * @return the node of the document
+     */
+    Node root() {
+        return this.root;
+    }
+
+    /**
+     * Get the compiled node of the document with the value mappers of the fields.
+     *
+     * @param fieldMappers the value mappers; null for none
+     * @return the node of the document
+     */
+    Node root(FieldMappers fieldMappers) {
+        return fieldMappers == null ? this.root : compile(fieldMappers);
+    }
+
+    private Node compile(FieldMappers fieldMappers) {
+        PathNode root = new PathNode();
+        root.included = this.includes.isEmpty();
+        for (String include : this.includes) {
+            root.path(include).included = true;
+        }
+
+        for (String exclude : this.excludes) {
+            root.path(exclude).excluded = true;
+        }
+
+        if (fieldMappers == null) {
+            return root.compile(false, null, Node.ALL);
+        }
+
+        for (Entry<String, ValueMapper[]> entry : fieldMappers.paths().entrySet()) {
+            root.path(entry.getKey()).mappers = entry.getValue();
+        }
+
+        // The types mapped for every field are held by the node including everything below it
+        ValueMapper[] types = fieldMappers.types();
+        Node all = types == null ? Node.ALL : new Node(true, Map.of(), null, types, null);
+        return root.compile(false, types, all);
+    }
+
+    /**
+     * A compiled node of the trie selecting the fields of a map.
+     */
+    static final class Node {
+
+        /**
+         * The node including the entire value and every field within it.
+         */
+        static final Node ALL = new Node(true, Map.of(), null, null, null);
+
+        private static final Node EXCLUDED = new Node(false, Map.of(), null, null, ALL);
+
+        /**
+         * True if the entire value is included; otherwise only maps are followed and scalar
+         * values are skipped.
+         */
+        final boolean included;
+
+        private final Map<String, Node> children;
+
+        private final byte[][] childNames;
+
+        private final Node[] childNodes;
+
+        private final Node wildcard;
+
+        /**
+         * The mapper of the value of this field for each value type, indexed by the number of the
+         * field of the value; null if no value is mapped.
+         */
+        private final ValueMapper[] mappers;
+
+        /**
+         * The node of the fields included by this node that are not selected otherwise; this
+         * node if it includes everything below it.
+         */
+        private final Node all;
+
+        private Node(boolean included, Map<String, Node> children, Node wildcard,
+                ValueMapper[] mappers, Node all) {
+            this.included = included;
+            this.mappers = mappers;
+            this.all = all == null ? this : all;
+            this.children = children;
+            this.childNames = new byte[children.size()][];
+            this.childNodes = new Node[children.size()];
+            int i = 0;
+            for (Entry<String, Node> entry : children.entrySet()) {
+                this.childNames[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                this.childNodes[i] = entry.getValue();
+                i++;
+            }
+
+            this.wildcard = wildcard;
+        }
+
+        /**
+         * Get the node of the field.
+         *
+         * @param name the name of the field
+         * @return the node of the field; null if the field is skipped
+         */
+        Node child(String name) {
+            if (this.all == this) {
+                return this;
+            }
+
+            Node node = this.children.get(name);
+            return select(node);
+        }
+
+        /**
+         * Get the node of the field with the UTF-8 encoded name.
+         *
+         * @param bytes the buffer containing the name
+         * @param offset the offset of the name
+         * @param length the length of the name
+         * @return the node of the field; null if the field is skipped
+         */
+        Node child(byte[] bytes, int offset, int length) {
+            if (this.all == this) {
+                return this;
+            }
+
+            Node node = null;
+            for (int i = 0; i < this.childNames.length; i++) {
+                byte[] name = this.childNames[i];
+                if (Arrays.equals(name, 0, name.length, bytes, offset, offset + length)) {
+                    node = this.childNodes[i];
+                    break;
+                }
+            }
+
+            return select(node);
+        }
+
+        /**
+         * Get the names of the fields that can be selected when no other fields can be.
+         *
+         * @return the names of the fields; null if fields that are not named can be selected
+         */
+        Set<String> selectedNames() {
+            return this.included || this.wildcard != null ? null : this.children.keySet();
+        }
+
+        /**
+         * Get the mapper of the value of this field.
+         *
+         * @param value the value
+         * @return the mapper; null if the value is converted by default
+         */
+        ValueMapper mapper(Value value) {
+            return this.mappers == null ? null
+                    : this.mappers[value.getValueTypeCase().getNumber()];
+        }
+
+        /**
+         * Get the mapper of the value of this field by the number of the field of the value that
+         * is set.
+         *
+         * @param fieldNumber the number of the field of the value; 0 if none is set
+         * @return the mapper; null if the value is converted by default
+         */
+        ValueMapper mapper(int fieldNumber) {
+            return this.mappers == null || fieldNumber >= this.mappers.length ? null
+                    : this.mappers[fieldNumber];
+        }
+
+        private Node select(Node node) {
+            if (node == null) {
+                node = this.wildcard != null ? this.wildcard : this.included ? this.all : null;
+            }
+
+            return node == EXCLUDED ? null : node;
+        }
+    }
+
+    /**
+     * A node of the trie while the paths are being added.
+     */
+    private static final class PathNode {
+
+        private boolean included;
+
+        private boolean excluded;
+
+        private ValueMapper[] mappers;
+
+        private final Map<String, PathNode> children = new LinkedHashMap<>();
+
+        private PathNode wildcard;
+
+        private PathNode child(String name) {
+            return this.children.computeIfAbsent(name, k -> new PathNode());
+        }
+
+        private PathNode wildcard() {
+            if (this.wildcard == null) {
+                this.wildcard = new PathNode();
+            }
+
+            return this.wildcard;
+        }
+
+        /**
+         * Get the node of the field path, adding the nodes that do not exist.
+         */
+        private PathNode path(String path) {
+            PathNode node = this;
+            int length = path.length();
+            int i = 0;
+            while (true) {
+                StringBuilder segment = new StringBuilder();
+                boolean quoted = i < length && path.charAt(i) == '`';
+                if (quoted) {
+                    i++;
+                    while (i < length && path.charAt(i) != '`') {
+                        if (path.charAt(i) == '\\' && i + 1 < length) {
+                            i++;
+                        }
+
+                        segment.append(path.charAt(i++));
+                    }
+
+                    if (i++ >= length) {
+                        throw new IllegalArgumentException("Invalid field path: " + path);
+                    }
+                } else {
+                    while (i < length && path.charAt(i) != '.') {
+                        segment.append(path.charAt(i++));
+                    }
+                }
+
+                if (!quoted && segment.length() == 0
+                        || i < length && path.charAt(i) != '.') {
+                    throw new IllegalArgumentException("Invalid field path: " + path);
+                }
+
+                if (!quoted && segment.length() == 1 && segment.charAt(0) == '*') {
+                    node = node.wildcard();
+                } else {
+                    node = node.child(segment.toString());
+                }
+
+                if (i >= length) {
+                    return node;
+                }
+
+                // Skip the separator which must be followed by another segment
+                if (++i >= length) {
+                    throw new IllegalArgumentException("Invalid field path: " + path);
+                }
+            }
+        }
+
+        /**
+         * Merge the paths of the other node into this node.
+         */
+        private void merge(PathNode other) {
+            this.included |= other.included;
+            this.excluded |= other.excluded;
+            this.mappers = FieldMappers.overlay(other.mappers, this.mappers);
+            for (Entry<String, PathNode> entry : other.children.entrySet()) {
+                child(entry.getKey()).merge(entry.getValue());
+            }
+
+            if (other.wildcard != null) {
+                wildcard().merge(other.wildcard);
+            }
+        }
+
+        private Node compile(boolean parentIncluded, ValueMapper[] types, Node allNode) {
+            if (this.excluded) {
+                return Node.EXCLUDED;
+            }
+
+            boolean included = this.included || parentIncluded;
+            if (this.wildcard != null) {
+                // The wildcard also applies to the fields that are named explicitly
+                for (PathNode child : this.children.values()) {
+                    child.merge(this.wildcard);
+                }
+            }
+
+            boolean all = included && this.mappers == null;
+            Map<String, Node> children = new LinkedHashMap<>();
+            for (Entry<String, PathNode> entry : this.children.entrySet()) {
+                Node child = entry.getValue().compile(included, types, allNode);
+                children.put(entry.getKey(), child);
+                all &= child == allNode;
+            }
+
+            Node wildcard =
+                    this.wildcard == null ? null : this.wildcard.compile(included, types, allNode);
+            all &= wildcard == null || wildcard == allNode;
+            if (all) {
+                return allNode;
+            }
+
+            // Only the values that are included are mapped
+            ValueMapper[] mappers = included ? FieldMappers.overlay(types, this.mappers) : null;
+            return new Node(included, children, wildcard, mappers, allNode);
+        }
+    }
+}
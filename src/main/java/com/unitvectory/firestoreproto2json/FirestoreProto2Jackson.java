@@ -0,0 +1,428 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+import lombok.Builder;
+
+/**
+ * Utility for converting the protobuf from Firestore directly into Jackson JSON nodes or through a
+ * Jackson JSON Generator.
+ * 
+ * The structure is the same as FirestoreProto2Json, so the ObjectNode is equal to reading the JSON
+ * string of FirestoreProto2Json with an ObjectMapper, without serializing and reparsing the
+ * document. The document is walked by the same traversal as the outputs of FirestoreProto2Json,
+ * whose field mappers, sorted keys, conversion limits and conversion listener apply here as well;
+ * timestamps, geopoints and bytes are converted by the Jackson value mappers. Jackson is an
+ * optional dependency and must be on the classpath to use this class.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Builder
+public class FirestoreProto2Jackson {
+
+    static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    /**
+     * The default instance of FirestoreProto2Jackson
+     */
+    public static final FirestoreProto2Jackson DEFAULT = FirestoreProto2Jackson.builder().build();
+
+    @Builder.Default
+    private JacksonValueMapper<Timestamp> valueMapperTimestamp =
+            new JacksonValueMapperTimestampDefault();
+
+    @Builder.Default
+    private JacksonValueMapper<LatLng> valueMapperGeoPoint =
+            new JacksonValueMapperGeoPointDefault();
+
+    @Builder.Default
+    private JacksonValueMapper<byte[]> valueMapperBytes = new JacksonValueMapperBytesDefault();
+
+    /**
+     * The projection of the fields; null to use the projection of the FirestoreProto2Json.
+     */
+    private FieldProjection fieldProjection;
+
+    @Builder.Default
+    private JsonNodeFactory nodeFactory = NODE_FACTORY;
+
+    /**
+     * The FirestoreProto2Json whose projection, field mappers, sorted keys, conversion limits and
+     * conversion listener configure the conversion.
+     */
+    @Builder.Default
+    private FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.DEFAULT;
+
+    /**
+     * The projection compiled with the field mappers, once it is first used.
+     */
+    private final AtomicReference<FieldProjection.Node> root = new AtomicReference<>();
+
+    /**
+     * Convert a DocumentEventData value to an Object Node.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the Object Node for the value if set; otherwise null
+     */
+    public ObjectNode valueToObjectNode(DocumentEventData documentEventData) {
+        return toObjectNode(value(documentEventData),
+                this.firestoreProto2Json.measure("valueToObjectNode", -1));
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData value to an Object Node.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the Object Node for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public ObjectNode valueToObjectNode(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        ConversionMeasurement measurement =
+                this.firestoreProto2Json.measure("valueToObjectNode", documentBytes.length);
+        DocumentEventData documentEventData =
+                FirestoreProto2Json.parse(documentBytes, measurement);
+        return toObjectNode(value(documentEventData), measurement);
+    }
+
+    /**
+     * Write a DocumentEventData value to the JSON Generator.
+     * 
+     * The JSON is streamed directly to the generator without building an intermediate node; NaN
+     * and Infinity are written as configured on the generator.
+     * 
+     * @param documentEventData the documentEventData
+     * @param jsonGenerator the JSON Generator
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    public boolean valueToJson(DocumentEventData documentEventData, JsonGenerator jsonGenerator)
+            throws IOException {
+        return write(value(documentEventData), jsonGenerator,
+                this.firestoreProto2Json.measure("valueToJson", -1));
+    }
+
+    /**
+     * Convert a DocumentEventData old value to an Object Node.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the Object Node for the old value if set; otherwise null
+     */
+    public ObjectNode oldValueToObjectNode(DocumentEventData documentEventData) {
+        return toObjectNode(oldValue(documentEventData),
+                this.firestoreProto2Json.measure("oldValueToObjectNode", -1));
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData old value to an Object Node.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the Object Node for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public ObjectNode oldValueToObjectNode(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        ConversionMeasurement measurement =
+                this.firestoreProto2Json.measure("oldValueToObjectNode", documentBytes.length);
+        DocumentEventData documentEventData =
+                FirestoreProto2Json.parse(documentBytes, measurement);
+        return toObjectNode(oldValue(documentEventData), measurement);
+    }
+
+    /**
+     * Write a DocumentEventData old value to the JSON Generator.
+     * 
+     * @param documentEventData the documentEventData
+     * @param jsonGenerator the JSON Generator
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    public boolean oldValueToJson(DocumentEventData documentEventData,
+            JsonGenerator jsonGenerator) throws IOException {
+        return write(oldValue(documentEventData), jsonGenerator,
+                this.firestoreProto2Json.measure("oldValueToJson", -1));
+    }
+
+    /**
+     * Write a node produced by a value mapper without requiring an ObjectCodec on the generator.
+     * 
+     * @param jsonGenerator the JSON Generator
+     * @param jsonNode the node
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    static void writeNode(JsonGenerator jsonGenerator, JsonNode jsonNode) throws IOException {
+        if (jsonNode.isObject()) {
+            jsonGenerator.writeStartObject();
+            for (Entry<String, JsonNode> entry : jsonNode.properties()) {
+                jsonGenerator.writeFieldName(entry.getKey());
+                writeNode(jsonGenerator, entry.getValue());
+            }
+            jsonGenerator.writeEndObject();
+        } else if (jsonNode.isArray()) {
+            jsonGenerator.writeStartArray();
+            for (JsonNode element : jsonNode) {
+                writeNode(jsonGenerator, element);
+            }
+            jsonGenerator.writeEndArray();
+        } else if (jsonNode.isTextual()) {
+            jsonGenerator.writeString(jsonNode.textValue());
+        } else if (jsonNode.isBoolean()) {
+            jsonGenerator.writeBoolean(jsonNode.booleanValue());
+        } else if (jsonNode.isBigInteger()) {
+            jsonGenerator.writeNumber(jsonNode.bigIntegerValue());
+        } else if (jsonNode.isIntegralNumber()) {
+            jsonGenerator.writeNumber(jsonNode.longValue());
+        } else if (jsonNode.isBigDecimal()) {
+            jsonGenerator.writeNumber(jsonNode.decimalValue());
+        } else if (jsonNode.isNumber()) {
+            jsonGenerator.writeNumber(jsonNode.doubleValue());
+        } else if (jsonNode.isBinary()) {
+            jsonGenerator.writeBinary(jsonNode.binaryValue());
+        } else {
+            jsonGenerator.writeNull();
+        }
+    }
+
+    /**
+     * Convert a timestamp, geopoint or bytes value with the Jackson value mapper of its type.
+     * 
+     * @param parent the Object Node, or the Array Node if the key is null
+     * @param key the key; null for an array element
+     * @param value the value
+     */
+    void convert(JsonNode parent, String key, Value value) {
+        switch (value.getValueTypeCase()) {
+            case TIMESTAMP_VALUE:
+                convert(this.valueMapperTimestamp, parent, key, value.getTimestampValue());
+                break;
+            case GEO_POINT_VALUE:
+                convert(this.valueMapperGeoPoint, parent, key, value.getGeoPointValue());
+                break;
+            case BYTES_VALUE:
+                convert(this.valueMapperBytes, parent, key, value.getBytesValue().toByteArray());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write a timestamp, geopoint or bytes value with the Jackson value mapper of its type.
+     * 
+     * @param jsonGenerator the JSON Generator
+     * @param key the key; null for an array element
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    void write(JsonGenerator jsonGenerator, String key, Value value) throws IOException {
+        switch (value.getValueTypeCase()) {
+            case TIMESTAMP_VALUE:
+                write(this.valueMapperTimestamp, jsonGenerator, key, value.getTimestampValue());
+                break;
+            case GEO_POINT_VALUE:
+                write(this.valueMapperGeoPoint, jsonGenerator, key, value.getGeoPointValue());
+                break;
+            case BYTES_VALUE:
+                write(this.valueMapperBytes, jsonGenerator, key,
+                        value.getBytesValue().toByteArray());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Convert a value with a value mapper of FirestoreProto2Json, such as a field mapper.
+     * 
+     * @param key the key; null for an array element
+     * @param value the value
+     * @param mapper the value mapper
+     * @return the Object Node of the attributes, or the Array Node of the elements if the key is
+     *         null
+     */
+    JsonNode convert(String key, Value value, ValueMapper mapper) {
+        if (key != null) {
+            JsonObject jsonObject = new JsonObject();
+            mapper.convert(jsonObject, key, value);
+            return toNode(jsonObject);
+        } else {
+            JsonArray jsonArray = new JsonArray();
+            mapper.convert(jsonArray, value);
+            return toNode(jsonArray);
+        }
+    }
+
+    private static <T> void convert(JacksonValueMapper<T> mapper, JsonNode parent, String key,
+            T value) {
+        if (key != null) {
+            mapper.convert((ObjectNode) parent, key, value);
+        } else {
+            mapper.convert((ArrayNode) parent, value);
+        }
+    }
+
+    private static <T> void write(JacksonValueMapper<T> mapper, JsonGenerator jsonGenerator,
+            String key, T value) throws IOException {
+        if (key != null) {
+            mapper.write(jsonGenerator, key, value);
+        } else {
+            mapper.write(jsonGenerator, value);
+        }
+    }
+
+    /**
+     * Create the node an ObjectMapper reads for the JSON written by Gson for the element.
+     */
+    private JsonNode toNode(JsonElement jsonElement) {
+        if (jsonElement.isJsonObject()) {
+            ObjectNode objectNode = this.nodeFactory.objectNode();
+            for (Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                objectNode.set(entry.getKey(), toNode(entry.getValue()));
+            }
+
+            return objectNode;
+        } else if (jsonElement.isJsonArray()) {
+            ArrayNode arrayNode = this.nodeFactory.arrayNode();
+            for (JsonElement element : jsonElement.getAsJsonArray()) {
+                arrayNode.add(toNode(element));
+            }
+
+            return arrayNode;
+        } else if (jsonElement.isJsonNull()) {
+            return this.nodeFactory.nullNode();
+        }
+
+        JsonPrimitive jsonPrimitive = jsonElement.getAsJsonPrimitive();
+        if (jsonPrimitive.isBoolean()) {
+            return this.nodeFactory.booleanNode(jsonPrimitive.getAsBoolean());
+        } else if (jsonPrimitive.isString()) {
+            return this.nodeFactory.textNode(jsonPrimitive.getAsString());
+        }
+
+        Number number = jsonPrimitive.getAsNumber();
+        if (number instanceof Double || number instanceof Float) {
+            return this.nodeFactory.numberNode(number.doubleValue());
+        }
+
+        String text = number.toString();
+        if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+            return this.nodeFactory.numberNode(Double.parseDouble(text));
+        }
+
+        BigInteger integer = new BigInteger(text);
+        if (integer.bitLength() < 32) {
+            return this.nodeFactory.numberNode(integer.intValue());
+        } else if (integer.bitLength() < 64) {
+            return this.nodeFactory.numberNode(integer.longValue());
+        } else {
+            return this.nodeFactory.numberNode(integer);
+        }
+    }
+
+    /**
+     * Get the compiled node of the document selecting the fields and their mappers.
+     */
+    private FieldProjection.Node root() {
+        FieldProjection.Node node = this.root.get();
+        if (node == null) {
+            // Compiling concurrently produces equivalent nodes so either may be kept
+            node = this.firestoreProto2Json.root(this.fieldProjection);
+            this.root.set(node);
+        }
+
+        return node;
+    }
+
+    private static Document value(DocumentEventData documentEventData) {
+        return documentEventData.hasValue() ? documentEventData.getValue() : null;
+    }
+
+    private static Document oldValue(DocumentEventData documentEventData) {
+        return documentEventData.hasOldValue() ? documentEventData.getOldValue() : null;
+    }
+
+    private ObjectNode toObjectNode(Document document, ConversionMeasurement measurement) {
+        if (measurement == null) {
+            return document == null ? null : documentToObjectNode(document);
+        }
+
+        try {
+            ObjectNode objectNode = document == null ? null : documentToObjectNode(document);
+            measurement.completed(document, -1);
+            return objectNode;
+        } catch (RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private boolean write(Document document, JsonGenerator jsonGenerator,
+            ConversionMeasurement measurement) throws IOException {
+        if (document == null) {
+            return false;
+        } else if (measurement == null) {
+            writeDocument(jsonGenerator, document);
+            return true;
+        }
+
+        try {
+            writeDocument(jsonGenerator, document);
+            measurement.completed(document, -1);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private ObjectNode documentToObjectNode(Document document) {
+        ObjectNodeSink sink = new ObjectNodeSink(this, this.nodeFactory);
+        try {
+            this.firestoreProto2Json.writeDocument(sink, document, root());
+        } catch (IOException e) {
+            // Building the nodes does not write to any output
+            throw new UncheckedIOException(e);
+        }
+
+        return sink.root();
+    }
+
+    private void writeDocument(JsonGenerator jsonGenerator, Document document)
+            throws IOException {
+        this.firestoreProto2Json.writeDocument(new JsonGeneratorSink(this, jsonGenerator),
+                document, root());
+    }
+}
@@ -13,18 +13,34 @@
  */
 package com.unitvectory.firestoreproto2json;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 import com.google.events.cloud.firestore.v1.Document;
 import com.google.events.cloud.firestore.v1.DocumentEventData;
-import com.google.events.cloud.firestore.v1.MapValue;
 import com.google.events.cloud.firestore.v1.Value;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonNull;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.firestoreproto2json.ConversionMeasurement.CountingOutputStream;
+import com.unitvectory.firestoreproto2json.ProtoJsonTranscoder.MergeRequiredException;
 import lombok.Builder;
 
 /**
@@ -40,7 +56,13 @@ public class FirestoreProto2Json {
      */
     public static final FirestoreProto2Json DEFAULT = FirestoreProto2Json.builder().build();
 
-    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+    // The segments of a document resource name
+
+    private static final String PROJECTS = "projects/";
+
+    private static final String DATABASES = "/databases/";
+
+    private static final String DOCUMENTS = "/documents/";
 
     @Builder.Default
     private ValueMapperTimestamp valueMapperTimestamp = new ValueMapperTimestampDefault();
@@ -51,6 +73,76 @@ public class FirestoreProto2Json {
     @Builder.Default
     private ValueMapperBytes valueMapperBytes = new ValueMapperBytesDefault();
 
+    @Builder.Default
+    private FieldProjection fieldProjection = FieldProjection.ALL;
+
+    /**
+     * The cache of converted JSON strings and transcoded UTF-8 JSON; null to always convert.
+     */
+    private ConversionCache conversionCache;
+
+    /**
+     * The listener measuring the conversions to JSON strings, objects and UTF-8 JSON; null to
+     * measure nothing.
+     */
+    private ConversionListener conversionListener;
+
+    @Builder.Default
+    private ConversionLimits conversionLimits = ConversionLimits.NONE;
+
+    /**
+     * Write the fields of every map in the order of their names so identical documents produce
+     * identical output; the attributes written by a value mapper keep the order of the mapper.
+     */
+    @Builder.Default
+    private boolean sortedKeys = false;
+
+    /**
+     * The cache of the encoded field names used when transcoding protocol buffer bytes; null to
+     * encode every name.
+     */
+    private FieldNameCache fieldNameCache;
+
+    /**
+     * The value mappers of individual fields and value types; null to convert every value with
+     * the mappers above.
+     */
+    private FieldMappers fieldMappers;
+
+    /**
+     * The projection compiled with the field mappers, once it is first used.
+     */
+    private final AtomicReference<FieldProjection.Node> root = new AtomicReference<>();
+
+    /**
+     * The transcoder of each thread used by the methods transcoding protocol buffer bytes.
+     * 
+     * The thread holds the transcoder, not a context, since a value referencing this instance
+     * would keep both this instance and its ThreadLocal reachable for the life of the thread.
+     */
+    private final ThreadLocal<ProtoJsonTranscoder> transcoders =
+            ThreadLocal.withInitial(this::newTranscoder);
+
+    /**
+     * Create a reusable context for transcoding with the configuration of this instance.
+     * 
+     * The methods of this instance transcoding protocol buffer bytes already reuse a context for
+     * each thread; an explicit context is useful when the caller manages the threads, such as one
+     * context per worker or per virtual thread carrier.
+     * 
+     * @return the context which is not thread safe
+     */
+    public FirestoreProto2JsonContext newContext() {
+        return new FirestoreProto2JsonContext(this, newTranscoder());
+    }
+
+    /**
+     * Get a context around the transcoder of the current thread.
+     */
+    private FirestoreProto2JsonContext context() {
+        return new FirestoreProto2JsonContext(this, this.transcoders.get());
+    }
+
     /**
      * Convert a DocumentEventData value to a JSON string.
      * 
@@ -58,7 +150,7 @@ public class FirestoreProto2Json {
      * @return the JSON string for the value if set; otherwise null
      */
     public String valueToJsonString(DocumentEventData documentEventData) {
-        return toJsonString(valueToJsonObject(documentEventData));
+        return toJsonString(value(documentEventData), measure("valueToJsonString", -1));
     }
 
     /**
@@ -71,7 +163,10 @@ public class FirestoreProto2Json {
      */
     public String valueToJsonString(String base64DocumentBytes)
             throws InvalidProtocolBufferException {
-        return toJsonString(valueToJsonObject(base64DocumentBytes));
+        ConversionMeasurement measurement =
+                measure("valueToJsonString", base64DocumentBytes.length());
+        DocumentEventData documentEventData = parse(base64DocumentBytes, measurement);
+        return toJsonString(value(documentEventData), measurement);
     }
 
     /**
@@ -83,24 +178,60 @@ public class FirestoreProto2Json {
      *         invalid
      */
     public String valueToJsonString(byte[] documentBytes) throws InvalidProtocolBufferException {
-        return toJsonString(valueToJsonObject(documentBytes));
+        ConversionMeasurement measurement = measure("valueToJsonString", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toJsonString(value(documentEventData), measurement);
     }
 
     /**
-     * Convert a DocumentEventData value to a JSON object.
+     * Write a DocumentEventData value as JSON to the JSON Writer.
+     * 
+     * The JSON is streamed directly to the writer without building an intermediate JSON object.
+     * The writer is lenient and serializes nulls while the value is written so Firestore NaN,
+     * Infinity and null values are preserved.
      * 
      * @param documentEventData the documentEventData
-     * @return the JSON object for the value if set; otherwise null
+     * @param jsonWriter the JSON Writer
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the JSON Writer fails
      */
-    public JsonObject valueToJsonObject(DocumentEventData documentEventData) {
+    public boolean valueToJson(DocumentEventData documentEventData, JsonWriter jsonWriter)
+            throws IOException {
         if (documentEventData.hasValue()) {
-            Document document = documentEventData.getValue();
-            return documentToJsonObject(document);
+            writeDocument(jsonWriter, documentEventData.getValue(), null);
+            return true;
         } else {
-            return null;
+            return false;
         }
     }
 
+    /**
+     * Write a DocumentEventData value as JSON to the Writer.
+     * 
+     * The output is identical to {@link #valueToJsonString(DocumentEventData)} but is streamed
+     * directly to the writer without building an intermediate JSON object.
+     * 
+     * @param documentEventData the documentEventData
+     * @param writer the Writer
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    public boolean valueToJson(DocumentEventData documentEventData, Writer writer)
+            throws IOException {
+        return valueToJson(documentEventData,
+                newJsonWriter(this.conversionLimits.limit(writer)));
+    }
+
+    /**
+     * Convert a DocumentEventData value to a JSON object.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON object for the value if set; otherwise null
+     */
+    public JsonObject valueToJsonObject(DocumentEventData documentEventData) {
+        return toJsonObject(value(documentEventData), measure("valueToJsonObject", -1));
+    }
+
     /**
      * Convert the base64 encoded protocol buffer of a DocumentEventData value to a JSON object.
      * 
@@ -111,8 +242,10 @@ public class FirestoreProto2Json {
      */
     public JsonObject valueToJsonObject(String base64DocumentBytes)
             throws InvalidProtocolBufferException {
-        byte[] documentBytes = Base64.getDecoder().decode(base64DocumentBytes);
-        return valueToJsonObject(documentBytes);
+        ConversionMeasurement measurement =
+                measure("valueToJsonObject", base64DocumentBytes.length());
+        DocumentEventData documentEventData = parse(base64DocumentBytes, measurement);
+        return toJsonObject(value(documentEventData), measurement);
     }
 
     /**
@@ -125,8 +258,44 @@ public class FirestoreProto2Json {
      */
     public JsonObject valueToJsonObject(byte[] documentBytes)
             throws InvalidProtocolBufferException {
+        ConversionMeasurement measurement = measure("valueToJsonObject", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toJsonObject(value(documentEventData), measurement);
+    }
+
+    /**
+     * Create a lazy view of a DocumentEventData value that converts each field only when it is
+     * accessed.
+     * 
+     * Serializing the view produces the same output as
+     * {@link #valueToJsonObject(DocumentEventData)}.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the lazy view of the value if set; otherwise null
+     */
+    public LazyJsonObject valueToLazyJsonObject(DocumentEventData documentEventData) {
+        if (documentEventData.hasValue()) {
+            this.conversionLimits.check(documentEventData.getValue(), root());
+            return new LazyJsonObject(this, documentEventData.getValue().getFieldsMap(),
+                    root());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Parse the protocol buffer bytes of a DocumentEventData and create a lazy view of the value
+     * that converts each field only when it is accessed.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the lazy view of the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public LazyJsonObject valueToLazyJsonObject(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
         DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
-        return valueToJsonObject(documentEventData);
+        return valueToLazyJsonObject(documentEventData);
     }
 
     /**
@@ -136,7 +305,7 @@ public class FirestoreProto2Json {
      * @return the JSON string for the old value if set; otherwise null
      */
     public String oldValueToJsonString(DocumentEventData documentEventData) {
-        return toJsonString(oldValueToJsonObject(documentEventData));
+        return toJsonString(oldValue(documentEventData), measure("oldValueToJsonString", -1));
     }
 
     /**
@@ -149,7 +318,10 @@ public class FirestoreProto2Json {
      */
     public String oldValueToJsonString(String base64DocumentBytes)
             throws InvalidProtocolBufferException {
-        return toJsonString(oldValueToJsonObject(base64DocumentBytes));
+        ConversionMeasurement measurement =
+                measure("oldValueToJsonString", base64DocumentBytes.length());
+        DocumentEventData documentEventData = parse(base64DocumentBytes, measurement);
+        return toJsonString(oldValue(documentEventData), measurement);
     }
 
     /**
@@ -161,24 +333,60 @@ public class FirestoreProto2Json {
      *         invalid
      */
     public String oldValueToJsonString(byte[] documentBytes) throws InvalidProtocolBufferException {
-        return toJsonString(oldValueToJsonObject(documentBytes));
+        ConversionMeasurement measurement = measure("oldValueToJsonString", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toJsonString(oldValue(documentEventData), measurement);
     }
 
     /**
-     * Convert a DocumentEventData old value to a JSON object.
+     * Write a DocumentEventData old value as JSON to the JSON Writer.
+     * 
+     * The JSON is streamed directly to the writer without building an intermediate JSON object.
+     * The writer is lenient and serializes nulls while the old value is written so Firestore NaN,
+     * Infinity and null values are preserved.
      * 
      * @param documentEventData the documentEventData
-     * @return the JSON object for the old value if set; otherwise null
+     * @param jsonWriter the JSON Writer
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the JSON Writer fails
      */
-    public JsonObject oldValueToJsonObject(DocumentEventData documentEventData) {
+    public boolean oldValueToJson(DocumentEventData documentEventData, JsonWriter jsonWriter)
+            throws IOException {
         if (documentEventData.hasOldValue()) {
-            Document document = documentEventData.getOldValue();
-            return documentToJsonObject(document);
+            writeDocument(jsonWriter, documentEventData.getOldValue(), null);
+            return true;
         } else {
-            return null;
+            return false;
         }
     }
 
+    /**
+     * Write a DocumentEventData old value as JSON to the Writer.
+     * 
+     * The output is identical to {@link #oldValueToJsonString(DocumentEventData)} but is streamed
+     * directly to the writer without building an intermediate JSON object.
+     * 
+     * @param documentEventData the documentEventData
+     * @param writer the Writer
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    public boolean oldValueToJson(DocumentEventData documentEventData, Writer writer)
+            throws IOException {
+        return oldValueToJson(documentEventData,
+                newJsonWriter(this.conversionLimits.limit(writer)));
+    }
+
+    /**
+     * Convert a DocumentEventData old value to a JSON object.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON object for the old value if set; otherwise null
+     */
+    public JsonObject oldValueToJsonObject(DocumentEventData documentEventData) {
+        return toJsonObject(oldValue(documentEventData), measure("oldValueToJsonObject", -1));
+    }
+
     /**
      * Convert the base64 encoded protocol buffer of a DocumentEventData old value to a JSON object.
      * 
@@ -189,8 +397,10 @@ public class FirestoreProto2Json {
      */
     public JsonObject oldValueToJsonObject(String base64DocumentBytes)
             throws InvalidProtocolBufferException {
-        byte[] documentBytes = Base64.getDecoder().decode(base64DocumentBytes);
-        return oldValueToJsonObject(documentBytes);
+        ConversionMeasurement measurement =
+                measure("oldValueToJsonObject", base64DocumentBytes.length());
+        DocumentEventData documentEventData = parse(base64DocumentBytes, measurement);
+        return toJsonObject(oldValue(documentEventData), measurement);
     }
 
     /**
@@ -203,97 +413,1208 @@ public class FirestoreProto2Json {
      */
     public JsonObject oldValueToJsonObject(byte[] documentBytes)
             throws InvalidProtocolBufferException {
-        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
-        return oldValueToJsonObject(documentEventData);
+        ConversionMeasurement measurement = measure("oldValueToJsonObject", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toJsonObject(oldValue(documentEventData), measurement);
     }
 
-    private JsonObject documentToJsonObject(Document document) {
-        JsonObject jsonObject = new JsonObject();
-        for (Entry<String, Value> entry : document.getFieldsMap().entrySet()) {
-            appendValue(jsonObject, entry.getKey(), entry.getValue());
+    /**
+     * Create a lazy view of a DocumentEventData old value that converts each field only when it is
+     * accessed.
+     * 
+     * Serializing the view produces the same output as
+     * {@link #oldValueToJsonObject(DocumentEventData)}.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the lazy view of the old value if set; otherwise null
+     */
+    public LazyJsonObject oldValueToLazyJsonObject(DocumentEventData documentEventData) {
+        if (documentEventData.hasOldValue()) {
+            this.conversionLimits.check(documentEventData.getOldValue(),
+                    root());
+            return new LazyJsonObject(this, documentEventData.getOldValue().getFieldsMap(),
+                    root());
+        } else {
+            return null;
         }
+    }
 
-        return jsonObject;
+    /**
+     * Parse the protocol buffer bytes of a DocumentEventData and create a lazy view of the old
+     * value that converts each field only when it is accessed.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the lazy view of the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public LazyJsonObject oldValueToLazyJsonObject(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        return oldValueToLazyJsonObject(documentEventData);
     }
 
-    private String toJsonString(JsonObject jsonObject) {
-        if (jsonObject == null) {
-            return null;
-        }
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to UTF-8 JSON.
+     * 
+     * The wire format is transcoded directly to JSON without parsing the DocumentEventData into
+     * message objects. The output is identical to the UTF-8 encoding of
+     * {@link #valueToJsonString(byte[])}. Fields that are not part of the output, such as the old
+     * value, are skipped without being validated.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the UTF-8 JSON for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] valueToJsonBytes(byte[] documentBytes) throws InvalidProtocolBufferException {
+        return transcodeToBytes(documentBytes, ProtoJsonTranscoder.EVENT_VALUE_TAG,
+                measure("valueToJsonBytes", documentBytes.length));
+    }
 
-        return GSON.toJson(jsonObject);
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to UTF-8 JSON written to the
+     * OutputStream.
+     * 
+     * The output is identical to {@link #valueToJsonBytes(byte[])}. Nothing is written if the
+     * Protocol Buffer is invalid.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean valueToJson(byte[] documentBytes, OutputStream outputStream)
+            throws IOException {
+        return transcode(documentBytes, ProtoJsonTranscoder.EVENT_VALUE_TAG, outputStream,
+                measure("valueToJson", documentBytes.length));
     }
 
-    private void appendValue(JsonObject jsonObject, String key, Value value) {
-        if (value.hasMapValue()) {
-            MapValue mapValue = value.getMapValue();
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to UTF-8 JSON.
+     * 
+     * The wire format is transcoded directly to JSON without parsing the DocumentEventData into
+     * message objects. The output is identical to the UTF-8 encoding of
+     * {@link #oldValueToJsonString(byte[])}. Fields that are not part of the output, such as the
+     * value, are skipped without being validated.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the UTF-8 JSON for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] oldValueToJsonBytes(byte[] documentBytes) throws InvalidProtocolBufferException {
+        return transcodeToBytes(documentBytes, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG,
+                measure("oldValueToJsonBytes", documentBytes.length));
+    }
 
-            JsonObject mapJsonObject = new JsonObject();
-            for (Entry<String, Value> entry : mapValue.getFieldsMap().entrySet()) {
-                appendValue(mapJsonObject, entry.getKey(), entry.getValue());
-            }
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to UTF-8 JSON written to
+     * the OutputStream.
+     * 
+     * The output is identical to {@link #oldValueToJsonBytes(byte[])}. Nothing is written if the
+     * Protocol Buffer is invalid.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean oldValueToJson(byte[] documentBytes, OutputStream outputStream)
+            throws IOException {
+        return transcode(documentBytes, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG, outputStream,
+                measure("oldValueToJson", documentBytes.length));
+    }
 
-            jsonObject.add(key, mapJsonObject);
+    /**
+     * Convert a DocumentEventData value to a JSON string with the SHA-256 hash of its UTF-8
+     * encoding.
+     * 
+     * The hash is computed while the JSON is written. Configure sorted keys for a hash that is
+     * stable across the field order of the protocol buffer.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the hashed JSON for the value if set; otherwise null
+     */
+    public HashedJson valueToHashedJson(DocumentEventData documentEventData) {
+        return documentToHashedJson(value(documentEventData));
+    }
 
-        } else if (value.hasArrayValue()) {
-            JsonArray jsonArray = new JsonArray();
-            for (Value arrayValue : value.getArrayValue().getValuesList()) {
-                appendValue(jsonArray, arrayValue);
-            }
-            jsonObject.add(key, jsonArray);
-        } else if (value.hasIntegerValue()) {
-            jsonObject.addProperty(key, value.getIntegerValue());
-        } else if (value.hasStringValue()) {
-            jsonObject.addProperty(key, value.getStringValue());
-        } else if (value.hasDoubleValue()) {
-            jsonObject.addProperty(key, value.getDoubleValue());
-        } else if (value.hasBooleanValue()) {
-            jsonObject.addProperty(key, value.getBooleanValue());
-        } else if (value.hasNullValue()) {
-            jsonObject.add(key, JsonNull.INSTANCE);
-        } else if (value.hasTimestampValue()) {
-            this.valueMapperTimestamp.convert(jsonObject, key, value);
-        } else if (value.hasGeoPointValue()) {
-            this.valueMapperGeoPoint.convert(jsonObject, key, value);
-        } else if (value.hasReferenceValue()) {
-            jsonObject.addProperty(key, value.getReferenceValue());
-        } else if (value.hasBytesValue()) {
-            this.valueMapperBytes.convert(jsonObject, key, value);
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to a JSON string with the
+     * SHA-256 hash of its UTF-8 encoding.
+     * 
+     * The hash is computed over the UTF-8 output of the transcoder.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the hashed JSON for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public HashedJson valueToHashedJson(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        return context().transcodeToHashedJson(documentBytes,
+                ProtoJsonTranscoder.EVENT_VALUE_TAG);
+    }
+
+    /**
+     * Convert a DocumentEventData old value to a JSON string with the SHA-256 hash of its UTF-8
+     * encoding.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the hashed JSON for the old value if set; otherwise null
+     */
+    public HashedJson oldValueToHashedJson(DocumentEventData documentEventData) {
+        return documentToHashedJson(oldValue(documentEventData));
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to a JSON string with
+     * the SHA-256 hash of its UTF-8 encoding.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the hashed JSON for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public HashedJson oldValueToHashedJson(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        return context().transcodeToHashedJson(documentBytes,
+                ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG);
+    }
+
+    /**
+     * Convert a DocumentEventData value to a JSON envelope of its metadata and fields.
+     * 
+     * The envelope is written in a single pass as an object with the document
+     * <code>name</code>, its components <code>project</code>, <code>database</code>,
+     * <code>documentPath</code>, <code>collectionPath</code>, <code>collectionId</code> and
+     * <code>documentId</code>, the <code>createTime</code> and <code>updateTime</code> formatted
+     * by the timestamp mapper, the <code>updateMask</code> of the event and finally the
+     * <code>fields</code> converted the same as {@link #valueToJsonString(DocumentEventData)}.
+     * Metadata that is not set is omitted, as are the components of a name that is not a document
+     * resource name.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON envelope for the value if set; otherwise null
+     */
+    public String valueToEnvelopeJsonString(DocumentEventData documentEventData) {
+        return toEnvelopeJsonString(value(documentEventData), documentEventData,
+                measure("valueToEnvelopeJsonString", -1));
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData value to a JSON envelope of its
+     * metadata and fields.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the JSON envelope for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public String valueToEnvelopeJsonString(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        ConversionMeasurement measurement =
+                measure("valueToEnvelopeJsonString", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toEnvelopeJsonString(value(documentEventData), documentEventData, measurement);
+    }
+
+    /**
+     * Write a DocumentEventData value as a JSON envelope of its metadata and fields to the
+     * Writer.
+     * 
+     * @param documentEventData the documentEventData
+     * @param writer the Writer
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    public boolean valueToEnvelopeJson(DocumentEventData documentEventData, Writer writer)
+            throws IOException {
+        if (documentEventData.hasValue()) {
+            writeDocument(newJsonWriter(this.conversionLimits.limit(writer)),
+                    documentEventData.getValue(), documentEventData);
+            return true;
+        } else {
+            return false;
         }
     }
 
-    private void appendValue(JsonArray jsonArray, Value value) {
-        if (value.hasMapValue()) {
-            MapValue mapValue = value.getMapValue();
+    /**
+     * Convert a DocumentEventData old value to a JSON envelope of its metadata and fields.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON envelope for the old value if set; otherwise null
+     * @see #valueToEnvelopeJsonString(DocumentEventData)
+     */
+    public String oldValueToEnvelopeJsonString(DocumentEventData documentEventData) {
+        return toEnvelopeJsonString(oldValue(documentEventData), documentEventData,
+                measure("oldValueToEnvelopeJsonString", -1));
+    }
 
-            JsonObject mapJsonObject = new JsonObject();
-            for (Entry<String, Value> entry : mapValue.getFieldsMap().entrySet()) {
-                appendValue(mapJsonObject, entry.getKey(), entry.getValue());
-            }
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData old value to a JSON envelope of its
+     * metadata and fields.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the JSON envelope for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public String oldValueToEnvelopeJsonString(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        ConversionMeasurement measurement =
+                measure("oldValueToEnvelopeJsonString", documentBytes.length);
+        DocumentEventData documentEventData = parse(documentBytes, measurement);
+        return toEnvelopeJsonString(oldValue(documentEventData), documentEventData, measurement);
+    }
 
-            jsonArray.add(mapJsonObject);
-
-        } else if (value.hasIntegerValue()) {
-            jsonArray.add(value.getIntegerValue());
-        } else if (value.hasStringValue()) {
-            jsonArray.add(value.getStringValue());
-        } else if (value.hasDoubleValue()) {
-            jsonArray.add(value.getDoubleValue());
-        } else if (value.hasBooleanValue()) {
-            jsonArray.add(value.getBooleanValue());
-        } else if (value.hasNullValue()) {
-            jsonArray.add(JsonNull.INSTANCE);
-        } else if (value.hasTimestampValue()) {
-            this.valueMapperTimestamp.convert(jsonArray, value);
-        } else if (value.hasGeoPointValue()) {
-            this.valueMapperGeoPoint.convert(jsonArray, value);
-        } else if (value.hasReferenceValue()) {
-            jsonArray.add(value.getReferenceValue());
-        } else if (value.hasBytesValue()) {
-            this.valueMapperBytes.convert(jsonArray, value);
+    /**
+     * Write a DocumentEventData old value as a JSON envelope of its metadata and fields to the
+     * Writer.
+     * 
+     * @param documentEventData the documentEventData
+     * @param writer the Writer
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    public boolean oldValueToEnvelopeJson(DocumentEventData documentEventData, Writer writer)
+            throws IOException {
+        if (documentEventData.hasOldValue()) {
+            writeDocument(newJsonWriter(this.conversionLimits.limit(writer)),
+                    documentEventData.getOldValue(), documentEventData);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Convert a DocumentEventData value to a compact binary format.
+     * 
+     * The structure is the same as {@link #valueToJsonObject(DocumentEventData)}, including the
+     * output of the value mappers, except that bytes converted by the default bytes mapper are
+     * written as raw binary.
+     * 
+     * @param documentEventData the documentEventData
+     * @param binaryFormat the binary format
+     * @return the encoded value if set; otherwise null
+     */
+    public byte[] valueToBinary(DocumentEventData documentEventData, BinaryFormat binaryFormat) {
+        if (documentEventData.hasValue()) {
+            return documentToBinary(documentEventData.getValue(), binaryFormat);
+        } else {
+            return null;
         }
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData value to a compact binary format.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param binaryFormat the binary format
+     * @return the encoded value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] valueToBinary(byte[] documentBytes, BinaryFormat binaryFormat)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        return valueToBinary(documentEventData, binaryFormat);
+    }
 
-        // Nested arrays are not supported by Firestore and therefore not implemented as part of
-        // this method while other datatype conversions are implemented
+    /**
+     * Write a DocumentEventData value in a compact binary format to the OutputStream.
+     * 
+     * @param documentEventData the documentEventData
+     * @param binaryFormat the binary format
+     * @param outputStream the OutputStream
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the OutputStream fails
+     */
+    public boolean valueToBinary(DocumentEventData documentEventData, BinaryFormat binaryFormat,
+            OutputStream outputStream) throws IOException {
+        if (documentEventData.hasValue()) {
+            writeDocument(documentEventData.getValue(), binaryFormat).writeTo(outputStream);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Convert a DocumentEventData old value to a compact binary format.
+     * 
+     * The structure is the same as {@link #oldValueToJsonObject(DocumentEventData)}, including
+     * the output of the value mappers, except that bytes converted by the default bytes mapper are
+     * written as raw binary.
+     * 
+     * @param documentEventData the documentEventData
+     * @param binaryFormat the binary format
+     * @return the encoded old value if set; otherwise null
+     */
+    public byte[] oldValueToBinary(DocumentEventData documentEventData,
+            BinaryFormat binaryFormat) {
+        if (documentEventData.hasOldValue()) {
+            return documentToBinary(documentEventData.getOldValue(), binaryFormat);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData old value to a compact binary
+     * format.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param binaryFormat the binary format
+     * @return the encoded old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] oldValueToBinary(byte[] documentBytes, BinaryFormat binaryFormat)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        return oldValueToBinary(documentEventData, binaryFormat);
+    }
+
+    /**
+     * Write a DocumentEventData old value in a compact binary format to the OutputStream.
+     * 
+     * @param documentEventData the documentEventData
+     * @param binaryFormat the binary format
+     * @param outputStream the OutputStream
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when writing to the OutputStream fails
+     */
+    public boolean oldValueToBinary(DocumentEventData documentEventData,
+            BinaryFormat binaryFormat, OutputStream outputStream) throws IOException {
+        if (documentEventData.hasOldValue()) {
+            writeDocument(documentEventData.getOldValue(), binaryFormat).writeTo(outputStream);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Convert the changes from the old value to the value of a DocumentEventData to a JSON Merge
+     * Patch (RFC 7396).
+     * 
+     * Only the fields that were added, changed or removed are converted; when the update mask is
+     * set only the fields it names are compared. A document that is not set is treated as an empty
+     * document. A JSON Merge Patch cannot represent changing a field to null, which is written as
+     * null and therefore indicates the field was removed; use the JSON Patch when that matters.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON Merge Patch if the value or old value is set; otherwise null
+     */
+    public JsonObject eventToJsonMergePatch(DocumentEventData documentEventData) {
+        return DocumentDiff.jsonMergePatch(this, root(), documentEventData);
+    }
+
+    /**
+     * Convert the changes from the old value to the value of a DocumentEventData to a JSON Patch
+     * (RFC 6902).
+     * 
+     * Only the fields that were added, changed or removed are converted; when the update mask is
+     * set only the fields it names are compared. A document that is not set is treated as an empty
+     * document. Changed maps are patched field by field while changed arrays are replaced.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON Patch operations if the value or old value is set; otherwise null
+     */
+    public JsonArray eventToJsonPatch(DocumentEventData documentEventData) {
+        return DocumentDiff.jsonPatch(this, root(), documentEventData);
+    }
+
+    /**
+     * Convert a DocumentEventData value, old value and update mask to JSON.
+     * 
+     * @param documentEventData the documentEventData
+     * @return the JSON conversion of the DocumentEventData
+     */
+    public DocumentEventJson eventToJson(DocumentEventData documentEventData) {
+        return new DocumentEventJson(this, documentEventData);
+    }
+
+    /**
+     * Convert the base64 encoded protocol buffer of a DocumentEventData value, old value and update
+     * mask to JSON parsing the protocol buffer only once.
+     * 
+     * @param base64DocumentBytes the base64 encoded protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(String base64DocumentBytes)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = Base64Decoder.parse(base64DocumentBytes);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData value, old value and update mask to
+     * JSON parsing the protocol buffer only once.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the protocol buffer of a DocumentEventData value, old value and update mask to JSON
+     * parsing the protocol buffer only once.
+     * 
+     * The remaining bytes of the buffer are parsed directly, including direct buffers, without
+     * first being copied into a byte array.
+     * 
+     * @param documentBuffer the protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(ByteBuffer documentBuffer)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBuffer);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the protocol buffer of a DocumentEventData value, old value and update mask to JSON
+     * parsing the protocol buffer only once.
+     * 
+     * @param documentByteString the protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(ByteString documentByteString)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentByteString);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the protocol buffer of a DocumentEventData value, old value and update mask to JSON
+     * parsing the protocol buffer only once.
+     * 
+     * The stream is read to the end but is not closed.
+     * 
+     * @param documentStream the protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws IOException exception thrown when reading the stream fails or the Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(InputStream documentStream) throws IOException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentStream);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the protocol buffer of a DocumentEventData value, old value and update mask to JSON
+     * parsing the protocol buffer only once.
+     * 
+     * @param codedInputStream the protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws IOException exception thrown when reading the stream fails or the Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJson(CodedInputStream codedInputStream) throws IOException {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(codedInputStream);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the base64 encoded protocol buffer of a DocumentEventData value, old value and update
+     * mask to JSON parsing the protocol buffer only once.
+     * 
+     * The characters are decoded into a reusable buffer instead of allocating a new byte array.
+     * 
+     * @param base64DocumentBytes the base64 encoded protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJsonFromBase64(CharSequence base64DocumentBytes)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = Base64Decoder.parse(base64DocumentBytes);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Convert the base64 encoded protocol buffer of a DocumentEventData value, old value and update
+     * mask to JSON parsing the protocol buffer only once.
+     * 
+     * The remaining bytes of the buffer are decoded into a reusable buffer instead of allocating a
+     * new byte array; the position of the buffer is not modified.
+     * 
+     * @param base64DocumentBuffer the base64 encoded protocol buffer of a DocumentEventData
+     * @return the JSON conversion of the DocumentEventData
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public DocumentEventJson eventToJsonFromBase64(ByteBuffer base64DocumentBuffer)
+            throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData = Base64Decoder.parse(base64DocumentBuffer);
+        return eventToJson(documentEventData);
+    }
+
+    /**
+     * Transcode the Document of a DocumentEventData to the OutputStream with the transcoder,
+     * falling back to parsing the DocumentEventData when it cannot be transcoded exactly.
+     * 
+     * @param transcoder the transcoder created by this instance
+     * @param documentBytes the buffer containing the protocol buffer bytes of a DocumentEventData
+     * @param offset the offset of the DocumentEventData
+     * @param length the length of the DocumentEventData
+     * @param documentTag the tag of the Document field to transcode
+     * @param outputStream the OutputStream
+     * @return true if the Document is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing fails
+     */
+    boolean transcode(ProtoJsonTranscoder transcoder, byte[] documentBytes, int offset, int length,
+            int documentTag, OutputStream outputStream) throws IOException {
+        try {
+            if (transcoder.transcode(documentBytes, offset, length, documentTag)) {
+                transcoder.output().writeTo(outputStream);
+                return true;
+            } else {
+                return false;
+            }
+        } catch (MergeRequiredException e) {
+            String jsonString = parseToJsonString(documentBytes, offset, length, documentTag);
+            if (jsonString == null) {
+                return false;
+            }
+
+            outputStream.write(jsonString.getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+
+    /**
+     * Get the compiled node of the document selecting the fields and their mappers.
+     */
+    FieldProjection.Node root() {
+        FieldProjection.Node node = this.root.get();
+        if (node == null) {
+            // Compiling concurrently produces equivalent nodes so either may be kept
+            node = this.fieldProjection.root(this.fieldMappers);
+            this.root.set(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Get the compiled node of another projection selecting the fields with the field mappers of
+     * this instance.
+     * 
+     * @param fieldProjection the projection; null for the projection of this instance
+     * @return the node
+     */
+    FieldProjection.Node root(FieldProjection fieldProjection) {
+        return fieldProjection == null ? root() : fieldProjection.root(this.fieldMappers);
+    }
+
+    ProtoJsonTranscoder newTranscoder() {
+        return new ProtoJsonTranscoder(this.valueMapperTimestamp, this.valueMapperGeoPoint,
+                this.valueMapperBytes, root(), this.conversionLimits,
+                this.sortedKeys, this.fieldNameCache);
+    }
+
+    /**
+     * Parse the DocumentEventData for the input the transcoder cannot convert exactly.
+     */
+    String parseToJsonString(byte[] documentBytes, int offset, int length,
+            int documentTag) throws InvalidProtocolBufferException {
+        DocumentEventData documentEventData =
+                DocumentEventData.parser().parseFrom(documentBytes, offset, length);
+        if (documentTag == ProtoJsonTranscoder.EVENT_VALUE_TAG) {
+            return valueToJsonString(documentEventData);
+        } else {
+            return oldValueToJsonString(documentEventData);
+        }
+    }
+
+    private JsonObject documentToJsonObject(Document document) {
+        JsonTreeSink sink = new JsonTreeSink(null);
+        try {
+            writeDocument(sink, document, root());
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return sink.root();
+    }
+
+    /**
+     * Get the fields of a map in the order they are written.
+     * 
+     * @param fields the fields
+     * @return the fields, sorted by name when the keys are sorted
+     */
+    Iterable<Entry<String, Value>> fields(Map<String, Value> fields) {
+        if (!this.sortedKeys || fields.size() < 2) {
+            return fields.entrySet();
+        }
+
+        List<Entry<String, Value>> entries = new ArrayList<>(fields.entrySet());
+        for (int i = 1; i < entries.size(); i++) {
+            if (entries.get(i - 1).getKey().compareTo(entries.get(i).getKey()) > 0) {
+                // Sorted only when the map is not already in order
+                entries.sort(Entry.comparingByKey());
+                break;
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Start measuring a conversion for the listener.
+     * 
+     * @param operation the name of the conversion method
+     * @param inputSize the size of the input; -1 if it is not serialized
+     * @return the measurement; null if there is no listener
+     */
+    ConversionMeasurement measure(String operation, long inputSize) {
+        ConversionListener listener = this.conversionListener;
+        return listener == null ? null : new ConversionMeasurement(listener, operation, inputSize);
+    }
+
+    private static Document value(DocumentEventData documentEventData) {
+        return documentEventData.hasValue() ? documentEventData.getValue() : null;
+    }
+
+    private static Document oldValue(DocumentEventData documentEventData) {
+        return documentEventData.hasOldValue() ? documentEventData.getOldValue() : null;
+    }
+
+    private static DocumentEventData parse(String base64DocumentBytes,
+            ConversionMeasurement measurement) throws InvalidProtocolBufferException {
+        if (measurement == null) {
+            return Base64Decoder.parse(base64DocumentBytes);
+        }
+
+        try {
+            DocumentEventData documentEventData = Base64Decoder.parse(base64DocumentBytes);
+            measurement.parsed();
+            return documentEventData;
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Parse the DocumentEventData, measuring the parsing if the measurement is not null.
+     */
+    static DocumentEventData parse(byte[] documentBytes,
+            ConversionMeasurement measurement) throws InvalidProtocolBufferException {
+        if (measurement == null) {
+            return DocumentEventData.parseFrom(documentBytes);
+        }
+
+        try {
+            DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+            measurement.parsed();
+            return documentEventData;
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private String toJsonString(Document document, ConversionMeasurement measurement) {
+        if (measurement == null) {
+            return document == null ? null : documentToJsonString(document);
+        }
+
+        try {
+            String jsonString = document == null ? null : documentToJsonString(document);
+            measurement.completed(document, jsonString == null ? -1 : jsonString.length());
+            return jsonString;
+        } catch (RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private String toEnvelopeJsonString(Document document, DocumentEventData documentEventData,
+            ConversionMeasurement measurement) {
+        if (measurement == null) {
+            return document == null ? null : convertToJsonString(document, documentEventData);
+        }
+
+        try {
+            String jsonString =
+                    document == null ? null : convertToJsonString(document, documentEventData);
+            measurement.completed(document, jsonString == null ? -1 : jsonString.length());
+            return jsonString;
+        } catch (RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private JsonObject toJsonObject(Document document, ConversionMeasurement measurement) {
+        if (measurement == null) {
+            return document == null ? null : documentToJsonObject(document);
+        }
+
+        try {
+            JsonObject jsonObject = document == null ? null : documentToJsonObject(document);
+            measurement.completed(document, -1);
+            return jsonObject;
+        } catch (RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private byte[] transcodeToBytes(byte[] documentBytes, int documentTag,
+            ConversionMeasurement measurement) throws InvalidProtocolBufferException {
+        if (measurement == null) {
+            return transcodeToBytes(documentBytes, documentTag);
+        }
+
+        try {
+            byte[] json = transcodeToBytes(documentBytes, documentTag);
+            measurement.transcoded(json == null ? -1 : json.length);
+            return json;
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private byte[] transcodeToBytes(byte[] documentBytes, int documentTag)
+            throws InvalidProtocolBufferException {
+        if (this.conversionCache != null) {
+            byte[] json = transcodeCached(documentBytes, documentTag);
+            return json == null ? null : json.clone();
+        } else if (documentTag == ProtoJsonTranscoder.EVENT_VALUE_TAG) {
+            return context().valueToJsonBytes(documentBytes);
+        } else {
+            return context().oldValueToJsonBytes(documentBytes);
+        }
+    }
+
+    private boolean transcode(byte[] documentBytes, int documentTag, OutputStream outputStream,
+            ConversionMeasurement measurement) throws IOException {
+        if (measurement == null) {
+            return transcode(documentBytes, documentTag, outputStream);
+        }
+
+        try {
+            CountingOutputStream countingOutputStream =
+                    ConversionMeasurement.counting(outputStream);
+            boolean written = transcode(documentBytes, documentTag, countingOutputStream);
+            measurement.transcoded(written ? countingOutputStream.count() : -1);
+            return written;
+        } catch (IOException | RuntimeException e) {
+            measurement.failed(e);
+            throw e;
+        }
+    }
+
+    private boolean transcode(byte[] documentBytes, int documentTag, OutputStream outputStream)
+            throws IOException {
+        if (this.conversionCache != null) {
+            return writeCached(documentBytes, documentTag, outputStream);
+        } else if (documentTag == ProtoJsonTranscoder.EVENT_VALUE_TAG) {
+            return context().valueToJson(documentBytes, outputStream);
+        } else {
+            return context().oldValueToJson(documentBytes, outputStream);
+        }
+    }
+
+    /**
+     * Transcode the payload bytes unless the same payload was transcoded before; the returned
+     * array is shared with the cache and must not be modified.
+     */
+    private byte[] transcodeCached(byte[] documentBytes, int documentTag)
+            throws InvalidProtocolBufferException {
+        Object key = ConversionCache.payloadKey(this, documentTag, documentBytes);
+        byte[] json = (byte[]) this.conversionCache.get(key);
+        if (json == null) {
+            FirestoreProto2JsonContext context = context();
+            if (documentTag == ProtoJsonTranscoder.EVENT_VALUE_TAG) {
+                json = context.valueToJsonBytes(documentBytes);
+            } else {
+                json = context.oldValueToJsonBytes(documentBytes);
+            }
+
+            if (json != null) {
+                this.conversionCache.put(key, json);
+            }
+        }
+
+        return json;
+    }
+
+    private boolean writeCached(byte[] documentBytes, int documentTag, OutputStream outputStream)
+            throws IOException {
+        byte[] json = transcodeCached(documentBytes, documentTag);
+        if (json == null) {
+            return false;
+        }
+
+        outputStream.write(json);
+        return true;
+    }
+
+    private String documentToJsonString(Document document) {
+        Object key = this.conversionCache == null ? null
+                : ConversionCache.documentKey(this, document);
+        if (key != null) {
+            String jsonString = (String) this.conversionCache.get(key);
+            if (jsonString == null) {
+                jsonString = convertToJsonString(document, null);
+                this.conversionCache.put(key, jsonString);
+            }
+
+            return jsonString;
+        }
+
+        return convertToJsonString(document, null);
+    }
+
+    private HashedJson documentToHashedJson(Document document) {
+        if (document == null) {
+            return null;
+        }
+
+        DigestWriter digestWriter = new DigestWriter(HashedJson.newDigest());
+        try {
+            writeDocument(newJsonWriter(this.conversionLimits.limit(digestWriter)), document,
+                    null);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return new HashedJson(digestWriter.string(), digestWriter.digest());
+    }
+
+    private String convertToJsonString(Document document, DocumentEventData envelope) {
+        StringWriter stringWriter = new StringWriter();
+        try {
+            writeDocument(newJsonWriter(this.conversionLimits.limit(stringWriter)), document,
+                    envelope);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return stringWriter.toString();
+    }
+
+    private static JsonWriter newJsonWriter(Writer writer) {
+        // Matches the configuration Gson uses when serializing a JsonElement
+        JsonWriter jsonWriter = new StreamingJsonWriter(writer);
+        jsonWriter.setHtmlSafe(true);
+        jsonWriter.setSerializeNulls(true);
+        return jsonWriter;
+    }
+
+    /**
+     * Write the fields of the document, within the envelope of its metadata if the event is given.
+     */
+    private void writeDocument(JsonWriter jsonWriter, Document document,
+            DocumentEventData envelope) throws IOException {
+        this.conversionLimits.check(document, root());
+        Strictness strictness = jsonWriter.getStrictness();
+        boolean serializeNulls = jsonWriter.getSerializeNulls();
+        jsonWriter.setStrictness(Strictness.LENIENT);
+        jsonWriter.setSerializeNulls(true);
+        try {
+            if (envelope == null) {
+                writeFields(jsonWriter, document);
+            } else {
+                jsonWriter.beginObject();
+                writeMetadata(jsonWriter, document, envelope);
+                jsonWriter.name("fields");
+                writeFields(jsonWriter, document);
+                jsonWriter.endObject();
+            }
+        } finally {
+            jsonWriter.setStrictness(strictness);
+            jsonWriter.setSerializeNulls(serializeNulls);
+        }
+    }
+
+    private void writeMetadata(JsonWriter jsonWriter, Document document,
+            DocumentEventData documentEventData) throws IOException {
+        String name = document.getName();
+        if (!name.isEmpty()) {
+            jsonWriter.name("name").value(name);
+            writeNameComponents(jsonWriter, name);
+        }
+
+        if (document.hasCreateTime()) {
+            this.valueMapperTimestamp.write(jsonWriter, "createTime", document.getCreateTime());
+        }
+
+        if (document.hasUpdateTime()) {
+            this.valueMapperTimestamp.write(jsonWriter, "updateTime", document.getUpdateTime());
+        }
+
+        if (documentEventData.hasUpdateMask()) {
+            jsonWriter.name("updateMask").beginArray();
+            for (String fieldPath : documentEventData.getUpdateMask().getFieldPathsList()) {
+                jsonWriter.value(fieldPath);
+            }
+
+            jsonWriter.endArray();
+        }
+    }
+
+    /**
+     * Write the components of a document resource name,
+     * projects/{project}/databases/{database}/documents/{documentPath}, where the document path
+     * alternates between collection and document IDs; nothing is written for other names.
+     */
+    private static void writeNameComponents(JsonWriter jsonWriter, String name)
+            throws IOException {
+        int databases = name.indexOf('/', PROJECTS.length());
+        int documents = databases < 0 ? -1 : name.indexOf('/', databases + DATABASES.length());
+        int lastSlash = name.lastIndexOf('/');
+        if (!name.startsWith(PROJECTS) || databases < 0 || documents < 0
+                || !name.startsWith(DATABASES, databases)
+                || !name.startsWith(DOCUMENTS, documents)
+                || lastSlash <= documents + DOCUMENTS.length()) {
+            return;
+        }
+
+        int documentPath = documents + DOCUMENTS.length();
+        int collectionStart = name.lastIndexOf('/', lastSlash - 1) + 1;
+        jsonWriter.name("project").value(name.substring(PROJECTS.length(), databases));
+        jsonWriter.name("database")
+                .value(name.substring(databases + DATABASES.length(), documents));
+        jsonWriter.name("documentPath").value(name.substring(documentPath));
+        jsonWriter.name("collectionPath").value(name.substring(documentPath, lastSlash));
+        jsonWriter.name("collectionId")
+                .value(name.substring(Math.max(collectionStart, documentPath), lastSlash));
+        jsonWriter.name("documentId").value(name.substring(lastSlash + 1));
+    }
+
+    private void writeFields(JsonWriter jsonWriter, Document document) throws IOException {
+        writeMap(new JsonWriterSink(jsonWriter), null, document.getFieldsMap(), root());
+    }
+
+    /**
+     * Write the fields of the document to the sink once the document is within the conversion
+     * limits; the traversal shared by the outputs of a parsed document.
+     * 
+     * @param sink the sink
+     * @param document the document
+     * @param node the node of the document
+     * @throws IOException exception thrown when writing to the sink fails
+     */
+    void writeDocument(DocumentSink sink, Document document, FieldProjection.Node node)
+            throws IOException {
+        this.conversionLimits.check(document, node);
+        writeMap(sink, null, document.getFieldsMap(), node);
+    }
+
+    /**
+     * Write the value, its maps and arrays, to the sink.
+     * 
+     * @param sink the sink
+     * @param key the key; null for an array element
+     * @param value the value
+     * @param node the node of the value
+     * @throws IOException exception thrown when writing to the sink fails
+     */
+    private void writeValue(DocumentSink sink, String key, Value value,
+            FieldProjection.Node node) throws IOException {
+        ArrayDeque<WriteFrame> stack = new ArrayDeque<>();
+        writeValue(sink, stack, key, value, node);
+        write(sink, stack);
+    }
+
+    private void writeMap(DocumentSink sink, String key, Map<String, Value> fields,
+            FieldProjection.Node node) throws IOException {
+        ArrayDeque<WriteFrame> stack = new ArrayDeque<>();
+        sink.beginMap(key);
+        stack.push(new WriteFrame(fields(fields).iterator(), null, node));
+        write(sink, stack);
+    }
+
+    /**
+     * Write the contents of the open maps and arrays with an explicit stack rather than a call per
+     * nested map, so the nesting of the document does not consume call stack.
+     */
+    private void write(DocumentSink sink, ArrayDeque<WriteFrame> stack) throws IOException {
+        while (!stack.isEmpty()) {
+            WriteFrame frame = stack.peek();
+            if (frame.entries != null) {
+                if (!frame.entries.hasNext()) {
+                    stack.pop();
+                    sink.endMap();
+                    continue;
+                }
+
+                Entry<String, Value> entry = frame.entries.next();
+                FieldProjection.Node node = frame.node.child(entry.getKey());
+                if (node != null) {
+                    writeValue(sink, stack, entry.getKey(), entry.getValue(), node);
+                }
+            } else if (!frame.values.hasNext()) {
+                stack.pop();
+                sink.endArray();
+            } else {
+                writeValue(sink, stack, null, frame.values.next(), frame.node);
+            }
+        }
+    }
+
+    /**
+     * Write a scalar value, or open a map or array and push it onto the stack.
+     */
+    private void writeValue(DocumentSink sink, ArrayDeque<WriteFrame> stack, String key,
+            Value value, FieldProjection.Node node) throws IOException {
+        if (!node.included && !value.hasMapValue() && !value.hasArrayValue()) {
+            // Only the maps containing the selected fields are followed
+            return;
+        }
+
+        ValueMapper mapper = node.mapper(value);
+        if (mapper != null) {
+            sink.mapped(key, value, mapper);
+        } else if (value.hasMapValue()) {
+            sink.beginMap(key);
+            stack.push(new WriteFrame(fields(value.getMapValue().getFieldsMap()).iterator(), null,
+                    node));
+        } else if (value.hasArrayValue()) {
+            // Nested arrays are not supported by Firestore and are skipped
+            if (key != null) {
+                sink.beginArray(key);
+                stack.push(new WriteFrame(null, value.getArrayValue().getValuesList().iterator(),
+                        node));
+            }
+        } else {
+            writeScalar(sink, key, value);
+        }
+    }
+
+    /**
+     * Write a value that is neither a map nor an array to the sink; this is the only dispatch on
+     * the type of a value shared by every output.
+     */
+    private void writeScalar(DocumentSink sink, String key, Value value) throws IOException {
+        switch (value.getValueTypeCase()) {
+            case INTEGER_VALUE:
+                sink.value(key, value.getIntegerValue());
+                break;
+            case STRING_VALUE:
+                sink.value(key, value.getStringValue());
+                break;
+            case DOUBLE_VALUE:
+                sink.value(key, value.getDoubleValue());
+                break;
+            case BOOLEAN_VALUE:
+                sink.value(key, value.getBooleanValue());
+                break;
+            case NULL_VALUE:
+                sink.nullValue(key);
+                break;
+            case TIMESTAMP_VALUE:
+                sink.typed(key, value, this.valueMapperTimestamp);
+                break;
+            case GEO_POINT_VALUE:
+                sink.typed(key, value, this.valueMapperGeoPoint);
+                break;
+            case REFERENCE_VALUE:
+                sink.value(key, value.getReferenceValue());
+                break;
+            case BYTES_VALUE:
+                sink.typed(key, value, this.valueMapperBytes);
+                break;
+            default:
+                // The value is not set so nothing is written
+                break;
+        }
+    }
+
+    /**
+     * An open map or array of the document being written.
+     */
+    private static final class WriteFrame {
+
+        private final Iterator<Entry<String, Value>> entries;
+
+        private final Iterator<Value> values;
+
+        private final FieldProjection.Node node;
+
+        private WriteFrame(Iterator<Entry<String, Value>> entries, Iterator<Value> values,
+                FieldProjection.Node node) {
+            this.entries = entries;
+            this.values = values;
+            this.node = node;
+        }
+    }
+
+    private byte[] documentToBinary(Document document, BinaryFormat binaryFormat) {
+        return writeDocument(document, binaryFormat).toByteArray();
+    }
+
+    private BinaryWriter writeDocument(Document document, BinaryFormat binaryFormat) {
+        BinaryWriter binaryWriter = binaryFormat.newWriter();
+        try {
+            writeDocument(new BinarySink(binaryWriter), document, root());
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return binaryWriter;
+    }
+
+    /**
+     * Check if the value is converted by a default mapper which is encoded natively.
+     */
+    private boolean isDefaultMapper(Value value) {
+        if (value.hasTimestampValue()) {
+            return BinarySink.isNative(this.valueMapperTimestamp);
+        } else if (value.hasGeoPointValue()) {
+            return BinarySink.isNative(this.valueMapperGeoPoint);
+        } else if (value.hasBytesValue()) {
+            return BinarySink.isNative(this.valueMapperBytes);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Check if the value is converted by a custom mapper which may write any attributes.
+     */
+    boolean isCustomMapper(Value value, FieldProjection.Node node) {
+        if (node != null && node.mapper(value) != null) {
+            return true;
+        }
+
+        return (value.hasTimestampValue() || value.hasGeoPointValue() || value.hasBytesValue())
+                && !isDefaultMapper(value);
+    }
+
+    /**
+     * Convert the value, adding it as an attribute of the JSON object.
+     */
+    void appendValue(JsonObject jsonObject, String key, Value value, FieldProjection.Node node) {
+        try {
+            writeValue(new JsonTreeSink(jsonObject), key, value, node);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import lombok.Builder;
+
+/**
+ * Converts batches of payloads in parallel on an executor.
+ *
+ * Results are delivered in the order of the input regardless of the order in which the conversions
+ * complete. A payload that fails to convert produces a failed BatchResult instead of aborting the
+ * batch. At most maxInFlight conversions are submitted to the executor and not yet delivered at any
+ * time, so the input is consumed lazily and memory stays bounded for arbitrarily large inputs when
+ * the results are consumed as they are delivered.
+ *
+ * The executor is not shut down by this class; it defaults to the common ForkJoinPool and any
+ * executor can be provided, such as Executors.newVirtualThreadPerTaskExecutor() on Java 21 or
+ * later.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Builder
+public class FirestoreProto2JsonBatch {
+
+    /**
+     * A conversion of a single payload of a batch.
+     *
+     * @param <P> the type of the payload
+     * @param <R> the type of the converted value
+     */
+    @FunctionalInterface
+    public interface Conversion<P, R> {
+
+        /**
+         * Convert the payload.
+         *
+         * @param payload the payload
+         * @return the converted value
+         * @throws Exception exception thrown when the payload cannot be converted
+         */
+        R convert(P payload) throws Exception;
+    }
+
+    @Builder.Default
+    private FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.DEFAULT;
+
+    @Builder.Default
+    private Executor executor = ForkJoinPool.commonPool();
+
+    @Builder.Default
+    private int maxInFlight = Runtime.getRuntime().availableProcessors() * 4;
+
+    /**
+     * Convert the value of each protocol buffer of a DocumentEventData to a JSON string.
+     *
+     * @param documentBytes the protocol buffers of the DocumentEventData
+     * @return the results in the order of the input
+     */
+    public List<BatchResult<String>> valueToJsonString(Iterable<byte[]> documentBytes) {
+        return convert(documentBytes, this.firestoreProto2Json::valueToJsonString);
+    }
+
+    /**
+     * Convert the old value of each protocol buffer of a DocumentEventData to a JSON string.
+     *
+     * @param documentBytes the protocol buffers of the DocumentEventData
+     * @return the results in the order of the input
+     */
+    public List<BatchResult<String>> oldValueToJsonString(Iterable<byte[]> documentBytes) {
+        return convert(documentBytes, this.firestoreProto2Json::oldValueToJsonString);
+    }
+
+    /**
+     * Parse each protocol buffer of a DocumentEventData for conversion of the value, old value and
+     * update mask.
+     *
+     * @param documentBytes the protocol buffers of the DocumentEventData
+     * @return the results in the order of the input
+     */
+    public List<BatchResult<DocumentEventJson>> eventToJson(Iterable<byte[]> documentBytes) {
+        return convert(documentBytes, this.firestoreProto2Json::eventToJson);
+    }
+
+    /**
+     * Convert each payload collecting the results.
+     *
+     * @param <P> the type of the payload
+     * @param <R> the type of the converted value
+     * @param payloads the payloads
+     * @param conversion the conversion of a single payload
+     * @return the results in the order of the input
+     */
+    public <P, R> List<BatchResult<R>> convert(Iterable<? extends P> payloads,
+            Conversion<? super P, ? extends R> conversion) {
+        List<BatchResult<R>> results = new ArrayList<>();
+        this.<P, R>convert(payloads, conversion, results::add);
+        return results;
+    }
+
+    /**
+     * Convert each payload collecting the results.
+     *
+     * @param <P> the type of the payload
+     * @param <R> the type of the converted value
+     * @param payloads the payloads
+     * @param conversion the conversion of a single payload
+     * @return the results in the order of the input
+     */
+    public <P, R> List<BatchResult<R>> convert(Stream<? extends P> payloads,
+            Conversion<? super P, ? extends R> conversion) {
+        List<BatchResult<R>> results = new ArrayList<>();
+        this.<P, R>convert(payloads, conversion, results::add);
+        return results;
+    }
+
+    /**
+     * Convert each payload delivering the results to the consumer in the order of the input.
+     *
+     * @param <P> the type of the payload
+     * @param <R> the type of the converted value
+     * @param payloads the payloads
+     * @param conversion the conversion of a single payload
+     * @param consumer the consumer of the results, called on the calling thread
+     */
+    public <P, R> void convert(Stream<? extends P> payloads,
+            Conversion<? super P, ? extends R> conversion,
+            Consumer<? super BatchResult<R>> consumer) {
+        convert(payloads.iterator(), conversion, consumer);
+    }
+
+    /**
+     * Convert each payload delivering the results to the consumer in the order of the input.
+     *
+     * The payloads are read from the iterable on the calling thread as capacity becomes available
+     * and results are delivered as soon as all of the results before them have been delivered.
+     *
+     * @param <P> the type of the payload
+     * @param <R> the type of the converted value
+     * @param payloads the payloads
+     * @param conversion the conversion of a single payload
+     * @param consumer the consumer of the results, called on the calling thread
+     */
+    public <P, R> void convert(Iterable<? extends P> payloads,
+            Conversion<? super P, ? extends R> conversion,
+            Consumer<? super BatchResult<R>> consumer) {
+        convert(payloads.iterator(), conversion, consumer);
+    }
+
+    private <P, R> void convert(Iterator<? extends P> payloads,
+            Conversion<? super P, ? extends R> conversion,
+            Consumer<? super BatchResult<R>> consumer) {
+        if (this.maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        ArrayDeque<CompletableFuture<BatchResult<R>>> inFlight = new ArrayDeque<>();
+        long index = 0;
+        while (payloads.hasNext()) {
+            P payload = payloads.next();
+            while (!inFlight.isEmpty()
+                    && (inFlight.size() >= this.maxInFlight || inFlight.peek().isDone())) {
+                consumer.accept(take(inFlight));
+            }
+
+            long payloadIndex = index++;
+            inFlight.add(CompletableFuture.supplyAsync(
+                    () -> convert(payloadIndex, payload, conversion), this.executor));
+        }
+
+        while (!inFlight.isEmpty()) {
+            consumer.accept(take(inFlight));
+        }
+    }
+
+    private static <P, R> BatchResult<R> convert(long index, P payload,
+            Conversion<? super P, ? extends R> conversion) {
+        try {
+            return BatchResult.success(index, conversion.convert(payload));
+        } catch (Exception e) {
+            return BatchResult.failure(index, e);
+        }
+    }
+
+    private static <R> BatchResult<R> take(ArrayDeque<CompletableFuture<BatchResult<R>>> inFlight) {
+        try {
+            return inFlight.poll().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.firestoreproto2json.ProtoJsonTranscoder.MergeRequiredException;
+
+/**
+ * A reusable context for transcoding the protocol buffer bytes of DocumentEventData to JSON.
+ *
+ * The context holds the transcoder, its output buffer and scratch structures and the base64 decode
+ * buffer so they are reused by every conversion. Once the buffers have grown to the size of the
+ * typical document, converting to an OutputStream allocates nothing for documents whose values
+ * are written by the default mappers, other than the formatting of double values. The output is
+ * identical to the corresponding methods of FirestoreProto2Json.
+ *
+ * A context is not thread safe; hold one per worker thread, for example in a ThreadLocal, and
+ * obtain it from {@link FirestoreProto2Json#newContext()}.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class FirestoreProto2JsonContext {
+
+    /**
+     * Buffers larger than this are not retained so a single large payload does not pin memory.
+     */
+    private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final FirestoreProto2Json firestoreProto2Json;
+
+    private final ProtoJsonTranscoder transcoder;
+
+    private byte[] base64Buffer = EMPTY;
+
+    FirestoreProto2JsonContext(FirestoreProto2Json firestoreProto2Json,
+            ProtoJsonTranscoder transcoder) {
+        this.firestoreProto2Json = firestoreProto2Json;
+        this.transcoder = transcoder;
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to UTF-8 JSON written to the
+     * OutputStream.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean valueToJson(byte[] documentBytes, OutputStream outputStream)
+            throws IOException {
+        return valueToJson(documentBytes, 0, documentBytes.length, outputStream);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value within the buffer to UTF-8
+     * JSON written to the OutputStream.
+     *
+     * @param documentBytes the buffer containing the protocol buffer bytes of a DocumentEventData
+     * @param offset the offset of the DocumentEventData
+     * @param length the length of the DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean valueToJson(byte[] documentBytes, int offset, int length,
+            OutputStream outputStream) throws IOException {
+        return transcode(documentBytes, offset, length, ProtoJsonTranscoder.EVENT_VALUE_TAG,
+                outputStream);
+    }
+
+    /**
+     * Transcode the base64 encoded protocol buffer of a DocumentEventData value to UTF-8 JSON
+     * written to the OutputStream.
+     *
+     * @param base64DocumentBytes the base64 encoded protocol buffer of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean valueToJsonFromBase64(CharSequence base64DocumentBytes,
+            OutputStream outputStream) throws IOException {
+        return transcodeFromBase64(base64DocumentBytes, ProtoJsonTranscoder.EVENT_VALUE_TAG,
+                outputStream);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to UTF-8 JSON.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the UTF-8 JSON for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] valueToJsonBytes(byte[] documentBytes) throws InvalidProtocolBufferException {
+        return transcodeToBytes(documentBytes, ProtoJsonTranscoder.EVENT_VALUE_TAG);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData value to a JSON string.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the JSON string for the value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public String valueToJsonString(byte[] documentBytes) throws InvalidProtocolBufferException {
+        return transcodeToString(documentBytes, ProtoJsonTranscoder.EVENT_VALUE_TAG);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to UTF-8 JSON written to
+     * the OutputStream.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean oldValueToJson(byte[] documentBytes, OutputStream outputStream)
+            throws IOException {
+        return oldValueToJson(documentBytes, 0, documentBytes.length, outputStream);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value within the buffer to
+     * UTF-8 JSON written to the OutputStream.
+     *
+     * @param documentBytes the buffer containing the protocol buffer bytes of a DocumentEventData
+     * @param offset the offset of the DocumentEventData
+     * @param length the length of the DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean oldValueToJson(byte[] documentBytes, int offset, int length,
+            OutputStream outputStream) throws IOException {
+        return transcode(documentBytes, offset, length, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG,
+                outputStream);
+    }
+
+    /**
+     * Transcode the base64 encoded protocol buffer of a DocumentEventData old value to UTF-8 JSON
+     * written to the OutputStream.
+     *
+     * @param base64DocumentBytes the base64 encoded protocol buffer of a DocumentEventData
+     * @param outputStream the OutputStream
+     * @return true if the old value is set and was written; otherwise false
+     * @throws IOException exception thrown when the Protocol Buffer is invalid or writing to the
+     *         OutputStream fails
+     */
+    public boolean oldValueToJsonFromBase64(CharSequence base64DocumentBytes,
+            OutputStream outputStream) throws IOException {
+        return transcodeFromBase64(base64DocumentBytes, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG,
+                outputStream);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to UTF-8 JSON.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the UTF-8 JSON for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public byte[] oldValueToJsonBytes(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        return transcodeToBytes(documentBytes, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG);
+    }
+
+    /**
+     * Transcode the protocol buffer bytes of a DocumentEventData old value to a JSON string.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the JSON string for the old value if set; otherwise null
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public String oldValueToJsonString(byte[] documentBytes)
+            throws InvalidProtocolBufferException {
+        return transcodeToString(documentBytes, ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG);
+    }
+
+    private boolean transcode(byte[] documentBytes, int offset, int length, int documentTag,
+            OutputStream outputStream) throws IOException {
+        try {
+            return this.firestoreProto2Json.transcode(this.transcoder, documentBytes, offset,
+                    length, documentTag, outputStream);
+        } finally {
+            this.transcoder.output().trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    private byte[] transcodeToBytes(byte[] documentBytes, int documentTag)
+            throws InvalidProtocolBufferException {
+        try {
+            if (this.transcoder.transcode(documentBytes, 0, documentBytes.length, documentTag)) {
+                return this.transcoder.output().toByteArray();
+            } else {
+                return null;
+            }
+        } catch (MergeRequiredException e) {
+            String jsonString = this.firestoreProto2Json.parseToJsonString(documentBytes, 0,
+                    documentBytes.length, documentTag);
+            return jsonString == null ? null : jsonString.getBytes(StandardCharsets.UTF_8);
+        } finally {
+            this.transcoder.output().trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    /**
+     * Transcode to a JSON string hashing the UTF-8 output of the transcoder.
+     */
+    HashedJson transcodeToHashedJson(byte[] documentBytes, int documentTag)
+            throws InvalidProtocolBufferException {
+        try {
+            if (this.transcoder.transcode(documentBytes, 0, documentBytes.length, documentTag)) {
+                MessageDigest digest = HashedJson.newDigest();
+                this.transcoder.output().update(digest);
+                return new HashedJson(this.transcoder.output().toUtf8String(), digest.digest());
+            } else {
+                return null;
+            }
+        } catch (MergeRequiredException e) {
+            DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+            if (documentTag == ProtoJsonTranscoder.EVENT_VALUE_TAG) {
+                return this.firestoreProto2Json.valueToHashedJson(documentEventData);
+            } else {
+                return this.firestoreProto2Json.oldValueToHashedJson(documentEventData);
+            }
+        } finally {
+            this.transcoder.output().trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    private String transcodeToString(byte[] documentBytes, int documentTag)
+            throws InvalidProtocolBufferException {
+        try {
+            if (this.transcoder.transcode(documentBytes, 0, documentBytes.length, documentTag)) {
+                return this.transcoder.output().toUtf8String();
+            } else {
+                return null;
+            }
+        } catch (MergeRequiredException e) {
+            return this.firestoreProto2Json.parseToJsonString(documentBytes, 0,
+                    documentBytes.length, documentTag);
+        } finally {
+            this.transcoder.output().trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    /**
+     * Decode the base64 characters into the reusable buffer and transcode the decoded bytes.
+     */
+    private boolean transcodeFromBase64(CharSequence base64DocumentBytes, int documentTag,
+            OutputStream outputStream) throws IOException {
+        int decodedLength = (int) (((long) base64DocumentBytes.length() + 3) / 4 * 3);
+        byte[] buffer = this.base64Buffer;
+        if (buffer.length < decodedLength) {
+            buffer = new byte[decodedLength];
+            if (decodedLength <= MAX_RETAINED_BUFFER) {
+                this.base64Buffer = buffer;
+            }
+        }
+
+        int length = Base64Decoder.decode(base64DocumentBytes, buffer);
+        return transcode(buffer, 0, length, documentTag, outputStream);
+    }
+}
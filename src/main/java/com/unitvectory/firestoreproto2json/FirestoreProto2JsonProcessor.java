@@ -0,0 +1,439 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import com.unitvectory.firestoreproto2json.FirestoreProto2JsonBatch.Conversion;
+import lombok.Builder;
+
+/**
+ * A Flow processor converting the payloads published upstream and publishing the converted values
+ * downstream with backpressure.
+ *
+ * At most prefetch payloads are requested from upstream that have not yet been delivered
+ * downstream, and at most parallelism of them are converted on the executor at the same time.
+ * In ordered mode the values are published in the order of the payloads; otherwise each value is
+ * published as soon as it is converted. A conversion returning null, for example when the
+ * converted side of the event is not set, publishes nothing.
+ *
+ * A payload that fails to convert is passed with the exception to the failure handler and the
+ * stream continues. Without a failure handler the first failure cancels the upstream subscription
+ * and is signalled downstream with onError.
+ *
+ * The processor supports a single downstream subscriber. The executor is not shut down by this
+ * class.
+ *
+ * @param <P> the type of the payload
+ * @param <R> the type of the converted value
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class FirestoreProto2JsonProcessor<P, R> implements Flow.Processor<P, R> {
+
+    /**
+     * A payload and the result of its conversion.
+     */
+    private static final class Slot<P, R> {
+
+        private final P payload;
+
+        private R value;
+
+        private Exception exception;
+
+        private boolean done;
+
+        private Slot(P payload) {
+            this.payload = payload;
+        }
+    }
+
+    private final Conversion<? super P, ? extends R> conversion;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final int prefetch;
+
+    private final boolean ordered;
+
+    private final BiConsumer<? super P, ? super Exception> failureHandler;
+
+    private final Object lock = new Object();
+
+    /**
+     * Serializes the signals to the downstream subscriber; incremented for each drain requested.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // The following are guarded by the lock
+
+    /**
+     * The payloads received in order, in ordered mode; otherwise the converted payloads.
+     */
+    private final ArrayDeque<Slot<P, R>> output = new ArrayDeque<>();
+
+    /**
+     * The payloads waiting for a conversion to finish.
+     */
+    private final ArrayDeque<Slot<P, R>> waiting = new ArrayDeque<>();
+
+    private int running;
+
+    /**
+     * The payloads received and not yet published or dropped.
+     */
+    private int outstanding;
+
+    private long demand;
+
+    private int consumed;
+
+    private Flow.Subscription upstream;
+
+    private Flow.Subscriber<? super R> downstream;
+
+    private boolean upstreamDone;
+
+    private Throwable error;
+
+    private boolean cancelled;
+
+    private boolean terminated;
+
+    /**
+     * Create the processor.
+     *
+     * @param conversion the conversion of a single payload, such as
+     *        <code>FirestoreProto2Json.DEFAULT::valueToJsonString</code>
+     * @param executor the executor of the conversions; the common ForkJoinPool if null
+     * @param parallelism the maximum number of conversions at the same time; the number of
+     *        processors if zero
+     * @param prefetch the maximum number of payloads requested and not yet delivered; four times
+     *        the parallelism if zero
+     * @param unordered true to publish the values as they are converted; false to publish them in
+     *        the order of the payloads
+     * @param failureHandler the handler of the payloads that fail to convert; null to fail the
+     *        stream
+     */
+    @Builder
+    private FirestoreProto2JsonProcessor(Conversion<? super P, ? extends R> conversion,
+            Executor executor, int parallelism, int prefetch, boolean unordered,
+            BiConsumer<? super P, ? super Exception> failureHandler) {
+        if (conversion == null) {
+            throw new IllegalArgumentException("conversion is required");
+        } else if (parallelism < 0 || prefetch < 0) {
+            throw new IllegalArgumentException("parallelism and prefetch must not be negative");
+        }
+
+        this.conversion = conversion;
+        this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+        this.parallelism =
+                parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.prefetch = prefetch == 0 ? this.parallelism * 4 : prefetch;
+        this.ordered = !unordered;
+        this.failureHandler = failureHandler;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        synchronized (this.lock) {
+            if (this.downstream == null) {
+                this.downstream = subscriber;
+                subscriber = null;
+            }
+        }
+
+        if (subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // The subscriber was rejected
+                }
+
+                @Override
+                public void cancel() {
+                    // The subscriber was rejected
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+            return;
+        }
+
+        this.downstream.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requestDownstream(n);
+            }
+
+            @Override
+            public void cancel() {
+                cancelDownstream();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this.lock) {
+            if (this.upstream != null || this.cancelled) {
+                subscription.cancel();
+                return;
+            }
+
+            this.upstream = subscription;
+        }
+
+        subscription.request(this.prefetch);
+    }
+
+    @Override
+    public void onNext(P payload) {
+        Slot<P, R> slot = new Slot<>(payload);
+        boolean start;
+        synchronized (this.lock) {
+            if (this.cancelled || this.terminated) {
+                return;
+            }
+
+            this.outstanding++;
+            if (this.ordered) {
+                this.output.add(slot);
+            }
+
+            start = this.running < this.parallelism;
+            if (start) {
+                this.running++;
+            } else {
+                this.waiting.add(slot);
+            }
+        }
+
+        if (start) {
+            start(slot);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this.lock) {
+            this.upstreamDone = true;
+            if (this.error == null) {
+                this.error = throwable;
+            }
+        }
+
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this.lock) {
+            this.upstreamDone = true;
+        }
+
+        drain();
+    }
+
+    private void start(Slot<P, R> slot) {
+        try {
+            this.executor.execute(() -> convert(slot));
+        } catch (RuntimeException e) {
+            // A rejected conversion is a failure of the payload
+            slot.exception = e;
+            completed(slot);
+        }
+    }
+
+    private void convert(Slot<P, R> slot) {
+        try {
+            slot.value = this.conversion.convert(slot.payload);
+        } catch (Exception e) {
+            slot.exception = e;
+        }
+
+        completed(slot);
+    }
+
+    private void completed(Slot<P, R> slot) {
+        Slot<P, R> next;
+        synchronized (this.lock) {
+            slot.done = true;
+            if (!this.ordered) {
+                this.output.add(slot);
+            }
+
+            next = this.cancelled ? null : this.waiting.poll();
+            if (next == null) {
+                this.running--;
+            }
+        }
+
+        if (next != null) {
+            start(next);
+        }
+
+        drain();
+    }
+
+    private void requestDownstream(long n) {
+        Flow.Subscription subscription = null;
+        synchronized (this.lock) {
+            if (n <= 0) {
+                // A non-positive request fails the stream
+                this.cancelled = true;
+                this.upstreamDone = true;
+                this.error = new IllegalArgumentException("request must be positive: " + n);
+                this.output.clear();
+                this.waiting.clear();
+                subscription = this.upstream;
+            } else {
+                this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+            }
+        }
+
+        if (subscription != null) {
+            subscription.cancel();
+        }
+
+        drain();
+    }
+
+    private void cancelDownstream() {
+        Flow.Subscription subscription;
+        synchronized (this.lock) {
+            this.cancelled = true;
+            this.terminated = true;
+            this.output.clear();
+            this.waiting.clear();
+            subscription = this.upstream;
+        }
+
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Deliver the values, failures and the terminal signal that are ready, on one thread at a
+     * time.
+     */
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        while (true) {
+            Slot<P, R> slot;
+            while ((slot = poll()) != null) {
+                deliver(slot);
+            }
+
+            Flow.Subscription subscription = null;
+            long replenish = 0;
+            Throwable terminal = null;
+            boolean complete = false;
+            synchronized (this.lock) {
+                if (this.consumed > 0 && !this.upstreamDone && !this.cancelled) {
+                    subscription = this.upstream;
+                    replenish = this.consumed;
+                }
+
+                this.consumed = 0;
+                if (!this.terminated && this.downstream != null && this.upstreamDone
+                        && (this.outstanding == 0 || this.cancelled)) {
+                    this.terminated = true;
+                    terminal = this.error;
+                    complete = terminal == null;
+                }
+            }
+
+            if (subscription != null) {
+                subscription.request(replenish);
+            }
+
+            if (terminal != null) {
+                this.downstream.onError(terminal);
+            } else if (complete) {
+                this.downstream.onComplete();
+            }
+
+            missed = this.wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take the next converted payload that can be delivered.
+     */
+    private Slot<P, R> poll() {
+        synchronized (this.lock) {
+            Slot<P, R> slot = this.output.peek();
+            if (this.downstream == null || this.terminated || slot == null || !slot.done) {
+                return null;
+            }
+
+            // A value needs demand; failures and null values are delivered without it
+            if (slot.exception == null && slot.value != null && this.demand == 0) {
+                return null;
+            }
+
+            this.output.poll();
+            this.outstanding--;
+            this.consumed++;
+            if (slot.exception == null && slot.value != null) {
+                this.demand--;
+            }
+
+            return slot;
+        }
+    }
+
+    private void deliver(Slot<P, R> slot) {
+        if (slot.exception == null) {
+            if (slot.value != null) {
+                this.downstream.onNext(slot.value);
+            }
+
+            return;
+        } else if (this.failureHandler != null) {
+            this.failureHandler.accept(slot.payload, slot.exception);
+            return;
+        }
+
+        // Without a failure handler the first failure terminates the stream
+        Flow.Subscription subscription;
+        synchronized (this.lock) {
+            this.cancelled = true;
+            this.upstreamDone = true;
+            this.error = slot.exception;
+            this.output.clear();
+            this.waiting.clear();
+            subscription = this.upstream;
+        }
+
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.function.Consumer;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.gson.JsonIOException;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Builder;
+
+/**
+ * Converts DocumentEventData to typed JSON and parses typed JSON back into DocumentEventData.
+ * 
+ * Unlike the JSON written by {@link FirestoreProto2Json}, typed JSON keeps the type of every value
+ * so the event is reconstructed exactly, including timestamps, GeoPoints, bytes, references and
+ * the distinction between integers and doubles. Values whose type is clear from JSON are written
+ * as themselves and only the remaining types are tagged, for example
+ * <code>{"$timestamp":"2024-03-01T00:00:00.123Z"}</code>, so typed JSON is considerably more
+ * compact than the Firestore REST representation. The value mappers and field projection of
+ * FirestoreProto2Json do not apply.
+ * 
+ * An event is written as <code>{"value":{...},"oldValue":{...},"updateMask":[...]}</code> and
+ * each document as <code>{"name":...,"fields":{...},"createTime":...,"updateTime":...}</code>,
+ * omitting what is not set.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Builder
+public class FirestoreTypedJson {
+
+    /**
+     * The default instance of FirestoreTypedJson
+     */
+    public static final FirestoreTypedJson DEFAULT = FirestoreTypedJson.builder().build();
+
+    /**
+     * The limits of the documents written and parsed; the output limit applies to writing.
+     */
+    @Builder.Default
+    private ConversionLimits conversionLimits = ConversionLimits.NONE;
+
+    /**
+     * Convert a DocumentEventData to a typed JSON string.
+     * 
+     * @param documentEventData the DocumentEventData
+     * @return the typed JSON string
+     */
+    public String eventToTypedJson(DocumentEventData documentEventData) {
+        StringWriter writer = new StringWriter();
+        try {
+            eventToTypedJson(documentEventData, writer);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return writer.toString();
+    }
+
+    /**
+     * Convert the protocol buffer bytes of a DocumentEventData to a typed JSON string.
+     * 
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @return the typed JSON string
+     * @throws InvalidProtocolBufferException exception thrown when provided Protocol Buffer is
+     *         invalid
+     */
+    public String eventToTypedJson(byte[] documentBytes) throws InvalidProtocolBufferException {
+        return eventToTypedJson(DocumentEventData.parseFrom(documentBytes));
+    }
+
+    /**
+     * Write a DocumentEventData as typed JSON to the Writer.
+     * 
+     * @param documentEventData the DocumentEventData
+     * @param writer the Writer
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    public void eventToTypedJson(DocumentEventData documentEventData, Writer writer)
+            throws IOException {
+        if (documentEventData.hasValue()) {
+            this.conversionLimits.check(documentEventData.getValue(), FieldProjection.Node.ALL);
+        }
+
+        if (documentEventData.hasOldValue()) {
+            this.conversionLimits.check(documentEventData.getOldValue(),
+                    FieldProjection.Node.ALL);
+        }
+
+        JsonWriter jsonWriter = newJsonWriter(writer);
+        new TypedJsonWriter(jsonWriter).writeEvent(documentEventData);
+        jsonWriter.flush();
+    }
+
+    /**
+     * Convert a Document to a typed JSON string.
+     * 
+     * @param document the Document
+     * @return the typed JSON string
+     */
+    public String documentToTypedJson(Document document) {
+        this.conversionLimits.check(document, FieldProjection.Node.ALL);
+        StringWriter writer = new StringWriter();
+        try {
+            JsonWriter jsonWriter = newJsonWriter(writer);
+            new TypedJsonWriter(jsonWriter).writeDocument(document);
+            jsonWriter.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+
+        return writer.toString();
+    }
+
+    /**
+     * Parse a typed JSON string into a DocumentEventData.
+     * 
+     * @param typedJson the typed JSON string
+     * @return the DocumentEventData
+     * @throws IOException exception thrown when the typed JSON is invalid
+     */
+    public DocumentEventData typedJsonToEvent(String typedJson) throws IOException {
+        return typedJsonToEvent(new StringReader(typedJson));
+    }
+
+    /**
+     * Parse the typed JSON read from the Reader into a DocumentEventData.
+     * 
+     * @param reader the Reader of a single typed JSON event
+     * @return the DocumentEventData
+     * @throws IOException exception thrown when the typed JSON is invalid or reading fails
+     */
+    public DocumentEventData typedJsonToEvent(Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        DocumentEventData documentEventData =
+                new TypedJsonParser(jsonReader, this.conversionLimits).readEvent();
+        checkEnd(jsonReader);
+        return documentEventData;
+    }
+
+    /**
+     * Parse a typed JSON string into the protocol buffer bytes of a DocumentEventData.
+     * 
+     * @param typedJson the typed JSON string
+     * @return the protocol buffer bytes of the DocumentEventData
+     * @throws IOException exception thrown when the typed JSON is invalid
+     */
+    public byte[] typedJsonToEventBytes(String typedJson) throws IOException {
+        return typedJsonToEvent(typedJson).toByteArray();
+    }
+
+    /**
+     * Parse every typed JSON event read from the Reader, such as newline delimited JSON.
+     * 
+     * The events are parsed one at a time as they are read, so a stream of any length is parsed
+     * without holding more than one event.
+     * 
+     * @param reader the Reader of a sequence of typed JSON events
+     * @param consumer the consumer of each DocumentEventData
+     * @throws IOException exception thrown when the typed JSON is invalid or reading fails
+     */
+    public void typedJsonToEvents(Reader reader, Consumer<? super DocumentEventData> consumer)
+            throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+
+        // Lenient parsing permits a sequence of top level values
+        jsonReader.setStrictness(Strictness.LENIENT);
+        TypedJsonParser parser = new TypedJsonParser(jsonReader, this.conversionLimits);
+        while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+            consumer.accept(parser.readEvent());
+        }
+    }
+
+    /**
+     * Parse a typed JSON string into a Document.
+     * 
+     * @param typedJson the typed JSON string of a document
+     * @return the Document
+     * @throws IOException exception thrown when the typed JSON is invalid
+     */
+    public Document typedJsonToDocument(String typedJson) throws IOException {
+        JsonReader jsonReader = new JsonReader(new StringReader(typedJson));
+        Document document = new TypedJsonParser(jsonReader, this.conversionLimits).readDocument();
+        checkEnd(jsonReader);
+        return document;
+    }
+
+    private JsonWriter newJsonWriter(Writer writer) {
+        // Streams bytes without copying them; the output is plain JSON that is not HTML safe
+        return new StreamingJsonWriter(this.conversionLimits.limit(writer));
+    }
+
+    private static void checkEnd(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+            throw new MalformedJsonException(
+                    "Expected the end of the document at path " + jsonReader.getPath());
+        }
+    }
+}
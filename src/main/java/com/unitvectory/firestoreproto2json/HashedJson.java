@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import lombok.Getter;
+
+/**
+ * A JSON string with the SHA-256 hash of its UTF-8 encoding.
+ *
+ * The hash is computed while the JSON is written rather than by encoding the string again. When
+ * the keys are sorted, identical documents have identical JSON and therefore identical hashes
+ * regardless of the order of their fields in the protocol buffer.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class HashedJson {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The JSON string.
+     *
+     * @return the JSON string
+     */
+    @Getter
+    private final String jsonString;
+
+    private final byte[] sha256;
+
+    HashedJson(String jsonString, byte[] sha256) {
+        this.jsonString = jsonString;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Get the SHA-256 hash of the UTF-8 encoding of the JSON.
+     *
+     * @return the 32 byte hash
+     */
+    public byte[] getSha256() {
+        return this.sha256.clone();
+    }
+
+    /**
+     * Get the SHA-256 hash of the UTF-8 encoding of the JSON as lowercase hexadecimal.
+     *
+     * @return the 64 character hash
+     */
+    public String getSha256Hex() {
+        char[] hex = new char[this.sha256.length * 2];
+        for (int i = 0; i < this.sha256.length; i++) {
+            hex[i * 2] = HEX[(this.sha256[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[this.sha256[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    @Override
+    public String toString() {
+        return this.jsonString;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The abstract JacksonValueMapper used to convert a Protocol Buffer timestamp, geopoint or bytes
+ * value into a Jackson attribute; the equivalent of the ValueMapper classes for
+ * FirestoreProto2Jackson.
+ * 
+ * @param <T> the type of the value
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public abstract class JacksonValueMapper<T> {
+
+    /**
+     * Convert the value into an attribute in an Object Node
+     * 
+     * @param objectNode the Object Node
+     * @param key the key
+     * @param value the value
+     */
+    public abstract void convert(ObjectNode objectNode, String key, T value);
+
+    /**
+     * Convert the value into an entry in the Array Node
+     * 
+     * @param arrayNode the Array Node
+     * @param value the value
+     */
+    public abstract void convert(ArrayNode arrayNode, T value);
+
+    /**
+     * Write the value as an attribute to the JSON Generator, including the attribute name.
+     * 
+     * The default implementation delegates to {@link #convert(ObjectNode, String, Object)};
+     * subclasses should override this to write directly to the JSON Generator.
+     * 
+     * @param jsonGenerator the JSON Generator
+     * @param key the key
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    public void write(JsonGenerator jsonGenerator, String key, T value) throws IOException {
+        ObjectNode objectNode = FirestoreProto2Jackson.NODE_FACTORY.objectNode();
+        convert(objectNode, key, value);
+        for (Entry<String, JsonNode> entry : objectNode.properties()) {
+            jsonGenerator.writeFieldName(entry.getKey());
+            FirestoreProto2Jackson.writeNode(jsonGenerator, entry.getValue());
+        }
+    }
+
+    /**
+     * Write the value as an entry in the array currently open on the JSON Generator.
+     * 
+     * The default implementation delegates to {@link #convert(ArrayNode, Object)}; subclasses
+     * should override this to write directly to the JSON Generator.
+     * 
+     * @param jsonGenerator the JSON Generator
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Generator fails
+     */
+    public void write(JsonGenerator jsonGenerator, T value) throws IOException {
+        ArrayNode arrayNode = FirestoreProto2Jackson.NODE_FACTORY.arrayNode();
+        convert(arrayNode, value);
+        for (JsonNode element : arrayNode) {
+            FirestoreProto2Jackson.writeNode(jsonGenerator, element);
+        }
+    }
+}
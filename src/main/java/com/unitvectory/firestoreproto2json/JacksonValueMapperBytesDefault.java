@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.util.Base64;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The default Bytes JacksonValueMapper.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class JacksonValueMapperBytesDefault extends JacksonValueMapper<byte[]> {
+
+    @Override
+    public void convert(ObjectNode objectNode, String key, byte[] bytes) {
+        objectNode.putObject(key).put("_byteString", encode(bytes));
+    }
+
+    @Override
+    public void convert(ArrayNode arrayNode, byte[] bytes) {
+        arrayNode.addObject().put("_byteString", encode(bytes));
+    }
+
+    @Override
+    public void write(JsonGenerator jsonGenerator, String key, byte[] bytes)
+            throws IOException {
+        if (isSubclass()) {
+            super.write(jsonGenerator, key, bytes);
+            return;
+        }
+
+        jsonGenerator.writeFieldName(key);
+        write(jsonGenerator, bytes);
+    }
+
+    @Override
+    public void write(JsonGenerator jsonGenerator, byte[] bytes) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonGenerator, bytes);
+            return;
+        }
+
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("_byteString", encode(bytes));
+        jsonGenerator.writeEndObject();
+    }
+
+    /**
+     * A subclass may customize the convert methods, so it is written through them.
+     */
+    private boolean isSubclass() {
+        return getClass() != JacksonValueMapperBytesDefault.class;
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
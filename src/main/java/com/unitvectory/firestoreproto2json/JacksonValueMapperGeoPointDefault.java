@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.type.LatLng;
+
+/**
+ * The default GeoPoint JacksonValueMapper.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class JacksonValueMapperGeoPointDefault extends JacksonValueMapper<LatLng> {
+
+    @Override
+    public void convert(ObjectNode objectNode, String key, LatLng geopoint) {
+        convert(objectNode.putObject(key), geopoint);
+    }
+
+    @Override
+    public void convert(ArrayNode arrayNode, LatLng geopoint) {
+        convert(arrayNode.addObject(), geopoint);
+    }
+
+    @Override
+    public void write(JsonGenerator jsonGenerator, String key, LatLng geopoint)
+            throws IOException {
+        if (isSubclass()) {
+            super.write(jsonGenerator, key, geopoint);
+            return;
+        }
+
+        jsonGenerator.writeFieldName(key);
+        write(jsonGenerator, geopoint);
+    }
+
+    @Override
+    public void write(JsonGenerator jsonGenerator, LatLng geopoint) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonGenerator, geopoint);
+            return;
+        }
+
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeNumberField("latitude", geopoint.getLatitude());
+        jsonGenerator.writeNumberField("longitude", geopoint.getLongitude());
+        jsonGenerator.writeEndObject();
+    }
+
+    /**
+     * A subclass may customize the convert methods, so it is written through them.
+     */
+    private boolean isSubclass() {
+        return getClass() != JacksonValueMapperGeoPointDefault.class;
+    }
+
+    private void convert(ObjectNode objectNode, LatLng geopoint) {
+        objectNode.put("latitude", geopoint.getLatitude());
+        objectNode.put("longitude", geopoint.getLongitude());
+    }
+}
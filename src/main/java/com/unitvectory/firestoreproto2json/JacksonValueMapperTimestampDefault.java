@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.protobuf.Timestamp;
+
+/**
+ * The default timestamp JacksonValueMapper, formatting the same as ValueMapperTimestampDefault.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class JacksonValueMapperTimestampDefault extends JacksonValueMapper<Timestamp> {
+
+    private final ValueMapperTimestampDefault formatter;
+
+    /**
+     * Creates a new instance of the JacksonValueMapperTimestampDefault.
+     */
+    public JacksonValueMapperTimestampDefault() {
+        this.formatter = new ValueMapperTimestampDefault();
+    }
+
+    /**
+     * Creates a new instance of the JacksonValueMapperTimestampDefault.
+     * 
+     * @param pattern the DateTimeFormatter pattern
+     */
+    public JacksonValueMapperTimestampDefault(String pattern) {
+        this.formatter = new ValueMapperTimestampDefault(pattern);
+    }
+
+    /**
+     * Creates a new instance of the JacksonValueMapperTimestampDefault.
+     * 
+     * @param pattern the DateTimeFormatter pattern
+     * @param offset the ZoneOffset
+     */
+    public JacksonValueMapperTimestampDefault(String pattern, ZoneOffset offset) {
+        this.formatter = new ValueMapperTimestampDefault(pattern, offset);
+    }
+
+    @Override
+    public final void convert(ObjectNode objectNode, String key, Timestamp timestamp) {
+        objectNode.put(key, formatTimestamp(timestamp));
+    }
+
+    @Override
+    public final void convert(ArrayNode arrayNode, Timestamp timestamp) {
+        arrayNode.add(formatTimestamp(timestamp));
+    }
+
+    @Override
+    public final void write(JsonGenerator jsonGenerator, String key, Timestamp timestamp)
+            throws IOException {
+        jsonGenerator.writeStringField(key, formatTimestamp(timestamp));
+    }
+
+    @Override
+    public final void write(JsonGenerator jsonGenerator, Timestamp timestamp) throws IOException {
+        jsonGenerator.writeString(formatTimestamp(timestamp));
+    }
+
+    private String formatTimestamp(Timestamp timestamp) {
+        return this.formatter.formatTimestamp(timestamp.getSeconds(), timestamp.getNanos());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.events.cloud.firestore.v1.Value;
+
+/**
+ * The sink writing JSON to a Jackson JSON Generator.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class JsonGeneratorSink implements DocumentSink {
+
+    private final FirestoreProto2Jackson firestoreProto2Jackson;
+
+    private final JsonGenerator jsonGenerator;
+
+    JsonGeneratorSink(FirestoreProto2Jackson firestoreProto2Jackson,
+            JsonGenerator jsonGenerator) {
+        this.firestoreProto2Jackson = firestoreProto2Jackson;
+        this.jsonGenerator = jsonGenerator;
+    }
+
+    @Override
+    public void beginMap(String key) throws IOException {
+        name(key);
+        this.jsonGenerator.writeStartObject();
+    }
+
+    @Override
+    public void endMap() throws IOException {
+        this.jsonGenerator.writeEndObject();
+    }
+
+    @Override
+    public void beginArray(String key) throws IOException {
+        name(key);
+        this.jsonGenerator.writeStartArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        this.jsonGenerator.writeEndArray();
+    }
+
+    @Override
+    public void value(String key, long value) throws IOException {
+        name(key);
+        this.jsonGenerator.writeNumber(value);
+    }
+
+    @Override
+    public void value(String key, String value) throws IOException {
+        name(key);
+        this.jsonGenerator.writeString(value);
+    }
+
+    @Override
+    public void value(String key, double value) throws IOException {
+        name(key);
+        this.jsonGenerator.writeNumber(value);
+    }
+
+    @Override
+    public void value(String key, boolean value) throws IOException {
+        name(key);
+        this.jsonGenerator.writeBoolean(value);
+    }
+
+    @Override
+    public void nullValue(String key) throws IOException {
+        name(key);
+        this.jsonGenerator.writeNull();
+    }
+
+    @Override
+    public void mapped(String key, Value value, ValueMapper mapper) throws IOException {
+        JsonNode converted = this.firestoreProto2Jackson.convert(key, value, mapper);
+        if (key != null) {
+            for (Entry<String, JsonNode> entry : converted.properties()) {
+                this.jsonGenerator.writeFieldName(entry.getKey());
+                FirestoreProto2Jackson.writeNode(this.jsonGenerator, entry.getValue());
+            }
+        } else {
+            for (JsonNode element : converted) {
+                FirestoreProto2Jackson.writeNode(this.jsonGenerator, element);
+            }
+        }
+    }
+
+    @Override
+    public void typed(String key, Value value, ValueMapper mapper) throws IOException {
+        // The Jackson value mapper of the type replaces the mapper of FirestoreProto2Json
+        this.firestoreProto2Jackson.write(this.jsonGenerator, key, value);
+    }
+
+    private void name(String key) throws IOException {
+        if (key != null) {
+            this.jsonGenerator.writeFieldName(key);
+        }
+    }
+}
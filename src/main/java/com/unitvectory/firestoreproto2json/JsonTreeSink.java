@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.ArrayDeque;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The sink building a JSON object.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class JsonTreeSink implements DocumentSink {
+
+    /**
+     * The open JSON objects and arrays, the innermost first.
+     */
+    private final ArrayDeque<JsonElement> stack = new ArrayDeque<>();
+
+    private JsonObject root;
+
+    /**
+     * Create a sink adding to the JSON object; null to build a new JSON object.
+     *
+     * @param jsonObject the JSON object
+     */
+    JsonTreeSink(JsonObject jsonObject) {
+        if (jsonObject != null) {
+            this.stack.push(jsonObject);
+            this.root = jsonObject;
+        }
+    }
+
+    /**
+     * Get the JSON object that was built.
+     *
+     * @return the JSON object
+     */
+    JsonObject root() {
+        return this.root;
+    }
+
+    @Override
+    public void beginMap(String key) {
+        JsonObject jsonObject = new JsonObject();
+        if (this.root == null) {
+            this.root = jsonObject;
+        } else {
+            add(key, jsonObject);
+        }
+
+        this.stack.push(jsonObject);
+    }
+
+    @Override
+    public void endMap() {
+        this.stack.pop();
+    }
+
+    @Override
+    public void beginArray(String key) {
+        JsonArray jsonArray = new JsonArray();
+        add(key, jsonArray);
+        this.stack.push(jsonArray);
+    }
+
+    @Override
+    public void endArray() {
+        this.stack.pop();
+    }
+
+    @Override
+    public void value(String key, long value) {
+        add(key, new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(String key, String value) {
+        add(key, new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(String key, double value) {
+        add(key, new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(String key, boolean value) {
+        add(key, new JsonPrimitive(value));
+    }
+
+    @Override
+    public void nullValue(String key) {
+        add(key, JsonNull.INSTANCE);
+    }
+
+    @Override
+    public void mapped(String key, Value value, ValueMapper mapper) {
+        if (key != null) {
+            mapper.convert(this.stack.peek().getAsJsonObject(), key, value);
+        } else {
+            mapper.convert(this.stack.peek().getAsJsonArray(), value);
+        }
+    }
+
+    private void add(String key, JsonElement jsonElement) {
+        if (key != null) {
+            this.stack.peek().getAsJsonObject().add(key, jsonElement);
+        } else {
+            this.stack.peek().getAsJsonArray().add(jsonElement);
+        }
+    }
+}
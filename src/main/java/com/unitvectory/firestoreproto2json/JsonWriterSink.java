@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The sink writing JSON to a JSON Writer.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class JsonWriterSink implements DocumentSink {
+
+    private final JsonWriter jsonWriter;
+
+    JsonWriterSink(JsonWriter jsonWriter) {
+        this.jsonWriter = jsonWriter;
+    }
+
+    @Override
+    public void beginMap(String key) throws IOException {
+        name(key).beginObject();
+    }
+
+    @Override
+    public void endMap() throws IOException {
+        this.jsonWriter.endObject();
+    }
+
+    @Override
+    public void beginArray(String key) throws IOException {
+        name(key).beginArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        this.jsonWriter.endArray();
+    }
+
+    @Override
+    public void value(String key, long value) throws IOException {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, String value) throws IOException {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, double value) throws IOException {
+        name(key).value(value);
+    }
+
+    @Override
+    public void value(String key, boolean value) throws IOException {
+        name(key).value(value);
+    }
+
+    @Override
+    public void nullValue(String key) throws IOException {
+        name(key).nullValue();
+    }
+
+    @Override
+    public void mapped(String key, Value value, ValueMapper mapper) throws IOException {
+        if (key != null) {
+            mapper.write(this.jsonWriter, key, value);
+        } else {
+            mapper.write(this.jsonWriter, value);
+        }
+    }
+
+    private JsonWriter name(String key) throws IOException {
+        return key != null ? this.jsonWriter.name(key) : this.jsonWriter;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A lazy JSON view of a parsed Document or map value that converts each field only when it is
+ * accessed.
+ *
+ * Converted fields are cached so each field is converted at most once, and maps can be navigated
+ * as nested views without converting their other fields. {@link #toJsonObject()} and
+ * {@link #toString()} produce the same output as the eager conversion, reusing the fields that
+ * were already converted.
+ *
+ * Attributes written by a custom value mapper under a name other than the name of the field are
+ * found by converting the fields handled by custom mappers the first time such a name is looked
+ * up. The elements returned are cached and shared, so they should not be modified. An instance is
+ * not thread safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class LazyJsonObject {
+
+    private final FirestoreProto2Json firestoreProto2Json;
+
+    private final Map<String, Value> fields;
+
+    private final FieldProjection.Node node;
+
+    /**
+     * The members written for each converted field, by the name of the field.
+     */
+    private final Map<String, JsonObject> converted = new HashMap<>();
+
+    /**
+     * The nested views of the map fields, by the name of the field.
+     */
+    private final Map<String, LazyJsonObject> views = new HashMap<>();
+
+    /**
+     * The members written by the custom value mappers; null until a name that is not a field is
+     * looked up.
+     */
+    private JsonObject mapperMembers;
+
+    LazyJsonObject(FirestoreProto2Json firestoreProto2Json, Map<String, Value> fields,
+            FieldProjection.Node node) {
+        this.firestoreProto2Json = firestoreProto2Json;
+        this.fields = fields;
+        this.node = node;
+    }
+
+    /**
+     * Check if the converted object has a member with the name.
+     *
+     * @param memberName the name of the member
+     * @return true if the member exists; otherwise false
+     */
+    public boolean has(String memberName) {
+        return get(memberName) != null;
+    }
+
+    /**
+     * Get the converted member, converting the field if it was not already converted.
+     *
+     * @param memberName the name of the member
+     * @return the member; null if the converted object does not have the member
+     */
+    public JsonElement get(String memberName) {
+        JsonObject fieldMembers = convert(memberName);
+        JsonElement member = fieldMembers == null ? null : fieldMembers.get(memberName);
+        if (member != null) {
+            return member;
+        }
+
+        return mapperMembers().get(memberName);
+    }
+
+    /**
+     * Get the lazy view of a map field.
+     *
+     * @param memberName the name of the field
+     * @return the view of the map; null if the field is not a map, is not selected or is
+     *         converted by a field mapper
+     */
+    public LazyJsonObject getView(String memberName) {
+        LazyJsonObject view = this.views.get(memberName);
+        if (view != null) {
+            return view;
+        }
+
+        Value value = this.fields.get(memberName);
+        FieldProjection.Node child = value == null ? null : this.node.child(memberName);
+        if (child == null || !value.hasMapValue() || child.mapper(value) != null) {
+            return null;
+        }
+
+        view = new LazyJsonObject(this.firestoreProto2Json, value.getMapValue().getFieldsMap(),
+                child);
+        this.views.put(memberName, view);
+        return view;
+    }
+
+    /**
+     * Convert every field that has not been converted yet.
+     *
+     * @return the JSON object, identical to the eager conversion
+     */
+    public JsonObject toJsonObject() {
+        JsonObject jsonObject = new JsonObject();
+        for (Entry<String, Value> field : this.firestoreProto2Json.fields(this.fields)) {
+            JsonObject fieldMembers = convert(field.getKey());
+            if (fieldMembers != null) {
+                for (Entry<String, JsonElement> entry : fieldMembers.entrySet()) {
+                    jsonObject.add(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        return jsonObject;
+    }
+
+    /**
+     * Serialize the JSON object.
+     *
+     * @return the JSON string, identical to the eager conversion
+     */
+    @Override
+    public String toString() {
+        return toJsonObject().toString();
+    }
+
+    /**
+     * Convert the field to the members it writes.
+     *
+     * @return the members; null if there is no field with the name or it is not selected
+     */
+    private JsonObject convert(String name) {
+        JsonObject fieldMembers = this.converted.get(name);
+        if (fieldMembers != null) {
+            return fieldMembers;
+        }
+
+        Value value = this.fields.get(name);
+        FieldProjection.Node child = value == null ? null : this.node.child(name);
+        if (child == null) {
+            return null;
+        }
+
+        fieldMembers = new JsonObject();
+        LazyJsonObject view = this.views.get(name);
+        if (view != null) {
+            // Reuse the fields already converted through the nested view
+            fieldMembers.add(name, view.toJsonObject());
+        } else {
+            this.firestoreProto2Json.appendValue(fieldMembers, name, value, child);
+        }
+
+        this.converted.put(name, fieldMembers);
+        return fieldMembers;
+    }
+
+    private JsonObject mapperMembers() {
+        if (this.mapperMembers == null) {
+            this.mapperMembers = new JsonObject();
+            for (Entry<String, Value> entry : this.fields.entrySet()) {
+                if (this.firestoreProto2Json.isCustomMapper(entry.getValue(),
+                        this.node.child(entry.getKey()))) {
+                    JsonObject fieldMembers = convert(entry.getKey());
+                    if (fieldMembers != null) {
+                        for (Entry<String, JsonElement> member : fieldMembers.entrySet()) {
+                            this.mapperMembers.add(member.getKey(), member.getValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        return this.mapperMembers;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+/**
+ * Writes MessagePack using the shortest encoding of every integer and length; doubles are always
+ * written as float 64.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class MessagePackWriter extends BinaryWriter {
+
+    private static final int FIXMAP = 0x80;
+
+    private static final int FIXARRAY = 0x90;
+
+    private static final int FIXSTR = 0xa0;
+
+    private static final int NIL = 0xc0;
+
+    private static final int FALSE = 0xc2;
+
+    private static final int TRUE = 0xc3;
+
+    private static final int BIN8 = 0xc4;
+
+    private static final int BIN16 = 0xc5;
+
+    private static final int BIN32 = 0xc6;
+
+    private static final int FLOAT64 = 0xcb;
+
+    private static final int UINT8 = 0xcc;
+
+    private static final int UINT16 = 0xcd;
+
+    private static final int UINT32 = 0xce;
+
+    private static final int UINT64 = 0xcf;
+
+    private static final int INT8 = 0xd0;
+
+    private static final int INT16 = 0xd1;
+
+    private static final int INT32 = 0xd2;
+
+    private static final int INT64 = 0xd3;
+
+    private static final int STR8 = 0xd9;
+
+    private static final int STR16 = 0xda;
+
+    private static final int STR32 = 0xdb;
+
+    private static final int ARRAY16 = 0xdc;
+
+    private static final int ARRAY32 = 0xdd;
+
+    private static final int MAP16 = 0xde;
+
+    private static final int MAP32 = 0xdf;
+
+    @Override
+    int containerHeader(byte[] dst, boolean map, int size) {
+        if (size < 16) {
+            dst[0] = (byte) ((map ? FIXMAP : FIXARRAY) | size);
+            return 1;
+        } else if (size <= 0xffff) {
+            dst[0] = (byte) (map ? MAP16 : ARRAY16);
+            dst[1] = (byte) (size >>> 8);
+            dst[2] = (byte) size;
+            return 3;
+        } else {
+            dst[0] = (byte) (map ? MAP32 : ARRAY32);
+            dst[1] = (byte) (size >>> 24);
+            dst[2] = (byte) (size >>> 16);
+            dst[3] = (byte) (size >>> 8);
+            dst[4] = (byte) size;
+            return 5;
+        }
+    }
+
+    @Override
+    void writeStringHeader(int length) {
+        if (length < 32) {
+            write(FIXSTR | length);
+        } else if (length <= 0xff) {
+            write(STR8, length, 1);
+        } else if (length <= 0xffff) {
+            write(STR16, length, 2);
+        } else {
+            write(STR32, length, 4);
+        }
+    }
+
+    @Override
+    void writeBytesHeader(int length) {
+        if (length <= 0xff) {
+            write(BIN8, length, 1);
+        } else if (length <= 0xffff) {
+            write(BIN16, length, 2);
+        } else {
+            write(BIN32, length, 4);
+        }
+    }
+
+    @Override
+    void writeInteger(long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                // positive fixint
+                write((int) value);
+            } else if (value <= 0xff) {
+                write(UINT8, (int) value, 1);
+            } else if (value <= 0xffff) {
+                write(UINT16, (int) value, 2);
+            } else if (value <= 0xffffffffL) {
+                write(UINT32, (int) value, 4);
+            } else {
+                write(UINT64, value);
+            }
+        } else if (value >= -32) {
+            // negative fixint
+            write((int) value);
+        } else if (value >= Byte.MIN_VALUE) {
+            write(INT8, (int) value, 1);
+        } else if (value >= Short.MIN_VALUE) {
+            write(INT16, (int) value, 2);
+        } else if (value >= Integer.MIN_VALUE) {
+            write(INT32, (int) value, 4);
+        } else {
+            write(INT64, value);
+        }
+    }
+
+    @Override
+    void writeDouble(double value) {
+        write(FLOAT64, Double.doubleToLongBits(value));
+    }
+
+    @Override
+    void writeBoolean(boolean value) {
+        write(value ? TRUE : FALSE);
+    }
+
+    @Override
+    void writeNull() {
+        write(NIL);
+    }
+}
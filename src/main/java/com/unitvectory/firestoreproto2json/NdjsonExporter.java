@@ -0,0 +1,393 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Builder;
+
+/**
+ * Exports a sequence of DocumentEventData records as newline delimited JSON.
+ *
+ * Each record is transcoded from the wire format directly into UTF-8 JSON in reusable buffers and
+ * written followed by a newline; no String or JsonObject is created for a record. Records whose
+ * value (or old value) is not set are skipped.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Builder
+public class NdjsonExporter {
+
+    /**
+     * The framing of the DocumentEventData records in the input.
+     */
+    public enum RecordFormat {
+
+        /**
+         * Each record is preceded by its length as a varint, as written by writeDelimitedTo.
+         */
+        LENGTH_DELIMITED,
+
+        /**
+         * Each record is base64 encoded on its own line; blank lines are ignored.
+         */
+        BASE64_LINES
+    }
+
+    /**
+     * The size of the regions of a file that are memory mapped at a time.
+     */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private static final int MAX_LENGTH_VARINT_BYTES = 10;
+
+    /**
+     * The largest array the buffer can grow to.
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    @Builder.Default
+    private FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.DEFAULT;
+
+    @Builder.Default
+    private RecordFormat recordFormat = RecordFormat.LENGTH_DELIMITED;
+
+    @Builder.Default
+    private boolean oldValue = false;
+
+    @Builder.Default
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * The maximum size in bytes of a decoded record; 0 for no limit.
+     */
+    @Builder.Default
+    private int maxRecordSize = 0;
+
+    /**
+     * Export the records of the file to a new file, replacing it if it exists.
+     *
+     * @param input the file containing the records
+     * @param output the file to write the JSON lines to
+     * @return the number of JSON lines written
+     * @throws IOException exception thrown when a record is invalid or on an I/O error
+     */
+    public long export(Path input, Path output) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(output)) {
+            return export(input, outputStream);
+        }
+    }
+
+    /**
+     * Export the records of the file, which is memory mapped, to the OutputStream.
+     *
+     * @param input the file containing the records
+     * @param outputStream the OutputStream, which is flushed but not closed
+     * @return the number of JSON lines written
+     * @throws IOException exception thrown when a record is invalid or on an I/O error
+     */
+    public long export(Path input, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            return export(new MappedInputStream(channel), outputStream);
+        }
+    }
+
+    /**
+     * Export the records of the InputStream to the OutputStream.
+     *
+     * @param inputStream the InputStream containing the records, which is not closed
+     * @param outputStream the OutputStream, which is flushed but not closed
+     * @return the number of JSON lines written
+     * @throws IOException exception thrown when a record is invalid or on an I/O error
+     */
+    public long export(InputStream inputStream, OutputStream outputStream) throws IOException {
+        if (this.bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1");
+        }
+
+        if (this.maxRecordSize < 0) {
+            throw new IllegalArgumentException("maxRecordSize must not be negative");
+        }
+
+        RecordReader reader = new RecordReader(inputStream, this.bufferSize);
+        RecordWriter writer = new RecordWriter(outputStream);
+        if (this.recordFormat == RecordFormat.BASE64_LINES) {
+            exportBase64Lines(reader, writer);
+        } else {
+            exportLengthDelimited(reader, writer);
+        }
+
+        writer.output.flush();
+        return writer.count;
+    }
+
+    private void exportLengthDelimited(RecordReader reader, RecordWriter writer)
+            throws IOException {
+        while (reader.require(1)) {
+            int length = readLength(reader);
+            if (this.maxRecordSize > 0 && length > this.maxRecordSize) {
+                throw recordTooLarge(length);
+            }
+
+            if (!reader.require(length)) {
+                throw ProtoJsonTranscoder.truncated();
+            }
+
+            writer.write(reader.buffer, reader.position, length);
+            reader.position += length;
+        }
+    }
+
+    private void exportBase64Lines(RecordReader reader, RecordWriter writer) throws IOException {
+        // The base64 encoding of the largest record followed by a carriage return
+        long maxLineLength = this.maxRecordSize > 0 ? (this.maxRecordSize + 2L) / 3 * 4 + 1 : -1;
+        int scanned = 0;
+        while (true) {
+            int newline = indexOf(reader.buffer, '\n', reader.position + scanned, reader.limit);
+            if (newline >= 0) {
+                if (maxLineLength >= 0 && newline - reader.position > maxLineLength) {
+                    throw recordTooLarge((newline - reader.position) / 4 * 3);
+                }
+
+                writer.writeBase64(reader.buffer, reader.position, newline);
+                reader.position = newline + 1;
+                scanned = 0;
+            } else {
+                scanned = reader.limit - reader.position;
+                if (maxLineLength >= 0 && scanned > maxLineLength) {
+                    throw recordTooLarge(scanned / 4 * 3);
+                }
+
+                if (!reader.require(scanned + 1)) {
+                    writer.writeBase64(reader.buffer, reader.position, reader.limit);
+                    reader.position = reader.limit;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int readLength(RecordReader reader) throws IOException {
+        long result = 0;
+        for (int i = 0; i < MAX_LENGTH_VARINT_BYTES; i++) {
+            if (!reader.require(1)) {
+                throw ProtoJsonTranscoder.truncated();
+            }
+
+            byte b = reader.buffer[reader.position++];
+            result |= (long) (b & 0x7f) << (7 * i);
+            if (b >= 0) {
+                if (result > Integer.MAX_VALUE) {
+                    throw new InvalidProtocolBufferException(
+                            "CodedInputStream encountered an embedded string or message which "
+                                    + "claimed to have negative size.");
+                }
+
+                return (int) result;
+            }
+        }
+
+        throw new InvalidProtocolBufferException(
+                "CodedInputStream encountered a malformed varint.");
+    }
+
+    private InvalidProtocolBufferException recordTooLarge(long length) {
+        return new InvalidProtocolBufferException("Record of at least " + length
+                + " bytes exceeds the maxRecordSize of " + this.maxRecordSize + " bytes.");
+    }
+
+    private static int indexOf(byte[] buffer, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Buffers the input so records can be transcoded in place.
+     */
+    private static final class RecordReader {
+
+        private final InputStream input;
+
+        private byte[] buffer;
+
+        private int position;
+
+        private int limit;
+
+        private RecordReader(InputStream input, int bufferSize) {
+            this.input = input;
+            this.buffer = new byte[bufferSize];
+        }
+
+        /**
+         * Ensure at least length bytes are buffered after the position, compacting and growing the
+         * buffer as needed. The buffer only grows as the bytes arrive, so a corrupt length
+         * reaches the end of the input rather than allocating the length up front.
+         *
+         * @param length the number of bytes required
+         * @return true if the bytes are buffered; false if the input ended first
+         * @throws IOException exception thrown on an I/O error
+         */
+        private boolean require(int length) throws IOException {
+            if (this.limit - this.position >= length) {
+                return true;
+            }
+
+            if (this.position > 0) {
+                System.arraycopy(this.buffer, this.position, this.buffer, 0,
+                        this.limit - this.position);
+                this.limit -= this.position;
+                this.position = 0;
+            }
+
+            while (this.limit < length) {
+                if (this.limit == this.buffer.length) {
+                    if (this.buffer.length == MAX_BUFFER_SIZE) {
+                        throw new InvalidProtocolBufferException(
+                                "Record exceeds the maximum buffer size.");
+                    }
+
+                    int grown = (int) Math.min(MAX_BUFFER_SIZE, this.buffer.length * 2L);
+                    this.buffer = Arrays.copyOf(this.buffer, Math.min(length, grown));
+                }
+
+                int read = this.input.read(this.buffer, this.limit, this.buffer.length - this.limit);
+                if (read < 0) {
+                    return false;
+                }
+
+                this.limit += read;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Transcodes the records and writes the JSON lines.
+     */
+    private final class RecordWriter {
+
+        private final OutputStream output;
+
+        private final ProtoJsonTranscoder transcoder =
+                NdjsonExporter.this.firestoreProto2Json.newTranscoder();
+
+        private final int documentTag = NdjsonExporter.this.oldValue
+                ? ProtoJsonTranscoder.EVENT_OLD_VALUE_TAG
+                : ProtoJsonTranscoder.EVENT_VALUE_TAG;
+
+        private ByteBuffer encoded;
+
+        private byte[] decoded = new byte[0];
+
+        private long count;
+
+        private RecordWriter(OutputStream output) {
+            this.output = new BufferedOutputStream(output, NdjsonExporter.this.bufferSize);
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            if (NdjsonExporter.this.firestoreProto2Json.transcode(this.transcoder, bytes, offset,
+                    length, this.documentTag, this.output)) {
+                this.output.write('\n');
+                this.count++;
+            }
+        }
+
+        private void writeBase64(byte[] line, int start, int end) throws IOException {
+            if (end > start && line[end - 1] == '\r') {
+                end--;
+            }
+
+            if (end == start) {
+                return;
+            }
+
+            if (this.encoded == null || this.encoded.array() != line) {
+                this.encoded = ByteBuffer.wrap(line);
+            }
+
+            this.encoded.clear().position(start).limit(end);
+            int decodedLength = (end - start + 3) / 4 * 3;
+            if (this.decoded.length < decodedLength) {
+                this.decoded = new byte[Math.max(decodedLength, this.decoded.length * 2)];
+            }
+
+            int length = Base64Decoder.decode(this.encoded, this.decoded);
+            write(this.decoded, 0, length);
+        }
+    }
+
+    /**
+     * Reads a file through successive memory mapped regions.
+     */
+    private static final class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private long offset;
+
+        private MappedByteBuffer region;
+
+        private MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (this.region == null || !this.region.hasRemaining()) {
+                if (this.offset >= this.size) {
+                    return -1;
+                }
+
+                long length = Math.min(MAP_WINDOW, this.size - this.offset);
+                this.region = this.channel.map(FileChannel.MapMode.READ_ONLY, this.offset, length);
+                this.offset += length;
+            }
+
+            int read = Math.min(len, this.region.remaining());
+            this.region.get(b, off, read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.util.ArrayDeque;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.events.cloud.firestore.v1.Value;
+
+/**
+ * The sink building a Jackson Object Node.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class ObjectNodeSink implements DocumentSink {
+
+    private final FirestoreProto2Jackson firestoreProto2Jackson;
+
+    private final JsonNodeFactory nodeFactory;
+
+    /**
+     * The open object and array nodes, the innermost first.
+     */
+    private final ArrayDeque<ContainerNode<?>> stack = new ArrayDeque<>();
+
+    private ObjectNode root;
+
+    ObjectNodeSink(FirestoreProto2Jackson firestoreProto2Jackson, JsonNodeFactory nodeFactory) {
+        this.firestoreProto2Jackson = firestoreProto2Jackson;
+        this.nodeFactory = nodeFactory;
+    }
+
+    /**
+     * Get the Object Node that was built.
+     *
+     * @return the Object Node
+     */
+    ObjectNode root() {
+        return this.root;
+    }
+
+    @Override
+    public void beginMap(String key) {
+        ObjectNode objectNode = this.nodeFactory.objectNode();
+        if (this.root == null) {
+            this.root = objectNode;
+        } else {
+            add(key, objectNode);
+        }
+
+        this.stack.push(objectNode);
+    }
+
+    @Override
+    public void endMap() {
+        this.stack.pop();
+    }
+
+    @Override
+    public void beginArray(String key) {
+        ArrayNode arrayNode = this.nodeFactory.arrayNode();
+        add(key, arrayNode);
+        this.stack.push(arrayNode);
+    }
+
+    @Override
+    public void endArray() {
+        this.stack.pop();
+    }
+
+    @Override
+    public void value(String key, long value) {
+        // The number node an ObjectMapper reads for the integer
+        add(key, (int) value == value
+                ? this.nodeFactory.numberNode((int) value)
+                : this.nodeFactory.numberNode(value));
+    }
+
+    @Override
+    public void value(String key, String value) {
+        add(key, this.nodeFactory.textNode(value));
+    }
+
+    @Override
+    public void value(String key, double value) {
+        add(key, this.nodeFactory.numberNode(value));
+    }
+
+    @Override
+    public void value(String key, boolean value) {
+        add(key, this.nodeFactory.booleanNode(value));
+    }
+
+    @Override
+    public void nullValue(String key) {
+        add(key, this.nodeFactory.nullNode());
+    }
+
+    @Override
+    public void mapped(String key, Value value, ValueMapper mapper) {
+        JsonNode converted = this.firestoreProto2Jackson.convert(key, value, mapper);
+        if (key != null) {
+            ((ObjectNode) this.stack.peek()).setAll((ObjectNode) converted);
+        } else {
+            ((ArrayNode) this.stack.peek()).addAll((ArrayNode) converted);
+        }
+    }
+
+    @Override
+    public void typed(String key, Value value, ValueMapper mapper) {
+        // The Jackson value mapper of the type replaces the mapper of FirestoreProto2Json
+        this.firestoreProto2Jackson.convert(this.stack.peek(), key, value);
+    }
+
+    private void add(String key, JsonNode jsonNode) {
+        if (key != null) {
+            ((ObjectNode) this.stack.peek()).set(key, jsonNode);
+        } else {
+            ((ArrayNode) this.stack.peek()).add(jsonNode);
+        }
+    }
+}
@@ -0,0 +1,1140 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.type.LatLng;
+
+/**
+ * Transcodes the protocol buffer wire format of a DocumentEventData directly into UTF-8 JSON.
+ *
+ * No generated message objects are created; the wire format is read in place and strings are
+ * copied from the input to the output as UTF-8. The output is identical to the UTF-8 encoding of
+ * the JSON string produced from the parsed DocumentEventData. Input that relies on the protocol
+ * buffer merge semantics, such as a message field repeated within a Value, is not transcoded and
+ * is instead reported so the caller can fall back to parsing the DocumentEventData.
+ *
+ * Only the fields that are converted are read; other fields are skipped without validation.
+ *
+ * An instance holds scratch buffers and is not thread safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class ProtoJsonTranscoder {
+
+    // Tags are the field number shifted left 3 bits combined with the wire type
+
+    private static final int WIRETYPE_VARINT = 0;
+
+    private static final int WIRETYPE_FIXED64 = 1;
+
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private static final int WIRETYPE_START_GROUP = 3;
+
+    private static final int WIRETYPE_END_GROUP = 4;
+
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    /**
+     * DocumentEventData.value
+     */
+    static final int EVENT_VALUE_TAG = 1 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    /**
+     * DocumentEventData.old_value
+     */
+    static final int EVENT_OLD_VALUE_TAG = 2 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int DOCUMENT_FIELDS_TAG = 2 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int MAP_VALUE_FIELDS_TAG = 1 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int ARRAY_VALUE_VALUES_TAG = 1 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int ENTRY_KEY_TAG = 1 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int ENTRY_VALUE_TAG = 2 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_NULL_TAG = 11 << 3 | WIRETYPE_VARINT;
+
+    private static final int VALUE_BOOLEAN_TAG = 1 << 3 | WIRETYPE_VARINT;
+
+    private static final int VALUE_INTEGER_TAG = 2 << 3 | WIRETYPE_VARINT;
+
+    private static final int VALUE_DOUBLE_TAG = 3 << 3 | WIRETYPE_FIXED64;
+
+    private static final int VALUE_TIMESTAMP_TAG = 10 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_STRING_TAG = 17 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_BYTES_TAG = 18 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_REFERENCE_TAG = 5 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_GEO_POINT_TAG = 8 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_ARRAY_TAG = 9 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int VALUE_MAP_TAG = 6 << 3 | WIRETYPE_LENGTH_DELIMITED;
+
+    private static final int TIMESTAMP_SECONDS_TAG = 1 << 3 | WIRETYPE_VARINT;
+
+    private static final int TIMESTAMP_NANOS_TAG = 2 << 3 | WIRETYPE_VARINT;
+
+    private static final int LAT_LNG_LATITUDE_TAG = 1 << 3 | WIRETYPE_FIXED64;
+
+    private static final int LAT_LNG_LONGITUDE_TAG = 2 << 3 | WIRETYPE_FIXED64;
+
+    /**
+     * The same default recursion limit used by the protocol buffer parser.
+     */
+    private static final int RECURSION_LIMIT = 100;
+
+    /**
+     * Each map entry is stored as the key offset, key length, value offset and value length.
+     */
+    private static final int ENTRY_SIZE = 4;
+
+    private static final int NO_VALUE = -1;
+
+    private static final int REMOVED = -2;
+
+    // The output of the GeoPoint mapper
+
+    private static final int GEO_POINT_CUSTOM = 0;
+
+    private static final int GEO_POINT_DEFAULT = 1;
+
+    private static final int GEO_POINT_ARRAY = 2;
+
+    private static final int GEO_POINT_GEO_JSON = 3;
+
+    /**
+     * Thrown when the input requires protocol buffer merge semantics to be converted exactly.
+     */
+    static final class MergeRequiredException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final MergeRequiredException INSTANCE = new MergeRequiredException();
+
+        private MergeRequiredException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ValueMapperTimestamp valueMapperTimestamp;
+
+    private final ValueMapperGeoPoint valueMapperGeoPoint;
+
+    private final ValueMapperBytes valueMapperBytes;
+
+    /**
+     * The default timestamp mapper if used so timestamps are formatted without a Timestamp.
+     */
+    private final ValueMapperTimestampDefault timestampDefault;
+
+    /**
+     * The epoch timestamp mapper if used so timestamps are written without a Timestamp.
+     */
+    private final ValueMapperTimestampEpoch timestampEpoch;
+
+    /**
+     * The output of the built-in GeoPoint mapper if used; GEO_POINT_CUSTOM for any other mapper.
+     */
+    private final int geoPointOutput;
+
+    private final boolean bytesDefault;
+
+    private final FieldProjection.Node projection;
+
+    private final ConversionLimits limits;
+
+    private final boolean sortedKeys;
+
+    /**
+     * The cache of the encoded field names; null to encode every name.
+     */
+    private final FieldNameCache fieldNameCache;
+
+    /**
+     * The nesting of the map or array being written, where a map field of the document is 1.
+     */
+    private int nesting;
+
+    /**
+     * The number of fields written.
+     */
+    private int fields;
+
+    private final Utf8JsonWriter out = new Utf8JsonWriter();
+
+    private byte[] bytes;
+
+    private int position;
+
+    private int[] entries = new int[ENTRY_SIZE * 32];
+
+    private int entryTop;
+
+    private int[] keyTable = new int[64];
+
+    private StringWriter fragment;
+
+    private final byte[] timestampBuffer =
+            new byte[Math.max(TimestampFormat.MAX_LENGTH, ValueMapperTimestampEpoch.MAX_LENGTH)];
+
+    // The result of parsing a Value, consumed immediately after parsing
+
+    private long scalar;
+
+    private int payloadOffset;
+
+    private int payloadLength;
+
+    ProtoJsonTranscoder(ValueMapperTimestamp valueMapperTimestamp,
+            ValueMapperGeoPoint valueMapperGeoPoint, ValueMapperBytes valueMapperBytes,
+            FieldProjection.Node projection, ConversionLimits limits, boolean sortedKeys,
+            FieldNameCache fieldNameCache) {
+        this.valueMapperTimestamp = valueMapperTimestamp;
+        this.valueMapperGeoPoint = valueMapperGeoPoint;
+        this.valueMapperBytes = valueMapperBytes;
+        this.timestampDefault = valueMapperTimestamp instanceof ValueMapperTimestampDefault
+                ? (ValueMapperTimestampDefault) valueMapperTimestamp
+                : null;
+        this.timestampEpoch = valueMapperTimestamp instanceof ValueMapperTimestampEpoch
+                ? (ValueMapperTimestampEpoch) valueMapperTimestamp
+                : null;
+        this.geoPointOutput = geoPointOutput(valueMapperGeoPoint);
+        this.bytesDefault = valueMapperBytes.getClass() == ValueMapperBytesDefault.class;
+        this.projection = projection;
+        this.limits = limits;
+        this.sortedKeys = sortedKeys;
+        this.fieldNameCache = fieldNameCache;
+    }
+
+    /**
+     * Get the writer holding the output of the last transcode.
+     *
+     * @return the writer
+     */
+    Utf8JsonWriter output() {
+        return this.out;
+    }
+
+    /**
+     * Transcode the Document of a DocumentEventData to JSON.
+     *
+     * @param documentBytes the protocol buffer bytes of a DocumentEventData
+     * @param offset the offset of the DocumentEventData
+     * @param length the length of the DocumentEventData
+     * @param documentTag the tag of the Document field to transcode
+     * @return true if the Document is set and was written to the output; otherwise false
+     * @throws InvalidProtocolBufferException exception thrown when the Protocol Buffer is invalid
+     * @throws MergeRequiredException exception thrown when the input must be parsed instead
+     */
+    boolean transcode(byte[] documentBytes, int offset, int length, int documentTag)
+            throws InvalidProtocolBufferException {
+        this.bytes = documentBytes;
+        try {
+            return transcodeDocument(offset, length, documentTag);
+        } finally {
+            // The input is not retained while the transcoder is reused
+            this.bytes = null;
+        }
+    }
+
+    private boolean transcodeDocument(int offset, int length, int documentTag)
+            throws InvalidProtocolBufferException {
+        this.position = offset;
+        this.entryTop = 0;
+        this.nesting = 0;
+        this.fields = 0;
+        this.out.reset();
+        int end = offset + length;
+
+        int documentOffset = -1;
+        int documentLength = 0;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            if (tag == documentTag) {
+                if (documentOffset >= 0) {
+                    // Repeated message fields are merged by the parser
+                    throw MergeRequiredException.INSTANCE;
+                }
+
+                documentLength = readLength(end);
+                documentOffset = this.position;
+                this.position += documentLength;
+            } else {
+                skipField(tag, end);
+            }
+        }
+
+        if (documentOffset < 0) {
+            return false;
+        }
+
+        int count = readEntries(documentOffset, documentOffset + documentLength,
+                DOCUMENT_FIELDS_TAG, 1);
+        writeObject(count, 1, this.projection);
+        this.limits.checkOutput(this.out.size());
+        return true;
+    }
+
+    /**
+     * Read the map entries of a Document or MapValue onto the entry stack.
+     *
+     * @return the number of entries read
+     */
+    private int readEntries(int start, int end, int entriesTag, int depth)
+            throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        int base = this.entryTop;
+        this.position = start;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            if (tag == entriesTag) {
+                int entryLength = readLength(end);
+                int entryEnd = this.position + entryLength;
+                readEntry(entryEnd, depth + 1);
+                this.position = entryEnd;
+            } else {
+                skipField(tag, end);
+            }
+        }
+
+        int count = (this.entryTop - base) / ENTRY_SIZE;
+        removeDuplicateKeys(base, count);
+        return count;
+    }
+
+    private void readEntry(int end, int depth) throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        int keyOffset = this.position;
+        int keyLength = 0;
+        int valueOffset = NO_VALUE;
+        int valueLength = 0;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            if (tag == ENTRY_KEY_TAG) {
+                keyLength = readLength(end);
+                keyOffset = this.position;
+                this.position += keyLength;
+            } else if (tag == ENTRY_VALUE_TAG) {
+                if (valueOffset != NO_VALUE) {
+                    throw MergeRequiredException.INSTANCE;
+                }
+
+                valueLength = readLength(end);
+                valueOffset = this.position;
+                this.position += valueLength;
+            } else {
+                skipField(tag, end);
+            }
+        }
+
+        if (this.entryTop + ENTRY_SIZE > this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, this.entries.length * 2);
+        }
+
+        this.entries[this.entryTop++] = keyOffset;
+        this.entries[this.entryTop++] = keyLength;
+        this.entries[this.entryTop++] = valueOffset;
+        this.entries[this.entryTop++] = valueLength;
+    }
+
+    /**
+     * A repeated key keeps the position of the first entry and the value of the last entry, the
+     * same as the map built by the protocol buffer parser.
+     */
+    private void removeDuplicateKeys(int base, int count) {
+        if (count < 2) {
+            return;
+        }
+
+        int size = Integer.highestOneBit(count * 2 - 1) << 1;
+        if (this.keyTable.length < size) {
+            this.keyTable = new int[size];
+        } else {
+            Arrays.fill(this.keyTable, 0, size, 0);
+        }
+
+        int mask = size - 1;
+        for (int i = 0; i < count; i++) {
+            int entry = base + i * ENTRY_SIZE;
+            int slot = hash(this.entries[entry], this.entries[entry + 1]) & mask;
+            while (true) {
+                int existing = this.keyTable[slot] - 1;
+                if (existing < 0) {
+                    this.keyTable[slot] = entry + 1;
+                    break;
+                } else if (keyEquals(existing, entry)) {
+                    this.entries[existing + 2] = this.entries[entry + 2];
+                    this.entries[existing + 3] = this.entries[entry + 3];
+                    this.entries[entry + 2] = REMOVED;
+                    break;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    private int hash(int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + this.bytes[i];
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean keyEquals(int entry1, int entry2) {
+        int offset1 = this.entries[entry1];
+        int offset2 = this.entries[entry2];
+        int length = this.entries[entry1 + 1];
+        return length == this.entries[entry2 + 1] && Arrays.equals(this.bytes, offset1,
+                offset1 + length, this.bytes, offset2, offset2 + length);
+    }
+
+    /**
+     * Write the entries at the top of the entry stack as a JSON object and pop them.
+     */
+    private void writeObject(int count, int depth, FieldProjection.Node node)
+            throws InvalidProtocolBufferException {
+        int base = this.entryTop - count * ENTRY_SIZE;
+        if (this.sortedKeys) {
+            sortEntries(base, count);
+        }
+
+        this.out.beginObject();
+        for (int entry = base; entry < base + count * ENTRY_SIZE; entry += ENTRY_SIZE) {
+            int valueOffset = this.entries[entry + 2];
+            if (valueOffset < 0) {
+                continue;
+            }
+
+            int keyOffset = this.entries[entry];
+            int keyLength = this.entries[entry + 1];
+            FieldProjection.Node child = node.child(this.bytes, keyOffset, keyLength);
+            if (child != null) {
+                writeMember(keyOffset, keyLength, valueOffset, this.entries[entry + 3],
+                        depth + 2, child);
+                this.limits.checkOutput(this.out.size());
+            }
+        }
+
+        this.out.endObject();
+        this.entryTop = base;
+    }
+
+    /**
+     * Sort the entries at the top of the entry stack by key in the order of String.compareTo
+     * unless they are already sorted, which is common as many writers emit sorted maps.
+     */
+    private void sortEntries(int base, int count) {
+        int unsorted = 1;
+        while (unsorted < count && compareKeys(base + (unsorted - 1) * ENTRY_SIZE,
+                base + unsorted * ENTRY_SIZE) <= 0) {
+            unsorted++;
+        }
+
+        if (unsorted == count) {
+            return;
+        }
+
+        // Heap sort the entries in place without allocating
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(base, i, count);
+        }
+
+        for (int last = count - 1; last > 0; last--) {
+            swapEntries(base, base + last * ENTRY_SIZE);
+            siftDown(base, 0, last);
+        }
+    }
+
+    private void siftDown(int base, int index, int count) {
+        while (true) {
+            int largest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < count && compareKeys(base + left * ENTRY_SIZE,
+                    base + largest * ENTRY_SIZE) > 0) {
+                largest = left;
+            }
+
+            if (right < count && compareKeys(base + right * ENTRY_SIZE,
+                    base + largest * ENTRY_SIZE) > 0) {
+                largest = right;
+            }
+
+            if (largest == index) {
+                return;
+            }
+
+            swapEntries(base + index * ENTRY_SIZE, base + largest * ENTRY_SIZE);
+            index = largest;
+        }
+    }
+
+    private void swapEntries(int entry1, int entry2) {
+        for (int i = 0; i < ENTRY_SIZE; i++) {
+            int swap = this.entries[entry1 + i];
+            this.entries[entry1 + i] = this.entries[entry2 + i];
+            this.entries[entry2 + i] = swap;
+        }
+    }
+
+    /**
+     * Compare the UTF-8 keys of two entries in the order of their UTF-16 code units.
+     */
+    private int compareKeys(int entry1, int entry2) {
+        int start1 = this.entries[entry1];
+        int end1 = start1 + this.entries[entry1 + 1];
+        int start2 = this.entries[entry2];
+        int end2 = start2 + this.entries[entry2 + 1];
+        int offset1 = start1;
+        int offset2 = start2;
+        while (offset1 < end1 && offset2 < end2 && this.bytes[offset1] == this.bytes[offset2]) {
+            offset1++;
+            offset2++;
+        }
+
+        if (offset1 == end1 || offset2 == end2) {
+            // One key is a prefix of the other
+            return Integer.compare(end1 - offset1, end2 - offset2);
+        }
+
+        // Compare the characters containing the first difference
+        while (offset1 > start1 && (this.bytes[offset1] & 0xc0) == 0x80) {
+            offset1--;
+            offset2--;
+        }
+
+        return Long.compare(utf16Order(offset1, end1), utf16Order(offset2, end2));
+    }
+
+    /**
+     * Decode the character at the offset into a value ordered the same as its UTF-16 code units;
+     * supplementary characters are ordered by their surrogates, below U+E000.
+     */
+    private long utf16Order(int offset, int end) {
+        int lead = this.bytes[offset] & 0xff;
+        int length = lead < 0xc0 ? 1 : lead < 0xe0 ? 2 : lead < 0xf0 ? 3 : 4;
+        if (length == 1 || offset + length > end) {
+            return (long) lead << 10;
+        }
+
+        int codePoint = lead & (0x3f >> (length - 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = codePoint << 6 | (this.bytes[offset + i] & 0x3f);
+        }
+
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return (long) codePoint << 10;
+        }
+
+        int supplementary = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        return (long) (Character.MIN_HIGH_SURROGATE + (supplementary >>> 10)) << 10
+                | (supplementary & 0x3ff);
+    }
+
+    private void writeMember(int keyOffset, int keyLength, int valueOffset, int valueLength,
+            int depth, FieldProjection.Node node) throws InvalidProtocolBufferException {
+        int tag = readValue(valueOffset, valueOffset + valueLength, depth);
+        int offset = this.payloadOffset;
+        int length = this.payloadLength;
+        if (!node.included && tag != VALUE_MAP_TAG && tag != VALUE_ARRAY_TAG) {
+            // Only the maps containing the selected fields are followed
+            return;
+        }
+
+        this.fields = this.limits.checkFields(this.fields + 1);
+
+        ValueMapper mapper = node.mapper(tag >>> 3);
+        if (mapper != null) {
+            writeMapped(mapper, keyOffset, keyLength, valueOffset, valueLength);
+            return;
+        }
+
+        switch (tag) {
+            case VALUE_MAP_TAG:
+                name(keyOffset, keyLength);
+                writeMapValue(offset, length, depth + 1, node);
+                break;
+            case VALUE_ARRAY_TAG:
+                name(keyOffset, keyLength);
+                writeArrayValue(offset, length, depth + 1, node);
+                break;
+            case VALUE_INTEGER_TAG:
+                name(keyOffset, keyLength).value(this.scalar);
+                break;
+            case VALUE_STRING_TAG:
+            case VALUE_REFERENCE_TAG:
+                name(keyOffset, keyLength).value(this.bytes, offset, length);
+                break;
+            case VALUE_DOUBLE_TAG:
+                name(keyOffset, keyLength)
+                        .value(Double.longBitsToDouble(this.scalar));
+                break;
+            case VALUE_BOOLEAN_TAG:
+                name(keyOffset, keyLength).value(this.scalar != 0);
+                break;
+            case VALUE_NULL_TAG:
+                name(keyOffset, keyLength).nullValue();
+                break;
+            case VALUE_TIMESTAMP_TAG:
+                writeTimestamp(keyOffset, keyLength, offset, length, depth + 1);
+                break;
+            case VALUE_GEO_POINT_TAG:
+                writeGeoPoint(keyOffset, keyLength, offset, length, depth + 1);
+                break;
+            case VALUE_BYTES_TAG:
+                writeBytes(keyOffset, keyLength, offset, length);
+                break;
+            default:
+                // The value is not set so the attribute is omitted
+                break;
+        }
+    }
+
+    private void writeElement(int valueOffset, int valueLength, int depth,
+            FieldProjection.Node node) throws InvalidProtocolBufferException {
+        int tag = readValue(valueOffset, valueOffset + valueLength, depth);
+        int offset = this.payloadOffset;
+        int length = this.payloadLength;
+        if (!node.included && tag != VALUE_MAP_TAG) {
+            // Only the maps containing the selected fields are followed
+            return;
+        }
+
+        ValueMapper mapper = node.mapper(tag >>> 3);
+        if (mapper != null) {
+            writeMapped(mapper, -1, 0, valueOffset, valueLength);
+            return;
+        }
+
+        switch (tag) {
+            case VALUE_MAP_TAG:
+                writeMapValue(offset, length, depth + 1, node);
+                break;
+            case VALUE_INTEGER_TAG:
+                this.out.value(this.scalar);
+                break;
+            case VALUE_STRING_TAG:
+            case VALUE_REFERENCE_TAG:
+                this.out.value(this.bytes, offset, length);
+                break;
+            case VALUE_DOUBLE_TAG:
+                this.out.value(Double.longBitsToDouble(this.scalar));
+                break;
+            case VALUE_BOOLEAN_TAG:
+                this.out.value(this.scalar != 0);
+                break;
+            case VALUE_NULL_TAG:
+                this.out.nullValue();
+                break;
+            case VALUE_TIMESTAMP_TAG:
+                writeTimestamp(-1, 0, offset, length, depth + 1);
+                break;
+            case VALUE_GEO_POINT_TAG:
+                writeGeoPoint(-1, 0, offset, length, depth + 1);
+                break;
+            case VALUE_BYTES_TAG:
+                writeBytes(-1, 0, offset, length);
+                break;
+            default:
+                // Nested arrays are not supported by Firestore and are skipped as are unset values
+                break;
+        }
+    }
+
+    /**
+     * Read a Value returning the tag of the field that is set, or 0 if none are set.
+     */
+    private int readValue(int start, int end, int depth) throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        this.position = start;
+        int valueTag = 0;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            switch (tag) {
+                case VALUE_NULL_TAG:
+                case VALUE_BOOLEAN_TAG:
+                case VALUE_INTEGER_TAG:
+                    this.scalar = readVarint64(end);
+                    valueTag = tag;
+                    break;
+                case VALUE_DOUBLE_TAG:
+                    this.scalar = readFixed64(end);
+                    valueTag = tag;
+                    break;
+                case VALUE_TIMESTAMP_TAG:
+                case VALUE_GEO_POINT_TAG:
+                case VALUE_ARRAY_TAG:
+                case VALUE_MAP_TAG:
+                    if (valueTag == tag) {
+                        // Repeated message fields are merged by the parser
+                        throw MergeRequiredException.INSTANCE;
+                    }
+
+                    readPayload(end);
+                    valueTag = tag;
+                    break;
+                case VALUE_STRING_TAG:
+                case VALUE_BYTES_TAG:
+                case VALUE_REFERENCE_TAG:
+                    readPayload(end);
+                    valueTag = tag;
+                    break;
+                default:
+                    skipField(tag, end);
+                    break;
+            }
+        }
+
+        return valueTag;
+    }
+
+    private void writeMapValue(int offset, int length, int depth, FieldProjection.Node node)
+            throws InvalidProtocolBufferException {
+        this.limits.checkDepth(++this.nesting);
+        int count = readEntries(offset, offset + length, MAP_VALUE_FIELDS_TAG, depth);
+        writeObject(count, depth, node);
+        this.nesting--;
+    }
+
+    private void writeArrayValue(int offset, int length, int depth, FieldProjection.Node node)
+            throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        this.limits.checkDepth(++this.nesting);
+        int end = offset + length;
+        this.out.beginArray();
+        int elements = 0;
+        int next = offset;
+        while (next < end) {
+            this.position = next;
+            int tag = readTag(end);
+            if (tag == 0) {
+                break;
+            } else if (tag == ARRAY_VALUE_VALUES_TAG) {
+                int valueLength = readLength(end);
+                int valueOffset = this.position;
+                next = valueOffset + valueLength;
+                this.limits.checkArrayLength(++elements);
+                writeElement(valueOffset, valueLength, depth + 1, node);
+                this.limits.checkOutput(this.out.size());
+            } else {
+                skipField(tag, end);
+                next = this.position;
+            }
+        }
+
+        this.out.endArray();
+        this.nesting--;
+    }
+
+    private void writeTimestamp(int keyOffset, int keyLength, int offset, int length, int depth)
+            throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        this.position = offset;
+        int end = offset + length;
+        long seconds = 0;
+        int nanos = 0;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            if (tag == TIMESTAMP_SECONDS_TAG) {
+                seconds = readVarint64(end);
+            } else if (tag == TIMESTAMP_NANOS_TAG) {
+                nanos = (int) readVarint64(end);
+            } else {
+                skipField(tag, end);
+            }
+        }
+
+        if (this.timestampEpoch != null) {
+            if (keyOffset >= 0) {
+                name(keyOffset, keyLength);
+            }
+
+            if (this.timestampEpoch.isLong(seconds, nanos)) {
+                this.out.value(this.timestampEpoch.toLong(seconds, nanos));
+            } else {
+                int formattedLength =
+                        this.timestampEpoch.format(seconds, nanos, this.timestampBuffer);
+                this.out.numberValue(this.timestampBuffer, 0, formattedLength);
+            }
+        } else if (this.timestampDefault != null) {
+            if (keyOffset >= 0) {
+                name(keyOffset, keyLength);
+            }
+
+            int formattedLength =
+                    this.timestampDefault.formatTimestamp(seconds, nanos, this.timestampBuffer);
+            if (formattedLength >= 0) {
+                this.out.asciiValue(this.timestampBuffer, 0, formattedLength);
+            } else {
+                this.out.value(this.timestampDefault.formatTimestamp(seconds, nanos));
+            }
+        } else {
+            Timestamp timestamp =
+                    Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+            try {
+                if (keyOffset >= 0) {
+                    JsonWriter jsonWriter = fragmentWriter(true);
+                    this.valueMapperTimestamp.write(jsonWriter, key(keyOffset, keyLength),
+                            timestamp);
+                    writeFragment(true);
+                } else {
+                    this.valueMapperTimestamp.write(fragmentWriter(false), timestamp);
+                    writeFragment(false);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void writeGeoPoint(int keyOffset, int keyLength, int offset, int length, int depth)
+            throws InvalidProtocolBufferException {
+        checkDepth(depth);
+        this.position = offset;
+        int end = offset + length;
+        long latitude = 0;
+        long longitude = 0;
+        int tag;
+        while ((tag = readTag(end)) != 0) {
+            if (tag == LAT_LNG_LATITUDE_TAG) {
+                latitude = readFixed64(end);
+            } else if (tag == LAT_LNG_LONGITUDE_TAG) {
+                longitude = readFixed64(end);
+            } else {
+                skipField(tag, end);
+            }
+        }
+
+        if (this.geoPointOutput != GEO_POINT_CUSTOM) {
+            if (keyOffset >= 0) {
+                name(keyOffset, keyLength);
+            }
+
+            if (this.geoPointOutput == GEO_POINT_DEFAULT) {
+                this.out.beginObject();
+                this.out.name("latitude").value(Double.longBitsToDouble(latitude));
+                this.out.name("longitude").value(Double.longBitsToDouble(longitude));
+                this.out.endObject();
+            } else {
+                if (this.geoPointOutput == GEO_POINT_GEO_JSON) {
+                    this.out.beginObject();
+                    this.out.name("type").value("Point");
+                    this.out.name("coordinates");
+                }
+
+                this.out.beginArray();
+                this.out.value(Double.longBitsToDouble(longitude));
+                this.out.value(Double.longBitsToDouble(latitude));
+                this.out.endArray();
+                if (this.geoPointOutput == GEO_POINT_GEO_JSON) {
+                    this.out.endObject();
+                }
+            }
+        } else {
+            LatLng geopoint = LatLng.newBuilder().setLatitude(Double.longBitsToDouble(latitude))
+                    .setLongitude(Double.longBitsToDouble(longitude)).build();
+            try {
+                if (keyOffset >= 0) {
+                    JsonWriter jsonWriter = fragmentWriter(true);
+                    this.valueMapperGeoPoint.write(jsonWriter, key(keyOffset, keyLength),
+                            geopoint);
+                    writeFragment(true);
+                } else {
+                    this.valueMapperGeoPoint.write(fragmentWriter(false), geopoint);
+                    writeFragment(false);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Get the output of the GeoPoint mapper that is written without a LatLng.
+     */
+    private static int geoPointOutput(ValueMapperGeoPoint valueMapperGeoPoint) {
+        if (valueMapperGeoPoint.getClass() == ValueMapperGeoPointDefault.class) {
+            return GEO_POINT_DEFAULT;
+        } else if (valueMapperGeoPoint instanceof ValueMapperGeoPointArray) {
+            return GEO_POINT_ARRAY;
+        } else if (valueMapperGeoPoint instanceof ValueMapperGeoPointGeoJson) {
+            return GEO_POINT_GEO_JSON;
+        } else {
+            return GEO_POINT_CUSTOM;
+        }
+    }
+
+    private void writeBytes(int keyOffset, int keyLength, int offset, int length)
+            throws InvalidProtocolBufferException {
+        if (this.bytesDefault) {
+            if (keyOffset >= 0) {
+                name(keyOffset, keyLength);
+            }
+
+            ValueMapperBytesDefault mapper = (ValueMapperBytesDefault) this.valueMapperBytes;
+            int maxLength = mapper.getMaxLength();
+            this.out.beginObject();
+            if (maxLength == 0 || length <= maxLength) {
+                this.out.name("_byteString").base64Value(this.bytes, offset, length);
+            } else if (mapper.isTruncate()) {
+                this.out.name("_byteString").base64Value(this.bytes, offset, maxLength);
+                this.out.name("_truncated").value(true);
+                this.out.name("_length").value(length);
+            } else {
+                this.out.name("_omitted").value(true);
+                this.out.name("_length").value(length);
+            }
+
+            this.out.endObject();
+        } else {
+            // The mapper reads the bytes in place; they are only copied if it needs an array
+            ByteString value = UnsafeByteOperations.unsafeWrap(this.bytes, offset, length);
+            try {
+                if (keyOffset >= 0) {
+                    JsonWriter jsonWriter = fragmentWriter(true);
+                    this.valueMapperBytes.write(jsonWriter, key(keyOffset, keyLength), value);
+                    writeFragment(true);
+                } else {
+                    this.valueMapperBytes.write(fragmentWriter(false), value);
+                    writeFragment(false);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Write a value converted by a field mapper, which is given the parsed Value.
+     */
+    private void writeMapped(ValueMapper mapper, int keyOffset, int keyLength, int valueOffset,
+            int valueLength) throws InvalidProtocolBufferException {
+        Value value = Value.parser().parseFrom(this.bytes, valueOffset, valueLength);
+        try {
+            if (keyOffset >= 0) {
+                JsonWriter jsonWriter = fragmentWriter(true);
+                mapper.write(jsonWriter, key(keyOffset, keyLength), value);
+                writeFragment(true);
+            } else {
+                mapper.write(fragmentWriter(false), value);
+                writeFragment(false);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write the name of a field, copying its token from the cache when one is configured.
+     */
+    private Utf8JsonWriter name(int keyOffset, int keyLength)
+            throws InvalidProtocolBufferException {
+        byte[] token = this.fieldNameCache == null ? null
+                : this.fieldNameCache.token(this.bytes, keyOffset, keyLength);
+        if (token == null) {
+            return this.out.name(this.bytes, keyOffset, keyLength);
+        }
+
+        return this.out.nameToken(token);
+    }
+
+    private String key(int keyOffset, int keyLength) throws InvalidProtocolBufferException {
+        Utf8JsonWriter.checkUtf8(this.bytes, keyOffset, keyLength);
+        return new String(this.bytes, keyOffset, keyLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create a JSON Writer for a custom mapper, configured the same as the streaming output, with
+     * an object or array already open so the mapper can write a member or element.
+     */
+    private JsonWriter fragmentWriter(boolean member) throws IOException {
+        if (this.fragment == null) {
+            this.fragment = new StringWriter();
+        }
+
+        this.fragment.getBuffer().setLength(0);
+        JsonWriter jsonWriter = new StreamingJsonWriter(this.fragment);
+        jsonWriter.setHtmlSafe(true);
+        jsonWriter.setSerializeNulls(true);
+        jsonWriter.setStrictness(Strictness.LENIENT);
+        if (member) {
+            jsonWriter.beginObject();
+        } else {
+            jsonWriter.beginArray();
+        }
+
+        return jsonWriter;
+    }
+
+    /**
+     * Copy what the custom mapper wrote, excluding the opening bracket, to the output.
+     */
+    private void writeFragment(boolean member) {
+        StringBuffer json = this.fragment.getBuffer();
+        if (member) {
+            this.out.rawMembers(json, 1, json.length());
+        } else {
+            this.out.rawElements(json, 1, json.length());
+        }
+    }
+
+    private static void checkDepth(int depth) throws InvalidProtocolBufferException {
+        if (depth > RECURSION_LIMIT) {
+            throw new InvalidProtocolBufferException(
+                    "Protocol message had too many levels of nesting.  May be malicious.  "
+                            + "Use setRecursionLimit() to increase the recursion depth limit.");
+        }
+    }
+
+    private int readTag(int end) throws InvalidProtocolBufferException {
+        if (this.position >= end) {
+            return 0;
+        }
+
+        int tag = (int) readVarint64(end);
+        if ((tag >>> 3) == 0) {
+            throw new InvalidProtocolBufferException(
+                    "Protocol message contained an invalid tag (zero).");
+        }
+
+        return tag;
+    }
+
+    private long readVarint64(int end) throws InvalidProtocolBufferException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (this.position >= end) {
+                throw truncated();
+            }
+
+            byte b = this.bytes[this.position++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+
+        throw new InvalidProtocolBufferException(
+                "CodedInputStream encountered a malformed varint.");
+    }
+
+    private long readFixed64(int end) throws InvalidProtocolBufferException {
+        if (end - this.position < 8) {
+            throw truncated();
+        }
+
+        long result = 0;
+        for (int i = 7; i >= 0; i--) {
+            result = result << 8 | (this.bytes[this.position + i] & 0xffL);
+        }
+
+        this.position += 8;
+        return result;
+    }
+
+    private int readLength(int end) throws InvalidProtocolBufferException {
+        int length = (int) readVarint64(end);
+        if (length < 0) {
+            throw new InvalidProtocolBufferException(
+                    "CodedInputStream encountered an embedded string or message which claimed to "
+                            + "have negative size.");
+        } else if (length > end - this.position) {
+            throw truncated();
+        }
+
+        return length;
+    }
+
+    private void readPayload(int end) throws InvalidProtocolBufferException {
+        this.payloadLength = readLength(end);
+        this.payloadOffset = this.position;
+        this.position += this.payloadLength;
+    }
+
+    private void skipField(int tag, int end) throws InvalidProtocolBufferException {
+        switch (tag & 7) {
+            case WIRETYPE_VARINT:
+                readVarint64(end);
+                break;
+            case WIRETYPE_FIXED64:
+                skipRaw(8, end);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                int length = readLength(end);
+                this.position += length;
+                break;
+            case WIRETYPE_START_GROUP:
+                int endGroupTag = (tag & ~7) | WIRETYPE_END_GROUP;
+                int groupTag;
+                while ((groupTag = readTag(end)) != endGroupTag) {
+                    if (groupTag == 0 || (groupTag & 7) == WIRETYPE_END_GROUP) {
+                        throw invalidEndTag();
+                    }
+
+                    skipField(groupTag, end);
+                }
+
+                break;
+            case WIRETYPE_FIXED32:
+                skipRaw(4, end);
+                break;
+            case WIRETYPE_END_GROUP:
+                throw invalidEndTag();
+            default:
+                throw new InvalidProtocolBufferException(
+                        "Protocol message tag had invalid wire type.");
+        }
+    }
+
+    private void skipRaw(int length, int end) throws InvalidProtocolBufferException {
+        if (end - this.position < length) {
+            throw truncated();
+        }
+
+        this.position += length;
+    }
+
+    static InvalidProtocolBufferException truncated() {
+        return new InvalidProtocolBufferException(
+                "While parsing a protocol message, the input ended unexpectedly in the middle of a "
+                        + "field.  This could mean either that the input has been truncated or "
+                        + "that an embedded message misreported its own length.");
+    }
+
+    private static InvalidProtocolBufferException invalidEndTag() {
+        return new InvalidProtocolBufferException(
+                "Protocol message end-group tag did not match expected tag.");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+
+/**
+ * A JSON Writer that can encode bytes as a base64 string value directly to the underlying Writer.
+ *
+ * The JSON Writer does not buffer, so once it has written the separator and opening quote of the
+ * value the encoded characters are written in chunks straight to the Writer without building the
+ * base64 string. The padding is escaped the same as the JSON Writer escapes it when HTML safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class StreamingJsonWriter extends JsonWriter {
+
+    private static final char[] BASE64 = Base64Decoder.ALPHABET.toCharArray();
+
+    private static final int CHUNK_LENGTH = 4096;
+
+    private final Writer writer;
+
+    private char[] chunk;
+
+    StreamingJsonWriter(Writer writer) {
+        super(writer);
+        this.writer = writer;
+    }
+
+    /**
+     * Write the bytes as a base64 encoded string value.
+     *
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the Writer fails
+     */
+    void base64Value(ByteString bytes) throws IOException {
+        // Writes the pending name and separator followed by the opening quote
+        jsonValue("\"");
+        if (this.chunk == null) {
+            this.chunk = new char[CHUNK_LENGTH];
+        }
+
+        char[] out = this.chunk;
+        ByteBuffer buffer = bytes.asReadOnlyByteBuffer();
+        int end = buffer.limit();
+        int i = buffer.position();
+        int p = 0;
+        for (; i + 2 < end; i += 3) {
+            if (p == CHUNK_LENGTH) {
+                this.writer.write(out, 0, p);
+                p = 0;
+            }
+
+            int bits = (buffer.get(i) & 0xff) << 16 | (buffer.get(i + 1) & 0xff) << 8
+                    | (buffer.get(i + 2) & 0xff);
+            out[p++] = BASE64[bits >>> 18];
+            out[p++] = BASE64[(bits >>> 12) & 0x3f];
+            out[p++] = BASE64[(bits >>> 6) & 0x3f];
+            out[p++] = BASE64[bits & 0x3f];
+        }
+
+        this.writer.write(out, 0, p);
+        if (i < end) {
+            int bits = (buffer.get(i) & 0xff) << 16;
+            if (i + 1 < end) {
+                bits |= (buffer.get(i + 1) & 0xff) << 8;
+            }
+
+            String padding = isHtmlSafe() ? "\\u003d" : "=";
+            this.writer.write(BASE64[bits >>> 18]);
+            this.writer.write(BASE64[(bits >>> 12) & 0x3f]);
+            if (i + 1 < end) {
+                this.writer.write(BASE64[(bits >>> 6) & 0x3f]);
+            } else {
+                this.writer.write(padding);
+            }
+
+            this.writer.write(padding);
+        }
+
+        this.writer.write('"');
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.time.ZoneOffset;
+
+/**
+ * Formats timestamps for the common RFC 3339 style patterns by computing the calendar fields
+ * arithmetically instead of through a DateTimeFormatter.
+ *
+ * The supported patterns are <code>yyyy-MM-dd</code> followed by <code>'T'</code> or a space,
+ * <code>HH:mm:ss</code>, optionally a fraction of one to nine <code>S</code> and optionally a
+ * literal <code>'Z'</code>, with any fixed ZoneOffset. The output is identical to the
+ * DateTimeFormatter for the years 1 through 9999; timestamps outside of that range are left to the
+ * DateTimeFormatter.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class TimestampFormat {
+
+    /**
+     * The maximum length of a formatted timestamp.
+     */
+    static final int MAX_LENGTH = 30;
+
+    /**
+     * 0001-01-01T00:00:00Z
+     */
+    private static final long MIN_SECONDS = -62135596800L;
+
+    /**
+     * 9999-12-31T23:59:59Z
+     */
+    private static final long MAX_SECONDS = 253402300799L;
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private static final long DAYS_0000_TO_1970 = 719528L;
+
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000,
+            10000000, 100000000, 1000000000};
+
+    private static final String DATE = "yyyy-MM-dd";
+
+    private static final String TIME = "HH:mm:ss";
+
+    private static final String ZULU = "'Z'";
+
+    private final int offsetSeconds;
+
+    private final byte dateTimeSeparator;
+
+    private final int fractionDigits;
+
+    private final boolean zulu;
+
+    private TimestampFormat(int offsetSeconds, byte dateTimeSeparator, int fractionDigits,
+            boolean zulu) {
+        this.offsetSeconds = offsetSeconds;
+        this.dateTimeSeparator = dateTimeSeparator;
+        this.fractionDigits = fractionDigits;
+        this.zulu = zulu;
+    }
+
+    /**
+     * Get the format for the pattern if it is supported.
+     *
+     * @param pattern the DateTimeFormatter pattern
+     * @param offset the ZoneOffset
+     * @return the format; null if the pattern is not supported
+     */
+    static TimestampFormat of(String pattern, ZoneOffset offset) {
+        if (!pattern.startsWith(DATE)) {
+            return null;
+        }
+
+        int i = DATE.length();
+        byte dateTimeSeparator;
+        if (pattern.startsWith("'T'", i)) {
+            dateTimeSeparator = 'T';
+            i += 3;
+        } else if (pattern.startsWith(" ", i)) {
+            dateTimeSeparator = ' ';
+            i += 1;
+        } else {
+            return null;
+        }
+
+        if (!pattern.startsWith(TIME, i)) {
+            return null;
+        }
+
+        i += TIME.length();
+        int fractionDigits = 0;
+        if (pattern.startsWith(".S", i)) {
+            i++;
+            while (i < pattern.length() && pattern.charAt(i) == 'S') {
+                fractionDigits++;
+                i++;
+            }
+
+            if (fractionDigits > 9) {
+                return null;
+            }
+        }
+
+        boolean zulu = pattern.startsWith(ZULU, i);
+        if (zulu) {
+            i += ZULU.length();
+        }
+
+        if (i != pattern.length()) {
+            return null;
+        }
+
+        return new TimestampFormat(offset.getTotalSeconds(), dateTimeSeparator, fractionDigits,
+                zulu);
+    }
+
+    /**
+     * Format the timestamp into the buffer as ASCII.
+     *
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second
+     * @param buffer the buffer of at least MAX_LENGTH bytes
+     * @return the number of bytes written; -1 if the timestamp is not supported
+     */
+    int format(long seconds, int nanos, byte[] buffer) {
+        if (seconds < MIN_SECONDS - SECONDS_PER_DAY || seconds > MAX_SECONDS + SECONDS_PER_DAY
+                || nanos < 0 || nanos > 999999999) {
+            return -1;
+        }
+
+        long local = seconds + this.offsetSeconds;
+        if (local < MIN_SECONDS || local > MAX_SECONDS) {
+            return -1;
+        }
+
+        long epochDay = Math.floorDiv(local, SECONDS_PER_DAY);
+        int secondOfDay = Math.floorMod(local, SECONDS_PER_DAY);
+
+        // The same calculation as LocalDate.ofEpochDay for the positive years supported
+        long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+        long year = (400 * zeroDay + 591) / 146097;
+        long dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        if (dayOfYear < 0) {
+            year--;
+            dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        }
+
+        int marchDayOfYear = (int) dayOfYear;
+        int marchMonth = (marchDayOfYear * 5 + 2) / 153;
+        int month = (marchMonth + 2) % 12 + 1;
+        int day = marchDayOfYear - (marchMonth * 306 + 5) / 10 + 1;
+        year += marchMonth / 10;
+
+        int p = 0;
+        p = digits(buffer, p, (int) year, 4);
+        buffer[p++] = '-';
+        p = digits(buffer, p, month, 2);
+        buffer[p++] = '-';
+        p = digits(buffer, p, day, 2);
+        buffer[p++] = this.dateTimeSeparator;
+        p = digits(buffer, p, secondOfDay / 3600, 2);
+        buffer[p++] = ':';
+        p = digits(buffer, p, secondOfDay / 60 % 60, 2);
+        buffer[p++] = ':';
+        p = digits(buffer, p, secondOfDay % 60, 2);
+        if (this.fractionDigits > 0) {
+            buffer[p++] = '.';
+            p = digits(buffer, p, nanos / POWERS_OF_TEN[9 - this.fractionDigits],
+                    this.fractionDigits);
+        }
+
+        if (this.zulu) {
+            buffer[p++] = 'Z';
+        }
+
+        return p;
+    }
+
+    private static int digits(byte[] buffer, int position, int value, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return position + width;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.DocumentMask;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.type.LatLng;
+
+/**
+ * Parses the typed JSON written by the {@link TypedJsonWriter} back into the protocol buffer
+ * messages.
+ *
+ * The JSON is read as a stream of tokens and the messages are built as it is read, without first
+ * parsing a JSON tree. Members of the event and documents that are not known are skipped.
+ *
+ * An instance is not thread safe.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class TypedJsonParser {
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final JsonReader jsonReader;
+
+    private final ConversionLimits limits;
+
+    /**
+     * The number of fields read of the current document.
+     */
+    private int fields;
+
+    TypedJsonParser(JsonReader jsonReader, ConversionLimits limits) {
+        this.jsonReader = jsonReader;
+        this.limits = limits;
+    }
+
+    DocumentEventData readEvent() throws IOException {
+        try {
+            return event();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // The JSON Reader reports a token of an unexpected type with unchecked exceptions
+            throw syntaxError(e);
+        }
+    }
+
+    Document readDocument() throws IOException {
+        try {
+            return document();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw syntaxError(e);
+        }
+    }
+
+    private DocumentEventData event() throws IOException {
+        DocumentEventData.Builder builder = DocumentEventData.newBuilder();
+        this.jsonReader.beginObject();
+        while (this.jsonReader.hasNext()) {
+            switch (this.jsonReader.nextName()) {
+                case "value":
+                    builder.setValue(document());
+                    break;
+                case "oldValue":
+                    builder.setOldValue(document());
+                    break;
+                case "updateMask":
+                    DocumentMask.Builder updateMask = DocumentMask.newBuilder();
+                    this.jsonReader.beginArray();
+                    while (this.jsonReader.hasNext()) {
+                        updateMask.addFieldPaths(this.jsonReader.nextString());
+                    }
+
+                    this.jsonReader.endArray();
+                    builder.setUpdateMask(updateMask);
+                    break;
+                default:
+                    this.jsonReader.skipValue();
+                    break;
+            }
+        }
+
+        this.jsonReader.endObject();
+        return builder.build();
+    }
+
+    private Document document() throws IOException {
+        this.fields = 0;
+        Document.Builder builder = Document.newBuilder();
+        this.jsonReader.beginObject();
+        while (this.jsonReader.hasNext()) {
+            switch (this.jsonReader.nextName()) {
+                case "name":
+                    builder.setName(this.jsonReader.nextString());
+                    break;
+                case "fields":
+                    this.jsonReader.beginObject();
+                    while (this.jsonReader.hasNext()) {
+                        String name = this.jsonReader.nextName();
+                        this.fields = this.limits.checkFields(this.fields + 1);
+                        builder.putFields(name, readValue(1));
+                    }
+
+                    this.jsonReader.endObject();
+                    break;
+                case "createTime":
+                    builder.setCreateTime(readTimestamp());
+                    break;
+                case "updateTime":
+                    builder.setUpdateTime(readTimestamp());
+                    break;
+                default:
+                    this.jsonReader.skipValue();
+                    break;
+            }
+        }
+
+        this.jsonReader.endObject();
+        return builder.build();
+    }
+
+    /**
+     * Read a value, where the value of a field of the document is at depth 1.
+     */
+    private Value readValue(int depth) throws IOException {
+        switch (this.jsonReader.peek()) {
+            case STRING:
+                return Value.newBuilder().setStringValue(this.jsonReader.nextString()).build();
+            case NUMBER:
+                return readNumber();
+            case BOOLEAN:
+                return Value.newBuilder().setBooleanValue(this.jsonReader.nextBoolean()).build();
+            case NULL:
+                this.jsonReader.nextNull();
+                return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+            case BEGIN_ARRAY:
+                return readArray(depth);
+            case BEGIN_OBJECT:
+                this.jsonReader.beginObject();
+                if (!this.jsonReader.hasNext()) {
+                    this.jsonReader.endObject();
+                    return Value.newBuilder().setMapValue(MapValue.getDefaultInstance()).build();
+                }
+
+                String name = this.jsonReader.nextName();
+                if (!TypedJsonWriter.isReserved(name)) {
+                    return readMap(name, depth);
+                }
+
+                Value value = readTyped(name, depth);
+                if (this.jsonReader.hasNext()) {
+                    throw syntaxError("A typed value must have a single member");
+                }
+
+                this.jsonReader.endObject();
+                return value;
+            default:
+                throw syntaxError("Expected a value but was " + this.jsonReader.peek());
+        }
+    }
+
+    private Value readNumber() throws IOException {
+        String number = this.jsonReader.nextString();
+        boolean integer = true;
+        for (int i = 0; i < number.length() && integer; i++) {
+            char c = number.charAt(i);
+            integer = c != '.' && c != 'e' && c != 'E';
+        }
+
+        try {
+            if (integer) {
+                return Value.newBuilder().setIntegerValue(Long.parseLong(number)).build();
+            } else {
+                return Value.newBuilder().setDoubleValue(Double.parseDouble(number)).build();
+            }
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number " + number);
+        }
+    }
+
+    private Value readArray(int depth) throws IOException {
+        this.limits.checkDepth(depth);
+        ArrayValue.Builder builder = ArrayValue.newBuilder();
+        this.jsonReader.beginArray();
+        while (this.jsonReader.hasNext()) {
+            this.limits.checkArrayLength(builder.getValuesCount() + 1);
+            builder.addValues(readValue(depth + 1));
+        }
+
+        this.jsonReader.endArray();
+        return Value.newBuilder().setArrayValue(builder).build();
+    }
+
+    /**
+     * Read the fields of a map whose object is open and whose first name was read.
+     */
+    private Value readMap(String name, int depth) throws IOException {
+        this.limits.checkDepth(depth);
+        MapValue.Builder builder = MapValue.newBuilder();
+        while (name != null) {
+            this.fields = this.limits.checkFields(this.fields + 1);
+            builder.putFields(name, readValue(depth + 1));
+            name = this.jsonReader.hasNext() ? this.jsonReader.nextName() : null;
+        }
+
+        this.jsonReader.endObject();
+        return Value.newBuilder().setMapValue(builder).build();
+    }
+
+    private Value readTyped(String name, int depth) throws IOException {
+        switch (name) {
+            case TypedJsonWriter.TIMESTAMP:
+                return Value.newBuilder().setTimestampValue(readTimestamp()).build();
+            case TypedJsonWriter.GEO_POINT:
+                this.jsonReader.beginArray();
+                LatLng geoPoint = LatLng.newBuilder().setLatitude(readCoordinate())
+                        .setLongitude(readCoordinate()).build();
+                this.jsonReader.endArray();
+                return Value.newBuilder().setGeoPointValue(geoPoint).build();
+            case TypedJsonWriter.BYTES:
+                String base64 = this.jsonReader.nextString();
+                try {
+                    return Value.newBuilder().setBytesValue(
+                            UnsafeByteOperations.unsafeWrap(Base64.getDecoder().decode(base64)))
+                            .build();
+                } catch (IllegalArgumentException e) {
+                    throw syntaxError("Invalid base64 bytes");
+                }
+            case TypedJsonWriter.REFERENCE:
+                return Value.newBuilder().setReferenceValue(this.jsonReader.nextString()).build();
+            case TypedJsonWriter.DOUBLE:
+                return Value.newBuilder().setDoubleValue(readDouble()).build();
+            case TypedJsonWriter.MAP:
+                this.jsonReader.beginObject();
+                if (!this.jsonReader.hasNext()) {
+                    this.jsonReader.endObject();
+                    return Value.newBuilder().setMapValue(MapValue.getDefaultInstance()).build();
+                }
+
+                return readMap(this.jsonReader.nextName(), depth);
+            default:
+                // A value that is not set
+                this.jsonReader.skipValue();
+                return Value.getDefaultInstance();
+        }
+    }
+
+    /**
+     * Read a coordinate of a GeoPoint, which is a number or a <code>$double</code> object when it
+     * is not finite.
+     */
+    private double readCoordinate() throws IOException {
+        if (this.jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            return this.jsonReader.nextDouble();
+        }
+
+        this.jsonReader.beginObject();
+        String name = this.jsonReader.nextName();
+        if (!TypedJsonWriter.DOUBLE.equals(name)) {
+            throw syntaxError("Expected " + TypedJsonWriter.DOUBLE + " but was " + name);
+        }
+
+        double coordinate = readDouble();
+        this.jsonReader.endObject();
+        return coordinate;
+    }
+
+    /**
+     * Read the string of a double that is not finite.
+     */
+    private double readDouble() throws IOException {
+        String number = this.jsonReader.nextString();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid double " + number);
+        }
+    }
+
+    /**
+     * Read a timestamp from RFC 3339 or from the array of its seconds and nanos.
+     */
+    private Timestamp readTimestamp() throws IOException {
+        if (this.jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+            this.jsonReader.beginArray();
+            Timestamp timestamp = Timestamp.newBuilder().setSeconds(this.jsonReader.nextLong())
+                    .setNanos(this.jsonReader.nextInt()).build();
+            this.jsonReader.endArray();
+            return timestamp;
+        }
+
+        String text = this.jsonReader.nextString();
+        Timestamp timestamp = parseTimestamp(text);
+        if (timestamp != null) {
+            return timestamp;
+        }
+
+        try {
+            // Offsets and years outside of 0001 through 9999 are left to the Instant parser
+            Instant instant = Instant.parse(text);
+            return Timestamp.newBuilder().setSeconds(instant.getEpochSecond())
+                    .setNanos(instant.getNano()).build();
+        } catch (DateTimeParseException e) {
+            throw syntaxError("Invalid timestamp " + text);
+        }
+    }
+
+    /**
+     * Parse yyyy-MM-ddTHH:mm:ss with an optional fraction of up to nine digits in UTC.
+     *
+     * @param text the text
+     * @return the timestamp; null if the text does not have this form or is not a valid time
+     */
+    static Timestamp parseTimestamp(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(length - 1) != 'Z' || text.charAt(4) != '-'
+                || text.charAt(7) != '-' || text.charAt(10) != 'T' || text.charAt(13) != ':'
+                || text.charAt(16) != ':') {
+            return null;
+        }
+
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        int hour = digits(text, 11, 13);
+        int minute = digits(text, 14, 16);
+        int second = digits(text, 17, 19);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+
+        boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        if (day > DAYS_IN_MONTH[month - 1] + (leap && month == 2 ? 1 : 0)) {
+            return null;
+        }
+
+        int nanos = 0;
+        if (length > 20) {
+            int fractionDigits = length - 21;
+            if (text.charAt(19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                return null;
+            }
+
+            nanos = digits(text, 20, length - 1);
+            if (nanos < 0) {
+                return null;
+            }
+
+            for (int i = fractionDigits; i < 9; i++) {
+                nanos *= 10;
+            }
+        }
+
+        long seconds = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600L
+                + minute * 60L + second;
+        return Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+    }
+
+    /**
+     * Parse the decimal digits; -1 if any character is not a digit.
+     */
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Compute the days since 1970-01-01 of the proleptic Gregorian date.
+     */
+    private static long epochDay(int year, int month, int day) {
+        // Count the years from March so the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at path " + this.jsonReader.getPath());
+    }
+
+    private static MalformedJsonException syntaxError(RuntimeException e) {
+        return new MalformedJsonException(e.getMessage(), e);
+    }
+}
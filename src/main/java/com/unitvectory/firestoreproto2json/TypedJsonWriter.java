@@ -0,0 +1,261 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Map.Entry;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * Writes documents as typed JSON, which keeps the type of every value so the document can be
+ * reconstructed exactly by the {@link TypedJsonParser}.
+ *
+ * Strings, booleans, nulls, maps and arrays are written as the JSON values themselves. Integers
+ * are written as numbers without a fraction, and doubles always with a fraction or an exponent.
+ * The other types are written as an object with a single member named by the type:
+ * <code>$timestamp</code>, <code>$geoPoint</code>, <code>$bytes</code>,
+ * <code>$reference</code>, <code>$double</code> for the doubles and coordinates that are not
+ * finite and
+ * <code>$unset</code> for a value without any type. A map with a field named by one of these is
+ * wrapped as <code>{"$map":{...}}</code> so it is not mistaken for a typed value.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class TypedJsonWriter {
+
+    static final String TIMESTAMP = "$timestamp";
+
+    static final String GEO_POINT = "$geoPoint";
+
+    static final String BYTES = "$bytes";
+
+    static final String REFERENCE = "$reference";
+
+    static final String DOUBLE = "$double";
+
+    static final String MAP = "$map";
+
+    static final String UNSET = "$unset";
+
+    /**
+     * The RFC 3339 format of timestamps in UTC, the trailing zeros of the fraction are removed.
+     */
+    private static final TimestampFormat TIMESTAMP_FORMAT =
+            TimestampFormat.of("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS'Z'", ZoneOffset.UTC);
+
+    private final JsonWriter jsonWriter;
+
+    private final byte[] timestampBuffer = new byte[TimestampFormat.MAX_LENGTH];
+
+    TypedJsonWriter(JsonWriter jsonWriter) {
+        this.jsonWriter = jsonWriter;
+    }
+
+    /**
+     * Check if the name is one of the members of a typed value.
+     *
+     * @param name the name
+     * @return true if the name is reserved
+     */
+    static boolean isReserved(String name) {
+        switch (name) {
+            case TIMESTAMP:
+            case GEO_POINT:
+            case BYTES:
+            case REFERENCE:
+            case DOUBLE:
+            case MAP:
+            case UNSET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    void writeEvent(DocumentEventData documentEventData) throws IOException {
+        this.jsonWriter.beginObject();
+        if (documentEventData.hasValue()) {
+            this.jsonWriter.name("value");
+            writeDocument(documentEventData.getValue());
+        }
+
+        if (documentEventData.hasOldValue()) {
+            this.jsonWriter.name("oldValue");
+            writeDocument(documentEventData.getOldValue());
+        }
+
+        if (documentEventData.hasUpdateMask()) {
+            this.jsonWriter.name("updateMask").beginArray();
+            for (String fieldPath : documentEventData.getUpdateMask().getFieldPathsList()) {
+                this.jsonWriter.value(fieldPath);
+            }
+
+            this.jsonWriter.endArray();
+        }
+
+        this.jsonWriter.endObject();
+    }
+
+    void writeDocument(Document document) throws IOException {
+        this.jsonWriter.beginObject();
+        if (!document.getName().isEmpty()) {
+            this.jsonWriter.name("name").value(document.getName());
+        }
+
+        this.jsonWriter.name("fields");
+        writeFields(document.getFieldsMap());
+        if (document.hasCreateTime()) {
+            this.jsonWriter.name("createTime");
+            writeTimestamp(document.getCreateTime());
+        }
+
+        if (document.hasUpdateTime()) {
+            this.jsonWriter.name("updateTime");
+            writeTimestamp(document.getUpdateTime());
+        }
+
+        this.jsonWriter.endObject();
+    }
+
+    private void writeFields(Map<String, Value> fields) throws IOException {
+        this.jsonWriter.beginObject();
+        for (Entry<String, Value> entry : fields.entrySet()) {
+            this.jsonWriter.name(entry.getKey());
+            writeValue(entry.getValue());
+        }
+
+        this.jsonWriter.endObject();
+    }
+
+    private void writeValue(Value value) throws IOException {
+        switch (value.getValueTypeCase()) {
+            case NULL_VALUE:
+                this.jsonWriter.nullValue();
+                break;
+            case BOOLEAN_VALUE:
+                this.jsonWriter.value(value.getBooleanValue());
+                break;
+            case INTEGER_VALUE:
+                this.jsonWriter.value(value.getIntegerValue());
+                break;
+            case DOUBLE_VALUE:
+                writeDouble(value.getDoubleValue());
+                break;
+            case TIMESTAMP_VALUE:
+                this.jsonWriter.beginObject().name(TIMESTAMP);
+                writeTimestamp(value.getTimestampValue());
+                this.jsonWriter.endObject();
+                break;
+            case STRING_VALUE:
+                this.jsonWriter.value(value.getStringValue());
+                break;
+            case BYTES_VALUE:
+                this.jsonWriter.beginObject().name(BYTES);
+                ValueMapperBytes.writeBase64(this.jsonWriter, value.getBytesValue());
+                this.jsonWriter.endObject();
+                break;
+            case REFERENCE_VALUE:
+                this.jsonWriter.beginObject().name(REFERENCE).value(value.getReferenceValue())
+                        .endObject();
+                break;
+            case GEO_POINT_VALUE:
+                LatLng geoPoint = value.getGeoPointValue();
+                this.jsonWriter.beginObject().name(GEO_POINT).beginArray();
+                writeDouble(geoPoint.getLatitude());
+                writeDouble(geoPoint.getLongitude());
+                this.jsonWriter.endArray().endObject();
+                break;
+            case ARRAY_VALUE:
+                this.jsonWriter.beginArray();
+                for (Value arrayValue : value.getArrayValue().getValuesList()) {
+                    writeValue(arrayValue);
+                }
+
+                this.jsonWriter.endArray();
+                break;
+            case MAP_VALUE:
+                Map<String, Value> fields = value.getMapValue().getFieldsMap();
+                if (hasReservedName(fields)) {
+                    this.jsonWriter.beginObject().name(MAP);
+                    writeFields(fields);
+                    this.jsonWriter.endObject();
+                } else {
+                    writeFields(fields);
+                }
+                break;
+            default:
+                // A value that is not set is kept so the document is reconstructed exactly
+                this.jsonWriter.beginObject().name(UNSET).nullValue().endObject();
+                break;
+        }
+    }
+
+    /**
+     * Write a double as a number, or as <code>{"$double":"NaN"}</code> when it is not finite.
+     */
+    private void writeDouble(double value) throws IOException {
+        if (Double.isFinite(value)) {
+            // The string of a double always has a fraction or an exponent
+            this.jsonWriter.value(value);
+        } else {
+            this.jsonWriter.beginObject().name(DOUBLE).value(Double.toString(value)).endObject();
+        }
+    }
+
+    /**
+     * Write a timestamp as RFC 3339 in UTC, or as the array of its seconds and nanos when it is
+     * outside of the years 1 through 9999 or its nanos are invalid.
+     */
+    private void writeTimestamp(Timestamp timestamp) throws IOException {
+        long seconds = timestamp.getSeconds();
+        int nanos = timestamp.getNanos();
+        int length = TIMESTAMP_FORMAT.format(seconds, nanos, this.timestampBuffer);
+        if (length < 0) {
+            this.jsonWriter.beginArray().value(seconds).value(nanos).endArray();
+            return;
+        }
+
+        // Remove the trailing zeros of the fraction, and the fraction if it is zero
+        int end = length - 2;
+        while (this.timestampBuffer[end] == '0') {
+            end--;
+        }
+
+        if (this.timestampBuffer[end] == '.') {
+            end--;
+        }
+
+        this.timestampBuffer[end + 1] = 'Z';
+        this.jsonWriter.value(
+                new String(this.timestampBuffer, 0, end + 2, StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean hasReservedName(Map<String, Value> fields) {
+        for (String name : fields.keySet()) {
+            if (!name.isEmpty() && name.charAt(0) == '$' && isReserved(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Writes compact JSON as UTF-8 bytes into a growable buffer.
+ *
+ * Strings are escaped exactly as Gson escapes them with HTML escaping enabled so the output is
+ * byte for byte identical to the UTF-8 encoding of the Gson output. UTF-8 input can be copied
+ * directly into the buffer without first being decoded into a String.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class Utf8JsonWriter {
+
+    private static final char LINE_SEPARATOR = '\u2028';
+
+    private static final char PARAGRAPH_SEPARATOR = '\u2029';
+
+    private static final byte[] BASE64 = Base64Decoder.ALPHABET.getBytes();
+
+    private static final byte[] NULL = "null".getBytes();
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final byte[] TRUE = "true".getBytes();
+
+    private static final byte[] FALSE = "false".getBytes();
+
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+
+    /**
+     * The escape for each ASCII character; null if the character is written as is.
+     */
+    private static final byte[][] ESCAPES = new byte[128][];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = String.format("\\u%04x", i).getBytes();
+        }
+
+        ESCAPES['"'] = "\\\"".getBytes();
+        ESCAPES['\\'] = "\\\\".getBytes();
+        ESCAPES['\t'] = "\\t".getBytes();
+        ESCAPES['\b'] = "\\b".getBytes();
+        ESCAPES['\n'] = "\\n".getBytes();
+        ESCAPES['\r'] = "\\r".getBytes();
+        ESCAPES['\f'] = "\\f".getBytes();
+
+        // Gson escapes HTML characters by default
+        ESCAPES['<'] = "\\u003c".getBytes();
+        ESCAPES['>'] = "\\u003e".getBytes();
+        ESCAPES['&'] = "\\u0026".getBytes();
+        ESCAPES['='] = "\\u003d".getBytes();
+        ESCAPES['\''] = "\\u0027".getBytes();
+    }
+
+    private byte[] buffer;
+
+    private int position;
+
+    /**
+     * Tracks if the object or array at each depth already has an entry and needs a separator.
+     */
+    private boolean[] hasEntry = new boolean[32];
+
+    private int depth;
+
+    private boolean afterName;
+
+    Utf8JsonWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    Utf8JsonWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Discard the written output so the buffer can be reused.
+     */
+    void reset() {
+        this.position = 0;
+        this.depth = 0;
+        this.afterName = false;
+        this.hasEntry[0] = false;
+    }
+
+    int size() {
+        return this.position;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.position);
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(this.buffer, 0, this.position);
+    }
+
+    String toUtf8String() {
+        return new String(this.buffer, 0, this.position, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Update the digest with the UTF-8 output.
+     *
+     * @param digest the digest
+     */
+    void update(MessageDigest digest) {
+        digest.update(this.buffer, 0, this.position);
+    }
+
+    /**
+     * Replace the buffer if it grew beyond the capacity so a single large output does not pin
+     * memory while the writer is reused.
+     *
+     * @param maxCapacity the largest buffer retained
+     */
+    void trim(int maxCapacity) {
+        if (this.buffer.length > maxCapacity) {
+            this.buffer = new byte[DEFAULT_CAPACITY];
+        }
+    }
+
+    Utf8JsonWriter beginObject() {
+        beforeValue();
+        write((byte) '{');
+        push();
+        return this;
+    }
+
+    Utf8JsonWriter endObject() {
+        this.depth--;
+        write((byte) '}');
+        return this;
+    }
+
+    Utf8JsonWriter beginArray() {
+        beforeValue();
+        write((byte) '[');
+        push();
+        return this;
+    }
+
+    Utf8JsonWriter endArray() {
+        this.depth--;
+        write((byte) ']');
+        return this;
+    }
+
+    Utf8JsonWriter name(String name) {
+        beforeName();
+        string(name);
+        write((byte) ':');
+        this.afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a name from UTF-8 bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the name
+     * @param length the length of the name
+     * @return this
+     * @throws InvalidProtocolBufferException if the bytes are not valid UTF-8
+     */
+    Utf8JsonWriter name(byte[] bytes, int offset, int length)
+            throws InvalidProtocolBufferException {
+        beforeName();
+        utf8String(bytes, offset, length);
+        write((byte) ':');
+        this.afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a name from its encoded token, the JSON string followed by the colon.
+     *
+     * @param token the token
+     * @return this
+     */
+    Utf8JsonWriter nameToken(byte[] token) {
+        beforeName();
+        write(token);
+        this.afterName = true;
+        return this;
+    }
+
+    Utf8JsonWriter value(String value) {
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    /**
+     * Write a string value from UTF-8 bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the value
+     * @param length the length of the value
+     * @return this
+     * @throws InvalidProtocolBufferException if the bytes are not valid UTF-8
+     */
+    Utf8JsonWriter value(byte[] bytes, int offset, int length)
+            throws InvalidProtocolBufferException {
+        beforeValue();
+        utf8String(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * Write a string value from ASCII bytes that do not need to be escaped.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the value
+     * @param length the length of the value
+     * @return this
+     */
+    Utf8JsonWriter asciiValue(byte[] bytes, int offset, int length) {
+        beforeValue();
+        ensureCapacity(length + 2);
+        this.buffer[this.position++] = '"';
+        System.arraycopy(bytes, offset, this.buffer, this.position, length);
+        this.position += length;
+        this.buffer[this.position++] = '"';
+        return this;
+    }
+
+    /**
+     * Write a number value from its ASCII digits.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the number
+     * @param length the length of the number
+     * @return this
+     */
+    Utf8JsonWriter numberValue(byte[] bytes, int offset, int length) {
+        beforeValue();
+        write(bytes, offset, length);
+        return this;
+    }
+
+    Utf8JsonWriter value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            write(LONG_MIN_VALUE);
+            return this;
+        }
+
+        ensureCapacity(20);
+        if (value < 0) {
+            this.buffer[this.position++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+
+        int end = this.position + digits;
+        for (int i = end - 1; i >= this.position; i--) {
+            this.buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        this.position = end;
+        return this;
+    }
+
+    Utf8JsonWriter value(double value) {
+        beforeValue();
+        ascii(Double.toString(value));
+        return this;
+    }
+
+    Utf8JsonWriter value(boolean value) {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    Utf8JsonWriter nullValue() {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * Write a string value of the base64 encoding of the bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the bytes to encode
+     * @param length the number of bytes to encode
+     * @return this
+     */
+    Utf8JsonWriter base64Value(byte[] bytes, int offset, int length) {
+        beforeValue();
+        ensureCapacity((length + 2) / 3 * 4 + 2);
+        byte[] out = this.buffer;
+        int p = this.position;
+        out[p++] = '"';
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            out[p++] = BASE64[bits >>> 18];
+            out[p++] = BASE64[(bits >>> 12) & 0x3f];
+            out[p++] = BASE64[(bits >>> 6) & 0x3f];
+            out[p++] = BASE64[bits & 0x3f];
+        }
+
+        this.position = p;
+        if (i < end) {
+            int bits = (bytes[i] & 0xff) << 16;
+            if (i + 1 < end) {
+                bits |= (bytes[i + 1] & 0xff) << 8;
+            }
+
+            out[this.position++] = BASE64[bits >>> 18];
+            out[this.position++] = BASE64[(bits >>> 12) & 0x3f];
+            if (i + 1 < end) {
+                out[this.position++] = BASE64[(bits >>> 6) & 0x3f];
+            } else {
+                write(ESCAPES['=']);
+            }
+
+            write(ESCAPES['=']);
+        }
+
+        write((byte) '"');
+        return this;
+    }
+
+    /**
+     * Write the members of an object that were already serialized as JSON, separated by commas.
+     *
+     * @param json the serialized members
+     * @param start the start of the members
+     * @param end the end of the members
+     * @return this
+     */
+    Utf8JsonWriter rawMembers(CharSequence json, int start, int end) {
+        if (start < end) {
+            beforeName();
+            chars(json, start, end);
+        }
+
+        return this;
+    }
+
+    /**
+     * Write the elements of an array that were already serialized as JSON, separated by commas.
+     *
+     * @param json the serialized elements
+     * @param start the start of the elements
+     * @param end the end of the elements
+     * @return this
+     */
+    Utf8JsonWriter rawElements(CharSequence json, int start, int end) {
+        if (start < end) {
+            beforeValue();
+            chars(json, start, end);
+        }
+
+        return this;
+    }
+
+    private void push() {
+        this.depth++;
+        if (this.depth == this.hasEntry.length) {
+            this.hasEntry = Arrays.copyOf(this.hasEntry, this.depth * 2);
+        }
+
+        this.hasEntry[this.depth] = false;
+    }
+
+    private void beforeName() {
+        if (this.hasEntry[this.depth]) {
+            write((byte) ',');
+        }
+
+        this.hasEntry[this.depth] = true;
+    }
+
+    private void beforeValue() {
+        if (this.afterName) {
+            this.afterName = false;
+        } else if (this.depth > 0) {
+            beforeName();
+        }
+    }
+
+    private void string(String value) {
+        write((byte) '"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = ESCAPES[c];
+                if (escape == null) {
+                    write((byte) c);
+                } else {
+                    write(escape);
+                }
+            } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                ensureCapacity(6);
+                this.buffer[this.position++] = '\\';
+                this.buffer[this.position++] = 'u';
+                this.buffer[this.position++] = '2';
+                this.buffer[this.position++] = '0';
+                this.buffer[this.position++] = '2';
+                this.buffer[this.position++] = (byte) (c == LINE_SEPARATOR ? '8' : '9');
+            } else {
+                i = encode(value, i, c);
+            }
+        }
+
+        write((byte) '"');
+    }
+
+    /**
+     * Copy the UTF-8 bytes as a JSON string escaping only the characters Gson escapes.
+     */
+    private void utf8String(byte[] bytes, int offset, int length)
+            throws InvalidProtocolBufferException {
+        ensureCapacity(length + 2);
+        this.buffer[this.position++] = '"';
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            // Copy runs of ASCII characters that do not need escaping directly
+            int start = i;
+            while (i < end && bytes[i] >= 0 && ESCAPES[bytes[i]] == null) {
+                i++;
+            }
+
+            if (i > start) {
+                write(bytes, start, i - start);
+            }
+
+            if (i == end) {
+                break;
+            }
+
+            int b = bytes[i];
+            if (b >= 0) {
+                write(ESCAPES[b]);
+                i++;
+            } else {
+                int sequence = utf8SequenceLength(bytes, i, end);
+                if (sequence == 3 && (bytes[i] & 0xff) == 0xe2 && (bytes[i + 1] & 0xff) == 0x80
+                        && ((bytes[i + 2] & 0xff) == 0xa8 || (bytes[i + 2] & 0xff) == 0xa9)) {
+                    ascii((bytes[i + 2] & 0xff) == 0xa8 ? "\\u2028" : "\\u2029");
+                } else {
+                    write(bytes, i, sequence);
+                }
+
+                i += sequence;
+            }
+        }
+
+        write((byte) '"');
+    }
+
+    /**
+     * Validate that the bytes are UTF-8.
+     *
+     * @param bytes the bytes
+     * @param offset the offset to validate
+     * @param length the length to validate
+     * @throws InvalidProtocolBufferException if the bytes are not valid UTF-8
+     */
+    static void checkUtf8(byte[] bytes, int offset, int length)
+            throws InvalidProtocolBufferException {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            i += bytes[i] >= 0 ? 1 : utf8SequenceLength(bytes, i, end);
+        }
+    }
+
+    /**
+     * Validate the UTF-8 sequence starting with a non-ASCII byte, returning its length.
+     */
+    private static int utf8SequenceLength(byte[] bytes, int i, int end)
+            throws InvalidProtocolBufferException {
+        int b0 = bytes[i] & 0xff;
+        int length;
+        int min;
+        int max = 0xbf;
+        if (b0 >= 0xc2 && b0 <= 0xdf) {
+            length = 2;
+            min = 0x80;
+        } else if (b0 >= 0xe0 && b0 <= 0xef) {
+            length = 3;
+            min = b0 == 0xe0 ? 0xa0 : 0x80;
+            max = b0 == 0xed ? 0x9f : 0xbf;
+        } else if (b0 >= 0xf0 && b0 <= 0xf4) {
+            length = 4;
+            min = b0 == 0xf0 ? 0x90 : 0x80;
+            max = b0 == 0xf4 ? 0x8f : 0xbf;
+        } else {
+            throw invalidUtf8();
+        }
+
+        if (i + length > end) {
+            throw invalidUtf8();
+        }
+
+        int b1 = bytes[i + 1] & 0xff;
+        if (b1 < min || b1 > max) {
+            throw invalidUtf8();
+        }
+
+        for (int j = 2; j < length; j++) {
+            if ((bytes[i + j] & 0xc0) != 0x80) {
+                throw invalidUtf8();
+            }
+        }
+
+        return length;
+    }
+
+    private static InvalidProtocolBufferException invalidUtf8() {
+        return new InvalidProtocolBufferException("Protocol message had invalid UTF-8.");
+    }
+
+    /**
+     * Write already escaped JSON characters as UTF-8.
+     */
+    private void chars(CharSequence json, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c < 0x80) {
+                write((byte) c);
+            } else {
+                i = encode(json, i, c);
+            }
+        }
+    }
+
+    /**
+     * Encode the non-ASCII character at the index as UTF-8, returning the index of the last char
+     * consumed. Unpaired surrogates are replaced with '?' as String.getBytes does.
+     */
+    private int encode(CharSequence chars, int i, char c) {
+        ensureCapacity(4);
+        byte[] out = this.buffer;
+        if (c < 0x800) {
+            out[this.position++] = (byte) (0xc0 | (c >> 6));
+            out[this.position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                && Character.isLowSurrogate(chars.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+            out[this.position++] = (byte) (0xf0 | (codePoint >> 18));
+            out[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            out[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            out[this.position++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            out[this.position++] = '?';
+        } else {
+            out[this.position++] = (byte) (0xe0 | (c >> 12));
+            out[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            out[this.position++] = (byte) (0x80 | (c & 0x3f));
+        }
+
+        return i;
+    }
+
+    private void ascii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            this.buffer[this.position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void write(byte b) {
+        ensureCapacity(1);
+        this.buffer[this.position++] = b;
+    }
+
+    private void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, this.buffer, this.position, length);
+        this.position += length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (this.position + length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.max(this.position + length, this.buffer.length * 2));
+        }
+    }
+}
@@ -13,9 +13,15 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
+import java.util.Map.Entry;
 import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * The abstract ValueMapper used to convert a Protocol Buffer value into a JSON attribute.
@@ -24,6 +30,9 @@ import com.google.gson.JsonObject;
  */
 public abstract class ValueMapper {
 
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT =
+            new Gson().getAdapter(JsonElement.class);
+
     /**
      * Convert the value into an attribute in a JSON Object
      * 
@@ -40,4 +49,54 @@ public abstract class ValueMapper {
      * @param value the value
      */
     abstract void convert(JsonArray jsonArray, Value value);
+
+    /**
+     * Write the value as an attribute to the JSON Writer, including the attribute name
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    abstract void write(JsonWriter jsonWriter, String key, Value value) throws IOException;
+
+    /**
+     * Write the value as an entry in the array currently open on the JSON Writer
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    abstract void write(JsonWriter jsonWriter, Value value) throws IOException;
+
+    /**
+     * Write the attributes of a JSON Object to the JSON Writer.
+     * 
+     * This bridges mappers that only implement the JSON Object conversion to the streaming output.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param jsonObject the JSON Object
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    static void writeMembers(JsonWriter jsonWriter, JsonObject jsonObject) throws IOException {
+        for (Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            jsonWriter.name(entry.getKey());
+            JSON_ELEMENT.write(jsonWriter, entry.getValue());
+        }
+    }
+
+    /**
+     * Write the entries of a JSON Array to the JSON Writer.
+     * 
+     * This bridges mappers that only implement the JSON Array conversion to the streaming output.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param jsonArray the JSON Array
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    static void writeElements(JsonWriter jsonWriter, JsonArray jsonArray) throws IOException {
+        for (JsonElement jsonElement : jsonArray) {
+            JSON_ELEMENT.write(jsonWriter, jsonElement);
+        }
+    }
 }
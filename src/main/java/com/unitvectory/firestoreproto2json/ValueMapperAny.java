@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The abstract ValueMapper for converting a protocol buffer Value of any type into a JSON
+ * attribute.
+ * 
+ * Registered for a field path or value type in {@link FieldMappers}, it replaces the conversion
+ * of the entire value, including the fields of a map and the entries of an array. Writing nothing
+ * omits the field.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public abstract class ValueMapperAny extends ValueMapper {
+
+    /**
+     * Convert the value into an attribute in a JSON Object
+     * 
+     * @param jsonObject the JSON Object
+     * @param key the key
+     * @param value the value
+     */
+    @Override
+    public abstract void convert(JsonObject jsonObject, String key, Value value);
+
+    /**
+     * Convert the value into an entry in the JSONArray
+     * 
+     * @param jsonArray the JSON Array
+     * @param value the value
+     */
+    @Override
+    public abstract void convert(JsonArray jsonArray, Value value);
+
+    /**
+     * Write the value as an attribute to the JSON Writer, including the attribute name.
+     * 
+     * The default implementation delegates to {@link #convert(JsonObject, String, Value)};
+     * subclasses should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    @Override
+    public void write(JsonWriter jsonWriter, String key, Value value) throws IOException {
+        JsonObject jsonObject = new JsonObject();
+        convert(jsonObject, key, value);
+        writeMembers(jsonWriter, jsonObject);
+    }
+
+    /**
+     * Write the value as an entry in the array currently open on the JSON Writer.
+     * 
+     * The default implementation delegates to {@link #convert(JsonArray, Value)}; subclasses
+     * should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param value the value
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    @Override
+    public void write(JsonWriter jsonWriter, Value value) throws IOException {
+        JsonArray jsonArray = new JsonArray();
+        convert(jsonArray, value);
+        writeElements(jsonWriter, jsonArray);
+    }
+}
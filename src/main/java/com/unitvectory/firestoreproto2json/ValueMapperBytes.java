@@ -13,25 +13,102 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import com.google.events.cloud.firestore.v1.Value;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
 
 /**
  * The abstract ValueMapperGeoPoint for converting a protocol buffer Bytes into a JSON attribute.
  * 
+ * The conversions receive the ByteString of the value, which by default is copied into a byte
+ * array for the byte array methods. A mapper overriding the ByteString methods reads the bytes
+ * without the copy; the ByteString may share the buffer of the input and must not be retained
+ * after the call.
+ * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 public abstract class ValueMapperBytes extends ValueMapper {
 
     @Override
     void convert(JsonObject jsonObject, String key, Value value) {
-        convert(jsonObject, key, value.getBytesValue().toByteArray());
+        convert(jsonObject, key, value.getBytesValue());
     }
 
     @Override
     void convert(JsonArray jsonArray, Value value) {
-        convert(jsonArray, value.getBytesValue().toByteArray());
+        convert(jsonArray, value.getBytesValue());
+    }
+
+    @Override
+    void write(JsonWriter jsonWriter, String key, Value value) throws IOException {
+        write(jsonWriter, key, value.getBytesValue());
+    }
+
+    @Override
+    void write(JsonWriter jsonWriter, Value value) throws IOException {
+        write(jsonWriter, value.getBytesValue());
+    }
+
+    /**
+     * Convert the bytes into an attribute in a JSON Object.
+     * 
+     * The default implementation copies the bytes and delegates to
+     * {@link #convert(JsonObject, String, byte[])}.
+     * 
+     * @param jsonObject the JSON Object
+     * @param key the key
+     * @param bytes the bytes
+     */
+    public void convert(JsonObject jsonObject, String key, ByteString bytes) {
+        convert(jsonObject, key, bytes.toByteArray());
+    }
+
+    /**
+     * Convert the bytes into an entry in the JSONArray.
+     * 
+     * The default implementation copies the bytes and delegates to
+     * {@link #convert(JsonArray, byte[])}.
+     * 
+     * @param jsonArray the JSON Array
+     * @param bytes the bytes
+     */
+    public void convert(JsonArray jsonArray, ByteString bytes) {
+        convert(jsonArray, bytes.toByteArray());
+    }
+
+    /**
+     * Write the bytes as an attribute to the JSON Writer, including the attribute name.
+     * 
+     * The default implementation copies the bytes and delegates to
+     * {@link #write(JsonWriter, String, byte[])}.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, String key, ByteString bytes) throws IOException {
+        write(jsonWriter, key, bytes.toByteArray());
+    }
+
+    /**
+     * Write the bytes as an entry in the array currently open on the JSON Writer.
+     * 
+     * The default implementation copies the bytes and delegates to
+     * {@link #write(JsonWriter, byte[])}.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, ByteString bytes) throws IOException {
+        write(jsonWriter, bytes.toByteArray());
     }
 
     /**
@@ -50,4 +127,68 @@ public abstract class ValueMapperBytes extends ValueMapper {
      * @param bytes the bytes
      */
     public abstract void convert(JsonArray jsonArray, byte[] bytes);
+
+    /**
+     * Write the bytes as an attribute to the JSON Writer, including the attribute name.
+     * 
+     * The default implementation delegates to {@link #convert(JsonObject, String, byte[])};
+     * subclasses should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, String key, byte[] bytes) throws IOException {
+        JsonObject jsonObject = new JsonObject();
+        convert(jsonObject, key, bytes);
+        writeMembers(jsonWriter, jsonObject);
+    }
+
+    /**
+     * Write the bytes as an entry in the array currently open on the JSON Writer.
+     * 
+     * The default implementation delegates to {@link #convert(JsonArray, byte[])}; subclasses
+     * should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, byte[] bytes) throws IOException {
+        JsonArray jsonArray = new JsonArray();
+        convert(jsonArray, bytes);
+        writeElements(jsonWriter, jsonArray);
+    }
+
+    /**
+     * Write the bytes as a base64 encoded string value.
+     * 
+     * The JSON Writers created by this library receive the encoded characters in chunks without
+     * the base64 string being built; any other JSON Writer receives the encoded string.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param bytes the bytes
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    protected static void writeBase64(JsonWriter jsonWriter, ByteString bytes)
+            throws IOException {
+        if (jsonWriter instanceof StreamingJsonWriter) {
+            ((StreamingJsonWriter) jsonWriter).base64Value(bytes);
+        } else {
+            jsonWriter.value(base64(bytes));
+        }
+    }
+
+    /**
+     * Encode the bytes as a base64 string without first copying them into a byte array.
+     * 
+     * @param bytes the bytes
+     * @return the base64 string
+     */
+    protected static String base64(ByteString bytes) {
+        ByteBuffer encoded = Base64.getEncoder().encode(bytes.asReadOnlyByteBuffer());
+        return new String(encoded.array(), encoded.arrayOffset() + encoded.position(),
+                encoded.remaining(), StandardCharsets.ISO_8859_1);
+    }
 }
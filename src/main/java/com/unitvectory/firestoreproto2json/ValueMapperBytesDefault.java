@@ -13,30 +13,170 @@
  */
 package com.unitvectory.firestoreproto2json;
 
-import java.util.Base64;
+import java.io.IOException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 
 /**
  * The default Bytes ValueMapper.
  * 
+ * The bytes are written as the base64 encoded _byteString attribute. A maximum length can be set
+ * for documents carrying large blobs; a longer value is either truncated to its first bytes and
+ * marked with _truncated, or omitted and replaced by the _omitted placeholder. Both include the
+ * original _length.
+ * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 public class ValueMapperBytesDefault extends ValueMapperBytes {
 
+    /**
+     * The maximum number of bytes written; 0 for no limit.
+     */
+    private final int maxLength;
+
+    /**
+     * True to truncate a longer value; false to omit it.
+     */
+    private final boolean truncate;
+
+    /**
+     * Creates a new instance of the ValueMapperBytesDefault.
+     */
+    public ValueMapperBytesDefault() {
+        this(0, false);
+    }
+
+    /**
+     * Creates a new instance of the ValueMapperBytesDefault with a maximum length.
+     * 
+     * @param maxLength the maximum number of bytes written; 0 for no limit
+     * @param truncate true to write the first bytes of a longer value; false to omit it
+     */
+    public ValueMapperBytesDefault(int maxLength, boolean truncate) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("maxLength must not be negative");
+        }
+
+        this.maxLength = maxLength;
+        this.truncate = truncate;
+    }
+
+    int getMaxLength() {
+        return this.maxLength;
+    }
+
+    boolean isTruncate() {
+        return this.truncate;
+    }
+
     @Override
     public void convert(JsonObject jsonObject, String key, byte[] bytes) {
-        jsonObject.add(key, convertBytes(bytes));
+        jsonObject.add(key, convertBytes(UnsafeByteOperations.unsafeWrap(bytes)));
     }
 
     @Override
     public void convert(JsonArray jsonArray, byte[] bytes) {
+        jsonArray.add(convertBytes(UnsafeByteOperations.unsafeWrap(bytes)));
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, String key, byte[] bytes) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, key, bytes);
+            return;
+        }
+
+        write(jsonWriter, key, UnsafeByteOperations.unsafeWrap(bytes));
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, byte[] bytes) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, bytes);
+            return;
+        }
+
+        write(jsonWriter, UnsafeByteOperations.unsafeWrap(bytes));
+    }
+
+    @Override
+    public void convert(JsonObject jsonObject, String key, ByteString bytes) {
+        if (isSubclass()) {
+            super.convert(jsonObject, key, bytes);
+            return;
+        }
+
+        jsonObject.add(key, convertBytes(bytes));
+    }
+
+    @Override
+    public void convert(JsonArray jsonArray, ByteString bytes) {
+        if (isSubclass()) {
+            super.convert(jsonArray, bytes);
+            return;
+        }
+
         jsonArray.add(convertBytes(bytes));
     }
 
-    private JsonObject convertBytes(byte[] bytes) {
+    @Override
+    public void write(JsonWriter jsonWriter, String key, ByteString bytes) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, key, bytes);
+            return;
+        }
+
+        jsonWriter.name(key);
+        write(jsonWriter, bytes);
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, ByteString bytes) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, bytes);
+            return;
+        }
+
+        jsonWriter.beginObject();
+        if (this.maxLength == 0 || bytes.size() <= this.maxLength) {
+            jsonWriter.name("_byteString");
+            writeBase64(jsonWriter, bytes);
+        } else if (this.truncate) {
+            jsonWriter.name("_byteString");
+            writeBase64(jsonWriter, bytes.substring(0, this.maxLength));
+            jsonWriter.name("_truncated").value(true);
+            jsonWriter.name("_length").value(bytes.size());
+        } else {
+            jsonWriter.name("_omitted").value(true);
+            jsonWriter.name("_length").value(bytes.size());
+        }
+
+        jsonWriter.endObject();
+    }
+
+    /**
+     * A subclass may customize the byte array convert methods, so it is written through them.
+     */
+    private boolean isSubclass() {
+        return getClass() != ValueMapperBytesDefault.class;
+    }
+
+    private JsonObject convertBytes(ByteString bytes) {
         JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("_byteString", Base64.getEncoder().encodeToString(bytes));
+        if (this.maxLength == 0 || bytes.size() <= this.maxLength) {
+            jsonObject.addProperty("_byteString", base64(bytes));
+        } else if (this.truncate) {
+            jsonObject.addProperty("_byteString", base64(bytes.substring(0, this.maxLength)));
+            jsonObject.addProperty("_truncated", true);
+            jsonObject.addProperty("_length", bytes.size());
+        } else {
+            jsonObject.addProperty("_omitted", true);
+            jsonObject.addProperty("_length", bytes.size());
+        }
+
         return jsonObject;
     }
 
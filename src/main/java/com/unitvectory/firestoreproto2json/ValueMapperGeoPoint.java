@@ -13,9 +13,11 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
 import com.google.events.cloud.firestore.v1.Value;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.google.type.LatLng;
 
 /**
@@ -35,6 +37,16 @@ public abstract class ValueMapperGeoPoint extends ValueMapper {
         convert(jsonArray, value.getGeoPointValue());
     }
 
+    @Override
+    final void write(JsonWriter jsonWriter, String key, Value value) throws IOException {
+        write(jsonWriter, key, value.getGeoPointValue());
+    }
+
+    @Override
+    final void write(JsonWriter jsonWriter, Value value) throws IOException {
+        write(jsonWriter, value.getGeoPointValue());
+    }
+
     /**
      * Convert the geopoint into an attribute in a JSON Object
      * 
@@ -52,4 +64,36 @@ public abstract class ValueMapperGeoPoint extends ValueMapper {
      */
     public abstract void convert(JsonArray jsonArray, LatLng geopoint);
 
+    /**
+     * Write the geopoint as an attribute to the JSON Writer, including the attribute name.
+     * 
+     * The default implementation delegates to {@link #convert(JsonObject, String, LatLng)};
+     * subclasses should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param geopoint the geopoint
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, String key, LatLng geopoint) throws IOException {
+        JsonObject jsonObject = new JsonObject();
+        convert(jsonObject, key, geopoint);
+        writeMembers(jsonWriter, jsonObject);
+    }
+
+    /**
+     * Write the geopoint as an entry in the array currently open on the JSON Writer.
+     * 
+     * The default implementation delegates to {@link #convert(JsonArray, LatLng)}; subclasses
+     * should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param geopoint the geopoint
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, LatLng geopoint) throws IOException {
+        JsonArray jsonArray = new JsonArray();
+        convert(jsonArray, geopoint);
+        writeElements(jsonWriter, jsonArray);
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.type.LatLng;
+
+/**
+ * The GeoPoint ValueMapper writing the compact array <code>[longitude, latitude]</code>.
+ * 
+ * The order is the same as the coordinates of GeoJSON.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ValueMapperGeoPointArray extends ValueMapperGeoPoint {
+
+    @Override
+    public final void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+        jsonObject.add(key, coordinates(geopoint));
+    }
+
+    @Override
+    public final void convert(JsonArray jsonArray, LatLng geopoint) {
+        jsonArray.add(coordinates(geopoint));
+    }
+
+    @Override
+    public final void write(JsonWriter jsonWriter, String key, LatLng geopoint)
+            throws IOException {
+        jsonWriter.name(key);
+        write(jsonWriter, geopoint);
+    }
+
+    @Override
+    public final void write(JsonWriter jsonWriter, LatLng geopoint) throws IOException {
+        jsonWriter.beginArray();
+        jsonWriter.value(geopoint.getLongitude());
+        jsonWriter.value(geopoint.getLatitude());
+        jsonWriter.endArray();
+    }
+
+    /**
+     * Create the array of the longitude and latitude.
+     * 
+     * @param geopoint the GeoPoint
+     * @return the coordinates
+     */
+    static JsonArray coordinates(LatLng geopoint) {
+        JsonArray jsonArray = new JsonArray(2);
+        jsonArray.add(geopoint.getLongitude());
+        jsonArray.add(geopoint.getLatitude());
+        return jsonArray;
+    }
+}
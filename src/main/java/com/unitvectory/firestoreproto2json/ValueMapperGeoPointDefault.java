@@ -13,8 +13,10 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.google.type.LatLng;
 
 /**
@@ -34,6 +36,37 @@ public class ValueMapperGeoPointDefault extends ValueMapperGeoPoint {
         jsonArray.add(convert(geopoint));
     }
 
+    @Override
+    public void write(JsonWriter jsonWriter, String key, LatLng geopoint) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, key, geopoint);
+            return;
+        }
+
+        jsonWriter.name(key);
+        write(jsonWriter, geopoint);
+    }
+
+    @Override
+    public void write(JsonWriter jsonWriter, LatLng geopoint) throws IOException {
+        if (isSubclass()) {
+            super.write(jsonWriter, geopoint);
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("latitude").value(geopoint.getLatitude());
+        jsonWriter.name("longitude").value(geopoint.getLongitude());
+        jsonWriter.endObject();
+    }
+
+    /**
+     * A subclass may customize the convert methods, so it is written through them.
+     */
+    private boolean isSubclass() {
+        return getClass() != ValueMapperGeoPointDefault.class;
+    }
+
     private JsonObject convert(LatLng geopoint) {
         JsonObject jsonObject = new JsonObject();
         jsonObject.addProperty("latitude", geopoint.getLatitude());
@@ -13,9 +13,11 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
 import com.google.events.cloud.firestore.v1.Value;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.google.protobuf.Timestamp;
 
 /**
@@ -36,6 +38,16 @@ public abstract class ValueMapperTimestamp extends ValueMapper {
         convert(jsonArray, value.getTimestampValue());
     }
 
+    @Override
+    final void write(JsonWriter jsonWriter, String key, Value value) throws IOException {
+        write(jsonWriter, key, value.getTimestampValue());
+    }
+
+    @Override
+    final void write(JsonWriter jsonWriter, Value value) throws IOException {
+        write(jsonWriter, value.getTimestampValue());
+    }
+
     /**
      * Convert the timestamp into an attribute in a JSON Object
      * 
@@ -53,4 +65,36 @@ public abstract class ValueMapperTimestamp extends ValueMapper {
      */
     public abstract void convert(JsonArray jsonArray, Timestamp timestamp);
 
+    /**
+     * Write the timestamp as an attribute to the JSON Writer, including the attribute name.
+     * 
+     * The default implementation delegates to {@link #convert(JsonObject, String, Timestamp)};
+     * subclasses should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param key the key
+     * @param timestamp the timestamp
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, String key, Timestamp timestamp) throws IOException {
+        JsonObject jsonObject = new JsonObject();
+        convert(jsonObject, key, timestamp);
+        writeMembers(jsonWriter, jsonObject);
+    }
+
+    /**
+     * Write the timestamp as an entry in the array currently open on the JSON Writer.
+     * 
+     * The default implementation delegates to {@link #convert(JsonArray, Timestamp)}; subclasses
+     * should override this to write directly to the JSON Writer.
+     * 
+     * @param jsonWriter the JSON Writer
+     * @param timestamp the timestamp
+     * @throws IOException exception thrown when writing to the JSON Writer fails
+     */
+    public void write(JsonWriter jsonWriter, Timestamp timestamp) throws IOException {
+        JsonArray jsonArray = new JsonArray();
+        convert(jsonArray, timestamp);
+        writeElements(jsonWriter, jsonArray);
+    }
 }
@@ -13,11 +13,14 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.google.protobuf.Timestamp;
 
 /**
@@ -29,11 +32,22 @@ public class ValueMapperTimestampDefault extends ValueMapperTimestamp {
 
     private static final String DEFAULT_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
 
+    /**
+     * The buffer the arithmetic formatter writes to, shared by all instances on a thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER =
+            ThreadLocal.withInitial(() -> new byte[TimestampFormat.MAX_LENGTH]);
+
     /**
      * The DateTimeFormatter.
      */
     private final DateTimeFormatter formatter;
 
+    /**
+     * The arithmetic formatter used instead of the DateTimeFormatter if the pattern is supported.
+     */
+    private final TimestampFormat timestampFormat;
+
     /**
      * Creates a new instance of the ValueMapperTimestampDefault.
      */
@@ -58,6 +72,7 @@ public class ValueMapperTimestampDefault extends ValueMapperTimestamp {
      */
     public ValueMapperTimestampDefault(String pattern, ZoneOffset offset) {
         this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(offset);
+        this.timestampFormat = TimestampFormat.of(pattern, offset);
     }
 
     @Override
@@ -72,11 +87,55 @@ public class ValueMapperTimestampDefault extends ValueMapperTimestamp {
         jsonArray.add(convert);
     }
 
+    @Override
+    public final void write(JsonWriter jsonWriter, String key, Timestamp timestamp)
+            throws IOException {
+        jsonWriter.name(key).value(formatTimestamp(timestamp));
+    }
+
+    @Override
+    public final void write(JsonWriter jsonWriter, Timestamp timestamp) throws IOException {
+        jsonWriter.value(formatTimestamp(timestamp));
+    }
+
     private String formatTimestamp(Timestamp timestamp) {
+        return formatTimestamp(timestamp.getSeconds(), timestamp.getNanos());
+    }
+
+    /**
+     * Format the timestamp from its seconds and nanos.
+     * 
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second
+     * @return the formatted timestamp
+     */
+    String formatTimestamp(long seconds, int nanos) {
+        if (this.timestampFormat != null) {
+            byte[] buffer = BUFFER.get();
+            int length = this.timestampFormat.format(seconds, nanos, buffer);
+            if (length >= 0) {
+                return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+            }
+        }
+
         // Convert the Timestamp to an Instant
-        Instant instant = Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+        Instant instant = Instant.ofEpochSecond(seconds, nanos);
 
         // Now format the instant
         return this.formatter.format(instant);
     }
+
+    /**
+     * Format the timestamp from its seconds and nanos as ASCII into the buffer if the pattern and
+     * timestamp are supported by the arithmetic formatter.
+     * 
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second
+     * @param buffer the buffer of at least TimestampFormat.MAX_LENGTH bytes
+     * @return the number of bytes written; -1 if formatTimestamp must be used instead
+     */
+    int formatTimestamp(long seconds, int nanos, byte[] buffer) {
+        return this.timestampFormat == null ? -1
+                : this.timestampFormat.format(seconds, nanos, buffer);
+    }
 }
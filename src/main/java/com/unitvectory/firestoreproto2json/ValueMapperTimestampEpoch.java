@@ -0,0 +1,331 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.Timestamp;
+
+/**
+ * The timestamp ValueMapper writing the time since the epoch as a number.
+ * 
+ * The number counts seconds, milliseconds, microseconds or nanoseconds. By default the fraction
+ * of the unit is truncated, rounding down the same as {@link java.time.Instant#toEpochMilli()}, so
+ * the number is an integer. An exact mapper writes the fraction as the decimal digits of the
+ * remaining nanoseconds instead, such as <code>1709251200123.456</code> milliseconds. The number
+ * is computed arithmetically without creating an Instant; the streaming conversions write an
+ * integer directly.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ValueMapperTimestampEpoch extends ValueMapperTimestamp {
+
+    /**
+     * The maximum length of a formatted number: the sign, the digits of the seconds and the nine
+     * digits of the nanoseconds with a decimal point.
+     */
+    static final int MAX_LENGTH = 40;
+
+    private static final int NANOS_PER_SECOND = 1000000000;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+            10000000L, 100000000L, 1000000000L};
+
+    /**
+     * The buffer numbers are formatted into, shared by all instances on a thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER =
+            ThreadLocal.withInitial(() -> new byte[MAX_LENGTH]);
+
+    private final TimeUnit unit;
+
+    private final boolean exact;
+
+    /**
+     * The number of digits of the nanoseconds that are part of the integer.
+     */
+    private final int integerDigits;
+
+    private final long unitsPerSecond;
+
+    private final int nanosPerUnit;
+
+    /**
+     * The largest number of seconds, in magnitude, that is computed as a long.
+     */
+    private final long maxSeconds;
+
+    /**
+     * Creates a new instance of the ValueMapperTimestampEpoch writing truncated milliseconds.
+     */
+    public ValueMapperTimestampEpoch() {
+        this(TimeUnit.MILLISECONDS, false);
+    }
+
+    /**
+     * Creates a new instance of the ValueMapperTimestampEpoch writing the truncated unit.
+     * 
+     * @param unit the unit of SECONDS, MILLISECONDS, MICROSECONDS or NANOSECONDS
+     */
+    public ValueMapperTimestampEpoch(TimeUnit unit) {
+        this(unit, false);
+    }
+
+    /**
+     * Creates a new instance of the ValueMapperTimestampEpoch.
+     * 
+     * @param unit the unit of SECONDS, MILLISECONDS, MICROSECONDS or NANOSECONDS
+     * @param exact true to write the fraction of the unit; false to truncate it
+     */
+    public ValueMapperTimestampEpoch(TimeUnit unit, boolean exact) {
+        switch (unit) {
+            case SECONDS:
+                this.integerDigits = 0;
+                break;
+            case MILLISECONDS:
+                this.integerDigits = 3;
+                break;
+            case MICROSECONDS:
+                this.integerDigits = 6;
+                break;
+            case NANOSECONDS:
+                this.integerDigits = 9;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported unit: " + unit);
+        }
+
+        this.unit = unit;
+        this.exact = exact;
+        this.unitsPerSecond = POWERS_OF_TEN[this.integerDigits];
+        this.nanosPerUnit = (int) POWERS_OF_TEN[9 - this.integerDigits];
+        this.maxSeconds = Long.MAX_VALUE / this.unitsPerSecond - 1;
+    }
+
+    /**
+     * Get the unit of the number.
+     * 
+     * @return the unit
+     */
+    public TimeUnit getUnit() {
+        return this.unit;
+    }
+
+    /**
+     * Check if the fraction of the unit is written.
+     * 
+     * @return true if the fraction is written; false if it is truncated
+     */
+    public boolean isExact() {
+        return this.exact;
+    }
+
+    @Override
+    public final void convert(JsonObject jsonObject, String key, Timestamp timestamp) {
+        long seconds = timestamp.getSeconds();
+        int nanos = timestamp.getNanos();
+        if (isLong(seconds, nanos)) {
+            jsonObject.addProperty(key, toLong(seconds, nanos));
+        } else {
+            jsonObject.addProperty(key, new DecimalNumber(formatNumber(seconds, nanos)));
+        }
+    }
+
+    @Override
+    public final void convert(JsonArray jsonArray, Timestamp timestamp) {
+        long seconds = timestamp.getSeconds();
+        int nanos = timestamp.getNanos();
+        if (isLong(seconds, nanos)) {
+            jsonArray.add(toLong(seconds, nanos));
+        } else {
+            jsonArray.add(new DecimalNumber(formatNumber(seconds, nanos)));
+        }
+    }
+
+    @Override
+    public final void write(JsonWriter jsonWriter, String key, Timestamp timestamp)
+            throws IOException {
+        jsonWriter.name(key);
+        write(jsonWriter, timestamp);
+    }
+
+    @Override
+    public final void write(JsonWriter jsonWriter, Timestamp timestamp) throws IOException {
+        long seconds = timestamp.getSeconds();
+        int nanos = timestamp.getNanos();
+        if (isLong(seconds, nanos)) {
+            jsonWriter.value(toLong(seconds, nanos));
+        } else {
+            jsonWriter.jsonValue(formatNumber(seconds, nanos));
+        }
+    }
+
+    /**
+     * Check if the number is an integer that fits in a long.
+     * 
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second
+     * @return true if {@link #toLong(long, int)} computes the number
+     */
+    boolean isLong(long seconds, int nanos) {
+        return nanos >= 0 && nanos < NANOS_PER_SECOND && seconds >= -this.maxSeconds
+                && seconds <= this.maxSeconds && (!this.exact || nanos % this.nanosPerUnit == 0);
+    }
+
+    /**
+     * Compute the number as a long.
+     * 
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second, from 0 to 999,999,999
+     * @return the number of units since the epoch
+     */
+    long toLong(long seconds, int nanos) {
+        // The nanos are never negative so the division rounds down
+        return seconds * this.unitsPerSecond + nanos / this.nanosPerUnit;
+    }
+
+    /**
+     * A decimal number that keeps its plain digits, which a BigDecimal would write with an
+     * exponent when it is close to zero.
+     */
+    private static final class DecimalNumber extends Number {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String digits;
+
+        private DecimalNumber(String digits) {
+            this.digits = digits;
+        }
+
+        @Override
+        public int intValue() {
+            return new BigDecimal(this.digits).intValue();
+        }
+
+        @Override
+        public long longValue() {
+            return new BigDecimal(this.digits).longValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(this.digits);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(this.digits);
+        }
+
+        @Override
+        public String toString() {
+            return this.digits;
+        }
+    }
+
+    private String formatNumber(long seconds, int nanos) {
+        byte[] buffer = BUFFER.get();
+        int length = format(seconds, nanos, buffer);
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Format the number as ASCII into the buffer.
+     * 
+     * The digits are written from the seconds and nanos so numbers beyond the range of a long,
+     * which no valid Firestore timestamp reaches, are formatted exactly.
+     * 
+     * @param seconds the seconds since the epoch
+     * @param nanos the nanos of the second
+     * @param buffer the buffer of at least MAX_LENGTH bytes
+     * @return the number of bytes written
+     */
+    int format(long seconds, int nanos, byte[] buffer) {
+        // Nanos outside of the range are normalized the same as by Instant.ofEpochSecond
+        seconds += Math.floorDiv(nanos, NANOS_PER_SECOND);
+        nanos = Math.floorMod(nanos, NANOS_PER_SECOND);
+        if (!this.exact) {
+            nanos -= nanos % this.nanosPerUnit;
+        }
+
+        int position = 0;
+        long magnitude = seconds;
+        if (seconds < 0) {
+            buffer[position++] = '-';
+            if (nanos > 0) {
+                magnitude = -(seconds + 1);
+                nanos = NANOS_PER_SECOND - nanos;
+            } else {
+                // The magnitude of Long.MIN_VALUE is formatted as an unsigned long
+                magnitude = -seconds;
+            }
+        }
+
+        long integer = nanos / this.nanosPerUnit;
+        long fraction = nanos % this.nanosPerUnit;
+        if (magnitude != 0) {
+            position = digits(magnitude, buffer, position);
+            position = padded(integer, this.integerDigits, buffer, position);
+        } else {
+            position = digits(integer, buffer, position);
+        }
+
+        if (fraction != 0) {
+            buffer[position++] = '.';
+            int fractionDigits = 9 - this.integerDigits;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+
+            position = padded(fraction, fractionDigits, buffer, position);
+        }
+
+        return position;
+    }
+
+    /**
+     * Write the digits of the value treated as unsigned.
+     */
+    private static int digits(long value, byte[] buffer, int position) {
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + Long.remainderUnsigned(value, 10));
+            value = Long.divideUnsigned(value, 10);
+        } while (value != 0);
+
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+
+        return position;
+    }
+
+    private static int padded(long value, int length, byte[] buffer, int position) {
+        for (int i = position + length - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return position + length;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Base64Decoder tests comparing the output with java.util.Base64.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class Base64DecoderTest {
+
+    @Test
+    public void decodeMatchesJdkTest() {
+        Random random = new Random(42);
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            String padded = Base64.getEncoder().encodeToString(bytes);
+            String unpadded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+
+            assertArrayEquals(bytes, decode(padded));
+            assertArrayEquals(bytes, decode(unpadded));
+            assertArrayEquals(bytes, decodeBuffer(padded));
+            assertArrayEquals(bytes, decodeBuffer(unpadded));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"A", "AB=", "ABC==", "A===", "AB==C", "AB-C", "AB C", "ABCD=",
+            "AB\u0100C"})
+    public void decodeInvalidTest(String base64) {
+        assertThrows(IllegalArgumentException.class, () -> Base64.getDecoder().decode(base64));
+        assertThrows(IllegalArgumentException.class, () -> decode(base64));
+        if (base64.chars().allMatch(c -> c < 0x80)) {
+            assertThrows(IllegalArgumentException.class, () -> decodeBuffer(base64));
+        }
+    }
+
+    private static byte[] decode(String base64) {
+        byte[] dst = new byte[base64.length()];
+        return Arrays.copyOf(dst, Base64Decoder.decode(base64, dst));
+    }
+
+    private static byte[] decodeBuffer(String base64) {
+        byte[] dst = new byte[base64.length()];
+        ByteBuffer src = ByteBuffer.allocateDirect(base64.length() + 2);
+        src.put((byte) 'x').put(base64.getBytes(StandardCharsets.US_ASCII)).flip();
+        src.position(1);
+        return Arrays.copyOf(dst, Base64Decoder.decode(src, dst));
+    }
+}
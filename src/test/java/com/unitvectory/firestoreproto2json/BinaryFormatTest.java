@@ -0,0 +1,342 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests the CBOR and MessagePack output has the same structure as the JSON conversion.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class BinaryFormatTest {
+
+    private static final FirestoreProto2Json CUSTOM = FirestoreProto2Json.builder()
+            .valueMapperTimestamp(new ValueMapperTimestampDefault("yyyy"))
+            .valueMapperGeoPoint(new ValueMapperGeoPoint() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+                    jsonObject.addProperty(key + "_lat", geopoint.getLatitude());
+                    jsonObject.addProperty(key + "_lng", geopoint.getLongitude());
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, LatLng geopoint) {
+                    jsonArray.add(geopoint.getLatitude());
+                    jsonArray.add(geopoint.getLongitude());
+                }
+            }).valueMapperBytes(new ValueMapperBytes() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                    jsonObject.addProperty(key, HexFormat.of().formatHex(bytes));
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, byte[] bytes) {}
+            }).build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Decode CBOR or MessagePack into JSON, turning byte strings back into the _byteString object
+     * of the default bytes mapper so the result can be compared to the JSON conversion.
+     */
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+
+        private final boolean cbor;
+
+        private Decoder(byte[] bytes, BinaryFormat binaryFormat) {
+            this.buffer = ByteBuffer.wrap(bytes);
+            this.cbor = binaryFormat == BinaryFormat.CBOR;
+        }
+
+        private static JsonElement decode(byte[] bytes, BinaryFormat binaryFormat) {
+            Decoder decoder = new Decoder(bytes, binaryFormat);
+            JsonElement jsonElement = decoder.cbor ? decoder.cbor() : decoder.messagePack();
+            assertFalse(decoder.buffer.hasRemaining());
+            return jsonElement;
+        }
+
+        private JsonElement cbor() {
+            int initial = this.buffer.get() & 0xff;
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+            if (major == 7) {
+                return switch (info) {
+                    case 20 -> new JsonPrimitive(false);
+                    case 21 -> new JsonPrimitive(true);
+                    case 22 -> JsonNull.INSTANCE;
+                    case 27 -> new JsonPrimitive(this.buffer.getDouble());
+                    default -> throw new IllegalStateException("simple " + info);
+                };
+            }
+
+            long argument = info < 24 ? info
+                    : info == 24 ? this.buffer.get() & 0xff
+                            : info == 25 ? this.buffer.getShort() & 0xffff
+                                    : info == 26 ? this.buffer.getInt() & 0xffffffffL
+                                            : this.buffer.getLong();
+            return switch (major) {
+                case 0 -> new JsonPrimitive(argument);
+                case 1 -> new JsonPrimitive(-1 - argument);
+                case 2 -> byteString(bytes((int) argument));
+                case 3 -> new JsonPrimitive(
+                        new String(bytes((int) argument), StandardCharsets.UTF_8));
+                case 4 -> {
+                    JsonArray jsonArray = new JsonArray();
+                    for (long i = 0; i < argument; i++) {
+                        jsonArray.add(cbor());
+                    }
+                    yield jsonArray;
+                }
+                default -> {
+                    JsonObject jsonObject = new JsonObject();
+                    for (long i = 0; i < argument; i++) {
+                        jsonObject.add(cbor().getAsString(), cbor());
+                    }
+                    yield jsonObject;
+                }
+            };
+        }
+
+        private JsonElement messagePack() {
+            int b = this.buffer.get() & 0xff;
+            if (b < 0x80) {
+                return new JsonPrimitive((long) b);
+            } else if (b >= 0xe0) {
+                return new JsonPrimitive((long) (byte) b);
+            } else if (b < 0x90) {
+                return map(b & 0x0f);
+            } else if (b < 0xa0) {
+                return array(b & 0x0f);
+            } else if (b < 0xc0) {
+                return string(b & 0x1f);
+            }
+
+            return switch (b) {
+                case 0xc0 -> JsonNull.INSTANCE;
+                case 0xc2 -> new JsonPrimitive(false);
+                case 0xc3 -> new JsonPrimitive(true);
+                case 0xc4 -> byteString(bytes(this.buffer.get() & 0xff));
+                case 0xc5 -> byteString(bytes(this.buffer.getShort() & 0xffff));
+                case 0xc6 -> byteString(bytes(this.buffer.getInt()));
+                case 0xcb -> new JsonPrimitive(this.buffer.getDouble());
+                case 0xcc -> new JsonPrimitive((long) (this.buffer.get() & 0xff));
+                case 0xcd -> new JsonPrimitive((long) (this.buffer.getShort() & 0xffff));
+                case 0xce -> new JsonPrimitive(this.buffer.getInt() & 0xffffffffL);
+                case 0xcf, 0xd3 -> new JsonPrimitive(this.buffer.getLong());
+                case 0xd0 -> new JsonPrimitive((long) this.buffer.get());
+                case 0xd1 -> new JsonPrimitive((long) this.buffer.getShort());
+                case 0xd2 -> new JsonPrimitive((long) this.buffer.getInt());
+                case 0xd9 -> string(this.buffer.get() & 0xff);
+                case 0xda -> string(this.buffer.getShort() & 0xffff);
+                case 0xdb -> string(this.buffer.getInt());
+                case 0xdc -> array(this.buffer.getShort() & 0xffff);
+                case 0xdd -> array(this.buffer.getInt());
+                case 0xde -> map(this.buffer.getShort() & 0xffff);
+                case 0xdf -> map(this.buffer.getInt());
+                default -> throw new IllegalStateException("type " + b);
+            };
+        }
+
+        private JsonObject map(int size) {
+            JsonObject jsonObject = new JsonObject();
+            for (int i = 0; i < size; i++) {
+                jsonObject.add(messagePack().getAsString(), messagePack());
+            }
+            return jsonObject;
+        }
+
+        private JsonArray array(int size) {
+            JsonArray jsonArray = new JsonArray();
+            for (int i = 0; i < size; i++) {
+                jsonArray.add(messagePack());
+            }
+            return jsonArray;
+        }
+
+        private JsonPrimitive string(int length) {
+            return new JsonPrimitive(new String(bytes(length), StandardCharsets.UTF_8));
+        }
+
+        private byte[] bytes(int length) {
+            byte[] bytes = new byte[length];
+            this.buffer.get(bytes);
+            return bytes;
+        }
+
+        private static JsonObject byteString(byte[] bytes) {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.addProperty("_byteString", Base64.getEncoder().encodeToString(bytes));
+            return jsonObject;
+        }
+    }
+
+    private static void assertSameStructure(FirestoreProto2Json firestoreProto2Json,
+            byte[] documentBytes) throws Exception {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        for (BinaryFormat binaryFormat : BinaryFormat.values()) {
+            byte[] value = firestoreProto2Json.valueToBinary(documentBytes, binaryFormat);
+            byte[] oldValue = firestoreProto2Json.oldValueToBinary(documentBytes, binaryFormat);
+            assertEquals(firestoreProto2Json.valueToJsonObject(documentEventData),
+                    value == null ? null : Decoder.decode(value, binaryFormat));
+            assertEquals(firestoreProto2Json.oldValueToJsonObject(documentEventData),
+                    oldValue == null ? null : Decoder.decode(oldValue, binaryFormat));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            assertEquals(value != null, firestoreProto2Json.valueToBinary(documentEventData,
+                    binaryFormat, outputStream));
+            assertArrayEquals(value == null ? new byte[0] : value, outputStream.toByteArray());
+        }
+    }
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    private static Value integer(long value) {
+        return Value.newBuilder().setIntegerValue(value).build();
+    }
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void sameStructureAsJsonTest(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    mapper.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            byte[] documentBytes = Base64.getDecoder().decode(protocolBuffer);
+            assertSameStructure(FirestoreProto2Json.DEFAULT, documentBytes);
+            assertSameStructure(CUSTOM, documentBytes);
+        }
+    }
+
+    @Test
+    void lengthsTest() throws Exception {
+        // Lengths and integers at each boundary of the shortest encodings
+        Document.Builder document = Document.newBuilder();
+        ArrayValue.Builder integers = ArrayValue.newBuilder();
+        for (long boundary : new long[] {0, 15, 16, 23, 24, 31, 32, 127, 128, 255, 256, 65535,
+                65536, 4294967295L, 4294967296L, Long.MAX_VALUE}) {
+            integers.addValues(integer(boundary)).addValues(integer(-boundary))
+                    .addValues(integer(-boundary - 1));
+            if (boundary <= 65536) {
+                document.putFields("string" + boundary, string("x".repeat((int) boundary)));
+                document.putFields("bytes" + boundary, Value.newBuilder()
+                        .setBytesValue(ByteString.copyFrom(new byte[(int) boundary])).build());
+            }
+        }
+
+        MapValue.Builder large = MapValue.newBuilder();
+        ArrayValue.Builder elements = ArrayValue.newBuilder();
+        for (int i = 0; i < 70000; i++) {
+            large.putFields("field" + i, integer(i));
+            elements.addValues(Value.newBuilder().setBooleanValue(i % 2 == 0));
+        }
+
+        document.putFields("integers", Value.newBuilder().setArrayValue(integers).build())
+                .putFields("large", Value.newBuilder().setMapValue(large).build())
+                .putFields("elements", Value.newBuilder().setArrayValue(elements).build());
+        assertSameStructure(FirestoreProto2Json.DEFAULT,
+                DocumentEventData.newBuilder().setValue(document).build().toByteArray());
+    }
+
+    @Test
+    void encodingTest() throws Exception {
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("a", integer(1))).build();
+        assertEquals("a1616101", HexFormat.of().formatHex(
+                FirestoreProto2Json.DEFAULT.valueToBinary(documentEventData, BinaryFormat.CBOR)));
+        assertEquals("81a16101", HexFormat.of().formatHex(FirestoreProto2Json.DEFAULT
+                .valueToBinary(documentEventData, BinaryFormat.MESSAGE_PACK)));
+
+        // Bytes are written as raw binary instead of base64
+        documentEventData = DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .putFields("b", Value.newBuilder()
+                        .setBytesValue(ByteString.copyFrom(new byte[] {1, 2, 3})).build()))
+                .build();
+        assertEquals("a1616243010203", HexFormat.of().formatHex(
+                FirestoreProto2Json.DEFAULT.valueToBinary(documentEventData, BinaryFormat.CBOR)));
+        assertEquals("81a162c403010203", HexFormat.of().formatHex(FirestoreProto2Json.DEFAULT
+                .valueToBinary(documentEventData, BinaryFormat.MESSAGE_PACK)));
+    }
+
+    @Test
+    void streamingMappersTest() throws Exception {
+        // Mappers writing directly to the JSON Writer are encoded as they write
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperTimestamp(new ValueMapperTimestampEpoch(TimeUnit.SECONDS, true))
+                .valueMapperGeoPoint(new ValueMapperGeoPointGeoJson())
+                .valueMapperBytes(new ValueMapperBytesDefault(2, true)).build();
+        Value timestamp = Value.newBuilder().setTimestampValue(
+                Timestamp.newBuilder().setSeconds(1709251200L).setNanos(500000000)).build();
+        Value geoPoint = Value.newBuilder()
+                .setGeoPointValue(LatLng.newBuilder().setLatitude(1.5).setLongitude(-2)).build();
+        Value bytes = Value.newBuilder()
+                .setBytesValue(ByteString.copyFrom(new byte[] {1, 2, 3})).build();
+        Document document = Document.newBuilder().putFields("timestamp", timestamp)
+                .putFields("whole", Value.newBuilder()
+                        .setTimestampValue(Timestamp.newBuilder().setSeconds(60)).build())
+                .putFields("geoPoint", geoPoint).putFields("bytes", bytes)
+                .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                        .addValues(timestamp).addValues(geoPoint).addValues(bytes)).build())
+                .build();
+        assertSameStructure(converter,
+                DocumentEventData.newBuilder().setValue(document).build().toByteArray());
+    }
+
+    @Test
+    void projectionTest() throws Exception {
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .fieldProjection(FieldProjection.builder().include("keep").build()).build();
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("keep", string("yes"))
+                        .putFields("drop", string("no")))
+                .build();
+        for (BinaryFormat binaryFormat : BinaryFormat.values()) {
+            byte[] value = converter.valueToBinary(documentEventData, binaryFormat);
+            assertEquals(converter.valueToJsonObject(documentEventData),
+                    Decoder.decode(value, binaryFormat));
+            assertNull(converter.oldValueToBinary(documentEventData, binaryFormat));
+        }
+    }
+}
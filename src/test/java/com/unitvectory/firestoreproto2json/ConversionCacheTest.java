@@ -0,0 +1,231 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.Timestamp;
+
+/**
+ * Tests the conversion cache.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ConversionCacheTest {
+
+    private static Document document(String name, long updateTime, String value) {
+        return Document.newBuilder().setName("projects/p/databases/(default)/documents/c/" + name)
+                .setUpdateTime(Timestamp.newBuilder().setSeconds(updateTime))
+                .putFields("value", Value.newBuilder().setStringValue(value).build()).build();
+    }
+
+    private static FirestoreProto2Json converter(ConversionCache conversionCache) {
+        return FirestoreProto2Json.builder().conversionCache(conversionCache).build();
+    }
+
+    @Test
+    void documentTest() {
+        ConversionCache cache = ConversionCache.builder().maximumSize(100).build();
+        FirestoreProto2Json firestoreProto2Json = converter(cache);
+        Document first = document("d", 1, "first");
+        Document second = document("d", 2, "second");
+        DocumentEventData created = DocumentEventData.newBuilder().setValue(first).build();
+        DocumentEventData updated =
+                DocumentEventData.newBuilder().setValue(second).setOldValue(first).build();
+
+        String json = firestoreProto2Json.valueToJsonString(created);
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(created), json);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A duplicate delivery is not converted again
+        assertSame(json, firestoreProto2Json.valueToJsonString(created));
+        assertEquals(1, cache.getHitCount());
+
+        // The old value of the next event is the same version of the document
+        assertSame(json, firestoreProto2Json.oldValueToJsonString(updated));
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(updated),
+                firestoreProto2Json.valueToJsonString(updated));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+        assertEquals(0.5, cache.getHitRatio());
+
+        // Documents that cannot be identified are not cached
+        DocumentEventData anonymous = DocumentEventData.newBuilder()
+                .setValue(first.toBuilder().clearUpdateTime()).build();
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(anonymous),
+                firestoreProto2Json.valueToJsonString(anonymous));
+        assertEquals(2, cache.size());
+        assertEquals(4, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    void payloadTest() throws Exception {
+        ConversionCache cache = ConversionCache.builder().maximumWeight(1024 * 1024).build();
+        FirestoreProto2Json firestoreProto2Json = converter(cache);
+        byte[] payload = DocumentEventData.newBuilder().setValue(document("d", 1, "value"))
+                .setOldValue(document("d", 0, "old")).build().toByteArray();
+        byte[] value = FirestoreProto2Json.DEFAULT.valueToJsonBytes(payload);
+        byte[] oldValue = FirestoreProto2Json.DEFAULT.oldValueToJsonBytes(payload);
+
+        byte[] first = firestoreProto2Json.valueToJsonBytes(payload);
+        assertArrayEquals(value, first);
+        assertArrayEquals(oldValue, firestoreProto2Json.oldValueToJsonBytes(payload));
+        assertEquals(0, cache.getHitCount());
+
+        // The returned array is a copy so changing it does not change the cache
+        first[0] = 0;
+        assertArrayEquals(value, firestoreProto2Json.valueToJsonBytes(payload.clone()));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(firestoreProto2Json.oldValueToJson(payload, outputStream));
+        assertArrayEquals(oldValue, outputStream.toByteArray());
+        assertEquals(2, cache.getHitCount());
+
+        // The cached key is a copy so reusing the caller's buffer does not change the cache
+        byte[] other = DocumentEventData.newBuilder().setValue(document("d", 1, "VALUE")).build()
+                .toByteArray();
+        byte[] buffer = other.clone();
+        assertArrayEquals(FirestoreProto2Json.DEFAULT.valueToJsonBytes(other),
+                firestoreProto2Json.valueToJsonBytes(buffer));
+        System.arraycopy(payload, 0, buffer, 0, buffer.length);
+        assertArrayEquals(FirestoreProto2Json.DEFAULT.valueToJsonBytes(other),
+                firestoreProto2Json.valueToJsonBytes(other));
+        assertEquals(3, cache.getHitCount());
+
+        // A side that is not set is not cached
+        assertNull(firestoreProto2Json.oldValueToJsonBytes(other));
+        assertEquals(3, cache.size());
+        assertTrue(cache.getWeight() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    void sharedBetweenConvertersTest() {
+        ConversionCache cache = ConversionCache.builder().maximumSize(100).build();
+        FirestoreProto2Json first = converter(cache);
+        FirestoreProto2Json second = FirestoreProto2Json.builder().conversionCache(cache)
+                .fieldProjection(FieldProjection.builder().include("missing").build()).build();
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document("d", 1, "value")).build();
+        assertNotEquals(first.valueToJsonString(documentEventData),
+                second.valueToJsonString(documentEventData));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void evictionBySizeTest() {
+        ConversionCache cache = ConversionCache.builder().maximumSize(8).build();
+        FirestoreProto2Json firestoreProto2Json = converter(cache);
+        DocumentEventData recent =
+                DocumentEventData.newBuilder().setValue(document("recent", 1, "value")).build();
+        String json = firestoreProto2Json.valueToJsonString(recent);
+        for (int i = 0; i < 20; i++) {
+            firestoreProto2Json.valueToJsonString(
+                    DocumentEventData.newBuilder().setValue(document("d" + i, i, "value")).build());
+
+            // The entry used most recently is retained
+            assertSame(json, firestoreProto2Json.valueToJsonString(recent));
+        }
+
+        assertEquals(8, cache.size());
+        assertEquals(13, cache.getEvictionCount());
+    }
+
+    @Test
+    void evictionByWeightTest() {
+        ConversionCache cache = ConversionCache.builder().maximumWeight(64 * 1024).build();
+        FirestoreProto2Json firestoreProto2Json = converter(cache);
+        String large = "x".repeat(1000);
+        for (int i = 0; i < 1000; i++) {
+            firestoreProto2Json.valueToJsonString(
+                    DocumentEventData.newBuilder().setValue(document("d" + i, i, large)).build());
+        }
+
+        assertTrue(cache.getWeight() <= 64 * 1024, Long.toString(cache.getWeight()));
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(1000, cache.size() + cache.getEvictionCount());
+
+        // An entry larger than the cache is not cached
+        firestoreProto2Json.valueToJsonString(DocumentEventData.newBuilder()
+                .setValue(document("huge", 1, "x".repeat(64 * 1024))).build());
+        assertEquals(1000, cache.size() + cache.getEvictionCount());
+    }
+
+    @Test
+    void concurrentTest() throws Exception {
+        ConversionCache cache = ConversionCache.builder().maximumSize(64).build();
+        FirestoreProto2Json firestoreProto2Json = converter(cache);
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            payloads.add(DocumentEventData.newBuilder().setValue(document("d" + i, i, "v" + i))
+                    .build().toByteArray());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        byte[] payload = payloads.get(i % payloads.size());
+                        byte[] json = firestoreProto2Json.valueToJsonBytes(payload);
+                        assertArrayEquals(FirestoreProto2Json.DEFAULT.valueToJsonBytes(payload),
+                                json);
+                        assertNotSame(json, firestoreProto2Json.valueToJsonBytes(payload));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(cache.size() <= 64);
+        assertEquals(8 * 5000 * 2, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class, () -> ConversionCache.builder().build());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConversionCache.builder().maximumSize(-1).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConversionCache.builder().maximumSize(1).maximumWeight(-1).build());
+    }
+}
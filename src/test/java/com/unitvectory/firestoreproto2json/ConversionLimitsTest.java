@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonObject;
+
+/**
+ * Tests the conversion limits.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ConversionLimitsTest {
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    /**
+     * A document with a map nested to the depth, the innermost map holding a string.
+     */
+    private static DocumentEventData nested(int depth) {
+        Value value = string("leaf");
+        for (int i = 0; i < depth; i++) {
+            value = Value.newBuilder()
+                    .setMapValue(MapValue.newBuilder().putFields("m", value)).build();
+        }
+
+        return DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("root", value)).build();
+    }
+
+    private static FirestoreProto2Json converter(ConversionLimits conversionLimits) {
+        return FirestoreProto2Json.builder().conversionLimits(conversionLimits).build();
+    }
+
+    /**
+     * Assert every conversion of the value fails on the limit.
+     */
+    private static void assertExceeds(String limit, FirestoreProto2Json firestoreProto2Json,
+            DocumentEventData documentEventData) {
+        byte[] documentBytes = documentEventData.toByteArray();
+        Executable[] conversions = {() -> firestoreProto2Json.valueToJsonString(documentEventData),
+                () -> firestoreProto2Json.valueToJsonObject(documentEventData),
+                () -> firestoreProto2Json.valueToJson(documentEventData, new StringWriter()),
+                () -> firestoreProto2Json.valueToBinary(documentEventData, BinaryFormat.CBOR),
+                () -> firestoreProto2Json.valueToLazyJsonObject(documentEventData),
+                () -> firestoreProto2Json.valueToJsonBytes(documentBytes)};
+        for (Executable conversion : conversions) {
+            ConversionLimitException e =
+                    assertThrows(ConversionLimitException.class, conversion);
+            assertEquals(limit, e.getLimit());
+        }
+    }
+
+    private static void assertWithin(FirestoreProto2Json firestoreProto2Json,
+            DocumentEventData documentEventData) throws Exception {
+        String expected = FirestoreProto2Json.DEFAULT.valueToJsonString(documentEventData);
+        assertEquals(expected, firestoreProto2Json.valueToJsonString(documentEventData));
+        assertEquals(expected, new String(firestoreProto2Json
+                .valueToJsonBytes(documentEventData.toByteArray()), StandardCharsets.UTF_8));
+        assertNotNull(firestoreProto2Json.valueToJsonObject(documentEventData));
+    }
+
+    @Test
+    void maxDepthTest() throws Exception {
+        FirestoreProto2Json firestoreProto2Json =
+                converter(ConversionLimits.builder().maxDepth(5).build());
+        assertWithin(firestoreProto2Json, nested(5));
+        assertExceeds("maxDepth", firestoreProto2Json, nested(6));
+
+        // An array of maps nests the maps one level deeper
+        Value array = Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                .addValues(nested(4).getValue().getFieldsOrThrow("root"))).build();
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("array", array)).build();
+        FirestoreProto2Json shallower = converter(ConversionLimits.builder().maxDepth(4).build());
+        assertWithin(shallower, nested(4));
+        assertExceeds("maxDepth", shallower, documentEventData);
+    }
+
+    @Test
+    void maxFieldsTest() throws Exception {
+        Document.Builder document = Document.newBuilder();
+        for (int i = 0; i < 10; i++) {
+            document.putFields("f" + i, string("v"));
+        }
+
+        // The nested map and its field count as two fields
+        document.putFields("map",
+                Value.newBuilder().setMapValue(MapValue.newBuilder().putFields("x", string("y")))
+                        .build());
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document).build();
+        assertWithin(converter(ConversionLimits.builder().maxFields(12).build()),
+                documentEventData);
+        assertExceeds("maxFields", converter(ConversionLimits.builder().maxFields(11).build()),
+                documentEventData);
+
+        // Only the fields selected by the projection are counted
+        FieldProjection fieldProjection =
+                FieldProjection.builder().include("f1").include("map.x").build();
+        FirestoreProto2Json projected = FirestoreProto2Json.builder()
+                .conversionLimits(ConversionLimits.builder().maxFields(3).build())
+                .fieldProjection(fieldProjection).build();
+        String expected = FirestoreProto2Json.builder().fieldProjection(fieldProjection).build()
+                .valueToJsonString(documentEventData);
+        assertEquals(expected, projected.valueToJsonString(documentEventData));
+        assertEquals(expected, new String(
+                projected.valueToJsonBytes(documentEventData.toByteArray()),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void maxArrayLengthTest() throws Exception {
+        ArrayValue.Builder array = ArrayValue.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            array.addValues(Value.newBuilder().setIntegerValue(i));
+        }
+
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("array",
+                        Value.newBuilder().setArrayValue(array).build()))
+                .build();
+        assertWithin(converter(ConversionLimits.builder().maxArrayLength(100).build()),
+                documentEventData);
+        assertExceeds("maxArrayLength",
+                converter(ConversionLimits.builder().maxArrayLength(99).build()),
+                documentEventData);
+    }
+
+    @Test
+    void maxOutputBytesTest() throws Exception {
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("text", string("é€😀 <a>"))
+                        .putFields("map", Value.newBuilder().setMapValue(
+                                MapValue.newBuilder().putFields("nested", string("value")))
+                                .build()))
+                .build();
+        int length = FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentEventData.toByteArray())
+                .length;
+        FirestoreProto2Json within =
+                converter(ConversionLimits.builder().maxOutputBytes(length).build());
+        assertWithin(within, documentEventData);
+        StringWriter writer = new StringWriter();
+        assertTrue(within.valueToJson(documentEventData, writer));
+
+        FirestoreProto2Json exceeds =
+                converter(ConversionLimits.builder().maxOutputBytes(length - 1).build());
+        byte[] documentBytes = documentEventData.toByteArray();
+        Executable[] conversions = {() -> exceeds.valueToJsonString(documentEventData),
+                () -> exceeds.valueToJson(documentEventData, new StringWriter()),
+                () -> exceeds.valueToJsonBytes(documentBytes)};
+        for (Executable conversion : conversions) {
+            assertEquals("maxOutputBytes",
+                    assertThrows(ConversionLimitException.class, conversion).getLimit());
+        }
+    }
+
+    @Test
+    void deepNestingTest() {
+        // The document is written with an explicit stack rather than a call per map
+        DocumentEventData documentEventData = nested(20000);
+        String json = FirestoreProto2Json.DEFAULT.valueToJsonString(documentEventData);
+        assertTrue(json.startsWith("{\"root\":{\"m\":{\"m\":"));
+        assertTrue(json.endsWith("\"leaf\"" + "}".repeat(20001)));
+
+        // The JSON object and binary outputs share the same traversal
+        JsonObject jsonObject = FirestoreProto2Json.DEFAULT.valueToJsonObject(documentEventData);
+        for (int i = 0; i < 20000; i++) {
+            jsonObject = jsonObject.getAsJsonObject(i == 0 ? "root" : "m");
+        }
+
+        assertEquals("leaf", jsonObject.get("m").getAsString());
+        byte[] cbor = FirestoreProto2Json.DEFAULT.valueToBinary(documentEventData,
+                BinaryFormat.CBOR);
+        assertEquals(0xa1, cbor[0] & 0xff);
+        assertEquals('f', cbor[cbor.length - 1]);
+
+        // As do the Jackson outputs
+        JsonNode jsonNode = FirestoreProto2Jackson.DEFAULT.valueToObjectNode(documentEventData);
+        for (int i = 0; i < 20000; i++) {
+            jsonNode = jsonNode.get(i == 0 ? "root" : "m");
+        }
+
+        assertEquals("leaf", jsonNode.get("m").asText());
+
+        assertEquals("maxDepth", assertThrows(ConversionLimitException.class,
+                () -> converter(ConversionLimits.builder().maxDepth(20).build())
+                        .valueToJsonString(documentEventData))
+                .getLimit());
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ConversionLimits.builder().maxDepth(-1).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConversionLimits.builder().maxOutputBytes(-1).build());
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * Tests the measurements reported to the conversion listener.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ConversionListenerTest {
+
+    /**
+     * Records the events and failures.
+     */
+    private static final class RecordingListener implements ConversionListener {
+
+        private final List<ConversionEvent> events = new ArrayList<>();
+
+        private final List<Exception> failures = new ArrayList<>();
+
+        @Override
+        public void onConversion(ConversionEvent event) {
+            this.events.add(event);
+        }
+
+        @Override
+        public void onFailure(String operation, Exception exception) {
+            this.failures.add(exception);
+        }
+
+        ConversionEvent last() {
+            return this.events.get(this.events.size() - 1);
+        }
+    }
+
+    private static final Value TIMESTAMP = Value.newBuilder()
+            .setTimestampValue(Timestamp.newBuilder().setSeconds(1709251200L)).build();
+
+    // Two timestamps, a geopoint, bytes, two maps and an array nested three deep
+    private static final Document DOCUMENT = Document.newBuilder()
+            .putFields("timestamp", TIMESTAMP)
+            .putFields("location", Value.newBuilder()
+                    .setGeoPointValue(LatLng.newBuilder().setLatitude(1).setLongitude(2)).build())
+            .putFields("bytes", Value.newBuilder().setBytesValue(ByteString.copyFromUtf8("b"))
+                    .build())
+            .putFields("map", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("nested", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                            .putFields("array", Value.newBuilder().setArrayValue(ArrayValue
+                                    .newBuilder().addValues(TIMESTAMP).addValues(Value
+                                            .newBuilder().setStringValue("s")))
+                                    .build()))
+                            .build()))
+                    .build())
+            .build();
+
+    private static final DocumentEventData EVENT =
+            DocumentEventData.newBuilder().setValue(DOCUMENT).build();
+
+    private static void assertStructure(ConversionEvent event) {
+        assertEquals(6, event.getFieldCount());
+        assertEquals(3, event.getMaxDepth());
+        assertEquals(2, event.getTimestampCount());
+        assertEquals(1, event.getGeoPointCount());
+        assertEquals(1, event.getBytesCount());
+        assertEquals(2, event.getMapCount());
+        assertEquals(1, event.getArrayCount());
+    }
+
+    private static void assertNotMeasured(ConversionEvent event) {
+        assertEquals(-1, event.getFieldCount());
+        assertEquals(-1, event.getMaxDepth());
+        assertEquals(-1, event.getTimestampCount());
+        assertEquals(-1, event.getGeoPointCount());
+        assertEquals(-1, event.getBytesCount());
+        assertEquals(-1, event.getMapCount());
+        assertEquals(-1, event.getArrayCount());
+    }
+
+    @Test
+    void parsedTest() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FirestoreProto2Json firestoreProto2Json =
+                FirestoreProto2Json.builder().conversionListener(listener).build();
+        String expected = FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT);
+
+        assertEquals(expected, firestoreProto2Json.valueToJsonString(EVENT));
+        ConversionEvent event = listener.last();
+        assertEquals("valueToJsonString", event.getOperation());
+        assertEquals(-1, event.getInputSize());
+        assertEquals(expected.length(), event.getOutputSize());
+        assertEquals(0, event.getParseNanos());
+        assertTrue(event.getConvertNanos() >= 0);
+        assertEquals(event.getConvertNanos(), event.getTotalNanos());
+        assertStructure(event);
+
+        byte[] documentBytes = EVENT.toByteArray();
+        assertEquals(expected, firestoreProto2Json.valueToJsonString(documentBytes));
+        assertEquals(documentBytes.length, listener.last().getInputSize());
+        assertTrue(listener.last().getParseNanos() >= 0);
+        assertStructure(listener.last());
+
+        String base64 = Base64.getEncoder().encodeToString(documentBytes);
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonObject(EVENT),
+                firestoreProto2Json.valueToJsonObject(base64));
+        assertEquals("valueToJsonObject", listener.last().getOperation());
+        assertEquals(base64.length(), listener.last().getInputSize());
+        assertEquals(-1, listener.last().getOutputSize());
+        assertStructure(listener.last());
+
+        // A side that is not set has no output
+        assertEquals(null, firestoreProto2Json.oldValueToJsonString(EVENT));
+        assertEquals("oldValueToJsonString", listener.last().getOperation());
+        assertEquals(-1, listener.last().getOutputSize());
+        assertEquals(0, listener.last().getFieldCount());
+        assertEquals(4, listener.events.size());
+        assertEquals(0, listener.failures.size());
+    }
+
+    @Test
+    void transcodedTest() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FirestoreProto2Json firestoreProto2Json =
+                FirestoreProto2Json.builder().conversionListener(listener).build();
+        byte[] documentBytes = EVENT.toByteArray();
+        byte[] expected = FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentBytes);
+
+        firestoreProto2Json.valueToJsonBytes(documentBytes);
+        ConversionEvent event = listener.last();
+        assertEquals("valueToJsonBytes", event.getOperation());
+        assertEquals(documentBytes.length, event.getInputSize());
+        assertEquals(expected.length, event.getOutputSize());
+        assertEquals(0, event.getParseNanos());
+        assertNotMeasured(event);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(firestoreProto2Json.valueToJson(documentBytes, outputStream));
+        assertEquals(new String(expected, StandardCharsets.UTF_8),
+                outputStream.toString(StandardCharsets.UTF_8));
+        assertEquals("valueToJson", listener.last().getOperation());
+        assertEquals(expected.length, listener.last().getOutputSize());
+        assertNotMeasured(listener.last());
+
+        firestoreProto2Json.oldValueToJson(documentBytes, outputStream);
+        assertEquals("oldValueToJson", listener.last().getOperation());
+        assertEquals(-1, listener.last().getOutputSize());
+    }
+
+    @Test
+    void failureTest() {
+        RecordingListener listener = new RecordingListener();
+        FirestoreProto2Json firestoreProto2Json =
+                FirestoreProto2Json.builder().conversionListener(listener).build();
+        byte[] invalid = new byte[] {0x0a, 0x05, 0x12};
+        InvalidProtocolBufferException e = assertThrows(InvalidProtocolBufferException.class,
+                () -> firestoreProto2Json.valueToJsonString(invalid));
+        assertSame(e, listener.failures.get(0));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> firestoreProto2Json.valueToJsonBytes(invalid));
+        assertEquals(2, listener.failures.size());
+
+        IllegalStateException mapperException = new IllegalStateException();
+        FirestoreProto2Json failing = FirestoreProto2Json.builder().conversionListener(listener)
+                .valueMapperTimestamp(new ValueMapperTimestamp() {
+                    @Override
+                    public void convert(JsonObject jsonObject, String key, Timestamp timestamp) {
+                        throw mapperException;
+                    }
+
+                    @Override
+                    public void convert(JsonArray jsonArray, Timestamp timestamp) {
+                        throw mapperException;
+                    }
+                }).build();
+        assertSame(mapperException,
+                assertThrows(IllegalStateException.class, () -> failing.valueToJsonObject(EVENT)));
+        assertSame(mapperException, listener.failures.get(2));
+        assertEquals(0, listener.events.size());
+    }
+
+    @Test
+    void statisticsTest() throws Exception {
+        ConversionStatistics statistics = new ConversionStatistics();
+        FirestoreProto2Json firestoreProto2Json =
+                FirestoreProto2Json.builder().conversionListener(statistics).build();
+        byte[] documentBytes = EVENT.toByteArray();
+        for (int i = 0; i < 10; i++) {
+            firestoreProto2Json.valueToJsonString(documentBytes);
+            firestoreProto2Json.valueToJsonBytes(documentBytes);
+        }
+
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> firestoreProto2Json.valueToJsonString(new byte[] {0x0a, 0x05, 0x12}));
+
+        long outputSize = FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT).length()
+                + FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentBytes).length;
+        assertEquals(20, statistics.getConversionCount());
+        assertEquals(1, statistics.getFailureCount());
+        assertEquals(20L * documentBytes.length, statistics.getInputBytes());
+        assertEquals(10 * outputSize, statistics.getOutputBytes());
+        assertEquals(60, statistics.getFieldCount());
+        assertEquals(20, statistics.getTimestampCount());
+        assertEquals(10, statistics.getGeoPointCount());
+        assertEquals(10, statistics.getBytesCount());
+        assertEquals(20, statistics.getMapCount());
+        assertEquals(10, statistics.getArrayCount());
+        assertEquals(3, statistics.getMaxDepth());
+        assertTrue(statistics.getConvertNanos() > 0);
+
+        long total = 0;
+        for (long count : statistics.getLatencyHistogram()) {
+            total += count;
+        }
+
+        assertEquals(20, total);
+        long median = statistics.getLatencyPercentile(0.5);
+        assertTrue(median > 0);
+        assertTrue(statistics.getLatencyPercentile(1) >= median);
+        assertThrows(IllegalArgumentException.class, () -> statistics.getLatencyPercentile(2));
+        assertEquals(0, new ConversionStatistics().getLatencyPercentile(0.99));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.DocumentMask;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+import com.unitvectory.jsonassertify.JSONAssert;
+
+/**
+ * Tests for the JSON Merge Patch and JSON Patch conversion of the changes of a DocumentEventData.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DocumentDiffTest {
+
+    private static final Document OLD = Document.newBuilder()
+            .putFields("same", string("unchanged"))
+            .putFields("changed", string("before"))
+            .putFields("removed", string("gone"))
+            .putFields("nested", map(MapValue.newBuilder()
+                    .putFields("same", string("unchanged"))
+                    .putFields("changed", Value.newBuilder().setIntegerValue(1).build())))
+            .putFields("unchangedMap", map(MapValue.newBuilder().putFields("a", string("a"))))
+            .putFields("array", array("a", "b"))
+            .putFields("a/b~c", string("escaped"))
+            .putFields("nulled", string("value"))
+            .build();
+
+    private static final Document NEW = Document.newBuilder()
+            .putFields("same", string("unchanged"))
+            .putFields("changed", string("after"))
+            .putFields("nested", map(MapValue.newBuilder()
+                    .putFields("same", string("unchanged"))
+                    .putFields("changed", Value.newBuilder().setIntegerValue(2).build())
+                    .putFields("added", Value.newBuilder().setBooleanValue(true).build())))
+            .putFields("unchangedMap", map(MapValue.newBuilder().putFields("a", string("a"))))
+            .putFields("array", array("a", "c"))
+            .putFields("a/b~c", string("changed"))
+            .putFields("nulled", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+            .putFields("added", string("new"))
+            .build();
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    private static Value map(MapValue.Builder mapValue) {
+        return Value.newBuilder().setMapValue(mapValue).build();
+    }
+
+    private static Value array(String... values) {
+        ArrayValue.Builder arrayValue = ArrayValue.newBuilder();
+        for (String value : values) {
+            arrayValue.addValues(string(value));
+        }
+
+        return Value.newBuilder().setArrayValue(arrayValue).build();
+    }
+
+    /**
+     * Apply the JSON Merge Patch as described by RFC 7396.
+     */
+    private static JsonElement applyMergePatch(JsonElement target, JsonElement patch) {
+        if (!patch.isJsonObject()) {
+            return patch;
+        }
+
+        JsonObject result = target != null && target.isJsonObject()
+                ? target.getAsJsonObject().deepCopy()
+                : new JsonObject();
+        for (Entry<String, JsonElement> entry : patch.getAsJsonObject().entrySet()) {
+            if (entry.getValue().isJsonNull()) {
+                result.remove(entry.getKey());
+            } else {
+                result.add(entry.getKey(),
+                        applyMergePatch(result.get(entry.getKey()), entry.getValue()));
+            }
+        }
+
+        return result;
+    }
+
+    @Test
+    void jsonMergePatchTest() throws Exception {
+        DocumentEventData event =
+                DocumentEventData.newBuilder().setOldValue(OLD).setValue(NEW).build();
+        JsonObject jsonMergePatch = FirestoreProto2Json.DEFAULT.eventToJsonMergePatch(event);
+        JSONAssert.assertEquals("{\"changed\":\"after\",\"nested\":{\"changed\":2,\"added\":true},"
+                + "\"array\":[\"a\",\"c\"],\"a/b~c\":\"changed\",\"nulled\":null,"
+                + "\"added\":\"new\",\"removed\":null}", jsonMergePatch.toString(), true);
+
+        // Apart from the field changed to null, applying the patch produces the new value
+        JsonObject expected = FirestoreProto2Json.DEFAULT.valueToJsonObject(event);
+        expected.remove("nulled");
+        assertEquals(expected, applyMergePatch(
+                FirestoreProto2Json.DEFAULT.oldValueToJsonObject(event), jsonMergePatch));
+    }
+
+    @Test
+    void jsonPatchTest() throws Exception {
+        DocumentEventData event =
+                DocumentEventData.newBuilder().setOldValue(OLD).setValue(NEW).build();
+        JSONAssert.assertEquals("["
+                + "{\"op\":\"replace\",\"path\":\"/changed\",\"value\":\"after\"},"
+                + "{\"op\":\"replace\",\"path\":\"/nested/changed\",\"value\":2},"
+                + "{\"op\":\"add\",\"path\":\"/nested/added\",\"value\":true},"
+                + "{\"op\":\"replace\",\"path\":\"/array\",\"value\":[\"a\",\"c\"]},"
+                + "{\"op\":\"replace\",\"path\":\"/a~1b~0c\",\"value\":\"changed\"},"
+                + "{\"op\":\"replace\",\"path\":\"/nulled\",\"value\":null},"
+                + "{\"op\":\"add\",\"path\":\"/added\",\"value\":\"new\"},"
+                + "{\"op\":\"remove\",\"path\":\"/removed\"}]",
+                FirestoreProto2Json.DEFAULT.eventToJsonPatch(event).toString(), true);
+    }
+
+    @Test
+    void createAndDeleteTest() throws Exception {
+        DocumentEventData create = DocumentEventData.newBuilder().setValue(NEW).build();
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonObject(create),
+                FirestoreProto2Json.DEFAULT.eventToJsonMergePatch(create));
+        assertEquals(NEW.getFieldsCount(),
+                FirestoreProto2Json.DEFAULT.eventToJsonPatch(create).size());
+
+        DocumentEventData delete = DocumentEventData.newBuilder().setOldValue(OLD).build();
+        JsonObject jsonMergePatch = FirestoreProto2Json.DEFAULT.eventToJsonMergePatch(delete);
+        assertEquals(OLD.getFieldsCount(), jsonMergePatch.size());
+        assertEquals(new JsonObject(), applyMergePatch(
+                FirestoreProto2Json.DEFAULT.oldValueToJsonObject(delete), jsonMergePatch));
+        JSONAssert.assertEquals("{\"op\":\"remove\",\"path\":\"/same\"}",
+                FirestoreProto2Json.DEFAULT.eventToJsonPatch(delete).get(0).toString(), true);
+
+        DocumentEventData empty = DocumentEventData.getDefaultInstance();
+        assertNull(FirestoreProto2Json.DEFAULT.eventToJsonMergePatch(empty));
+        assertNull(FirestoreProto2Json.DEFAULT.eventToJsonPatch(empty));
+    }
+
+    @Test
+    void updateMaskTest() throws Exception {
+        // Only the fields named by the update mask are compared
+        DocumentEventData event = DocumentEventData.newBuilder().setOldValue(OLD).setValue(NEW)
+                .setUpdateMask(DocumentMask.newBuilder().addFieldPaths("changed")
+                        .addFieldPaths("nested.added").addFieldPaths("removed"))
+                .build();
+        JSONAssert.assertEquals(
+                "{\"changed\":\"after\",\"nested\":{\"added\":true},\"removed\":null}",
+                FirestoreProto2Json.DEFAULT.eventToJsonMergePatch(event).toString(), true);
+        JSONAssert.assertEquals(
+                "{\"changed\":\"after\",\"nested\":{\"added\":true},\"removed\":null}",
+                FirestoreProto2Json.DEFAULT.eventToJson(event).getJsonMergePatch().toString(),
+                true);
+    }
+
+    @Test
+    void projectionTest() throws Exception {
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .fieldProjection(FieldProjection.builder().include("nested.changed")
+                        .include("changed").include("unchangedMap").build())
+                .build();
+        DocumentEventData event =
+                DocumentEventData.newBuilder().setOldValue(OLD).setValue(NEW).build();
+        JSONAssert.assertEquals("{\"changed\":\"after\",\"nested\":{\"changed\":2}}",
+                converter.eventToJsonMergePatch(event).toString(), true);
+        JSONAssert.assertEquals("[{\"op\":\"replace\",\"path\":\"/changed\",\"value\":\"after\"},"
+                + "{\"op\":\"replace\",\"path\":\"/nested/changed\",\"value\":2}]",
+                converter.eventToJsonPatch(event).toString(), true);
+    }
+
+    @Test
+    void renamedKeyTest() throws Exception {
+        // The mapper writes the timestamp under a different key than the field name
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperTimestamp(new ValueMapperTimestamp() {
+                    @Override
+                    public void convert(JsonObject jsonObject, String key, Timestamp timestamp) {
+                        jsonObject.addProperty(key + "Millis", timestamp.getSeconds() * 1000);
+                    }
+
+                    @Override
+                    public void convert(JsonArray jsonArray, Timestamp timestamp) {
+                        jsonArray.add(timestamp.getSeconds() * 1000);
+                    }
+                }).build();
+        Document timestamp = Document.newBuilder().putFields("ts", Value.newBuilder()
+                .setTimestampValue(Timestamp.newBuilder().setSeconds(1)).build()).build();
+        Document string = Document.newBuilder().putFields("ts", string("now")).build();
+
+        DocumentEventData add = DocumentEventData.newBuilder().setValue(timestamp)
+                .setOldValue(Document.getDefaultInstance()).build();
+        JSONAssert.assertEquals("[{\"op\":\"add\",\"path\":\"/tsMillis\",\"value\":1000}]",
+                converter.eventToJsonPatch(add).toString(), true);
+
+        DocumentEventData remove = DocumentEventData.newBuilder().setOldValue(timestamp)
+                .setValue(Document.getDefaultInstance()).build();
+        JSONAssert.assertEquals("[{\"op\":\"remove\",\"path\":\"/tsMillis\"}]",
+                converter.eventToJsonPatch(remove).toString(), true);
+        JSONAssert.assertEquals("{\"tsMillis\":null}",
+                converter.eventToJsonMergePatch(remove).toString(), true);
+
+        DocumentEventData replace =
+                DocumentEventData.newBuilder().setOldValue(timestamp).setValue(string).build();
+        JSONAssert.assertEquals("[{\"op\":\"add\",\"path\":\"/ts\",\"value\":\"now\"},"
+                + "{\"op\":\"remove\",\"path\":\"/tsMillis\"}]",
+                converter.eventToJsonPatch(replace).toString(), true);
+
+        // Applying the patches produces the new value
+        for (DocumentEventData event : new DocumentEventData[] {add, remove, replace}) {
+            assertEquals(converter.valueToJsonObject(event), applyMergePatch(
+                    converter.oldValueToJsonObject(event), converter.eventToJsonMergePatch(event)));
+        }
+    }
+}
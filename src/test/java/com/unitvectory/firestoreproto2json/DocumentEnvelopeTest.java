@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.DocumentMask;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.protobuf.Timestamp;
+
+/**
+ * Tests the document envelope of metadata and fields.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DocumentEnvelopeTest {
+
+    private static final String NAME =
+            "projects/p/databases/(default)/documents/users/alice/orders/o1";
+
+    private static final Document DOCUMENT = Document.newBuilder().setName(NAME)
+            .putFields("total", Value.newBuilder().setIntegerValue(42).build())
+            .putFields("map", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("nested", Value.newBuilder().setStringValue("<value>").build()))
+                    .build())
+            .setCreateTime(Timestamp.newBuilder().setSeconds(1709251200L))
+            .setUpdateTime(Timestamp.newBuilder().setSeconds(1709251200L).setNanos(500000000))
+            .build();
+
+    private static final DocumentEventData EVENT = DocumentEventData.newBuilder()
+            .setValue(DOCUMENT)
+            .setOldValue(DOCUMENT.toBuilder().removeFields("map")
+                    .setUpdateTime(DOCUMENT.getCreateTime()))
+            .setUpdateMask(DocumentMask.newBuilder().addFieldPaths("map")).build();
+
+    @Test
+    void envelopeTest() {
+        String expected = "{\"name\":\"" + NAME + "\",\"project\":\"p\","
+                + "\"database\":\"(default)\",\"documentPath\":\"users/alice/orders/o1\","
+                + "\"collectionPath\":\"users/alice/orders\",\"collectionId\":\"orders\","
+                + "\"documentId\":\"o1\",\"createTime\":\"2024-03-01T00:00:00.000Z\","
+                + "\"updateTime\":\"2024-03-01T00:00:00.500Z\",\"updateMask\":[\"map\"],"
+                + "\"fields\":" + FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT) + "}";
+        assertEquals(expected, FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(EVENT));
+    }
+
+    @Test
+    void oldValueTest() throws Exception {
+        JsonObject envelope = JsonParser.parseString(
+                FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(EVENT))
+                .getAsJsonObject();
+        assertEquals("2024-03-01T00:00:00.000Z", envelope.get("updateTime").getAsString());
+        assertEquals(JsonParser.parseString(
+                FirestoreProto2Json.DEFAULT.oldValueToJsonString(EVENT)),
+                envelope.get("fields"));
+
+        // The byte and Writer variants produce the same output
+        assertEquals(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(EVENT),
+                FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(EVENT.toByteArray()));
+        StringWriter writer = new StringWriter();
+        assertTrue(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJson(EVENT, writer));
+        assertEquals(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(EVENT),
+                writer.toString());
+    }
+
+    @Test
+    void bytesTest() throws Exception {
+        StringWriter writer = new StringWriter();
+        assertTrue(FirestoreProto2Json.DEFAULT.valueToEnvelopeJson(EVENT, writer));
+        assertEquals(writer.toString(),
+                FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(EVENT.toByteArray()));
+    }
+
+    @Test
+    void timestampMapperTest() {
+        FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.builder()
+                .valueMapperTimestamp(new ValueMapperTimestampEpoch(TimeUnit.SECONDS, true))
+                .build();
+        JsonObject envelope = JsonParser
+                .parseString(firestoreProto2Json.valueToEnvelopeJsonString(EVENT))
+                .getAsJsonObject();
+        assertEquals("1709251200", envelope.get("createTime").toString());
+        assertEquals("1709251200.5", envelope.get("updateTime").toString());
+    }
+
+    @Test
+    void topLevelCollectionTest() {
+        DocumentEventData event = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder()
+                        .setName("projects/p/databases/db/documents/users/alice"))
+                .build();
+        assertEquals("{\"name\":\"projects/p/databases/db/documents/users/alice\","
+                + "\"project\":\"p\",\"database\":\"db\",\"documentPath\":\"users/alice\","
+                + "\"collectionPath\":\"users\",\"collectionId\":\"users\","
+                + "\"documentId\":\"alice\",\"fields\":{}}",
+                FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(event));
+    }
+
+    @Test
+    void otherNameTest() {
+        for (String name : new String[] {"c/d", "projects/p/databases/db/documents/",
+                "projects/p/databases/db/documents/c", "projects/p/other/db/documents/c/d",
+                "projects/p/databases/db"}) {
+            DocumentEventData event = DocumentEventData.newBuilder()
+                    .setValue(Document.newBuilder().setName(name)).build();
+            assertEquals("{\"name\":\"" + name + "\",\"fields\":{}}",
+                    FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(event), name);
+        }
+
+        DocumentEventData event =
+                DocumentEventData.newBuilder().setValue(Document.getDefaultInstance()).build();
+        assertEquals("{\"fields\":{}}",
+                FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(event));
+    }
+
+    @Test
+    void notSetTest() throws Exception {
+        DocumentEventData event = DocumentEventData.newBuilder().setValue(DOCUMENT).build();
+        assertNull(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(event));
+        assertNull(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJsonString(event.toByteArray()));
+        StringWriter writer = new StringWriter();
+        assertFalse(FirestoreProto2Json.DEFAULT.oldValueToEnvelopeJson(event, writer));
+        assertEquals("", writer.toString());
+
+        // Without an update mask in the event none is written
+        assertFalse(FirestoreProto2Json.DEFAULT.valueToEnvelopeJsonString(event)
+                .contains("updateMask"));
+    }
+}
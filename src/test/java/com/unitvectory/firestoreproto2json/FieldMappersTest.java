@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.events.cloud.firestore.v1.Value.ValueTypeCase;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * Tests the value mappers registered for field paths and value types.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FieldMappersTest {
+
+    private static final Timestamp TIMESTAMP =
+            Timestamp.newBuilder().setSeconds(1709251200L).setNanos(123000000).build();
+
+    private static final Document DOCUMENT = Document.newBuilder()
+            .putFields("createdAt", Value.newBuilder().setTimestampValue(TIMESTAMP).build())
+            .putFields("updatedAt", Value.newBuilder().setTimestampValue(TIMESTAMP).build())
+            .putFields("count", Value.newBuilder().setIntegerValue(42).build())
+            .putFields("name", Value.newBuilder().setStringValue("name").build())
+            .putFields("location", Value.newBuilder()
+                    .setGeoPointValue(LatLng.newBuilder().setLatitude(1.5).setLongitude(-2.5))
+                    .build())
+            .putFields("data", Value.newBuilder()
+                    .setBytesValue(ByteString.copyFromUtf8("data")).build())
+            .putFields("items", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                    .addValues(Value.newBuilder().setIntegerValue(1))
+                    .addValues(Value.newBuilder().setTimestampValue(TIMESTAMP))
+                    .addValues(Value.newBuilder().setMapValue(MapValue.newBuilder()
+                            .putFields("count", Value.newBuilder().setIntegerValue(2).build()))))
+                    .build())
+            .putFields("nested", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("a", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                            .putFields("secret", Value.newBuilder().setStringValue("x").build()))
+                            .build())
+                    .putFields("b", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                            .putFields("secret", Value.newBuilder().setStringValue("y").build())
+                            .putFields("count", Value.newBuilder().setIntegerValue(3).build()))
+                            .build()))
+                    .build())
+            .build();
+
+    private static final DocumentEventData EVENT =
+            DocumentEventData.newBuilder().setValue(DOCUMENT).build();
+
+    private static final byte[] EVENT_BYTES = EVENT.toByteArray();
+
+    /**
+     * Writes the timestamp as the number of milliseconds since the epoch.
+     */
+    private static final ValueMapperTimestamp EPOCH_MILLIS = new ValueMapperTimestamp() {
+        @Override
+        public void convert(JsonObject jsonObject, String key, Timestamp timestamp) {
+            jsonObject.addProperty(key, millis(timestamp));
+        }
+
+        @Override
+        public void convert(JsonArray jsonArray, Timestamp timestamp) {
+            jsonArray.add(millis(timestamp));
+        }
+
+        private long millis(Timestamp timestamp) {
+            return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1000000;
+        }
+    };
+
+    /**
+     * Writes any value as the string of its type.
+     */
+    private static final ValueMapperAny TYPE_NAME = new ValueMapperAny() {
+        @Override
+        public void convert(JsonObject jsonObject, String key, Value value) {
+            jsonObject.addProperty(key, value.getValueTypeCase().name());
+        }
+
+        @Override
+        public void convert(JsonArray jsonArray, Value value) {
+            jsonArray.add(value.getValueTypeCase().name());
+        }
+    };
+
+    /**
+     * Writes integers as strings so they survive JavaScript numbers.
+     */
+    private static final ValueMapperAny INTEGER_STRING = new ValueMapperAny() {
+        @Override
+        public void convert(JsonObject jsonObject, String key, Value value) {
+            jsonObject.addProperty(key, Long.toString(value.getIntegerValue()));
+        }
+
+        @Override
+        public void convert(JsonArray jsonArray, Value value) {
+            jsonArray.add(Long.toString(value.getIntegerValue()));
+        }
+    };
+
+    private static String convert(FirestoreProto2Json firestoreProto2Json) throws Exception {
+        String json = firestoreProto2Json.valueToJsonString(EVENT);
+
+        // Every conversion path applies the mappers the same way
+        assertEquals(json, new Gson().toJson(firestoreProto2Json.valueToJsonObject(EVENT)));
+        assertEquals(json, firestoreProto2Json.valueToJsonString(EVENT_BYTES));
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8),
+                firestoreProto2Json.valueToJsonBytes(EVENT_BYTES));
+        assertEquals(json, firestoreProto2Json.newContext().valueToJsonString(EVENT_BYTES));
+        assertEquals(json,
+                new Gson().toJson(firestoreProto2Json.valueToLazyJsonObject(EVENT).toJsonObject()));
+        StringWriter writer = new StringWriter();
+        firestoreProto2Json.valueToJson(EVENT, writer);
+        assertEquals(json, writer.toString());
+        return json;
+    }
+
+    private static JsonObject convertObject(FirestoreProto2Json firestoreProto2Json)
+            throws Exception {
+        return new Gson().fromJson(convert(firestoreProto2Json), JsonObject.class);
+    }
+
+    @Test
+    void pathMapperTest() throws Exception {
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("createdAt", EPOCH_MILLIS).build())
+                .build());
+        assertEquals(1709251200123L, json.get("createdAt").getAsLong());
+        assertEquals("2024-03-01T00:00:00.123Z", json.get("updatedAt").getAsString());
+        assertEquals("2024-03-01T00:00:00.123Z",
+                json.getAsJsonArray("items").get(1).getAsString());
+    }
+
+    @Test
+    void typeMapperTest() throws Exception {
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder()
+                        .type(ValueTypeCase.INTEGER_VALUE, INTEGER_STRING)
+                        .type(ValueTypeCase.TIMESTAMP_VALUE, EPOCH_MILLIS).build())
+                .build());
+        assertEquals("42", json.get("count").getAsString());
+        assertEquals(1709251200123L, json.get("createdAt").getAsLong());
+        JsonArray items = json.getAsJsonArray("items");
+        assertEquals("1", items.get(0).getAsString());
+        assertEquals(1709251200123L, items.get(1).getAsLong());
+        assertEquals("2", items.get(2).getAsJsonObject().get("count").getAsString());
+        assertEquals("3", json.getAsJsonObject("nested").getAsJsonObject("b").get("count")
+                .getAsJsonPrimitive().getAsString());
+        assertEquals("name", json.get("name").getAsString());
+    }
+
+    @Test
+    void typeMapperMatchesGlobalMapperTest() throws Exception {
+        // A type mapper behaves as the mapper configured for the whole instance
+        FirestoreProto2Json global =
+                FirestoreProto2Json.builder().valueMapperTimestamp(EPOCH_MILLIS).build();
+        FirestoreProto2Json typed = FirestoreProto2Json.builder().fieldMappers(FieldMappers
+                .builder().type(ValueTypeCase.TIMESTAMP_VALUE, EPOCH_MILLIS).build()).build();
+        assertEquals(convert(global), convert(typed));
+        for (BinaryFormat binaryFormat : BinaryFormat.values()) {
+            assertArrayEquals(global.valueToBinary(EVENT, binaryFormat),
+                    typed.valueToBinary(EVENT, binaryFormat));
+            assertArrayEquals(global.valueToBinary(EVENT_BYTES, binaryFormat),
+                    typed.valueToBinary(EVENT_BYTES, binaryFormat));
+        }
+    }
+
+    @Test
+    void pathPrecedenceTest() throws Exception {
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("count", TYPE_NAME)
+                        .type(ValueTypeCase.INTEGER_VALUE, INTEGER_STRING).build())
+                .build());
+        assertEquals("INTEGER_VALUE", json.get("count").getAsString());
+        assertEquals("1", json.getAsJsonArray("items").get(0).getAsString());
+    }
+
+    @Test
+    void mapAndArrayPathTest() throws Exception {
+        // A mapper of a map or array replaces the conversion of its content
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("nested", TYPE_NAME)
+                        .path("items", TYPE_NAME).build())
+                .build());
+        assertEquals("MAP_VALUE", json.get("nested").getAsString());
+        assertEquals("ARRAY_VALUE", json.get("items").getAsString());
+
+        assertNull(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("nested", TYPE_NAME).build()).build()
+                .valueToLazyJsonObject(EVENT).getView("nested"));
+    }
+
+    @Test
+    void wildcardPathTest() throws Exception {
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("nested.*.secret", TYPE_NAME).build())
+                .build());
+        JsonObject nested = json.getAsJsonObject("nested");
+        assertEquals("STRING_VALUE", nested.getAsJsonObject("a").get("secret").getAsString());
+        assertEquals("STRING_VALUE", nested.getAsJsonObject("b").get("secret").getAsString());
+        assertEquals(3, nested.getAsJsonObject("b").get("count").getAsInt());
+    }
+
+    @Test
+    void projectionTest() throws Exception {
+        // Fields excluded by the projection are dropped before any mapper is applied
+        JsonObject json = convertObject(FirestoreProto2Json.builder()
+                .fieldProjection(FieldProjection.builder().exclude("nested.a").build())
+                .fieldMappers(FieldMappers.builder().path("nested.*.secret", TYPE_NAME)
+                        .type(ValueTypeCase.INTEGER_VALUE, INTEGER_STRING).build())
+                .build());
+        JsonObject nested = json.getAsJsonObject("nested");
+        assertNull(nested.get("a"));
+        assertEquals("STRING_VALUE", nested.getAsJsonObject("b").get("secret").getAsString());
+        assertEquals("3", nested.getAsJsonObject("b").get("count").getAsString());
+        assertEquals("42", json.get("count").getAsString());
+    }
+
+    @Test
+    void diffTest() {
+        DocumentEventData event = DocumentEventData.newBuilder()
+                .setValue(DOCUMENT.toBuilder().putFields("count",
+                        Value.newBuilder().setIntegerValue(43).build()))
+                .setOldValue(DOCUMENT).build();
+        JsonObject jsonMergePatch = FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder()
+                        .type(ValueTypeCase.INTEGER_VALUE, INTEGER_STRING).build())
+                .build().eventToJsonMergePatch(event);
+        assertEquals("{\"count\":\"43\"}", jsonMergePatch.toString());
+    }
+
+    @Test
+    void unmappedTest() throws Exception {
+        // A mapper of a field that does not have its type leaves the field unchanged
+        FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder().path("name", EPOCH_MILLIS).build()).build();
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT),
+                convert(firestoreProto2Json));
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class, () -> FieldMappers.builder()
+                .type(ValueTypeCase.INTEGER_VALUE, EPOCH_MILLIS).build());
+        assertThrows(IllegalArgumentException.class, () -> FieldMappers.builder()
+                .type(ValueTypeCase.VALUETYPE_NOT_SET, TYPE_NAME).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> FieldMappers.builder().path("a..b", TYPE_NAME).build());
+    }
+}
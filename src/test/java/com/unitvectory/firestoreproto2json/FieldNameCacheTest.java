@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Tests the cache of encoded field names.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FieldNameCacheTest {
+
+    private static final Document DOCUMENT = Document.newBuilder()
+            .putFields("plain", Value.newBuilder().setStringValue("a").build())
+            .putFields("<html> & \"quotes\"", Value.newBuilder().setIntegerValue(1).build())
+            .putFields("unicode é  ", Value.newBuilder().setBooleanValue(true).build())
+            .putFields("map", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("plain", Value.newBuilder().setDoubleValue(1.5).build())
+                    .putFields("nested", Value.newBuilder().setStringValue("b").build()))
+                    .build())
+            .putFields("a very long field name exceeding the maximum length of a cached name",
+                    Value.newBuilder().setStringValue("c").build())
+            .build();
+
+    private static final byte[] EVENT =
+            DocumentEventData.newBuilder().setValue(DOCUMENT).build().toByteArray();
+
+    @Test
+    void outputMatchesTest() throws Exception {
+        FieldNameCache cache = FieldNameCache.builder().build();
+        FirestoreProto2Json converter = FirestoreProto2Json.builder().fieldNameCache(cache).build();
+        byte[] expected = FirestoreProto2Json.DEFAULT.valueToJsonBytes(EVENT);
+
+        // The long name is written without the cache and the repeated name is a hit
+        assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(5, cache.getMissCount());
+        assertEquals(5, cache.size());
+
+        FirestoreProto2JsonContext context = converter.newContext();
+        for (int i = 0; i < 9; i++) {
+            assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+            assertEquals(new String(expected, StandardCharsets.UTF_8),
+                    context.valueToJsonString(EVENT));
+        }
+
+        assertEquals(5, cache.getMissCount());
+        assertEquals(1 + 9 * 2 * 6, cache.getHitCount());
+        assertTrue(cache.getHitRatio() > 0.9);
+    }
+
+    @Test
+    void sortedKeysTest() throws Exception {
+        FirestoreProto2Json converter = FirestoreProto2Json.builder().sortedKeys(true)
+                .fieldNameCache(FieldNameCache.builder().build()).build();
+        byte[] expected =
+                FirestoreProto2Json.builder().sortedKeys(true).build().valueToJsonBytes(EVENT);
+        assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+        assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+    }
+
+    @Test
+    void evictionTest() throws Exception {
+        FieldNameCache cache = FieldNameCache.builder().maximumSize(1).build();
+        FirestoreProto2Json converter = FirestoreProto2Json.builder().fieldNameCache(cache).build();
+        byte[] expected = FirestoreProto2Json.DEFAULT.valueToJsonBytes(EVENT);
+        assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+        assertArrayEquals(expected, converter.valueToJsonBytes(EVENT));
+        assertEquals(1, cache.size());
+        assertTrue(cache.getEvictionCount() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void similarNamesTest() throws Exception {
+        // A fixed schema of similar names well under the maximum size is not evicted
+        FieldNameCache cache = FieldNameCache.builder().build();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 300; i++) {
+                byte[] name = ("field_" + i).getBytes(StandardCharsets.UTF_8);
+                cache.token(name, 0, name.length);
+            }
+        }
+
+        assertEquals(300, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(0.99, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void tokenTest() throws Exception {
+        FieldNameCache cache = FieldNameCache.builder().maxNameLength(8).build();
+        byte[] name = "xx<name>xx".getBytes(StandardCharsets.UTF_8);
+        byte[] token = cache.token(name, 2, 6);
+        assertEquals("\"\\u003cname\\u003e\":", new String(token, StandardCharsets.UTF_8));
+        assertSame(token, cache.token("<name>".getBytes(StandardCharsets.UTF_8), 0, 6));
+        assertNull(cache.token(name, 0, 10));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> cache.token(new byte[] {(byte) 0xc3}, 0, 1));
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> FieldNameCache.builder().maximumSize(-1).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> FieldNameCache.builder().maxNameLength(-1).build());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.type.LatLng;
+import com.unitvectory.jsonassertify.JSONAssert;
+
+/**
+ * Tests for the field projection.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FieldProjectionTest {
+
+    private static final DocumentEventData EVENT = DocumentEventData.newBuilder()
+            .setValue(Document.newBuilder()
+                    .putFields("name", string("Firestore"))
+                    .putFields("age", Value.newBuilder().setIntegerValue(5).build())
+                    .putFields("address", map(MapValue.newBuilder()
+                            .putFields("city", string("Louisville"))
+                            .putFields("zip", string("40202"))
+                            .putFields("location", Value.newBuilder().setGeoPointValue(
+                                    LatLng.newBuilder().setLatitude(38.25).setLongitude(-85.75))
+                                    .build())))
+                    .putFields("tags", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                            .addValues(string("a")).addValues(string("b"))).build())
+                    .putFields("items", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                            .addValues(map(MapValue.newBuilder().putFields("id", string("1"))
+                                    .putFields("secret", string("s1"))))
+                            .addValues(string("loose"))
+                            .addValues(map(MapValue.newBuilder().putFields("id", string("2"))
+                                    .putFields("secret", string("s2")))))
+                            .build())
+                    .putFields("a.b", string("dotted"))
+                    .putFields("meta", map(MapValue.newBuilder()
+                            .putFields("x", map(MapValue.newBuilder()
+                                    .putFields("keep", string("x1"))
+                                    .putFields("drop", string("x2"))))
+                            .putFields("y", map(MapValue.newBuilder()
+                                    .putFields("keep", string("y1"))
+                                    .putFields("drop", string("y2")))))))
+            .build();
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    private static Value map(MapValue.Builder mapValue) {
+        return Value.newBuilder().setMapValue(mapValue).build();
+    }
+
+    /**
+     * Assert each conversion path produces the expected JSON for the projection.
+     */
+    private static void assertProjection(String expected, FieldProjection fieldProjection)
+            throws Exception {
+        FirestoreProto2Json converter =
+                FirestoreProto2Json.builder().fieldProjection(fieldProjection).build();
+
+        String jsonString = converter.valueToJsonString(EVENT);
+        JSONAssert.assertEquals(expected, jsonString, true);
+        JSONAssert.assertEquals(expected, converter.valueToJsonObject(EVENT).toString(), true);
+
+        StringWriter writer = new StringWriter();
+        converter.valueToJson(EVENT, writer);
+        assertEquals(jsonString, writer.toString());
+
+        byte[] jsonBytes = converter.valueToJsonBytes(EVENT.toByteArray());
+        assertEquals(jsonString, new String(jsonBytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void allTest() throws Exception {
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT),
+                FirestoreProto2Json.builder().fieldProjection(FieldProjection.builder().build())
+                        .build().valueToJsonString(EVENT));
+    }
+
+    @Test
+    void includeTest() throws Exception {
+        assertProjection("{\"name\":\"Firestore\",\"address\":{\"city\":\"Louisville\"}}",
+                FieldProjection.builder().include("name").include("address.city").build());
+    }
+
+    @Test
+    void includeSubtreeTest() throws Exception {
+        assertProjection("{\"address\":{\"city\":\"Louisville\",\"zip\":\"40202\","
+                + "\"location\":{\"latitude\":38.25,\"longitude\":-85.75}}}",
+                FieldProjection.builder().include("address").include("address.city").build());
+    }
+
+    @Test
+    void excludeTest() throws Exception {
+        assertProjection("{\"name\":\"Firestore\",\"age\":5,\"address\":{\"city\":\"Louisville\","
+                + "\"zip\":\"40202\"},\"tags\":[\"a\",\"b\"],\"items\":[{\"id\":\"1\"},\"loose\","
+                + "{\"id\":\"2\"}],\"a.b\":\"dotted\",\"meta\":{\"x\":{\"keep\":\"x1\"},"
+                + "\"y\":{\"keep\":\"y1\"}}}",
+                FieldProjection.builder().exclude("address.location").exclude("items.secret")
+                        .exclude("meta.*.drop").build());
+    }
+
+    @Test
+    void excludeOverridesIncludeTest() throws Exception {
+        assertProjection("{\"address\":{\"city\":\"Louisville\",\"zip\":\"40202\"}}",
+                FieldProjection.builder().include("address").exclude("address.location")
+                        .build());
+    }
+
+    @Test
+    void wildcardTest() throws Exception {
+        assertProjection("{\"meta\":{\"x\":{\"keep\":\"x1\"},\"y\":{\"keep\":\"y1\"}}}",
+                FieldProjection.builder().include("meta.*.keep").build());
+        assertProjection("{\"meta\":{\"x\":{\"keep\":\"x1\",\"drop\":\"x2\"},"
+                + "\"y\":{\"keep\":\"y1\"}}}",
+                FieldProjection.builder().include("meta.*.keep").include("meta.x").build());
+        assertProjection("{}", FieldProjection.builder().exclude("*").build());
+    }
+
+    @Test
+    void arrayTest() throws Exception {
+        // Scalars in arrays are skipped when only the fields of the maps within are included
+        assertProjection("{\"tags\":[],\"items\":[{\"id\":\"1\"},{\"id\":\"2\"}]}",
+                FieldProjection.builder().include("items.id").include("tags.none").build());
+    }
+
+    @Test
+    void quotedTest() throws Exception {
+        assertProjection("{\"a.b\":\"dotted\"}",
+                FieldProjection.builder().include("`a.b`").build());
+        assertProjection("{}", FieldProjection.builder().include("a.b").build());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", ".", "a.", ".a", "a..b", "`a", "`a`b"})
+    void invalidPathTest(String path) {
+        assertThrows(IllegalArgumentException.class,
+                () -> FieldProjection.builder().include(path).build());
+    }
+
+    @Test
+    void prunedSubtreeNotParsedTest() throws Exception {
+        // The transcoder does not descend into excluded values
+        byte[] invalid = new byte[] {0x0a, 0x0e, 0x12, 0x0c, 0x0a, 0x01, 'k', 0x12, 0x07, 0x32,
+                0x05, 0x0a, 0x03, 0x0a, 0x05, 'x'};
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .fieldProjection(FieldProjection.builder().exclude("k").build()).build();
+        assertEquals("{}", new String(converter.valueToJsonBytes(invalid), StandardCharsets.UTF_8));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> FirestoreProto2Json.DEFAULT.valueToJsonBytes(invalid));
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.protobuf.ByteString;
+import com.google.type.LatLng;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests the Jackson conversion matches reading the JSON string of FirestoreProto2Json.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FirestoreProto2JacksonTest {
+
+    /**
+     * Reads and writes NaN and Infinity unquoted the same as the Gson conversion.
+     */
+    private static final ObjectMapper MAPPER =
+            JsonMapper.builder().enable(JsonReadFeature.ALLOW_NON_NUMERIC_NUMBERS)
+                    .disable(JsonWriteFeature.WRITE_NAN_AS_STRINGS).build();
+
+    private static final FirestoreProto2Json GSON_CUSTOM = FirestoreProto2Json.builder()
+            .valueMapperTimestamp(new ValueMapperTimestampDefault("yyyy"))
+            .valueMapperGeoPoint(new ValueMapperGeoPoint() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+                    jsonObject.addProperty(key + "_lat", geopoint.getLatitude());
+                    jsonObject.addProperty(key + "_lng", geopoint.getLongitude());
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, LatLng geopoint) {
+                    jsonArray.add(geopoint.getLatitude());
+                    jsonArray.add(geopoint.getLongitude());
+                }
+            }).valueMapperBytes(new ValueMapperBytes() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                    jsonObject.addProperty(key, HexFormat.of().formatHex(bytes));
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, byte[] bytes) {}
+            }).build();
+
+    /**
+     * The same custom mappers implemented as JacksonValueMappers, relying on the default write.
+     */
+    private static final FirestoreProto2Jackson JACKSON_CUSTOM = FirestoreProto2Jackson.builder()
+            .valueMapperTimestamp(new JacksonValueMapperTimestampDefault("yyyy"))
+            .valueMapperGeoPoint(new JacksonValueMapper<LatLng>() {
+                @Override
+                public void convert(ObjectNode objectNode, String key, LatLng geopoint) {
+                    objectNode.put(key + "_lat", geopoint.getLatitude());
+                    objectNode.put(key + "_lng", geopoint.getLongitude());
+                }
+
+                @Override
+                public void convert(ArrayNode arrayNode, LatLng geopoint) {
+                    arrayNode.add(geopoint.getLatitude());
+                    arrayNode.add(geopoint.getLongitude());
+                }
+            }).valueMapperBytes(new JacksonValueMapper<byte[]>() {
+                @Override
+                public void convert(ObjectNode objectNode, String key, byte[] bytes) {
+                    objectNode.put(key, HexFormat.of().formatHex(bytes));
+                }
+
+                @Override
+                public void convert(ArrayNode arrayNode, byte[] bytes) {}
+            }).build();
+
+    private static void assertSame(FirestoreProto2Json firestoreProto2Json,
+            FirestoreProto2Jackson firestoreProto2Jackson, byte[] documentBytes)
+            throws Exception {
+        DocumentEventData documentEventData = DocumentEventData.parseFrom(documentBytes);
+        String value = firestoreProto2Json.valueToJsonString(documentEventData);
+        ObjectNode valueNode = firestoreProto2Jackson.valueToObjectNode(documentBytes);
+        assertEquals(value == null ? null : MAPPER.readTree(value), valueNode);
+        String oldValue = firestoreProto2Json.oldValueToJsonString(documentEventData);
+        ObjectNode oldValueNode = firestoreProto2Jackson.oldValueToObjectNode(documentBytes);
+        assertEquals(oldValue == null ? null : MAPPER.readTree(oldValue), oldValueNode);
+
+        StringWriter stringWriter = new StringWriter();
+        try (JsonGenerator jsonGenerator = MAPPER.getFactory().createGenerator(stringWriter)) {
+            assertEquals(value != null,
+                    firestoreProto2Jackson.valueToJson(documentEventData, jsonGenerator));
+        }
+
+        if (value != null) {
+            assertEquals(valueNode, MAPPER.readTree(stringWriter.toString()));
+        }
+    }
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void sameAsJsonStringTest(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    MAPPER.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            byte[] documentBytes = Base64.getDecoder().decode(protocolBuffer);
+            assertSame(FirestoreProto2Json.DEFAULT, FirestoreProto2Jackson.DEFAULT,
+                    documentBytes);
+            assertSame(GSON_CUSTOM, JACKSON_CUSTOM, documentBytes);
+        }
+    }
+
+    @Test
+    void numbersTest() throws Exception {
+        Document document = Document.newBuilder()
+                .putFields("int", Value.newBuilder().setIntegerValue(7).build())
+                .putFields("long", Value.newBuilder().setIntegerValue(1L << 40).build())
+                .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                        .addValues(Value.newBuilder().setIntegerValue(Long.MIN_VALUE))
+                        .addValues(Value.newBuilder().setDoubleValue(Double.NaN))
+                        .addValues(Value.newBuilder().setDoubleValue(1e20))
+                        .addValues(Value.newBuilder().setBytesValue(ByteString.copyFromUtf8("b"))))
+                        .build())
+                .build();
+        assertSame(FirestoreProto2Json.DEFAULT, FirestoreProto2Jackson.DEFAULT,
+                DocumentEventData.newBuilder().setValue(document).build().toByteArray());
+
+        ObjectNode objectNode = FirestoreProto2Jackson.DEFAULT
+                .valueToObjectNode(DocumentEventData.newBuilder().setValue(document).build());
+        assertTrue(objectNode.get("int").isInt());
+        assertTrue(objectNode.get("long").isLong());
+    }
+
+    @Test
+    void defaultSubclassTest() throws Exception {
+        // Subclasses of the defaults overriding convert are written through convert
+        FirestoreProto2Jackson subclasses = FirestoreProto2Jackson.builder()
+                .valueMapperGeoPoint(new JacksonValueMapperGeoPointDefault() {
+                    @Override
+                    public void convert(ObjectNode objectNode, String key, LatLng geopoint) {
+                        objectNode.put(key + "_lat", geopoint.getLatitude());
+                        objectNode.put(key + "_lng", geopoint.getLongitude());
+                    }
+
+                    @Override
+                    public void convert(ArrayNode arrayNode, LatLng geopoint) {
+                        arrayNode.add(geopoint.getLatitude());
+                        arrayNode.add(geopoint.getLongitude());
+                    }
+                }).valueMapperBytes(new JacksonValueMapperBytesDefault() {
+                    @Override
+                    public void convert(ObjectNode objectNode, String key, byte[] bytes) {
+                        objectNode.put(key, HexFormat.of().formatHex(bytes));
+                    }
+
+                    @Override
+                    public void convert(ArrayNode arrayNode, byte[] bytes) {}
+                }).build();
+
+        Value geoPoint = Value.newBuilder()
+                .setGeoPointValue(LatLng.newBuilder().setLatitude(1.5).setLongitude(-2)).build();
+        Value bytes = Value.newBuilder().setBytesValue(ByteString.copyFromUtf8("abc")).build();
+        Document document = Document.newBuilder().putFields("geo", geoPoint)
+                .putFields("bytes", bytes)
+                .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                        .addValues(geoPoint).addValues(bytes)).build())
+                .build();
+        byte[] documentBytes =
+                DocumentEventData.newBuilder().setValue(document).build().toByteArray();
+        assertSame(GSON_CUSTOM, subclasses, documentBytes);
+        assertEquals(MAPPER.readTree("{\"geo_lat\":1.5,\"geo_lng\":-2.0,\"bytes\":\"616263\","
+                + "\"array\":[1.5,-2.0]}"), subclasses.valueToObjectNode(documentBytes));
+    }
+
+    @Test
+    void notSetTest() throws Exception {
+        DocumentEventData documentEventData = DocumentEventData.getDefaultInstance();
+        assertNull(FirestoreProto2Jackson.DEFAULT.valueToObjectNode(documentEventData));
+        assertNull(FirestoreProto2Jackson.DEFAULT.oldValueToObjectNode(documentEventData));
+        try (JsonGenerator jsonGenerator =
+                MAPPER.getFactory().createGenerator(new StringWriter())) {
+            assertFalse(FirestoreProto2Jackson.DEFAULT.oldValueToJson(documentEventData,
+                    jsonGenerator));
+        }
+    }
+
+    @Test
+    void projectionTest() throws Exception {
+        FirestoreProto2Jackson converter = FirestoreProto2Jackson.builder()
+                .fieldProjection(FieldProjection.builder().exclude("drop").build()).build();
+        JsonNode jsonNode = converter.valueToObjectNode(DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder()
+                        .putFields("keep", Value.newBuilder().setStringValue("yes").build())
+                        .putFields("drop", Value.newBuilder().setStringValue("no").build()))
+                .build());
+        assertEquals(MAPPER.readTree("{\"keep\":\"yes\"}"), jsonNode);
+    }
+
+    @Test
+    void sharedConfigurationTest() throws Exception {
+        // The sorted keys, field mappers, limits and listener of FirestoreProto2Json also apply
+        List<String> operations = new ArrayList<>();
+        FirestoreProto2Json gson = FirestoreProto2Json.builder().sortedKeys(true)
+                .fieldMappers(FieldMappers.builder().path("b.count", new ValueMapperAny() {
+                    @Override
+                    public void convert(JsonObject jsonObject, String key, Value value) {
+                        jsonObject.addProperty(key + "Text",
+                                Long.toString(value.getIntegerValue()));
+                        jsonObject.addProperty(key, value.getIntegerValue());
+                    }
+
+                    @Override
+                    public void convert(JsonArray jsonArray, Value value) {
+                        jsonArray.add(value.getIntegerValue());
+                    }
+                }).build())
+                .conversionLimits(ConversionLimits.builder().maxDepth(2).build())
+                .conversionListener(new ConversionListener() {
+                    @Override
+                    public void onConversion(ConversionEvent event) {
+                        operations.add(event.getOperation());
+                    }
+
+                    @Override
+                    public void onFailure(String operation, Exception exception) {
+                        operations.add(operation + " failed");
+                    }
+                }).build();
+        FirestoreProto2Jackson jackson =
+                FirestoreProto2Jackson.builder().firestoreProto2Json(gson).build();
+
+        Document document = Document.newBuilder()
+                .putFields("c", Value.newBuilder().setStringValue("c").build())
+                .putFields("b", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                        .putFields("z", Value.newBuilder().setBooleanValue(true).build())
+                        .putFields("count", Value.newBuilder().setIntegerValue(3).build()))
+                        .build())
+                .putFields("a", Value.newBuilder().setDoubleValue(1.5).build()).build();
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document).build();
+        String expected = "{\"a\":1.5,\"b\":{\"countText\":\"3\",\"count\":3,\"z\":true},"
+                + "\"c\":\"c\"}";
+        assertEquals(expected, gson.valueToJsonString(documentEventData));
+        assertEquals(MAPPER.readTree(expected), jackson.valueToObjectNode(documentEventData));
+
+        // The keys are written in the same order
+        StringWriter stringWriter = new StringWriter();
+        try (JsonGenerator jsonGenerator = MAPPER.getFactory().createGenerator(stringWriter)) {
+            assertTrue(jackson.valueToJson(documentEventData, jsonGenerator));
+        }
+
+        assertEquals(expected, stringWriter.toString());
+
+        DocumentEventData deep = DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .putFields("d", Value.newBuilder().setMapValue(MapValue.newBuilder().putFields(
+                        "d", Value.newBuilder().setMapValue(MapValue.newBuilder().putFields("d",
+                                Value.newBuilder().setMapValue(MapValue.getDefaultInstance())
+                                        .build())).build()))
+                        .build()))
+                .build();
+        assertThrows(ConversionLimitException.class, () -> jackson.valueToObjectNode(deep));
+        assertEquals(List.of("valueToJsonString", "valueToObjectNode", "valueToJson",
+                "valueToObjectNode failed"), operations);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Tests for the batch conversion.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FirestoreProto2JsonBatchTest {
+
+    private static byte[] event(int i) {
+        return DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("i",
+                        Value.newBuilder().setIntegerValue(i).build()))
+                .build().toByteArray();
+    }
+
+    @Test
+    void resultsInInputOrderTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            FirestoreProto2JsonBatch batch =
+                    FirestoreProto2JsonBatch.builder().executor(executor).maxInFlight(16).build();
+            List<BatchResult<Integer>> results =
+                    batch.convert(IntStream.range(0, 200).boxed(), i -> {
+                        // Earlier payloads finish last
+                        Thread.sleep((200 - i) % 7);
+                        return i;
+                    });
+
+            assertEquals(200, results.size());
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, results.get(i).getIndex());
+                assertEquals(i, results.get(i).getValue());
+                assertTrue(results.get(i).isSuccess());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void valueToJsonStringTest() {
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            payloads.add(event(i));
+        }
+
+        List<BatchResult<String>> results =
+                FirestoreProto2JsonBatch.builder().build().valueToJsonString(payloads);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("{\"i\":" + i + "}", results.get(i).getValue());
+        }
+
+        List<BatchResult<String>> oldValues =
+                FirestoreProto2JsonBatch.builder().build().oldValueToJsonString(payloads);
+        assertTrue(oldValues.get(0).isSuccess());
+        assertNull(oldValues.get(0).getValue());
+    }
+
+    @Test
+    void failuresReportedPerItemTest() {
+        List<byte[]> payloads = List.of(event(0), new byte[] {0x0a, 0x05}, event(2));
+        List<BatchResult<DocumentEventJson>> results =
+                FirestoreProto2JsonBatch.builder().build().eventToJson(payloads);
+
+        assertEquals(3, results.size());
+        assertEquals("{\"i\":0}", results.get(0).getValue().getValueJsonString());
+        assertFalse(results.get(1).isSuccess());
+        assertNull(results.get(1).getValue());
+        assertInstanceOf(InvalidProtocolBufferException.class, results.get(1).getException());
+        assertEquals("{\"i\":2}", results.get(2).getValue().getValueJsonString());
+    }
+
+    @Test
+    void base64PayloadsTest() {
+        FirestoreProto2Json converter = FirestoreProto2Json.DEFAULT;
+        List<BatchResult<String>> results = FirestoreProto2JsonBatch.builder().build().convert(
+                Stream.of(Base64.getEncoder().encodeToString(event(7)), "not base64!"),
+                converter::valueToJsonString);
+
+        assertEquals("{\"i\":7}", results.get(0).getValue());
+        assertInstanceOf(IllegalArgumentException.class, results.get(1).getException());
+    }
+
+    @Test
+    void boundedInFlightTest() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger delivered = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            FirestoreProto2JsonBatch batch =
+                    FirestoreProto2JsonBatch.builder().executor(executor).maxInFlight(3).build();
+            Iterable<Integer> payloads = () -> IntStream.range(0, 100).boxed().peek(i -> {
+                // The payload is only read once the window has room for it
+                assertTrue(i - delivered.get() <= 3);
+            }).iterator();
+            batch.convert(payloads, i -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(1);
+                running.decrementAndGet();
+                return i;
+            }, result -> assertEquals(delivered.getAndIncrement(), result.getIndex()));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(100, delivered.get());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    void callerThreadExecutorTest() {
+        FirestoreProto2JsonBatch batch =
+                FirestoreProto2JsonBatch.builder().executor(Runnable::run).maxInFlight(1).build();
+        List<BatchResult<String>> results = batch.convert(List.of("a", "b"), s -> s + s);
+        assertEquals("aa", results.get(0).getValue());
+        assertEquals("bb", results.get(1).getValue());
+    }
+
+    @Test
+    void invalidMaxInFlightTest() {
+        FirestoreProto2JsonBatch batch = FirestoreProto2JsonBatch.builder().maxInFlight(0).build();
+        assertThrows(IllegalArgumentException.class,
+                () -> batch.convert(List.of("a"), s -> s));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+
+/**
+ * Tests the reusable conversion context.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FirestoreProto2JsonContextTest {
+
+    private static final Document DOCUMENT = Document.newBuilder()
+            .putFields("string", Value.newBuilder().setStringValue("<hello> \"world\" é").build())
+            .putFields("integer", Value.newBuilder().setIntegerValue(-1234567890123L).build())
+            .putFields("boolean", Value.newBuilder().setBooleanValue(true).build())
+            .putFields("null", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+            .putFields("timestamp", Value.newBuilder().setTimestampValue(
+                    Timestamp.newBuilder().setSeconds(1709251200L).setNanos(123456789)).build())
+            .putFields("bytes", Value.newBuilder()
+                    .setBytesValue(ByteString.copyFromUtf8("some bytes")).build())
+            .putFields("reference", Value.newBuilder()
+                    .setReferenceValue("projects/p/databases/(default)/documents/c/d").build())
+            .putFields("map", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                    .putFields("nested", Value.newBuilder().setStringValue("value").build()))
+                    .build())
+            .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                    .addValues(Value.newBuilder().setIntegerValue(1))
+                    .addValues(Value.newBuilder().setStringValue("two"))).build())
+            .build();
+
+    private static final byte[] EVENT = DocumentEventData.newBuilder().setValue(DOCUMENT)
+            .setOldValue(DOCUMENT.toBuilder().removeFields("map")).build().toByteArray();
+
+    @Test
+    void outputMatchesTest() throws Exception {
+        FirestoreProto2JsonContext context = FirestoreProto2Json.DEFAULT.newContext();
+        String value = FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT);
+        String oldValue = FirestoreProto2Json.DEFAULT.oldValueToJsonString(EVENT);
+
+        // The same context is reused for every conversion
+        for (int i = 0; i < 3; i++) {
+            assertEquals(value, context.valueToJsonString(EVENT));
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8),
+                    context.valueToJsonBytes(EVENT));
+            assertEquals(oldValue, context.oldValueToJsonString(EVENT));
+            assertArrayEquals(oldValue.getBytes(StandardCharsets.UTF_8),
+                    context.oldValueToJsonBytes(EVENT));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            assertTrue(context.valueToJsonFromBase64(Base64.getEncoder().encodeToString(EVENT),
+                    outputStream));
+            assertEquals(value, outputStream.toString(StandardCharsets.UTF_8));
+
+            outputStream.reset();
+            byte[] padded = new byte[EVENT.length + 8];
+            System.arraycopy(EVENT, 0, padded, 4, EVENT.length);
+            assertTrue(context.oldValueToJson(padded, 4, EVENT.length, outputStream));
+            assertEquals(oldValue, outputStream.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void notSetTest() throws Exception {
+        FirestoreProto2JsonContext context = FirestoreProto2Json.DEFAULT.newContext();
+        byte[] event =
+                DocumentEventData.newBuilder().setValue(DOCUMENT).build().toByteArray();
+        assertNull(context.oldValueToJsonString(event));
+        assertNull(context.oldValueToJsonBytes(event));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertFalse(context.oldValueToJson(event, outputStream));
+        assertFalse(context.oldValueToJsonFromBase64("", outputStream));
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test
+    void invalidTest() throws Exception {
+        FirestoreProto2JsonContext context = FirestoreProto2Json.DEFAULT.newContext();
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> context.valueToJsonString(new byte[] {0x0a, 0x05, 0x12}));
+
+        // The context remains usable after a failed conversion
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT),
+                context.valueToJsonString(EVENT));
+    }
+
+    @Test
+    void mergeRequiredTest() throws Exception {
+        // A repeated document is merged by the parser so the conversion falls back to parsing
+        byte[] first = DocumentEventData.newBuilder().setValue(DOCUMENT).build().toByteArray();
+        byte[] second = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("added",
+                        Value.newBuilder().setBooleanValue(false).build()))
+                .build().toByteArray();
+        byte[] event = new byte[first.length + second.length];
+        System.arraycopy(first, 0, event, 0, first.length);
+        System.arraycopy(second, 0, event, first.length, second.length);
+
+        FirestoreProto2JsonContext context = FirestoreProto2Json.DEFAULT.newContext();
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(event),
+                context.valueToJsonString(event));
+    }
+
+    @Test
+    void discardedConverterCollectedTest() throws Exception {
+        WeakReference<FirestoreProto2Json> reference = convertAndDiscard();
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(reference.get(), "The converter is retained by the thread");
+    }
+
+    private static WeakReference<FirestoreProto2Json> convertAndDiscard() throws Exception {
+        // The methods transcoding bytes use the transcoder of the current thread
+        FirestoreProto2Json converter = FirestoreProto2Json.builder().build();
+        assertEquals(FirestoreProto2Json.DEFAULT.valueToJsonString(EVENT),
+                converter.valueToJsonString(EVENT));
+        converter.oldValueToJson(EVENT, OutputStream.nullOutputStream());
+        converter.valueToHashedJson(EVENT);
+        return new WeakReference<>(converter);
+    }
+
+    @Test
+    void steadyStateAllocationTest() throws Exception {
+        assumeTrue(ManagementFactory
+                .getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported()
+                && threadMXBean.isThreadAllocatedMemoryEnabled());
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        FirestoreProto2JsonContext context = FirestoreProto2Json.DEFAULT.newContext();
+        String base64 = Base64.getEncoder().encodeToString(EVENT);
+        OutputStream outputStream = OutputStream.nullOutputStream();
+        int iterations = 20000;
+        for (int i = 0; i < iterations; i++) {
+            context.valueToJson(EVENT, outputStream);
+            context.oldValueToJsonFromBase64(base64, outputStream);
+        }
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            context.valueToJson(EVENT, outputStream);
+            context.oldValueToJsonFromBase64(base64, outputStream);
+        }
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow for the measurement itself; any per conversion allocation exceeds this
+        assertTrue(allocated < iterations, "Allocated " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Tests for the Flow processor.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FirestoreProto2JsonProcessorTest {
+
+    private ExecutorService executor;
+
+    /**
+     * A subscriber collecting the values, requesting the given number at a time.
+     */
+    private static final class CollectingSubscriber<T> implements Flow.Subscriber<T> {
+
+        private final List<T> values = Collections.synchronizedList(new ArrayList<>());
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final long batch;
+
+        private final AtomicInteger received = new AtomicInteger();
+
+        private Flow.Subscription subscription;
+
+        private volatile Throwable error;
+
+        private volatile boolean completed;
+
+        private CollectingSubscriber(long batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(this.batch);
+        }
+
+        @Override
+        public void onNext(T item) {
+            this.values.add(item);
+            if (this.received.incrementAndGet() % this.batch == 0) {
+                this.subscription.request(this.batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+            this.done.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue(this.done.await(30, TimeUnit.SECONDS));
+        }
+    }
+
+    private static byte[] event(int i) {
+        return DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("i",
+                        Value.newBuilder().setIntegerValue(i).build()))
+                .build().toByteArray();
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.executor.shutdown();
+    }
+
+    private <P> void publish(Flow.Processor<P, ?> processor, List<P> payloads) {
+        try (SubmissionPublisher<P> publisher = new SubmissionPublisher<>(this.executor, 4)) {
+            publisher.subscribe(processor);
+            for (P payload : payloads) {
+                publisher.submit(payload);
+            }
+        }
+    }
+
+    @Test
+    void orderedTest() throws Exception {
+        FirestoreProto2JsonProcessor<Integer, Integer> processor =
+                FirestoreProto2JsonProcessor.<Integer, Integer>builder().conversion(i -> {
+                    // Earlier payloads finish last
+                    Thread.sleep((200 - i) % 7);
+                    return i;
+                }).executor(this.executor).parallelism(8).prefetch(16).build();
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<>(3);
+        processor.subscribe(subscriber);
+
+        List<Integer> payloads = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            payloads.add(i);
+        }
+
+        publish(processor, payloads);
+        subscriber.await();
+        assertTrue(subscriber.completed);
+        assertEquals(payloads, subscriber.values);
+    }
+
+    @Test
+    void unorderedTest() throws Exception {
+        FirestoreProto2JsonProcessor<Integer, Integer> processor =
+                FirestoreProto2JsonProcessor.<Integer, Integer>builder().conversion(i -> {
+                    Thread.sleep((200 - i) % 7);
+                    return i;
+                }).executor(this.executor).parallelism(4).unordered(true).build();
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        List<Integer> payloads = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            payloads.add(i);
+        }
+
+        publish(processor, payloads);
+        subscriber.await();
+        assertTrue(subscriber.completed);
+        List<Integer> values = new ArrayList<>(subscriber.values);
+        Collections.sort(values);
+        assertEquals(payloads, values);
+    }
+
+    @Test
+    void valueToJsonStringTest() throws Exception {
+        FirestoreProto2JsonProcessor<String, String> processor =
+                FirestoreProto2JsonProcessor.<String, String>builder()
+                        .conversion(FirestoreProto2Json.DEFAULT::valueToJsonString)
+                        .executor(this.executor).build();
+        CollectingSubscriber<String> subscriber = new CollectingSubscriber<>(1);
+        processor.subscribe(subscriber);
+
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            payloads.add(Base64.getEncoder().encodeToString(event(i)));
+        }
+
+        // An event without the value publishes nothing
+        payloads.add(Base64.getEncoder()
+                .encodeToString(DocumentEventData.getDefaultInstance().toByteArray()));
+
+        publish(processor, payloads);
+        subscriber.await();
+        assertTrue(subscriber.completed);
+        assertEquals(50, subscriber.values.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("{\"i\":" + i + "}", subscriber.values.get(i));
+        }
+    }
+
+    @Test
+    void failureHandlerTest() throws Exception {
+        List<byte[]> failed = Collections.synchronizedList(new ArrayList<>());
+        List<Exception> exceptions = Collections.synchronizedList(new ArrayList<>());
+        FirestoreProto2JsonProcessor<byte[], String> processor =
+                FirestoreProto2JsonProcessor.<byte[], String>builder()
+                        .conversion(FirestoreProto2Json.DEFAULT::valueToJsonString)
+                        .executor(this.executor).failureHandler((payload, e) -> {
+                            failed.add(payload);
+                            exceptions.add(e);
+                        }).build();
+        CollectingSubscriber<String> subscriber = new CollectingSubscriber<>(2);
+        processor.subscribe(subscriber);
+
+        byte[] invalid = new byte[] {0x0a, 0x05, 0x12};
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            payloads.add(i % 5 == 0 ? invalid : event(i));
+        }
+
+        publish(processor, payloads);
+        subscriber.await();
+        assertTrue(subscriber.completed);
+        assertEquals(16, subscriber.values.size());
+        assertEquals(4, failed.size());
+        assertTrue(failed.stream().allMatch(payload -> payload == invalid));
+        assertTrue(exceptions.stream()
+                .allMatch(e -> e instanceof InvalidProtocolBufferException));
+    }
+
+    @Test
+    void failureWithoutHandlerTest() throws Exception {
+        FirestoreProto2JsonProcessor<byte[], String> processor =
+                FirestoreProto2JsonProcessor.<byte[], String>builder()
+                        .conversion(FirestoreProto2Json.DEFAULT::valueToJsonString)
+                        .executor(this.executor).parallelism(1).build();
+        CollectingSubscriber<String> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            payloads.add(i == 5 ? new byte[] {0x0a, 0x05, 0x12} : event(i));
+        }
+
+        publish(processor, payloads);
+        subscriber.await();
+        assertInstanceOf(InvalidProtocolBufferException.class, subscriber.error);
+        assertEquals(5, subscriber.values.size());
+    }
+
+    @Test
+    void backpressureTest() throws Exception {
+        AtomicInteger converted = new AtomicInteger();
+        FirestoreProto2JsonProcessor<Integer, Integer> processor =
+                FirestoreProto2JsonProcessor.<Integer, Integer>builder().conversion(i -> {
+                    converted.incrementAndGet();
+                    return i;
+                }).executor(this.executor).parallelism(2).prefetch(8).build();
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        List<Flow.Subscription> subscriptions = new ArrayList<>();
+        processor.subscribe(new Flow.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptions.add(subscription);
+                subscription.request(3);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                values.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onComplete() {}
+        });
+
+        SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(this.executor, 64);
+        publisher.subscribe(processor);
+        for (int i = 0; i < 50; i++) {
+            publisher.submit(i);
+        }
+
+        // Only the prefetched payloads are converted while the demand is not met
+        Thread.sleep(200);
+        assertEquals(List.of(0, 1, 2), values);
+        assertTrue(converted.get() <= 3 + 8, "Converted " + converted.get());
+
+        subscriptions.get(0).cancel();
+        publisher.close();
+    }
+
+    @Test
+    void singleSubscriberTest() throws Exception {
+        FirestoreProto2JsonProcessor<Integer, Integer> processor =
+                FirestoreProto2JsonProcessor.<Integer, Integer>builder().conversion(i -> i)
+                        .build();
+        processor.subscribe(new CollectingSubscriber<>(1));
+        CollectingSubscriber<Integer> second = new CollectingSubscriber<>(1);
+        processor.subscribe(second);
+        second.await();
+        assertInstanceOf(IllegalStateException.class, second.error);
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> FirestoreProto2JsonProcessor.<Integer, Integer>builder().build());
+        assertThrows(IllegalArgumentException.class,
+                () -> FirestoreProto2JsonProcessor.<Integer, Integer>builder()
+                        .conversion(i -> i).parallelism(-1).build());
+    }
+}
@@ -13,9 +13,17 @@
  */
 package com.unitvectory.firestoreproto2json;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.unitvectory.jsonassertify.JSONAssert;
 
 /**
@@ -73,4 +81,57 @@ public class FirestoreProto2JsonTest {
                                 FirestoreProto2Json.DEFAULT.oldValueToJsonString(booleanUpdate),
                                 true);
         }
+
+        @Test
+        public void eventToJsonBase64Test() throws Exception {
+                DocumentEventJson documentEventJson =
+                                FirestoreProto2Json.DEFAULT.eventToJson(booleanUpdate);
+                assertTrue(documentEventJson.hasValue());
+                assertTrue(documentEventJson.hasOldValue());
+                JSONAssert.assertEquals(expectedNew, documentEventJson.getValueJsonString(), true);
+                JSONAssert.assertEquals(expectedOld, documentEventJson.getOldValueJsonString(),
+                                true);
+                JSONAssert.assertEquals(expectedNew,
+                                documentEventJson.getValueJsonObject().toString(), true);
+                JSONAssert.assertEquals(expectedOld,
+                                documentEventJson.getOldValueJsonObject().toString(), true);
+                assertTrue(documentEventJson.hasUpdateMask());
+                assertEquals(List.of("booleanField"), documentEventJson.getUpdateMask());
+        }
+
+        @Test
+        public void eventToJsonBytesTest() throws Exception {
+                DocumentEventJson documentEventJson = FirestoreProto2Json.DEFAULT
+                                .eventToJson(Base64.getDecoder().decode(booleanUpdate));
+                JSONAssert.assertEquals(expectedNew, documentEventJson.getValueJsonString(), true);
+                JSONAssert.assertEquals(expectedOld, documentEventJson.getOldValueJsonString(),
+                                true);
+        }
+
+        @Test
+        public void eventToJsonInputTypesTest() throws Exception {
+                byte[] bytes = Base64.getDecoder().decode(booleanUpdate);
+                ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+                directBuffer.put(bytes).flip();
+
+                DocumentEventJson[] documentEventJsons = new DocumentEventJson[] {
+                                FirestoreProto2Json.DEFAULT.eventToJson(ByteBuffer.wrap(bytes)),
+                                FirestoreProto2Json.DEFAULT.eventToJson(directBuffer),
+                                FirestoreProto2Json.DEFAULT.eventToJson(ByteString.copyFrom(bytes)),
+                                FirestoreProto2Json.DEFAULT
+                                                .eventToJson(new ByteArrayInputStream(bytes)),
+                                FirestoreProto2Json.DEFAULT
+                                                .eventToJson(CodedInputStream.newInstance(bytes)),
+                                FirestoreProto2Json.DEFAULT.eventToJsonFromBase64(
+                                                new StringBuilder(booleanUpdate)),
+                                FirestoreProto2Json.DEFAULT.eventToJsonFromBase64(ByteBuffer.wrap(
+                                                booleanUpdate.getBytes(StandardCharsets.US_ASCII)))};
+
+                for (DocumentEventJson documentEventJson : documentEventJsons) {
+                        JSONAssert.assertEquals(expectedNew, documentEventJson.getValueJsonString(),
+                                        true);
+                        JSONAssert.assertEquals(expectedOld,
+                                        documentEventJson.getOldValueJsonString(), true);
+                }
+        }
 }
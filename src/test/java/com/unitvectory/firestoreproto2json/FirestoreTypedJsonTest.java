@@ -0,0 +1,213 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.DocumentMask;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+
+/**
+ * Tests typed JSON reconstructs the DocumentEventData exactly.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FirestoreTypedJsonTest {
+
+    private static Value timestamp(long seconds, int nanos) {
+        return Value.newBuilder()
+                .setTimestampValue(Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos))
+                .build();
+    }
+
+    private static Value map(String name, Value value) {
+        return Value.newBuilder().setMapValue(MapValue.newBuilder().putFields(name, value))
+                .build();
+    }
+
+    private static final Document DOCUMENT = Document.newBuilder()
+            .setName("projects/p/databases/(default)/documents/c/d")
+            .putFields("string", Value.newBuilder().setStringValue("<hello> \"world\" é").build())
+            .putFields("integer", Value.newBuilder().setIntegerValue(Long.MIN_VALUE).build())
+            .putFields("max", Value.newBuilder().setIntegerValue(Long.MAX_VALUE).build())
+            .putFields("double", Value.newBuilder().setDoubleValue(1.0).build())
+            .putFields("negativeZero", Value.newBuilder().setDoubleValue(-0.0).build())
+            .putFields("nan", Value.newBuilder().setDoubleValue(Double.NaN).build())
+            .putFields("infinity",
+                    Value.newBuilder().setDoubleValue(Double.NEGATIVE_INFINITY).build())
+            .putFields("boolean", Value.newBuilder().setBooleanValue(true).build())
+            .putFields("null", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+            .putFields("timestamp", timestamp(1709251200L, 123456789))
+            .putFields("whole", timestamp(-62135596800L, 0))
+            .putFields("future", timestamp(253402300800L, 5))
+            .putFields("invalidNanos", timestamp(0, -1))
+            .putFields("bytes", Value.newBuilder()
+                    .setBytesValue(ByteString.copyFrom(new byte[] {0, -1, 2, -3, 4})).build())
+            .putFields("reference", Value.newBuilder()
+                    .setReferenceValue("projects/p/databases/(default)/documents/c/d").build())
+            .putFields("geoPoint", Value.newBuilder()
+                    .setGeoPointValue(LatLng.newBuilder().setLatitude(40.7128)
+                            .setLongitude(-74.006))
+                    .build())
+            .putFields("map", map("nested", map("deeper", timestamp(1, 1))))
+            .putFields("reserved", map("$bytes", Value.newBuilder().setStringValue("x").build()))
+            .putFields("emptyMap",
+                    Value.newBuilder().setMapValue(MapValue.getDefaultInstance()).build())
+            .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                    .addValues(Value.newBuilder().setIntegerValue(1))
+                    .addValues(Value.newBuilder().setDoubleValue(1))
+                    .addValues(map("$map", Value.newBuilder().setBooleanValue(false).build()))
+                    .addValues(Value.getDefaultInstance())
+                    .addValues(Value.newBuilder().setArrayValue(ArrayValue.getDefaultInstance())))
+                    .build())
+            .setCreateTime(Timestamp.newBuilder().setSeconds(1709251200L))
+            .setUpdateTime(Timestamp.newBuilder().setSeconds(1709251201L).setNanos(500000000))
+            .build();
+
+    private static final DocumentEventData EVENT = DocumentEventData.newBuilder()
+            .setValue(DOCUMENT)
+            .setOldValue(DOCUMENT.toBuilder().removeFields("map"))
+            .setUpdateMask(DocumentMask.newBuilder().addFieldPaths("map")).build();
+
+    @Test
+    void roundTripTest() throws Exception {
+        String typedJson = FirestoreTypedJson.DEFAULT.eventToTypedJson(EVENT);
+        assertEquals(EVENT, FirestoreTypedJson.DEFAULT.typedJsonToEvent(typedJson));
+
+        // The fields are written in order so the protocol buffer bytes are identical
+        assertArrayEquals(EVENT.toByteArray(),
+                FirestoreTypedJson.DEFAULT.typedJsonToEventBytes(typedJson));
+        assertEquals(typedJson, FirestoreTypedJson.DEFAULT.eventToTypedJson(EVENT.toByteArray()));
+        assertEquals(DOCUMENT, FirestoreTypedJson.DEFAULT
+                .typedJsonToDocument(FirestoreTypedJson.DEFAULT.documentToTypedJson(DOCUMENT)));
+    }
+
+    @Test
+    void outputTest() {
+        Document document = Document.newBuilder()
+                .putFields("a", Value.newBuilder().setIntegerValue(1).build())
+                .putFields("b", Value.newBuilder().setDoubleValue(1).build())
+                .putFields("c", timestamp(1709251200L, 120000000))
+                .putFields("d", Value.newBuilder()
+                        .setBytesValue(ByteString.copyFromUtf8("data")).build())
+                .putFields("e", Value.newBuilder().setReferenceValue("c/d").build())
+                .putFields("f", Value.newBuilder().setGeoPointValue(
+                        LatLng.newBuilder().setLatitude(1.5).setLongitude(-2.5)).build())
+                .putFields("g", map("$reference", Value.newBuilder().setStringValue("x").build()))
+                .putFields("h", map("i", Value.newBuilder().setDoubleValue(Double.NaN).build()))
+                .putFields("j", timestamp(253402300800L, 0))
+                .build();
+        assertEquals("{\"fields\":{\"a\":1,\"b\":1.0,"
+                + "\"c\":{\"$timestamp\":\"2024-03-01T00:00:00.12Z\"},"
+                + "\"d\":{\"$bytes\":\"ZGF0YQ==\"},\"e\":{\"$reference\":\"c/d\"},"
+                + "\"f\":{\"$geoPoint\":[1.5,-2.5]},\"g\":{\"$map\":{\"$reference\":\"x\"}},"
+                + "\"h\":{\"i\":{\"$double\":\"NaN\"}},\"j\":{\"$timestamp\":[253402300800,0]}}}",
+                FirestoreTypedJson.DEFAULT.documentToTypedJson(document));
+    }
+
+    @Test
+    void nonFiniteGeoPointTest() throws Exception {
+        Document document = Document.newBuilder().putFields("g", Value.newBuilder()
+                .setGeoPointValue(LatLng.newBuilder().setLatitude(Double.NaN)
+                        .setLongitude(Double.NEGATIVE_INFINITY))
+                .build()).build();
+        String typedJson = FirestoreTypedJson.DEFAULT.documentToTypedJson(document);
+        assertEquals("{\"fields\":{\"g\":{\"$geoPoint\":"
+                + "[{\"$double\":\"NaN\"},{\"$double\":\"-Infinity\"}]}}}", typedJson);
+        assertEquals(document, FirestoreTypedJson.DEFAULT.typedJsonToDocument(typedJson));
+    }
+
+    @Test
+    void timestampTest() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long seconds = -62135596800L
+                    + (long) (random.nextDouble() * (253402300799L + 62135596800L));
+            Instant instant = Instant.ofEpochSecond(seconds, random.nextInt(1000000000));
+            Timestamp timestamp = TypedJsonParser.parseTimestamp(instant.toString());
+            assertEquals(instant.getEpochSecond(), timestamp.getSeconds(), instant.toString());
+            assertEquals(instant.getNano(), timestamp.getNanos(), instant.toString());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2024-03-01T00:00:00+01:00", "2024-03-01T00:00:00.5-05:30",
+            "+10000-01-01T00:00:00Z", "2024-03-01t00:00:00z"})
+    void timestampFallbackTest(String text) throws Exception {
+        Instant instant = Instant.parse(text);
+        Document document = FirestoreTypedJson.DEFAULT
+                .typedJsonToDocument("{\"fields\":{\"t\":{\"$timestamp\":\"" + text + "\"}}}");
+        assertEquals(timestamp(instant.getEpochSecond(), instant.getNano()),
+                document.getFieldsOrThrow("t"));
+    }
+
+    @Test
+    void eventsTest() throws Exception {
+        String typedJson = FirestoreTypedJson.DEFAULT.eventToTypedJson(EVENT);
+        List<DocumentEventData> events = new ArrayList<>();
+        FirestoreTypedJson.DEFAULT.typedJsonToEvents(
+                new StringReader(typedJson + "\n{}\n" + typedJson + "\n"), events::add);
+        assertEquals(List.of(EVENT, DocumentEventData.getDefaultInstance(), EVENT), events);
+    }
+
+    @Test
+    void unknownMemberTest() throws Exception {
+        assertEquals(DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .putFields("a", Value.newBuilder().setIntegerValue(1).build())).build(),
+                FirestoreTypedJson.DEFAULT.typedJsonToEvent("{\"version\":2,\"value\":"
+                        + "{\"fields\":{\"a\":1},\"extra\":{\"b\":[1,2]}}}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{\"value\":{\"fields\":{\"a\":{\"$bytes\":\"!!\"}}}}",
+            "{\"value\":{\"fields\":{\"a\":{\"$reference\":\"x\",\"b\":1}}}}",
+            "{\"value\":{\"fields\":{\"a\":99999999999999999999}}}",
+            "{\"value\":{\"fields\":{\"a\":{\"$timestamp\":\"2024-02-30T00:00:00Z\"}}}}",
+            "{\"value\":{\"fields\":{\"a\":{\"$double\":\"one\"}}}}",
+            "{\"value\":{\"fields\":{\"a\":{\"$geoPoint\":[{\"$bytes\":\"\"},1.0]}}}}",
+            "{} {}", "[]"})
+    void invalidTest(String typedJson) {
+        assertThrows(IOException.class,
+                () -> FirestoreTypedJson.DEFAULT.typedJsonToEvent(typedJson));
+    }
+
+    @Test
+    void limitsTest() throws Exception {
+        FirestoreTypedJson limited = FirestoreTypedJson.builder()
+                .conversionLimits(ConversionLimits.builder().maxDepth(2).build()).build();
+        Document document = Document.newBuilder().putFields("a", map("b", map("c", map("d",
+                Value.newBuilder().setIntegerValue(1).build())))).build();
+        String typedJson = FirestoreTypedJson.DEFAULT.documentToTypedJson(document);
+        assertThrows(ConversionLimitException.class, () -> limited.typedJsonToDocument(typedJson));
+        assertThrows(ConversionLimitException.class, () -> limited.documentToTypedJson(document));
+    }
+}
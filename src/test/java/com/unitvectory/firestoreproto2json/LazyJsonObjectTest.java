@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests the lazy view converts fields on access and serializes the same as the eager conversion.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class LazyJsonObjectTest {
+
+    /**
+     * Counts the timestamps converted.
+     */
+    private static final class CountingTimestampMapper extends ValueMapperTimestamp {
+
+        private int count;
+
+        @Override
+        public void convert(JsonObject jsonObject, String key, Timestamp timestamp) {
+            this.count++;
+            jsonObject.addProperty(key, timestamp.getSeconds());
+        }
+
+        @Override
+        public void convert(JsonArray jsonArray, Timestamp timestamp) {
+            this.count++;
+            jsonArray.add(timestamp.getSeconds());
+        }
+    }
+
+    private static final FirestoreProto2Json CUSTOM = FirestoreProto2Json.builder()
+            .valueMapperGeoPoint(new ValueMapperGeoPoint() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+                    jsonObject.addProperty(key + "_lat", geopoint.getLatitude());
+                    jsonObject.addProperty(key + "_lng", geopoint.getLongitude());
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, LatLng geopoint) {
+                    jsonArray.add(geopoint.getLatitude());
+                    jsonArray.add(geopoint.getLongitude());
+                }
+            }).build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static Value timestamp(long seconds) {
+        return Value.newBuilder().setTimestampValue(Timestamp.newBuilder().setSeconds(seconds))
+                .build();
+    }
+
+    private static void assertSameAsEager(FirestoreProto2Json firestoreProto2Json,
+            DocumentEventData documentEventData) {
+        JsonObject eager = firestoreProto2Json.valueToJsonObject(documentEventData);
+        if (eager == null) {
+            assertNull(firestoreProto2Json.valueToLazyJsonObject(documentEventData));
+            return;
+        }
+
+        // Every member is found by name before the remaining fields are converted
+        LazyJsonObject lazy = firestoreProto2Json.valueToLazyJsonObject(documentEventData);
+        for (Entry<String, JsonElement> entry : eager.entrySet()) {
+            assertEquals(entry.getValue(), lazy.get(entry.getKey()), entry.getKey());
+        }
+
+        assertEquals(eager, lazy.toJsonObject());
+        assertEquals(eager.toString(), lazy.toString());
+        assertEquals(eager.toString(),
+                firestoreProto2Json.valueToLazyJsonObject(documentEventData).toString());
+    }
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void sameAsEagerTest(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    mapper.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            DocumentEventData documentEventData =
+                    DocumentEventData.parseFrom(Base64.getDecoder().decode(protocolBuffer));
+            assertSameAsEager(FirestoreProto2Json.DEFAULT, documentEventData);
+            assertSameAsEager(CUSTOM, documentEventData);
+        }
+    }
+
+    @Test
+    void convertsOnAccessTest() {
+        Document.Builder document = Document.newBuilder();
+        MapValue.Builder nested = MapValue.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            document.putFields("field" + i, timestamp(i));
+            nested.putFields("nested" + i, timestamp(i));
+        }
+
+        document.putFields("map", Value.newBuilder().setMapValue(nested).build());
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document).build();
+
+        CountingTimestampMapper counting = new CountingTimestampMapper();
+        FirestoreProto2Json firestoreProto2Json =
+                FirestoreProto2Json.builder().valueMapperTimestamp(counting).build();
+        LazyJsonObject lazy = firestoreProto2Json.valueToLazyJsonObject(documentEventData);
+        assertEquals(7, lazy.get("field7").getAsLong());
+        assertEquals(1, counting.count);
+
+        // Converted fields are cached
+        assertSame(lazy.get("field7"), lazy.get("field7"));
+        assertEquals(1, counting.count);
+
+        // Maps can be navigated without converting the other fields
+        LazyJsonObject map = lazy.getView("map");
+        assertSame(map, lazy.getView("map"));
+        assertEquals(42, map.get("nested42").getAsLong());
+        assertEquals(2, counting.count);
+        assertNull(lazy.getView("field7"));
+
+        // Serializing converts only the remaining fields
+        String json = lazy.toString();
+        assertEquals(200, counting.count);
+        assertEquals(firestoreProto2Json.valueToJsonObject(documentEventData).toString(), json);
+    }
+
+    @Test
+    void renamedByMapperTest() {
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("location",
+                        Value.newBuilder().setGeoPointValue(
+                                LatLng.newBuilder().setLatitude(1.5).setLongitude(2.5)).build()))
+                .build();
+        LazyJsonObject lazy = CUSTOM.valueToLazyJsonObject(documentEventData);
+        assertFalse(lazy.has("location"));
+        assertTrue(lazy.has("location_lat"));
+        assertEquals(2.5, lazy.get("location_lng").getAsDouble());
+        assertNull(lazy.get("missing"));
+    }
+
+    @Test
+    void projectionTest() {
+        FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.builder()
+                .fieldProjection(FieldProjection.builder().include("map.keep").build()).build();
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("drop", timestamp(1))
+                        .putFields("map", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                                .putFields("keep", timestamp(2)).putFields("drop", timestamp(3)))
+                                .build()))
+                .build();
+        LazyJsonObject lazy = firestoreProto2Json.valueToLazyJsonObject(documentEventData);
+        assertFalse(lazy.has("drop"));
+        assertNull(lazy.getView("drop"));
+        assertTrue(lazy.getView("map").has("keep"));
+        assertFalse(lazy.getView("map").has("drop"));
+        assertEquals(firestoreProto2Json.valueToJsonObject(documentEventData),
+                lazy.toJsonObject());
+    }
+}
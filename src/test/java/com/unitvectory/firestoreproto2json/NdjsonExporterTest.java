@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+
+/**
+ * Tests for the newline delimited JSON exporter.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class NdjsonExporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<DocumentEventData> events() {
+        List<DocumentEventData> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Document.Builder document = Document.newBuilder()
+                    .putFields("i", Value.newBuilder().setIntegerValue(i).build())
+                    .putFields("text", Value.newBuilder().setStringValue("x".repeat(i * 50)).build())
+                    .putFields("nested", Value.newBuilder().setMapValue(MapValue.newBuilder()
+                            .putFields("bytes", Value.newBuilder()
+                                    .setBytesValue(ByteString.copyFrom(new byte[i])).build())
+                            .putFields("time", Value.newBuilder()
+                                    .setTimestampValue(Timestamp.newBuilder().setSeconds(i))
+                                    .build()))
+                            .build());
+            DocumentEventData.Builder event = DocumentEventData.newBuilder();
+            if (i % 5 != 0) {
+                // Every fifth record is a delete without a value
+                event.setValue(document);
+            }
+
+            events.add(event.setOldValue(document.putFields("old",
+                    Value.newBuilder().setBooleanValue(true).build())).build());
+        }
+
+        return events;
+    }
+
+    private static byte[] lengthDelimited(List<DocumentEventData> events) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (DocumentEventData event : events) {
+            event.writeDelimitedTo(outputStream);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static String expected(List<DocumentEventData> events, boolean oldValue) {
+        StringBuilder expected = new StringBuilder();
+        for (DocumentEventData event : events) {
+            String json = oldValue ? FirestoreProto2Json.DEFAULT.oldValueToJsonString(event)
+                    : FirestoreProto2Json.DEFAULT.valueToJsonString(event);
+            if (json != null) {
+                expected.append(json).append('\n');
+            }
+        }
+
+        return expected.toString();
+    }
+
+    private static String export(NdjsonExporter exporter, byte[] input) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        exporter.export(new ByteArrayInputStream(input), outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 64 * 1024})
+    void lengthDelimitedTest(int bufferSize) throws IOException {
+        List<DocumentEventData> events = events();
+        byte[] input = lengthDelimited(events);
+
+        NdjsonExporter exporter = NdjsonExporter.builder().bufferSize(bufferSize).build();
+        assertEquals(expected(events, false), export(exporter, input));
+
+        NdjsonExporter oldValues =
+                NdjsonExporter.builder().bufferSize(bufferSize).oldValue(true).build();
+        assertEquals(expected(events, true), export(oldValues, input));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 64 * 1024})
+    void base64LinesTest(int bufferSize) throws IOException {
+        List<DocumentEventData> events = events();
+        StringBuilder input = new StringBuilder("\n");
+        for (DocumentEventData event : events) {
+            input.append(Base64.getEncoder().encodeToString(event.toByteArray()));
+            input.append(input.length() % 2 == 0 ? "\r\n" : "\n\n");
+        }
+
+        // The last line does not need a trailing newline
+        input.setLength(input.length() - 1);
+
+        NdjsonExporter exporter = NdjsonExporter.builder().bufferSize(bufferSize)
+                .recordFormat(NdjsonExporter.RecordFormat.BASE64_LINES).build();
+        assertEquals(expected(events, false),
+                export(exporter, input.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void mappedFileTest() throws IOException {
+        List<DocumentEventData> events = events();
+        Path input = tempDir.resolve("events.bin");
+        Path output = tempDir.resolve("events.ndjson");
+        Files.write(input, lengthDelimited(events));
+
+        long count = NdjsonExporter.builder().build().export(input, output);
+
+        assertEquals(16, count);
+        assertEquals(expected(events, false), Files.readString(output));
+    }
+
+    @Test
+    void emptyInputTest() throws IOException {
+        Path input = Files.createFile(tempDir.resolve("empty.bin"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(0, NdjsonExporter.builder().build().export(input, outputStream));
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test
+    void truncatedRecordTest() throws IOException {
+        byte[] input = lengthDelimited(events());
+        byte[] truncated = Arrays.copyOf(input, input.length - 1);
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> export(NdjsonExporter.builder().build(), truncated));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> export(NdjsonExporter.builder().build(), new byte[] {(byte) 0x80}));
+    }
+
+    @Test
+    void bogusLengthTest() throws IOException {
+        // A length prefix of Integer.MAX_VALUE followed by a few bytes
+        byte[] input = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0x0a, 0x00};
+        assumeTrue(ManagementFactory
+                .getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported()
+                && threadMXBean.isThreadAllocatedMemoryEnabled());
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        InvalidProtocolBufferException e = assertThrows(InvalidProtocolBufferException.class,
+                () -> export(NdjsonExporter.builder().build(), input));
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(ProtoJsonTranscoder.truncated().getMessage(), e.getMessage());
+        assertTrue(allocated < 16 * 1024 * 1024, "Allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void maxRecordSizeTest() throws IOException {
+        List<DocumentEventData> events = events();
+        int largest =
+                events.stream().mapToInt(DocumentEventData::getSerializedSize).max().getAsInt();
+        StringBuilder base64Lines = new StringBuilder();
+        for (DocumentEventData event : events) {
+            base64Lines.append(Base64.getEncoder().encodeToString(event.toByteArray()))
+                    .append("\r\n");
+        }
+
+        byte[] input = lengthDelimited(events);
+        byte[] base64Input = base64Lines.toString().getBytes(StandardCharsets.US_ASCII);
+        for (int bufferSize : new int[] {7, 64 * 1024}) {
+            NdjsonExporter.NdjsonExporterBuilder builder =
+                    NdjsonExporter.builder().bufferSize(bufferSize);
+            assertEquals(expected(events, false),
+                    export(builder.maxRecordSize(largest).build(), input));
+            NdjsonExporter tooSmall = builder.maxRecordSize(largest - 1).build();
+            assertThrows(InvalidProtocolBufferException.class, () -> export(tooSmall, input));
+
+            builder.recordFormat(NdjsonExporter.RecordFormat.BASE64_LINES);
+            assertEquals(expected(events, false),
+                    export(builder.maxRecordSize(largest).build(), base64Input));
+            NdjsonExporter tooSmallLines = builder.maxRecordSize(largest - 3).build();
+            assertThrows(InvalidProtocolBufferException.class,
+                    () -> export(tooSmallLines, base64Input));
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> export(NdjsonExporter.builder().maxRecordSize(-1).build(), input));
+    }
+
+    @Test
+    void invalidBase64Test() {
+        NdjsonExporter exporter = NdjsonExporter.builder()
+                .recordFormat(NdjsonExporter.RecordFormat.BASE64_LINES).build();
+        assertThrows(IllegalArgumentException.class,
+                () -> export(exporter, "not base64!\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Timestamp;
+import com.google.type.LatLng;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests that the wire format transcoder output is identical to the JSON string conversion.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ProtoJsonTranscoderTest {
+
+    private static final FirestoreProto2Json CUSTOM = FirestoreProto2Json.builder()
+            .valueMapperTimestamp(new ValueMapperTimestampDefault("yyyy"))
+            .valueMapperGeoPoint(new ValueMapperGeoPoint() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+                    jsonObject.addProperty(key + "_lat", geopoint.getLatitude());
+                    jsonObject.addProperty(key + "_lng", geopoint.getLongitude());
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, LatLng geopoint) {
+                    jsonArray.add(geopoint.getLatitude());
+                    jsonArray.add(geopoint.getLongitude());
+                }
+            }).valueMapperBytes(new ValueMapperBytes() {
+                @Override
+                public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                    jsonObject.addProperty(key, HexFormat.of().formatHex(bytes));
+                }
+
+                @Override
+                public void convert(JsonArray jsonArray, byte[] bytes) {}
+            }).build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void transcodeMatchesJsonString(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    mapper.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            byte[] documentBytes = Base64.getDecoder().decode(protocolBuffer);
+            assertIdentical(FirestoreProto2Json.DEFAULT, documentBytes);
+            assertIdentical(CUSTOM, documentBytes);
+        }
+    }
+
+    @Test
+    void escapingTest() throws Exception {
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            ascii.append(c);
+        }
+
+        Document document = Document.newBuilder().putFields("ascii", string(ascii.toString()))
+                .putFields(ascii.toString(), string("key"))
+                .putFields("unicode", string("caf\u00e9 \u2028 \u2029 \ud83d\ude00 \u4e2d"))
+                .putFields("\ud83d\ude00", string(""))
+                .putFields("numbers", array(
+                        Value.newBuilder().setIntegerValue(Long.MIN_VALUE).build(),
+                        Value.newBuilder().setIntegerValue(Long.MAX_VALUE).build(),
+                        Value.newBuilder().setIntegerValue(0).build(),
+                        Value.newBuilder().setIntegerValue(-7).build(),
+                        Value.newBuilder().setDoubleValue(Double.NaN).build(),
+                        Value.newBuilder().setDoubleValue(Double.NEGATIVE_INFINITY).build(),
+                        Value.newBuilder().setDoubleValue(1e-300).build(),
+                        Value.newBuilder().setDoubleValue(-0.0).build()))
+                .putFields("mixed", array(
+                        Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build(),
+                        Value.newBuilder().setBooleanValue(false).build(),
+                        Value.getDefaultInstance(), array(string("nested")),
+                        Value.newBuilder()
+                                .setTimestampValue(Timestamp.newBuilder().setSeconds(1709000000))
+                                .build(),
+                        Value.newBuilder().setGeoPointValue(LatLng.newBuilder().setLatitude(1.5))
+                                .build(),
+                        bytes(new byte[] {1}), bytes(new byte[] {1, 2}),
+                        bytes(new byte[] {1, 2, 3}), bytes(new byte[0]),
+                        Value.newBuilder().setMapValue(MapValue.getDefaultInstance()).build()))
+                .putFields("unset", Value.getDefaultInstance())
+                .putFields("bytes", bytes(new byte[] {(byte) 0xfb, (byte) 0xff}))
+                .build();
+
+        byte[] documentBytes = DocumentEventData.newBuilder().setValue(document)
+                .setOldValue(Document.getDefaultInstance()).build().toByteArray();
+        assertIdentical(FirestoreProto2Json.DEFAULT, documentBytes);
+        assertIdentical(CUSTOM, documentBytes);
+    }
+
+    @Test
+    void unsetValueTest() throws Exception {
+        byte[] documentBytes = DocumentEventData.getDefaultInstance().toByteArray();
+        assertNull(FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentBytes));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertFalse(FirestoreProto2Json.DEFAULT.oldValueToJson(documentBytes, outputStream));
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test
+    void duplicateKeysTest() throws Exception {
+        // A repeated map key keeps the position of the first entry and the value of the last
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        document.write(field("a", Value.newBuilder().setIntegerValue(1).build()).toByteArray());
+        document.write(field("b", Value.newBuilder().setIntegerValue(2).build()).toByteArray());
+        document.write(field("a", Value.newBuilder().setIntegerValue(3).build()).toByteArray());
+
+        byte[] documentBytes = event(document.toByteArray());
+        assertIdentical(FirestoreProto2Json.DEFAULT, documentBytes);
+        assertEquals("{\"a\":3,\"b\":2}", new String(
+                FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentBytes),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void valueBeforeKeyTest() throws Exception {
+        byte[] value = Value.newBuilder().setStringValue("x").build().toByteArray();
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        entry.write(0x12);
+        entry.write(value.length);
+        entry.write(value);
+        entry.write(new byte[] {0x0a, 0x01, 'k'});
+
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        document.write(0x12);
+        document.write(entry.size());
+        document.write(entry.toByteArray());
+
+        byte[] documentBytes = event(document.toByteArray());
+        assertIdentical(FirestoreProto2Json.DEFAULT, documentBytes);
+    }
+
+    @Test
+    void mergedValueTest() throws Exception {
+        // A repeated map_value within a Value is merged by the parser
+        byte[] map1 = Value.newBuilder()
+                .setMapValue(MapValue.newBuilder().putFields("x", string("1"))).build()
+                .toByteArray();
+        byte[] map2 = Value.newBuilder()
+                .setMapValue(MapValue.newBuilder().putFields("y", string("2"))).build()
+                .toByteArray();
+        byte[] value = new byte[map1.length + map2.length];
+        System.arraycopy(map1, 0, value, 0, map1.length);
+        System.arraycopy(map2, 0, value, map1.length, map2.length);
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        entry.write(new byte[] {0x0a, 0x01, 'm', 0x12});
+        entry.write(value.length);
+        entry.write(value);
+
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        document.write(0x12);
+        document.write(entry.size());
+        document.write(entry.toByteArray());
+
+        byte[] documentBytes = event(document.toByteArray());
+        assertIdentical(FirestoreProto2Json.DEFAULT, documentBytes);
+        assertEquals("{\"m\":{\"x\":\"1\",\"y\":\"2\"}}", new String(
+                FirestoreProto2Json.DEFAULT.valueToJsonBytes(documentBytes),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void invalidTest() throws Exception {
+        // Document with the field "k" set to the string value "a\xc0b"
+        byte[] invalidUtf8 = event(new byte[] {0x12, 0x0b, 0x0a, 0x01, 'k', 0x12, 0x06,
+                (byte) 0x8a, 0x01, 0x03, 'a', (byte) 0xc0, 'b'});
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> DocumentEventData.parseFrom(invalidUtf8));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> FirestoreProto2Json.DEFAULT.valueToJsonBytes(invalidUtf8));
+
+        byte[] documentBytes = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("k", string("value"))).build()
+                .toByteArray();
+        byte[] truncated = new byte[documentBytes.length - 1];
+        System.arraycopy(documentBytes, 0, truncated, 0, truncated.length);
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> FirestoreProto2Json.DEFAULT.valueToJsonBytes(truncated));
+
+        Value value = string("deep");
+        for (int i = 0; i < 40; i++) {
+            value = Value.newBuilder().setMapValue(MapValue.newBuilder().putFields("m", value))
+                    .build();
+        }
+
+        byte[] deep = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("m", value)).build().toByteArray();
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> DocumentEventData.parseFrom(deep));
+        assertThrows(InvalidProtocolBufferException.class,
+                () -> FirestoreProto2Json.DEFAULT.valueToJsonBytes(deep));
+    }
+
+    private static void assertIdentical(FirestoreProto2Json converter, byte[] documentBytes)
+            throws Exception {
+        String value = converter.valueToJsonString(documentBytes);
+        byte[] valueBytes = converter.valueToJsonBytes(documentBytes);
+        if (value == null) {
+            assertNull(valueBytes);
+        } else {
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), valueBytes);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            converter.valueToJson(documentBytes, outputStream);
+            assertArrayEquals(valueBytes, outputStream.toByteArray());
+        }
+
+        String oldValue = converter.oldValueToJsonString(documentBytes);
+        byte[] oldValueBytes = converter.oldValueToJsonBytes(documentBytes);
+        if (oldValue == null) {
+            assertNull(oldValueBytes);
+        } else {
+            assertArrayEquals(oldValue.getBytes(StandardCharsets.UTF_8), oldValueBytes);
+        }
+    }
+
+    private static Value string(String value) {
+        return Value.newBuilder().setStringValue(value).build();
+    }
+
+    private static Value bytes(byte[] value) {
+        return Value.newBuilder().setBytesValue(ByteString.copyFrom(value)).build();
+    }
+
+    private static Value array(Value... values) {
+        ArrayValue.Builder arrayValue = ArrayValue.newBuilder();
+        for (Value value : values) {
+            arrayValue.addValues(value);
+        }
+
+        return Value.newBuilder().setArrayValue(arrayValue).build();
+    }
+
+    private static Document field(String key, Value value) {
+        return Document.newBuilder().putFields(key, value).build();
+    }
+
+    private static byte[] event(byte[] document) {
+        ByteArrayOutputStream event = new ByteArrayOutputStream();
+        event.write(0x0a);
+        int length = document.length;
+        while (length >= 0x80) {
+            event.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+
+        event.write(length);
+        event.writeBytes(document);
+        return event.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests the output with sorted keys and the hashed JSON.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class SortedKeysTest {
+
+    private static final FirestoreProto2Json SORTED =
+            FirestoreProto2Json.builder().sortedKeys(true).build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static JsonElement sort(JsonElement jsonElement) {
+        if (jsonElement.isJsonObject()) {
+            TreeMap<String, JsonElement> members = new TreeMap<>();
+            for (Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
+                members.put(entry.getKey(), sort(entry.getValue()));
+            }
+
+            JsonObject jsonObject = new JsonObject();
+            members.forEach(jsonObject::add);
+            return jsonObject;
+        } else if (jsonElement.isJsonArray()) {
+            JsonArray jsonArray = new JsonArray();
+            for (JsonElement element : jsonElement.getAsJsonArray()) {
+                jsonArray.add(sort(element));
+            }
+
+            return jsonArray;
+        }
+
+        return jsonElement;
+    }
+
+    private static String sha256Hex(String jsonString) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256")
+                .digest(jsonString.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    private static void assertSorted(DocumentEventData documentEventData) throws Exception {
+        String unsorted = FirestoreProto2Json.DEFAULT.valueToJsonString(documentEventData);
+        if (unsorted == null) {
+            assertNull(SORTED.valueToJsonString(documentEventData));
+            assertNull(SORTED.valueToHashedJson(documentEventData));
+            return;
+        }
+
+        // Gson serializes the lenient NaN and Infinity values the same as the conversion
+        String expected = sort(JsonParser.parseString(unsorted)).toString();
+        byte[] documentBytes = documentEventData.toByteArray();
+        assertEquals(expected, SORTED.valueToJsonString(documentEventData));
+        assertEquals(expected,
+                new String(SORTED.valueToJsonBytes(documentBytes), StandardCharsets.UTF_8));
+        assertEquals(expected, SORTED.valueToJsonObject(documentEventData).toString());
+        assertEquals(expected, SORTED.valueToLazyJsonObject(documentEventData).toString());
+
+        HashedJson hashedJson = SORTED.valueToHashedJson(documentEventData);
+        assertEquals(expected, hashedJson.getJsonString());
+        assertEquals(sha256Hex(expected), hashedJson.getSha256Hex());
+        HashedJson transcoded = SORTED.valueToHashedJson(documentBytes);
+        assertEquals(expected, transcoded.getJsonString());
+        assertArrayEquals(hashedJson.getSha256(), transcoded.getSha256());
+    }
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void sortedTest(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    mapper.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            assertSorted(DocumentEventData.parseFrom(Base64.getDecoder().decode(protocolBuffer)));
+        }
+    }
+
+    @Test
+    void fieldOrderTest() throws Exception {
+        List<String> keys = new ArrayList<>(List.of("b", "a", "ab", "Z", "é", "", "😀",
+                "😀x", "", "_", "aa"));
+        Random random = new Random(1);
+        List<String> hashes = new ArrayList<>();
+        List<String> unsorted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Collections.shuffle(keys, random);
+            Document.Builder document = Document.newBuilder();
+            MapValue.Builder map = MapValue.newBuilder();
+            for (String key : keys) {
+                document.putFields(key, Value.newBuilder().setStringValue(key).build());
+                map.putFields(key, Value.newBuilder().setIntegerValue(key.length()).build());
+            }
+
+            document.putFields("map", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                    .addValues(Value.newBuilder().setMapValue(map))).build());
+            DocumentEventData documentEventData =
+                    DocumentEventData.newBuilder().setValue(document).build();
+            assertSorted(documentEventData);
+            hashes.add(SORTED.valueToHashedJson(documentEventData.toByteArray()).getSha256Hex());
+            unsorted.add(FirestoreProto2Json.DEFAULT.valueToJsonString(documentEventData));
+        }
+
+        // The hash does not depend on the order of the fields in the protocol buffer
+        assertEquals(1, hashes.stream().distinct().count());
+        assertNotEquals(1, unsorted.stream().distinct().count());
+    }
+
+    @Test
+    void largeMapTest() throws Exception {
+        Random random = new Random(2);
+        Document.Builder document = Document.newBuilder();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder key = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                key.appendCodePoint(random.nextInt(4) == 0 ? 0x1F600 + random.nextInt(8)
+                        : random.nextBoolean() ? 'a' + random.nextInt(4) : 0xE000 + j);
+            }
+
+            document.putFields(key.toString(), Value.newBuilder().setIntegerValue(i).build());
+        }
+
+        assertSorted(DocumentEventData.newBuilder().setValue(document).build());
+    }
+
+    @Test
+    void unpairedSurrogateTest() throws Exception {
+        // The hash matches the encoding of String.getBytes, which replaces unpaired surrogates
+        DocumentEventData documentEventData = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().putFields("text",
+                        Value.newBuilder().setStringValue("a\uD800b\uDC00\uD83D").build()))
+                .build();
+        HashedJson hashedJson = SORTED.valueToHashedJson(documentEventData);
+        assertEquals(sha256Hex(hashedJson.getJsonString()), hashedJson.getSha256Hex());
+        assertEquals(hashedJson.getJsonString(), hashedJson.toString());
+        assertNull(SORTED.oldValueToHashedJson(documentEventData));
+        assertNull(SORTED.oldValueToHashedJson(documentEventData.toByteArray()));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Base64;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.NullValue;
+import com.google.type.LatLng;
+import com.unitvectory.fileparamunit.ListFileSource;
+
+/**
+ * Tests that the streaming JSON output is identical to serializing the JSON object.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class StreamingJsonTest {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ListFileSource(resources = "/tests/", fileExtension = ".json")
+    void streamingMatchesJsonObject(String fileName) throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(fileName)) {
+            String protocolBuffer =
+                    mapper.readTree(inputStream).get("input").get("protocolBuffer").asText();
+            DocumentEventData documentEventData =
+                    DocumentEventData.parseFrom(Base64.getDecoder().decode(protocolBuffer));
+            assertIdentical(FirestoreProto2Json.DEFAULT, documentEventData);
+        }
+    }
+
+    @Test
+    void specialValuesTest() throws Exception {
+        Document document = Document.newBuilder()
+                .putFields("nan", Value.newBuilder().setDoubleValue(Double.NaN).build())
+                .putFields("infinity",
+                        Value.newBuilder().setDoubleValue(Double.NEGATIVE_INFINITY).build())
+                .putFields("html", Value.newBuilder().setStringValue("<a href='x'>&</a>").build())
+                .putFields("null", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+                .putFields("unset", Value.getDefaultInstance())
+                .putFields("nested", Value.newBuilder()
+                        .setArrayValue(ArrayValue.newBuilder()
+                                .addValues(Value.newBuilder()
+                                        .setArrayValue(ArrayValue.getDefaultInstance()))
+                                .addValues(Value.newBuilder().setIntegerValue(1)))
+                        .build())
+                .build();
+
+        assertIdentical(FirestoreProto2Json.DEFAULT,
+                DocumentEventData.newBuilder().setValue(document).setOldValue(document).build());
+    }
+
+    @Test
+    void customMapperBridgeTest() throws Exception {
+        FirestoreProto2Json converter =
+                FirestoreProto2Json.builder().valueMapperBytes(new ValueMapperBytes() {
+                    @Override
+                    public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                        jsonObject.addProperty(key, HexFormat.of().formatHex(bytes));
+                    }
+
+                    @Override
+                    public void convert(JsonArray jsonArray, byte[] bytes) {
+                        jsonArray.add(HexFormat.of().formatHex(bytes));
+                    }
+                }).build();
+
+        Value bytesValue = Value.newBuilder().setBytesValue(ByteString.copyFromUtf8("abc")).build();
+        Document document = Document.newBuilder().putFields("bytes", bytesValue)
+                .putFields("array",
+                        Value.newBuilder()
+                                .setArrayValue(ArrayValue.newBuilder().addValues(bytesValue))
+                                .build())
+                .build();
+
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document).build();
+        assertIdentical(converter, documentEventData);
+        assertEquals("{\"bytes\":\"616263\",\"array\":[\"616263\"]}",
+                converter.valueToJsonString(documentEventData));
+    }
+
+    @Test
+    void geoPointSubclassTest() throws Exception {
+        // Overriding convert of the default mapper, the extension point before streaming
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperGeoPoint(new ValueMapperGeoPointDefault() {
+                    @Override
+                    public void convert(JsonObject jsonObject, String key, LatLng geopoint) {
+                        jsonObject.addProperty(key,
+                                geopoint.getLatitude() + "," + geopoint.getLongitude());
+                    }
+
+                    @Override
+                    public void convert(JsonArray jsonArray, LatLng geopoint) {
+                        jsonArray.add(geopoint.getLatitude() + "," + geopoint.getLongitude());
+                    }
+                }).build();
+
+        Value geoPointValue = Value.newBuilder()
+                .setGeoPointValue(LatLng.newBuilder().setLatitude(1.5).setLongitude(-2)).build();
+        Document document = Document.newBuilder().putFields("geo", geoPointValue)
+                .putFields("array",
+                        Value.newBuilder()
+                                .setArrayValue(ArrayValue.newBuilder().addValues(geoPointValue))
+                                .build())
+                .build();
+
+        DocumentEventData documentEventData =
+                DocumentEventData.newBuilder().setValue(document).build();
+        assertIdentical(converter, documentEventData);
+        String expected = "{\"geo\":\"1.5,-2.0\",\"array\":[\"1.5,-2.0\"]}";
+        assertEquals(expected, converter.valueToJsonString(documentEventData));
+        assertEquals(expected, converter.valueToJsonString(documentEventData.toByteArray()));
+    }
+
+    @Test
+    void unsetValueTest() throws Exception {
+        StringWriter writer = new StringWriter();
+        assertFalse(FirestoreProto2Json.DEFAULT.valueToJson(DocumentEventData.getDefaultInstance(),
+                writer));
+        assertTrue(writer.toString().isEmpty());
+    }
+
+    private static void assertIdentical(FirestoreProto2Json converter,
+            DocumentEventData documentEventData) throws Exception {
+        JsonObject value = converter.valueToJsonObject(documentEventData);
+        StringWriter valueWriter = new StringWriter();
+        assertEquals(value != null, converter.valueToJson(documentEventData, valueWriter));
+        assertEquals(value == null ? "" : GSON.toJson(value), valueWriter.toString());
+        assertEquals(value == null ? null : GSON.toJson(value),
+                converter.valueToJsonString(documentEventData));
+
+        JsonObject oldValue = converter.oldValueToJsonObject(documentEventData);
+        StringWriter oldValueWriter = new StringWriter();
+        assertEquals(oldValue != null,
+                converter.oldValueToJson(documentEventData, oldValueWriter));
+        assertEquals(oldValue == null ? "" : GSON.toJson(oldValue), oldValueWriter.toString());
+        assertEquals(oldValue == null ? null : GSON.toJson(oldValue),
+                converter.oldValueToJsonString(documentEventData));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests the arithmetic timestamp formatter produces the same output as the DateTimeFormatter.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TimestampFormatTest {
+
+    private static final ZoneOffset[] OFFSETS = {ZoneOffset.UTC, ZoneOffset.ofHours(-5),
+            ZoneOffset.ofHoursMinutes(5, 30), ZoneOffset.ofHours(18), ZoneOffset.ofHours(-18)};
+
+    private static final long[] SECONDS = {0, -1, 1, 59, 60, 86399, 86400, -86400, 951782400L,
+            951868799L, 4107542399L, 4107542400L, -62135596800L, -62135596801L, 253402300799L,
+            253402300800L, 1709251200L, -2208988800L, Long.MIN_VALUE / 1000, 31556889864403199L};
+
+    private static final int[] NANOS = {0, 1, 999, 1000, 999999, 1000000, 123456789, 999999999};
+
+    private static void assertFormat(String pattern, ZoneOffset offset, long seconds, int nanos) {
+        TimestampFormat timestampFormat = TimestampFormat.of(pattern, offset);
+        assertNotNull(timestampFormat, pattern);
+        byte[] buffer = new byte[TimestampFormat.MAX_LENGTH];
+        int length = timestampFormat.format(seconds, nanos, buffer);
+        if (length < 0) {
+            // Outside of the supported range the DateTimeFormatter is used
+            long local = seconds + offset.getTotalSeconds();
+            assertTrue(local < -62135596800L || local > 253402300799L);
+            return;
+        }
+
+        String expected = DateTimeFormatter.ofPattern(pattern).withZone(offset)
+                .format(Instant.ofEpochSecond(seconds, nanos));
+        assertEquals(expected, new String(buffer, 0, length, StandardCharsets.US_ASCII),
+                pattern + " " + offset + " " + seconds + " " + nanos);
+        assertEquals(expected, new ValueMapperTimestampDefault(pattern, offset)
+                .formatTimestamp(seconds, nanos));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", "yyyy-MM-dd'T'HH:mm:ss'Z'",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'", "yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS'Z'",
+            "yyyy-MM-dd'T'HH:mm:ss.S'Z'", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss.SSS"})
+    void supportedPatternTest(String pattern) {
+        for (ZoneOffset offset : OFFSETS) {
+            for (long seconds : SECONDS) {
+                for (int nanos : NANOS) {
+                    assertFormat(pattern, offset, seconds, nanos);
+                }
+            }
+
+            Random random = new Random(pattern.hashCode());
+            for (int i = 0; i < 10000; i++) {
+                long seconds = -62135596800L
+                        + (long) (random.nextDouble() * (253402300799L + 62135596800L));
+                assertFormat(pattern, offset, seconds, random.nextInt(1000000000));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"yyyy", "yyyy-MM-dd", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd'T'HH:mm:ssXXX",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSSS'Z'", "uuuu-MM-dd'T'HH:mm:ss'Z'",
+            "yyyy-MM-dd'T'HH:mm:ss.'Z'", "yyyy-MM-dd'T'HH:mm:ss'Z' "})
+    void unsupportedPatternTest(String pattern) {
+        assertNull(TimestampFormat.of(pattern, ZoneOffset.UTC));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 1000000000, Integer.MIN_VALUE, Integer.MAX_VALUE})
+    void invalidNanosTest(int nanos) {
+        // Nanos outside of the range are normalized by the DateTimeFormatter path
+        ValueMapperTimestampDefault mapper = new ValueMapperTimestampDefault();
+        assertEquals(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+                .withZone(ZoneOffset.UTC).format(Instant.ofEpochSecond(1709251200L, nanos)),
+                mapper.formatTimestamp(1709251200L, nanos));
+    }
+}
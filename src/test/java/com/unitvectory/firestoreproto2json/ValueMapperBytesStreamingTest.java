@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.ByteString;
+
+/**
+ * Tests the bytes are encoded as base64 without copying and the maximum length of the default
+ * bytes mapper.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ValueMapperBytesStreamingTest {
+
+    private static ByteString bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+    private static DocumentEventData member(ByteString bytes) {
+        return DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .putFields("bytes", Value.newBuilder().setBytesValue(bytes).build())).build();
+    }
+
+    private static DocumentEventData element(ByteString bytes) {
+        return DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .putFields("array", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                        .addValues(Value.newBuilder().setBytesValue(bytes))).build()))
+                .build();
+    }
+
+    private static String base64(ByteString bytes) {
+        // Gson escapes the padding as an HTML character
+        return Base64.getEncoder().encodeToString(bytes.toByteArray()).replace("=", "\\u003d");
+    }
+
+    private static void assertOutput(FirestoreProto2Json converter, DocumentEventData event,
+            String expected) throws Exception {
+        assertEquals(expected, converter.valueToJsonString(event));
+        assertEquals(expected, new Gson().toJson(converter.valueToJsonObject(event)));
+        assertEquals(expected, new String(converter.valueToJsonBytes(event.toByteArray()),
+                StandardCharsets.UTF_8));
+
+        // A JSON Writer not created by the library receives the encoded string
+        StringWriter stringWriter = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(stringWriter);
+        jsonWriter.setHtmlSafe(true);
+        converter.valueToJson(event, jsonWriter);
+        jsonWriter.flush();
+        assertEquals(expected, stringWriter.toString());
+    }
+
+    private static void assertOutput(FirestoreProto2Json converter, ByteString bytes,
+            String value) throws Exception {
+        assertOutput(converter, member(bytes), "{\"bytes\":" + value + "}");
+        assertOutput(converter, element(bytes), "{\"array\":[" + value + "]}");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 4, 5, 3071, 3072, 3073, 3074, 1024 * 1024})
+    void streamingTest(int length) throws Exception {
+        ByteString bytes = bytes(length);
+        assertOutput(FirestoreProto2Json.DEFAULT, bytes,
+                "{\"_byteString\":\"" + base64(bytes) + "\"}");
+    }
+
+    @Test
+    void truncateTest() throws Exception {
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperBytes(new ValueMapperBytesDefault(10, true)).build();
+        ByteString bytes = bytes(100);
+        assertOutput(converter, bytes, "{\"_byteString\":\"" + base64(bytes.substring(0, 10))
+                + "\",\"_truncated\":true,\"_length\":100}");
+
+        // A value within the maximum length is written in full
+        ByteString small = bytes(10);
+        assertOutput(converter, small, "{\"_byteString\":\"" + base64(small) + "\"}");
+    }
+
+    @Test
+    void omitTest() throws Exception {
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperBytes(new ValueMapperBytesDefault(99, false)).build();
+        assertOutput(converter, bytes(100), "{\"_omitted\":true,\"_length\":100}");
+    }
+
+    @Test
+    void binaryTest() {
+        // The limited mapper writes its attributes instead of the raw bytes
+        FirestoreProto2Json converter = FirestoreProto2Json.builder()
+                .valueMapperBytes(new ValueMapperBytesDefault(10, false)).build();
+        DocumentEventData expected = DocumentEventData.newBuilder().setValue(Document
+                .newBuilder().putFields("bytes", Value.newBuilder().setMapValue(MapValue
+                        .newBuilder()
+                        .putFields("_omitted", Value.newBuilder().setBooleanValue(true).build())
+                        .putFields("_length", Value.newBuilder().setIntegerValue(100).build()))
+                        .build()))
+                .build();
+        assertArrayEquals(FirestoreProto2Json.DEFAULT.valueToBinary(expected, BinaryFormat.CBOR),
+                converter.valueToBinary(member(bytes(100)), BinaryFormat.CBOR));
+    }
+
+    @Test
+    void legacyMapperTest() throws Exception {
+        // A mapper implementing only the byte array methods receives a copy of the bytes
+        ValueMapperBytes mapper = new ValueMapperBytes() {
+            @Override
+            public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                jsonObject.addProperty(key, bytes.length);
+            }
+
+            @Override
+            public void convert(JsonArray jsonArray, byte[] bytes) {
+                jsonArray.add(bytes.length);
+            }
+        };
+
+        FirestoreProto2Json converter =
+                FirestoreProto2Json.builder().valueMapperBytes(mapper).build();
+        assertOutput(converter, bytes(42), "42");
+    }
+
+    @Test
+    void defaultSubclassTest() throws Exception {
+        // A subclass of the default mapper customizing the byte array methods is used
+        ValueMapperBytes mapper = new ValueMapperBytesDefault() {
+            @Override
+            public void convert(JsonObject jsonObject, String key, byte[] bytes) {
+                jsonObject.addProperty(key, bytes.length);
+            }
+
+            @Override
+            public void convert(JsonArray jsonArray, byte[] bytes) {
+                jsonArray.add(bytes.length);
+            }
+        };
+
+        FirestoreProto2Json converter =
+                FirestoreProto2Json.builder().valueMapperBytes(mapper).build();
+        assertOutput(converter, bytes(42), "42");
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class, () -> new ValueMapperBytesDefault(-1, true));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Gson;
+import com.google.type.LatLng;
+
+/**
+ * Tests the built-in GeoPoint mappers.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ValueMapperGeoPointTest {
+
+    private static final LatLng GEO_POINT =
+            LatLng.newBuilder().setLatitude(40.7128).setLongitude(-74.006).build();
+
+    private static final DocumentEventData EVENT = DocumentEventData.newBuilder()
+            .setValue(Document.newBuilder()
+                    .putFields("location", Value.newBuilder().setGeoPointValue(GEO_POINT).build())
+                    .putFields("route", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                            .addValues(Value.newBuilder().setGeoPointValue(GEO_POINT))
+                            .addValues(Value.newBuilder().setGeoPointValue(LatLng.newBuilder()
+                                    .setLatitude(-33.8688).setLongitude(151.2093))))
+                            .build()))
+            .build();
+
+    private static String convert(ValueMapperGeoPoint valueMapperGeoPoint) throws Exception {
+        FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.builder()
+                .valueMapperGeoPoint(valueMapperGeoPoint).sortedKeys(true).build();
+        String json = firestoreProto2Json.valueToJsonString(EVENT);
+        assertEquals(json, new Gson().toJson(firestoreProto2Json.valueToJsonObject(EVENT)));
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8),
+                firestoreProto2Json.valueToJsonBytes(EVENT.toByteArray()));
+        StringWriter writer = new StringWriter();
+        firestoreProto2Json.valueToJson(EVENT, writer);
+        assertEquals(json, writer.toString());
+        return json;
+    }
+
+    @Test
+    void arrayTest() throws Exception {
+        assertEquals("{\"location\":[-74.006,40.7128],"
+                + "\"route\":[[-74.006,40.7128],[151.2093,-33.8688]]}",
+                convert(new ValueMapperGeoPointArray()));
+    }
+
+    @Test
+    void geoJsonTest() throws Exception {
+        assertEquals("{\"location\":{\"type\":\"Point\",\"coordinates\":[-74.006,40.7128]},"
+                + "\"route\":[{\"type\":\"Point\",\"coordinates\":[-74.006,40.7128]},"
+                + "{\"type\":\"Point\",\"coordinates\":[151.2093,-33.8688]}]}",
+                convert(new ValueMapperGeoPointGeoJson()));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.firestoreproto2json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.gson.Gson;
+import com.google.protobuf.Timestamp;
+
+/**
+ * Tests the timestamp mapper writing the time since the epoch as a number.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ValueMapperTimestampEpochTest {
+
+    private static final TimeUnit[] UNITS = {TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+            TimeUnit.MICROSECONDS, TimeUnit.NANOSECONDS};
+
+    private static final long[] SECONDS = {0, -1, 1, 59, -86400, 1709251200L, -62135596800L,
+            253402300799L, 9223372036L, -9223372037L, Long.MAX_VALUE / 1000, Long.MAX_VALUE,
+            Long.MIN_VALUE};
+
+    private static final int[] NANOS = {0, 1, 999, 1000, 123456789, 500000000, 999999999, -1,
+            1000000000};
+
+    private static String expected(long seconds, int nanos, TimeUnit unit, boolean exact) {
+        BigDecimal value = new BigDecimal(seconds).add(BigDecimal.valueOf(nanos, 9))
+                .multiply(BigDecimal.valueOf(unit.convert(1, TimeUnit.SECONDS)));
+        if (!exact) {
+            value = value.setScale(0, RoundingMode.FLOOR);
+        }
+
+        return value.stripTrailingZeros().toPlainString();
+    }
+
+    private static void assertNumber(long seconds, int nanos, TimeUnit unit, boolean exact) {
+        ValueMapperTimestampEpoch mapper = new ValueMapperTimestampEpoch(unit, exact);
+        String expected = expected(seconds, nanos, unit, exact);
+        String message = unit + " " + exact + " " + seconds + " " + nanos;
+        byte[] buffer = new byte[ValueMapperTimestampEpoch.MAX_LENGTH];
+        int length = mapper.format(seconds, nanos, buffer);
+        assertEquals(expected, new String(buffer, 0, length, StandardCharsets.US_ASCII), message);
+        if (mapper.isLong(seconds, nanos)) {
+            assertEquals(expected, Long.toString(mapper.toLong(seconds, nanos)), message);
+        }
+
+        Timestamp timestamp = Timestamp.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+        Document document = Document.newBuilder()
+                .putFields("t", Value.newBuilder().setTimestampValue(timestamp).build())
+                .putFields("a", Value.newBuilder().setArrayValue(ArrayValue.newBuilder()
+                        .addValues(Value.newBuilder().setTimestampValue(timestamp))).build())
+                .build();
+        assertEquals("{\"a\":[" + expected + "],\"t\":" + expected + "}",
+                convert(FirestoreProto2Json.builder().valueMapperTimestamp(mapper).sortedKeys(true)
+                        .build(), document),
+                message);
+    }
+
+    private static String convert(FirestoreProto2Json firestoreProto2Json, Document document) {
+        DocumentEventData event = DocumentEventData.newBuilder().setValue(document).build();
+        String json = firestoreProto2Json.valueToJsonString(event);
+
+        // The transcoder and the JSON Object write the same number
+        try {
+            assertArrayEquals(json.getBytes(StandardCharsets.UTF_8),
+                    firestoreProto2Json.valueToJsonBytes(event.toByteArray()));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+
+        assertEquals(json, new Gson().toJson(firestoreProto2Json.valueToJsonObject(event)));
+        return json;
+    }
+
+    @Test
+    void numberTest() {
+        for (TimeUnit unit : UNITS) {
+            for (boolean exact : new boolean[] {false, true}) {
+                for (long seconds : SECONDS) {
+                    for (int nanos : NANOS) {
+                        // Normalizing the nanos of the extreme seconds overflows the seconds
+                        if (seconds != Long.MAX_VALUE && seconds != Long.MIN_VALUE || nanos == 0) {
+                            assertNumber(seconds, nanos, unit, exact);
+                        }
+                    }
+                }
+
+                Random random = new Random(unit.hashCode());
+                for (int i = 0; i < 1000; i++) {
+                    long seconds = -62135596800L
+                            + (long) (random.nextDouble() * (253402300799L + 62135596800L));
+                    assertNumber(seconds, random.nextInt(1000000000), unit, exact);
+                }
+            }
+        }
+    }
+
+    @Test
+    void defaultTest() {
+        ValueMapperTimestampEpoch mapper = new ValueMapperTimestampEpoch();
+        assertEquals(TimeUnit.MILLISECONDS, mapper.getUnit());
+        Instant instant = Instant.ofEpochSecond(-1709251200L, 987654321);
+        assertEquals(instant.toEpochMilli(),
+                mapper.toLong(instant.getEpochSecond(), instant.getNano()));
+    }
+
+    @Test
+    void fieldMapperTest() {
+        Timestamp timestamp = Timestamp.newBuilder().setSeconds(1709251200L).setNanos(123456789)
+                .build();
+        Document document = Document.newBuilder()
+                .putFields("createdAt", Value.newBuilder().setTimestampValue(timestamp).build())
+                .putFields("updatedAt", Value.newBuilder().setTimestampValue(timestamp).build())
+                .build();
+        FirestoreProto2Json firestoreProto2Json = FirestoreProto2Json.builder()
+                .fieldMappers(FieldMappers.builder()
+                        .path("createdAt",
+                                new ValueMapperTimestampEpoch(TimeUnit.MICROSECONDS, true))
+                        .build())
+                .sortedKeys(true).build();
+        assertEquals("{\"createdAt\":1709251200123456.789,"
+                + "\"updatedAt\":\"2024-03-01T00:00:00.123Z\"}",
+                convert(firestoreProto2Json, document));
+    }
+
+    @Test
+    void unsupportedUnitTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ValueMapperTimestampEpoch(TimeUnit.MINUTES));
+    }
+}